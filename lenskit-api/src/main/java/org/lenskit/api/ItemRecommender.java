@@ -25,7 +25,10 @@
 package org.lenskit.api;
 
 import javax.annotation.Nullable;
+import java.util.Collection;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Map;
 import java.util.Set;
 
 /**
@@ -123,4 +126,41 @@ public interface ItemRecommender {
      */
     ResultList recommendWithDetails(long user, int n, @Nullable Set<Long> candidates,
                                     @Nullable Set<Long> exclude);
+
+    /**
+     * Recommend up to `n` items for each of several users, using their default exclude sets.  This is equivalent
+     * to calling {@link #recommend(long, int)} for each user, but implementations may share work between users,
+     * so it is the preferred way to produce recommendations in bulk.  Like the other recommendation methods, it runs
+     * on the calling thread; to spread a batch across threads, give each thread its own recommender.
+     *
+     * @param users The user IDs.
+     * @param n     The number of recommendations to return for each user. Negative values request as many
+     *              recommendations as possible.
+     * @return A map from each user ID to the user's recommendations, in the iteration order of `users`.
+     */
+    default Map<Long, List<Long>> recommendBatch(Collection<Long> users, int n) {
+        Map<Long, List<Long>> results = new LinkedHashMap<>();
+        for (Long user: users) {
+            results.put(user, recommend(user, n));
+        }
+        return results;
+    }
+
+    /**
+     * Recommend up to `n` items for each of several users with additional details.  This is equivalent to
+     * calling {@link #recommendWithDetails(long, int, Set, Set)} for each user with default candidate and
+     * exclude sets, with the same freedom as {@link #recommendBatch(Collection, int)}.
+     *
+     * @param users The user IDs.
+     * @param n     The number of recommendations to return for each user. Negative values request as many
+     *              recommendations as possible.
+     * @return A map from each user ID to the user's recommendations, in the iteration order of `users`.
+     */
+    default Map<Long, ResultList> recommendBatchWithDetails(Collection<Long> users, int n) {
+        Map<Long, ResultList> results = new LinkedHashMap<>();
+        for (Long user: users) {
+            results.put(user, recommendWithDetails(user, n, null, null));
+        }
+        return results;
+    }
 }
@@ -33,6 +33,7 @@ import net.sourceforge.argparse4j.inf.ArgumentParser;
 import net.sourceforge.argparse4j.inf.Namespace;
 import org.lenskit.LenskitRecommender;
 import org.lenskit.LenskitRecommenderEngine;
+import org.lenskit.ParallelBatchRecommender;
 import org.lenskit.api.ItemRecommender;
 import org.lenskit.api.Result;
 import org.lenskit.api.ResultList;
@@ -51,6 +52,7 @@ import org.slf4j.LoggerFactory;
 import java.io.Closeable;
 import java.io.IOException;
 import java.util.List;
+import java.util.Map;
 
 /**
  * Generate Top-N recommendations for users.
@@ -61,6 +63,10 @@ import java.util.List;
 @AutoService(Command.class)
 public class Recommend implements Command {
     private final Logger logger = LoggerFactory.getLogger(Recommend.class);
+    /**
+     * The number of users to recommend for before writing their output.
+     */
+    private static final int CHUNK_SIZE = 1024;
 
     @Override
     public String getName() {
@@ -84,8 +90,10 @@ public class Recommend implements Command {
 
         List<Long> users = ctx.options.get("users");
         final int n = ctx.options.getInt("num_recs");
+        final int nthreads = ctx.options.getInt("threads");
+        DataAccessObject inputDAO = ctx.input.getDAO();
 
-        try (LenskitRecommender rec = engine.createRecommender(ctx.input.getDAO())) {
+        try (LenskitRecommender rec = engine.createRecommender(inputDAO)) {
             ItemRecommender irec = rec.getItemRecommender();
             DataAccessObject dao = rec.getDataAccessObject();
 
@@ -97,9 +105,19 @@ public class Recommend implements Command {
             logger.info("recommending for {} users", users.size());
             Stopwatch timer = Stopwatch.createStarted();
             try (RecOutput output = openOutput(ctx, dao)) {
-                for (long user : users) {
-                    ResultList recs = irec.recommendWithDetails(user, n, null, null);
-                    output.writeUser(user, recs);
+                // recommend in chunks so output streams instead of waiting for every user
+                for (int start = 0; start < users.size(); start += CHUNK_SIZE) {
+                    List<Long> chunk = users.subList(start, Math.min(users.size(), start + CHUNK_SIZE));
+                    Map<Long, ResultList> recs;
+                    if (nthreads > 1) {
+                        recs = ParallelBatchRecommender.recommendWithDetails(() -> engine.createRecommender(inputDAO),
+                                                                            chunk, n, nthreads);
+                    } else {
+                        recs = irec.recommendBatchWithDetails(chunk, n);
+                    }
+                    for (Map.Entry<Long, ResultList> e : recs.entrySet()) {
+                        output.writeUser(e.getKey(), e.getValue());
+                    }
                 }
             }
             timer.stop();
@@ -130,6 +148,11 @@ public class Recommend implements Command {
               .setDefault(10)
               .metavar("N")
               .help("generate up to N recommendations per user");
+        parser.addArgument("--threads")
+              .type(Integer.class)
+              .setDefault(1)
+              .metavar("N")
+              .help("recommend with N threads, each with its own recommender");
         parser.addArgument("users")
               .type(Long.class)
               .nargs("+")
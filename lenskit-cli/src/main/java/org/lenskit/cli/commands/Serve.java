@@ -0,0 +1,148 @@
+/*
+ * LensKit, an open-source toolkit for recommender systems.
+ * Copyright 2014-2017 LensKit contributors (see CONTRIBUTORS.md)
+ * Copyright 2010-2014 Regents of the University of Minnesota
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining
+ * a copy of this software and associated documentation files (the
+ * "Software"), to deal in the Software without restriction, including
+ * without limitation the rights to use, copy, modify, merge, publish,
+ * distribute, sublicense, and/or sell copies of the Software, and to
+ * permit persons to whom the Software is furnished to do so, subject to
+ * the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be
+ * included in all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+ * EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF
+ * MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT.
+ * IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY
+ * CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT,
+ * TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION WITH THE
+ * SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ */
+package org.lenskit.cli.commands;
+
+import com.google.auto.service.AutoService;
+import net.sourceforge.argparse4j.inf.ArgumentParser;
+import net.sourceforge.argparse4j.inf.Namespace;
+import org.lenskit.LenskitRecommenderEngine;
+import org.lenskit.cli.Command;
+import org.lenskit.cli.LenskitCommandException;
+import org.lenskit.cli.server.RecommendationServer;
+import org.lenskit.cli.util.InputData;
+import org.lenskit.cli.util.RecommenderLoader;
+import org.lenskit.cli.util.ScriptEnvironment;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.util.concurrent.CountDownLatch;
+
+/**
+ * Serve recommendations over HTTP.
+ *
+ * @see RecommendationServer
+ */
+@AutoService(Command.class)
+public class Serve implements Command {
+    private final Logger logger = LoggerFactory.getLogger(Serve.class);
+
+    @Override
+    public String getName() {
+        return "serve";
+    }
+
+    @Override
+    public String getHelp() {
+        return "serve recommendations over HTTP";
+    }
+
+    @Override
+    public void execute(Namespace opts) throws LenskitCommandException {
+        Context ctx = new Context(opts);
+        LenskitRecommenderEngine engine;
+        try {
+            engine = ctx.loader.loadEngine();
+        } catch (IOException e) {
+            throw new LenskitCommandException("could not load engine", e);
+        }
+
+        InetSocketAddress address = new InetSocketAddress(opts.getString("bind"), opts.getInt("port"));
+        RecommendationServer server;
+        try {
+            server = new RecommendationServer(engine, ctx.input.getDAO(), address,
+                                              opts.getInt("threads"), opts.getInt("queue_size"),
+                                              opts.getInt("batch_size"), opts.getLong("batch_wait"));
+        } catch (IOException e) {
+            throw new LenskitCommandException("could not start server on " + address, e);
+        }
+
+        CountDownLatch stopped = new CountDownLatch(1);
+        Runtime.getRuntime().addShutdownHook(new Thread(() -> {
+            server.close();
+            stopped.countDown();
+        }));
+        server.start();
+        logger.info("serving recommendations on {}", server.getAddress());
+
+        try {
+            stopped.await();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            server.close();
+        }
+    }
+
+    public void configureArguments(ArgumentParser parser) {
+        parser.description("Serves recommendations over HTTP.");
+        InputData.configureArguments(parser);
+        ScriptEnvironment.configureArguments(parser);
+        RecommenderLoader.configureArguments(parser);
+        parser.addArgument("-p", "--port")
+              .type(Integer.class)
+              .setDefault(8080)
+              .metavar("PORT")
+              .help("listen on PORT");
+        parser.addArgument("--bind")
+              .setDefault("127.0.0.1")
+              .metavar("ADDR")
+              .help("listen on address ADDR");
+        parser.addArgument("--threads")
+              .type(Integer.class)
+              .setDefault(Runtime.getRuntime().availableProcessors())
+              .metavar("N")
+              .help("answer requests with N worker threads");
+        parser.addArgument("--queue-size")
+              .type(Integer.class)
+              .setDefault(64)
+              .metavar("N")
+              .help("allow up to N requests to wait for a worker");
+        parser.addArgument("--batch-size")
+              .type(Integer.class)
+              .setDefault(1)
+              .metavar("N")
+              .help("batch up to N concurrent recommendation requests (default 1, no batching)");
+        parser.addArgument("--batch-wait")
+              .type(Long.class)
+              .setDefault(2L)
+              .metavar("MS")
+              .help("wait up to MS milliseconds for a recommendation batch to fill");
+    }
+
+    private static class Context {
+        private final Namespace options;
+        private final InputData input;
+        private final ScriptEnvironment environment;
+        private final RecommenderLoader loader;
+
+        Context(Namespace opts) {
+            options = opts;
+            environment = new ScriptEnvironment(opts);
+            input = new InputData(environment, opts);
+            loader = new RecommenderLoader(input, environment, opts);
+        }
+    }
+}
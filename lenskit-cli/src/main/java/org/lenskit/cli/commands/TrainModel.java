@@ -26,6 +26,7 @@ package org.lenskit.cli.commands;
 
 import com.google.auto.service.AutoService;
 import com.google.common.base.Stopwatch;
+import net.sourceforge.argparse4j.impl.Arguments;
 import net.sourceforge.argparse4j.inf.ArgumentParser;
 import net.sourceforge.argparse4j.inf.Namespace;
 import org.lenskit.util.io.CompressionMode;
@@ -37,6 +38,7 @@ import org.lenskit.cli.Command;
 import org.lenskit.cli.LenskitCommandException;
 import org.lenskit.cli.util.InputData;
 import org.lenskit.cli.util.ScriptEnvironment;
+import org.lenskit.inject.BuildProfile;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
@@ -76,12 +78,33 @@ public class TrainModel implements Command {
             throw new LenskitCommandException("error loading LensKit configuration", e);
         }
         builder.addConfiguration(dataConfig, ModelDisposition.EXCLUDED);
+        File profileFile = ctx.getProfileFile();
+        builder.setProfiling(profileFile != null);
 
         Stopwatch timer = Stopwatch.createStarted();
         LenskitRecommenderEngine engine = builder.build(ctx.input.getDAO());
         timer.stop();
         logger.info("built model in {}", timer);
+        BuildProfile profile = engine.getBuildProfile();
+        if (profileFile != null && profile != null) {
+            logger.info("component build profile:\n{}", profile.formatTable());
+            logger.info("writing build profile to {}", profileFile);
+            try (OutputStream out = new FileOutputStream(profileFile)) {
+                profile.writeJSON(out);
+            } catch (IOException e) {
+                throw new LenskitCommandException("could not write profile file", e);
+            }
+        }
         File output = ctx.getOutputFile();
+        if (ctx.writeArchive()) {
+            logger.info("writing model archive to {}", output);
+            try {
+                engine.writeArchive(output);
+            } catch (IOException e) {
+                throw new LenskitCommandException("could not write output file", e);
+            }
+            return;
+        }
         CompressionMode comp = CompressionMode.autodetect(output);
 
         logger.info("writing model to {}", output);
@@ -102,6 +125,13 @@ public class TrainModel implements Command {
               .metavar("FILE")
               .setDefault("model.bin")
               .help("write trained model to FILE");
+        parser.addArgument("--archive")
+              .action(Arguments.storeTrue())
+              .help("write the model as a component archive for parallel and lazy loading");
+        parser.addArgument("--profile")
+              .type(File.class)
+              .metavar("FILE")
+              .help("profile component builds and write the profile to FILE as JSON");
         parser.addArgument("config")
               .type(File.class)
               .nargs("+")
@@ -127,5 +157,13 @@ public class TrainModel implements Command {
         File getOutputFile() {
             return options.get("output_file");
         }
+
+        boolean writeArchive() {
+            return options.getBoolean("archive");
+        }
+
+        File getProfileFile() {
+            return options.get("profile");
+        }
     }
 }
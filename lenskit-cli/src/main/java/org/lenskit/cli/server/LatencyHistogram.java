@@ -0,0 +1,148 @@
+/*
+ * LensKit, an open-source toolkit for recommender systems.
+ * Copyright 2014-2017 LensKit contributors (see CONTRIBUTORS.md)
+ * Copyright 2010-2014 Regents of the University of Minnesota
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining
+ * a copy of this software and associated documentation files (the
+ * "Software"), to deal in the Software without restriction, including
+ * without limitation the rights to use, copy, modify, merge, publish,
+ * distribute, sublicense, and/or sell copies of the Software, and to
+ * permit persons to whom the Software is furnished to do so, subject to
+ * the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be
+ * included in all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+ * EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF
+ * MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT.
+ * IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY
+ * CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT,
+ * TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION WITH THE
+ * SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ */
+package org.lenskit.cli.server;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Concurrent histogram of request latencies.  Latencies are counted in logarithmic buckets with four buckets per
+ * power of two, so reported percentiles are upper bounds within 25% of the true value.
+ */
+public class LatencyHistogram {
+    private static final int SUB_BITS = 2;
+    private static final int SUB_COUNT = 1 << SUB_BITS;
+    private static final int BUCKET_COUNT = 64 * SUB_COUNT;
+
+    private final AtomicLongArray counts = new AtomicLongArray(BUCKET_COUNT);
+    private final LongAdder count = new LongAdder();
+    private final LongAdder errors = new LongAdder();
+    private final LongAdder totalNanos = new LongAdder();
+    private final AtomicLong maxNanos = new AtomicLong();
+
+    /**
+     * Record a request.
+     * @param nanos The request's latency in nanoseconds.
+     * @param failed Whether the request failed.
+     */
+    public void record(long nanos, boolean failed) {
+        long ns = Math.max(nanos, 0);
+        counts.incrementAndGet(bucket(ns));
+        count.increment();
+        if (failed) {
+            errors.increment();
+        }
+        totalNanos.add(ns);
+        maxNanos.accumulateAndGet(ns, Math::max);
+    }
+
+    /**
+     * Get the number of recorded requests.
+     * @return The request count.
+     */
+    public long getCount() {
+        return count.sum();
+    }
+
+    /**
+     * Get the number of failed requests.
+     * @return The number of recorded requests that failed.
+     */
+    public long getErrorCount() {
+        return errors.sum();
+    }
+
+    /**
+     * Get the mean latency.
+     * @return The mean latency in nanoseconds, or 0 if no requests have been recorded.
+     */
+    public double getMeanNanos() {
+        long n = count.sum();
+        return n > 0 ? totalNanos.sum() / (double) n : 0;
+    }
+
+    /**
+     * Get the maximum latency.
+     * @return The largest recorded latency in nanoseconds.
+     */
+    public long getMaxNanos() {
+        return maxNanos.get();
+    }
+
+    /**
+     * Get a latency percentile.
+     * @param p The percentile, in the range (0,1].
+     * @return An upper bound on the `p` percentile of latency in nanoseconds, or 0 if no requests have been
+     * recorded.
+     */
+    public long getPercentileNanos(double p) {
+        if (p <= 0 || p > 1) {
+            throw new IllegalArgumentException("percentile out of range");
+        }
+        long total = 0;
+        long[] snapshot = new long[BUCKET_COUNT];
+        for (int i = 0; i < BUCKET_COUNT; i++) {
+            snapshot[i] = counts.get(i);
+            total += snapshot[i];
+        }
+        long rank = (long) Math.ceil(p * total);
+        long seen = 0;
+        for (int i = 0; i < BUCKET_COUNT; i++) {
+            seen += snapshot[i];
+            if (seen >= rank && seen > 0) {
+                return Math.min(bucketMax(i), getMaxNanos());
+            }
+        }
+        return 0;
+    }
+
+    /**
+     * Get the bucket for a value.
+     */
+    static int bucket(long value) {
+        if (value < SUB_COUNT) {
+            return (int) value;
+        }
+        int exp = 63 - Long.numberOfLeadingZeros(value);
+        int mantissa = (int) (value >>> (exp - SUB_BITS));
+        return (exp - SUB_BITS + 1) * SUB_COUNT + mantissa - SUB_COUNT;
+    }
+
+    /**
+     * Get the largest value in a bucket.
+     */
+    static long bucketMax(int bucket) {
+        if (bucket < SUB_COUNT) {
+            return bucket;
+        }
+        int exp = bucket / SUB_COUNT + SUB_BITS - 1;
+        long mantissa = bucket % SUB_COUNT + SUB_COUNT;
+        if (exp >= 62 && mantissa == 2 * SUB_COUNT - 1) {
+            return Long.MAX_VALUE;
+        }
+        return ((mantissa + 1) << (exp - SUB_BITS)) - 1;
+    }
+}
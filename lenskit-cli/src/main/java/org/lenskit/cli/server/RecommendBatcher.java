@@ -0,0 +1,181 @@
+/*
+ * LensKit, an open-source toolkit for recommender systems.
+ * Copyright 2014-2017 LensKit contributors (see CONTRIBUTORS.md)
+ * Copyright 2010-2014 Regents of the University of Minnesota
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining
+ * a copy of this software and associated documentation files (the
+ * "Software"), to deal in the Software without restriction, including
+ * without limitation the rights to use, copy, modify, merge, publish,
+ * distribute, sublicense, and/or sell copies of the Software, and to
+ * permit persons to whom the Software is furnished to do so, subject to
+ * the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be
+ * included in all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+ * EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF
+ * MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT.
+ * IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY
+ * CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT,
+ * TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION WITH THE
+ * SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ */
+package org.lenskit.cli.server;
+
+import org.lenskit.api.ItemRecommender;
+import org.lenskit.api.ResultList;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.locks.Lock;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.function.Supplier;
+
+/**
+ * Collects concurrent single-user recommendation requests into batches.  The batcher has no thread of its own:
+ * one of the requesting threads becomes the batch's leader, waits at most the configured time for other
+ * requests to join, and answers the whole batch with one call to
+ * {@link ItemRecommender#recommendBatchWithDetails(Collection, int)} on its own recommender.  The other threads
+ * wait for their results, or lead the next batch if theirs was left out of a full one.
+ */
+class RecommendBatcher {
+    private static final Logger logger = LoggerFactory.getLogger(RecommendBatcher.class);
+    private static final long MIN_POLL_NANOS = TimeUnit.MILLISECONDS.toNanos(1);
+
+    private final int maxBatchSize;
+    private final long maxWaitNanos;
+    private final BlockingQueue<Request> queue = new LinkedBlockingQueue<>();
+    private final Lock leader = new ReentrantLock();
+
+    /**
+     * Create a batcher.
+     * @param size The maximum batch size.
+     * @param waitMillis The longest time, in milliseconds, a request waits for its batch to fill.
+     */
+    RecommendBatcher(int size, long waitMillis) {
+        maxBatchSize = size;
+        maxWaitNanos = TimeUnit.MILLISECONDS.toNanos(waitMillis);
+    }
+
+    /**
+     * Recommend for a user, batching the request with concurrent ones.
+     * @param user The user to recommend for.
+     * @param n The number of recommendations.
+     * @param recommender Supplier of the calling thread's item recommender, used if this thread leads a batch.
+     * @return The user's recommendations.
+     * @throws InterruptedException if the thread is interrupted while waiting.
+     */
+    ResultList recommend(long user, int n, Supplier<ItemRecommender> recommender) throws InterruptedException {
+        Request req = new Request(user, n);
+        queue.add(req);
+        try {
+            while (!req.result.isDone()) {
+                if (leader.tryLock()) {
+                    List<Request> batch;
+                    try {
+                        batch = collect();
+                    } finally {
+                        leader.unlock();
+                    }
+                    process(batch, recommender);
+                } else {
+                    try {
+                        req.result.get(Math.max(maxWaitNanos, MIN_POLL_NANOS), TimeUnit.NANOSECONDS);
+                    } catch (TimeoutException | ExecutionException e) {
+                        /* not done, or failed; the loop will find out */
+                    }
+                }
+            }
+        } catch (InterruptedException e) {
+            queue.remove(req);
+            throw e;
+        }
+
+        try {
+            return req.result.get();
+        } catch (ExecutionException e) {
+            Throwable cause = e.getCause();
+            if (cause instanceof RuntimeException) {
+                throw (RuntimeException) cause;
+            } else {
+                throw new RuntimeException(cause);
+            }
+        }
+    }
+
+    /**
+     * Take the next batch of requests off the queue.  If interrupted, the collected requests are put back for
+     * another thread to answer.
+     */
+    private List<Request> collect() throws InterruptedException {
+        List<Request> batch = new ArrayList<>(maxBatchSize);
+        Request first = queue.poll();
+        if (first == null) {
+            return batch;
+        }
+        batch.add(first);
+        long deadline = System.nanoTime() + maxWaitNanos;
+        try {
+            while (batch.size() < maxBatchSize) {
+                long remaining = deadline - System.nanoTime();
+                Request next = remaining > 0 ? queue.poll(remaining, TimeUnit.NANOSECONDS) : queue.poll();
+                if (next == null) {
+                    break;
+                }
+                batch.add(next);
+            }
+        } catch (InterruptedException e) {
+            queue.addAll(batch);
+            throw e;
+        }
+        return batch;
+    }
+
+    private void process(List<Request> batch, Supplier<ItemRecommender> recommender) {
+        if (batch.isEmpty()) {
+            return;
+        }
+        logger.debug("recommending for batch of {} requests", batch.size());
+        Map<Integer, List<Request>> groups = new LinkedHashMap<>();
+        for (Request req: batch) {
+            groups.computeIfAbsent(req.count, k -> new ArrayList<>()).add(req);
+        }
+
+        for (Map.Entry<Integer, List<Request>> group: groups.entrySet()) {
+            List<Request> reqs = group.getValue();
+            try {
+                ItemRecommender irec = recommender.get();
+                if (irec == null) {
+                    throw new UnsupportedOperationException("recommender has no item recommender");
+                }
+                Set<Long> users = new LinkedHashSet<>();
+                for (Request req: reqs) {
+                    users.add(req.user);
+                }
+                Map<Long, ResultList> results = irec.recommendBatchWithDetails(users, group.getKey());
+                for (Request req: reqs) {
+                    req.result.complete(results.get(req.user));
+                }
+            } catch (RuntimeException e) {
+                for (Request req: reqs) {
+                    req.result.completeExceptionally(e);
+                }
+            }
+        }
+    }
+
+    private static class Request {
+        final long user;
+        final int count;
+        final CompletableFuture<ResultList> result = new CompletableFuture<>();
+
+        Request(long u, int n) {
+            user = u;
+            count = n;
+        }
+    }
+}
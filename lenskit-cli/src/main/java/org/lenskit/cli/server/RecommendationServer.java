@@ -0,0 +1,443 @@
+/*
+ * LensKit, an open-source toolkit for recommender systems.
+ * Copyright 2014-2017 LensKit contributors (see CONTRIBUTORS.md)
+ * Copyright 2010-2014 Regents of the University of Minnesota
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining
+ * a copy of this software and associated documentation files (the
+ * "Software"), to deal in the Software without restriction, including
+ * without limitation the rights to use, copy, modify, merge, publish,
+ * distribute, sublicense, and/or sell copies of the Software, and to
+ * permit persons to whom the Software is furnished to do so, subject to
+ * the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be
+ * included in all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+ * EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF
+ * MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT.
+ * IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY
+ * CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT,
+ * TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION WITH THE
+ * SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ */
+package org.lenskit.cli.server;
+
+import com.fasterxml.jackson.core.JsonFactory;
+import com.fasterxml.jackson.core.JsonGenerator;
+import com.google.common.collect.ArrayListMultimap;
+import com.google.common.collect.ListMultimap;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+import org.lenskit.LenskitRecommender;
+import org.lenskit.LenskitRecommenderEngine;
+import org.lenskit.api.*;
+import org.lenskit.data.dao.DataAccessObject;
+import org.lenskit.data.entities.CommonAttributes;
+import org.lenskit.data.entities.CommonTypes;
+import org.lenskit.data.entities.Entity;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.ByteArrayOutputStream;
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.UnsupportedEncodingException;
+import java.net.InetSocketAddress;
+import java.net.URLDecoder;
+import java.nio.charset.StandardCharsets;
+import java.util.*;
+import java.util.concurrent.*;
+
+/**
+ * HTTP server answering recommendation requests from a recommender engine.  The server answers `GET` requests
+ * with JSON documents at the following paths:
+ *
+ * `/recommend?user=U&n=N`
+ * :   Recommend `N` (default 10) items for each user `U`; the `user` parameter can be repeated.
+ *
+ * `/predict?user=U&item=I`
+ * :   Predict ratings for user `U` for each item `I`; the `item` parameter can be repeated.
+ *
+ * `/related?item=I&n=N`
+ * :   Recommend `N` (default 10) items related to the basket of items `I`.
+ *
+ * `/metrics`
+ * :   Request counts and latencies for each of the other paths.
+ *
+ * Requests are answered by a bounded pool of worker threads; when all workers are busy and the queue is full,
+ * the server answers new requests with `503 Service Unavailable` instead of queueing them without bound.
+ * Each worker has its own {@link LenskitRecommender}.  Single-user recommendation requests can optionally be
+ * batched, so concurrent requests share one call to
+ * {@link ItemRecommender#recommendBatchWithDetails(Collection, int)} on the recommender of one of their workers.
+ */
+public class RecommendationServer implements Closeable {
+    private static final Logger logger = LoggerFactory.getLogger(RecommendationServer.class);
+    private static final int DEFAULT_COUNT = 10;
+
+    private final LenskitRecommenderEngine engine;
+    private final DataAccessObject dao;
+    private final HttpServer server;
+    private final ThreadPoolExecutor workers;
+    private final Queue<LenskitRecommender> recommenders = new ConcurrentLinkedQueue<>();
+    private final ThreadLocal<LenskitRecommender> threadRecommender;
+    private final Map<String, LatencyHistogram> latencies = new LinkedHashMap<>();
+    private final JsonFactory jsonFactory = new JsonFactory();
+    private final RecommendBatcher batcher;
+
+    /**
+     * Create a new server.  The server does not accept requests until it is {@linkplain #start() started}.
+     *
+     * @param engine The recommender engine.
+     * @param dao The data access object for recommenders.
+     * @param address The address to listen on.
+     * @param threads The number of worker threads.
+     * @param queueSize The number of requests that can wait for a worker.
+     * @param batchSize The largest number of recommendation requests to batch; 1 disables batching.
+     * @param batchWait The longest time, in milliseconds, a recommendation request waits for its batch.
+     * @throws IOException if the server cannot bind its address.
+     */
+    public RecommendationServer(LenskitRecommenderEngine engine, DataAccessObject dao, InetSocketAddress address,
+                                int threads, int queueSize, int batchSize, long batchWait) throws IOException {
+        this.engine = engine;
+        this.dao = dao;
+        threadRecommender = ThreadLocal.withInitial(this::createRecommender);
+        workers = new ThreadPoolExecutor(threads, threads, 0, TimeUnit.SECONDS,
+                                         new ArrayBlockingQueue<>(queueSize),
+                                         new ThreadFactoryBuilder().setNameFormat("lenskit-server-%d")
+                                                                   .setDaemon(true)
+                                                                   .build());
+        batcher = batchSize > 1 ? new RecommendBatcher(batchSize, batchWait) : null;
+
+        server = HttpServer.create(address, 0);
+        addEndpoint("/recommend", this::recommend);
+        addEndpoint("/predict", this::predict);
+        addEndpoint("/related", this::related);
+        server.createContext("/metrics", this::handleMetrics);
+    }
+
+    /**
+     * Start accepting requests.
+     */
+    public void start() {
+        server.start();
+        logger.info("listening on {}", getAddress());
+    }
+
+    /**
+     * Get the address the server is listening on.
+     * @return The server's address.
+     */
+    public InetSocketAddress getAddress() {
+        return server.getAddress();
+    }
+
+    /**
+     * Get the latency histograms of the server's endpoints.
+     * @return A map of paths to their latency histograms.
+     */
+    public Map<String, LatencyHistogram> getLatencies() {
+        return Collections.unmodifiableMap(latencies);
+    }
+
+    /**
+     * Stop the server, waiting briefly for active requests to finish, and close its recommenders.
+     */
+    @Override
+    public void close() {
+        logger.info("stopping server");
+        server.stop(1);
+        workers.shutdown();
+        try {
+            workers.awaitTermination(10, TimeUnit.SECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        LenskitRecommender rec;
+        while ((rec = recommenders.poll()) != null) {
+            rec.close();
+        }
+    }
+
+    private LenskitRecommender createRecommender() {
+        logger.debug("creating recommender for thread {}", Thread.currentThread().getName());
+        LenskitRecommender rec = engine.createRecommender(dao);
+        recommenders.add(rec);
+        return rec;
+    }
+
+    private LenskitRecommender recommender() {
+        return threadRecommender.get();
+    }
+
+    private void recommend(Query query, JsonGenerator out) throws IOException {
+        List<Long> users = query.getLongs("user");
+        int n = query.getInt("n", DEFAULT_COUNT);
+        if (users.isEmpty()) {
+            throw new IllegalArgumentException("no users specified");
+        }
+
+        Map<Long, ResultList> results;
+        if (batcher != null && users.size() == 1) {
+            long user = users.get(0);
+            try {
+                ResultList recs = batcher.recommend(user, n, () -> recommender().getItemRecommender());
+                results = Collections.singletonMap(user, recs);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new IllegalStateException("interrupted waiting for recommendations", e);
+            }
+        } else {
+            ItemRecommender irec = recommender().getItemRecommender();
+            if (irec == null) {
+                throw new UnsupportedOperationException("recommender has no item recommender");
+            }
+            results = irec.recommendBatchWithDetails(users, n);
+        }
+
+        out.writeStartArray();
+        for (Map.Entry<Long, ResultList> e: results.entrySet()) {
+            out.writeStartObject();
+            out.writeNumberField("user", e.getKey());
+            out.writeArrayFieldStart("recommendations");
+            writeResults(e.getValue(), out);
+            out.writeEndArray();
+            out.writeEndObject();
+        }
+        out.writeEndArray();
+    }
+
+    private void predict(Query query, JsonGenerator out) throws IOException {
+        long user = query.getLong("user");
+        List<Long> items = query.getLongs("item");
+        RatingPredictor pred = recommender().getRatingPredictor();
+        if (pred == null) {
+            throw new UnsupportedOperationException("recommender has no rating predictor");
+        }
+        ResultMap results = pred.predictWithDetails(user, items);
+
+        out.writeStartObject();
+        out.writeNumberField("user", user);
+        out.writeArrayFieldStart("predictions");
+        writeResults(results, out);
+        out.writeEndArray();
+        out.writeEndObject();
+    }
+
+    private void related(Query query, JsonGenerator out) throws IOException {
+        Set<Long> basket = new LinkedHashSet<>(query.getLongs("item"));
+        int n = query.getInt("n", DEFAULT_COUNT);
+        ItemBasedItemRecommender irec = recommender().getItemBasedItemRecommender();
+        if (irec == null) {
+            throw new UnsupportedOperationException("recommender has no item-based item recommender");
+        }
+        ResultList results = irec.recommendRelatedItemsWithDetails(basket, n, null, null);
+
+        out.writeStartObject();
+        out.writeArrayFieldStart("basket");
+        for (long item: basket) {
+            out.writeNumber(item);
+        }
+        out.writeEndArray();
+        out.writeArrayFieldStart("recommendations");
+        writeResults(results, out);
+        out.writeEndArray();
+        out.writeEndObject();
+    }
+
+    private void writeResults(Iterable<? extends Result> results, JsonGenerator out) throws IOException {
+        DataAccessObject rdao = recommender().getDataAccessObject();
+        for (Result r: results) {
+            out.writeStartObject();
+            out.writeNumberField("item", r.getId());
+            out.writeNumberField("score", r.getScore());
+            Entity item = rdao.lookupEntity(CommonTypes.ITEM, r.getId());
+            String name = item == null ? null : item.maybeGet(CommonAttributes.NAME);
+            if (name != null) {
+                out.writeStringField("name", name);
+            }
+            out.writeEndObject();
+        }
+    }
+
+    private void addEndpoint(String path, Endpoint endpoint) {
+        LatencyHistogram hist = new LatencyHistogram();
+        latencies.put(path, hist);
+        server.createContext(path, exchange -> {
+            long start = System.nanoTime();
+            try {
+                workers.execute(() -> {
+                    boolean failed = true;
+                    try {
+                        failed = handle(endpoint, exchange);
+                    } catch (IOException e) {
+                        logger.debug("error sending response to {}", exchange.getRemoteAddress(), e);
+                    } finally {
+                        hist.record(System.nanoTime() - start, failed);
+                    }
+                });
+            } catch (RejectedExecutionException e) {
+                logger.debug("rejecting request {}: server busy", exchange.getRequestURI());
+                try {
+                    sendResponse(exchange, 503, errorBody(new IllegalStateException("server busy")));
+                } finally {
+                    hist.record(System.nanoTime() - start, true);
+                }
+            }
+        });
+    }
+
+    /**
+     * Handle a request.
+     * @return `true` if the request failed.
+     */
+    private boolean handle(Endpoint endpoint, HttpExchange exchange) throws IOException {
+        int status = 200;
+        ByteArrayOutputStream buffer = new ByteArrayOutputStream();
+        try {
+            if (!exchange.getRequestMethod().equals("GET")) {
+                throw new UnsupportedOperationException("unsupported method " + exchange.getRequestMethod());
+            }
+            Query query = Query.parse(exchange.getRequestURI().getRawQuery());
+            try (JsonGenerator out = jsonFactory.createGenerator(buffer)) {
+                endpoint.respond(query, out);
+            }
+        } catch (IllegalArgumentException e) {
+            status = 400;
+            buffer = errorBody(e);
+        } catch (UnsupportedOperationException e) {
+            status = 501;
+            buffer = errorBody(e);
+        } catch (RuntimeException e) {
+            logger.error("error handling request " + exchange.getRequestURI(), e);
+            status = 500;
+            buffer = errorBody(e);
+        }
+        sendResponse(exchange, status, buffer);
+        return status != 200;
+    }
+
+    private void handleMetrics(HttpExchange exchange) throws IOException {
+        ByteArrayOutputStream buffer = new ByteArrayOutputStream();
+        try (JsonGenerator out = jsonFactory.createGenerator(buffer).useDefaultPrettyPrinter()) {
+            out.writeStartObject();
+            for (Map.Entry<String, LatencyHistogram> e: latencies.entrySet()) {
+                LatencyHistogram hist = e.getValue();
+                out.writeObjectFieldStart(e.getKey());
+                out.writeNumberField("count", hist.getCount());
+                out.writeNumberField("errors", hist.getErrorCount());
+                out.writeNumberField("mean_ms", hist.getMeanNanos() / 1.0e6);
+                if (hist.getCount() > 0) {
+                    out.writeNumberField("p50_ms", hist.getPercentileNanos(0.5) / 1.0e6);
+                    out.writeNumberField("p90_ms", hist.getPercentileNanos(0.9) / 1.0e6);
+                    out.writeNumberField("p99_ms", hist.getPercentileNanos(0.99) / 1.0e6);
+                }
+                out.writeNumberField("max_ms", hist.getMaxNanos() / 1.0e6);
+                out.writeEndObject();
+            }
+            out.writeEndObject();
+        }
+        sendResponse(exchange, 200, buffer);
+    }
+
+    private ByteArrayOutputStream errorBody(Exception err) throws IOException {
+        ByteArrayOutputStream buffer = new ByteArrayOutputStream();
+        try (JsonGenerator out = jsonFactory.createGenerator(buffer)) {
+            out.writeStartObject();
+            out.writeStringField("error", String.valueOf(err.getMessage()));
+            out.writeEndObject();
+        }
+        return buffer;
+    }
+
+    private static void sendResponse(HttpExchange exchange, int status, ByteArrayOutputStream body) throws IOException {
+        exchange.getResponseHeaders().set("Content-Type", "application/json");
+        exchange.sendResponseHeaders(status, body.size());
+        try (OutputStream out = exchange.getResponseBody()) {
+            body.writeTo(out);
+        }
+    }
+
+    /**
+     * Interface for request handlers.
+     */
+    private interface Endpoint {
+        void respond(Query query, JsonGenerator out) throws IOException;
+    }
+
+    /**
+     * Parsed query string parameters.
+     */
+    private static class Query {
+        private final ListMultimap<String, String> params;
+
+        private Query(ListMultimap<String, String> ps) {
+            params = ps;
+        }
+
+        static Query parse(String query) {
+            ListMultimap<String, String> params = ArrayListMultimap.create();
+            if (query != null && !query.isEmpty()) {
+                for (String param: query.split("&")) {
+                    int eq = param.indexOf('=');
+                    if (eq < 0) {
+                        params.put(decode(param), "");
+                    } else {
+                        params.put(decode(param.substring(0, eq)), decode(param.substring(eq + 1)));
+                    }
+                }
+            }
+            return new Query(params);
+        }
+
+        private static String decode(String s) {
+            try {
+                return URLDecoder.decode(s, StandardCharsets.UTF_8.name());
+            } catch (UnsupportedEncodingException e) {
+                throw new AssertionError("UTF-8 not supported", e);
+            }
+        }
+
+        List<Long> getLongs(String name) {
+            List<Long> values = new ArrayList<>();
+            for (String v: params.get(name)) {
+                for (String part: v.split(",")) {
+                    values.add(parseLong(name, part));
+                }
+            }
+            return values;
+        }
+
+        long getLong(String name) {
+            List<String> values = params.get(name);
+            if (values.size() != 1) {
+                throw new IllegalArgumentException("expected exactly one " + name);
+            }
+            return parseLong(name, values.get(0));
+        }
+
+        int getInt(String name, int dft) {
+            List<String> values = params.get(name);
+            if (values.isEmpty()) {
+                return dft;
+            }
+            String value = values.get(values.size() - 1);
+            try {
+                return Integer.parseInt(value.trim());
+            } catch (NumberFormatException e) {
+                throw new IllegalArgumentException("invalid " + name + ": " + value, e);
+            }
+        }
+
+        private static long parseLong(String name, String value) {
+            try {
+                return Long.parseLong(value.trim());
+            } catch (NumberFormatException e) {
+                throw new IllegalArgumentException("invalid " + name + ": " + value, e);
+            }
+        }
+    }
+}
@@ -28,7 +28,6 @@ import com.google.common.base.Stopwatch;
 import net.sourceforge.argparse4j.impl.Arguments;
 import net.sourceforge.argparse4j.inf.ArgumentParser;
 import net.sourceforge.argparse4j.inf.Namespace;
-import org.lenskit.util.io.CompressionMode;
 import org.lenskit.LenskitConfiguration;
 import org.lenskit.LenskitRecommenderEngine;
 import org.lenskit.LenskitRecommenderEngineBuilder;
@@ -38,9 +37,7 @@ import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import java.io.File;
-import java.io.FileInputStream;
 import java.io.IOException;
-import java.io.InputStream;
 import java.util.List;
 
 /**
@@ -95,14 +92,7 @@ public class RecommenderLoader {
                 loader.addConfiguration(config);
             }
             Stopwatch timer = Stopwatch.createStarted();
-            LenskitRecommenderEngine engine;
-            InputStream input = new FileInputStream(modelFile);
-            try {
-                input = CompressionMode.autodetect(modelFile).wrapInput(input);
-                engine = loader.load(input);
-            } finally {
-                input.close();
-            }
+            LenskitRecommenderEngine engine = loader.load(modelFile);
             timer.stop();
             logger.info("loaded recommender in {}", timer);
             return engine;
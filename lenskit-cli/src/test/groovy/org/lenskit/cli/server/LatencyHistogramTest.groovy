@@ -0,0 +1,69 @@
+/*
+ * LensKit, an open-source toolkit for recommender systems.
+ * Copyright 2014-2017 LensKit contributors (see CONTRIBUTORS.md)
+ * Copyright 2010-2014 Regents of the University of Minnesota
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining
+ * a copy of this software and associated documentation files (the
+ * "Software"), to deal in the Software without restriction, including
+ * without limitation the rights to use, copy, modify, merge, publish,
+ * distribute, sublicense, and/or sell copies of the Software, and to
+ * permit persons to whom the Software is furnished to do so, subject to
+ * the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be
+ * included in all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+ * EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF
+ * MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT.
+ * IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY
+ * CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT,
+ * TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION WITH THE
+ * SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ */
+package org.lenskit.cli.server
+
+import org.junit.Test
+
+import static org.hamcrest.Matchers.*
+import static org.junit.Assert.assertThat
+
+class LatencyHistogramTest {
+    @Test
+    void testEmpty() {
+        def hist = new LatencyHistogram()
+        assertThat(hist.count, equalTo(0L))
+        assertThat(hist.meanNanos, equalTo(0.0d))
+        assertThat(hist.getPercentileNanos(0.5), equalTo(0L))
+    }
+
+    @Test
+    void testBuckets() {
+        long prev = -1
+        for (long v in [0L, 1L, 3L, 4L, 7L, 8L, 1000L, 123456789L, Long.MAX_VALUE]) {
+            int b = LatencyHistogram.bucket(v)
+            assertThat(LatencyHistogram.bucketMax(b), greaterThanOrEqualTo(v))
+            if (b > 0) {
+                assertThat(LatencyHistogram.bucketMax(b - 1), lessThan(v))
+            }
+            assertThat(LatencyHistogram.bucketMax(b), greaterThan(prev))
+            prev = v
+        }
+    }
+
+    @Test
+    void testPercentiles() {
+        def hist = new LatencyHistogram()
+        for (int i = 1; i <= 1000; i++) {
+            hist.record(i * 1000L, i % 100 == 0)
+        }
+        assertThat(hist.count, equalTo(1000L))
+        assertThat(hist.errorCount, equalTo(10L))
+        assertThat(hist.maxNanos, equalTo(1000000L))
+        assertThat(hist.meanNanos, closeTo(500500.0d, 1.0e-6d))
+        assertThat(hist.getPercentileNanos(0.5),
+                   allOf(greaterThanOrEqualTo(500000L), lessThanOrEqualTo(625000L)))
+        assertThat(hist.getPercentileNanos(1.0), equalTo(1000000L))
+    }
+}
@@ -0,0 +1,116 @@
+/*
+ * LensKit, an open-source toolkit for recommender systems.
+ * Copyright 2014-2017 LensKit contributors (see CONTRIBUTORS.md)
+ * Copyright 2010-2014 Regents of the University of Minnesota
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining
+ * a copy of this software and associated documentation files (the
+ * "Software"), to deal in the Software without restriction, including
+ * without limitation the rights to use, copy, modify, merge, publish,
+ * distribute, sublicense, and/or sell copies of the Software, and to
+ * permit persons to whom the Software is furnished to do so, subject to
+ * the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be
+ * included in all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+ * EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF
+ * MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT.
+ * IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY
+ * CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT,
+ * TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION WITH THE
+ * SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ */
+package org.lenskit.cli.server
+
+import it.unimi.dsi.fastutil.longs.LongSet
+import org.junit.Test
+import org.lenskit.api.ResultList
+import org.lenskit.basic.AbstractItemRecommender
+import org.lenskit.results.Results
+
+import java.util.concurrent.Callable
+import java.util.concurrent.CountDownLatch
+import java.util.concurrent.Executors
+import java.util.concurrent.TimeUnit
+
+import static org.hamcrest.Matchers.*
+import static org.junit.Assert.assertThat
+import static org.junit.Assert.fail
+
+class RecommendBatcherTest {
+    @Test
+    void testSingleRequest() {
+        def rec = new StubRecommender()
+        def batcher = new RecommendBatcher(4, 1)
+        def results = batcher.recommend(3, 2, { rec })
+        assertThat(results.idList(), contains(30L, 31L))
+        assertThat(rec.batches, hasSize(1))
+        assertThat(rec.batches[0], contains(3L))
+    }
+
+    @Test
+    void testConcurrentRequestsRunOnRequestingThreads() {
+        int nthreads = 4
+        def recs = (0..<nthreads).collect { new StubRecommender() }
+        def batcher = new RecommendBatcher(nthreads, 500)
+        def pool = Executors.newFixedThreadPool(nthreads)
+        def start = new CountDownLatch(1)
+        try {
+            def futures = (0..<nthreads).collect { int i ->
+                pool.submit({
+                    start.await()
+                    [Thread.currentThread(), batcher.recommend(i + 1, 1, { recs[i] })]
+                } as Callable)
+            }
+            start.countDown()
+            def answers = futures.collect { it.get(10, TimeUnit.SECONDS) }
+            for (int i = 0; i < nthreads; i++) {
+                assertThat(answers[i][1].idList(), contains((i + 1) * 10L))
+            }
+
+            def batches = recs.collectMany { it.batches }
+            assertThat(batches.sum { it.size() }, equalTo(nthreads))
+            assertThat(batches.size(), lessThan(nthreads))
+            def requesters = answers.collect { it[0] }
+            for (rec in recs) {
+                for (thread in rec.threads) {
+                    assertThat(thread, isIn(requesters))
+                }
+            }
+        } finally {
+            pool.shutdownNow()
+        }
+    }
+
+    @Test
+    void testErrorPropagates() {
+        def batcher = new RecommendBatcher(4, 1)
+        try {
+            batcher.recommend(3, 2, { null })
+            fail("recommending without a recommender should fail")
+        } catch (UnsupportedOperationException e) {
+            /* expected */
+        }
+    }
+
+    static class StubRecommender extends AbstractItemRecommender {
+        List<List<Long>> batches = Collections.synchronizedList([])
+        List<Thread> threads = Collections.synchronizedList([])
+
+        @Override
+        Map<Long, ResultList> recommendBatchWithDetails(Collection<Long> users, int n) {
+            batches << new ArrayList<Long>(users)
+            threads << Thread.currentThread()
+            return users.collectEntries(new LinkedHashMap<Long, ResultList>()) {
+                [it, recommendWithDetails(it, n, null, null)]
+            }
+        }
+
+        @Override
+        protected ResultList recommendWithDetails(long user, int n, LongSet candidates, LongSet exclude) {
+            return Results.newResultList((0..<n).collect { Results.create(user * 10 + it, n - it) })
+        }
+    }
+}
@@ -0,0 +1,174 @@
+/*
+ * LensKit, an open-source toolkit for recommender systems.
+ * Copyright 2014-2017 LensKit contributors (see CONTRIBUTORS.md)
+ * Copyright 2010-2014 Regents of the University of Minnesota
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining
+ * a copy of this software and associated documentation files (the
+ * "Software"), to deal in the Software without restriction, including
+ * without limitation the rights to use, copy, modify, merge, publish,
+ * distribute, sublicense, and/or sell copies of the Software, and to
+ * permit persons to whom the Software is furnished to do so, subject to
+ * the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be
+ * included in all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+ * EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF
+ * MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT.
+ * IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY
+ * CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT,
+ * TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION WITH THE
+ * SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ */
+package org.lenskit.cli.server
+
+import groovy.json.JsonSlurper
+import it.unimi.dsi.fastutil.longs.LongSet
+import org.junit.After
+import org.junit.Before
+import org.junit.Test
+import org.lenskit.LenskitConfiguration
+import org.lenskit.LenskitRecommenderEngine
+import org.lenskit.api.ItemRecommender
+import org.lenskit.api.ResultList
+import org.lenskit.basic.AbstractItemRecommender
+import org.lenskit.basic.PopularItemRecommender
+import org.lenskit.data.dao.DataAccessObject
+import org.lenskit.data.dao.file.StaticDataSource
+import org.lenskit.data.entities.EntityFactory
+import org.lenskit.results.Results
+
+import java.util.concurrent.Callable
+import java.util.concurrent.CountDownLatch
+import java.util.concurrent.Executors
+import java.util.concurrent.TimeUnit
+
+import static org.hamcrest.Matchers.*
+import static org.junit.Assert.assertThat
+
+class RecommendationServerTest {
+    DataAccessObject dao
+    RecommendationServer server
+
+    @Before
+    void createData() {
+        def ef = new EntityFactory()
+        dao = StaticDataSource.fromList([ef.rating(1, 10, 3.0), ef.rating(2, 10, 4.0),
+                                         ef.rating(2, 20, 2.5), ef.rating(3, 30, 5.0),
+                                         ef.rating(4, 20, 1.0)]).get()
+    }
+
+    @After
+    void stopServer() {
+        server?.close()
+    }
+
+    private void startServer(Class<? extends ItemRecommender> recommender, int threads, int queueSize, int batchSize) {
+        def config = new LenskitConfiguration()
+        config.bind(ItemRecommender).to(recommender)
+        def engine = LenskitRecommenderEngine.build(config, dao)
+        server = new RecommendationServer(engine, dao, new InetSocketAddress("127.0.0.1", 0),
+                                          threads, queueSize, batchSize, 1)
+        server.start()
+    }
+
+    private URL url(String path) {
+        return new URL("http", "127.0.0.1", server.address.port, path)
+    }
+
+    private static int status(URL url) {
+        def conn = url.openConnection() as HttpURLConnection
+        try {
+            return conn.responseCode
+        } finally {
+            conn.disconnect()
+        }
+    }
+
+    @Test
+    void testRecommend() {
+        startServer(PopularItemRecommender, 2, 4, 1)
+        def json = new JsonSlurper().parse(url("/recommend?user=1&user=3&n=2"))
+        assertThat(json*.user, contains(1, 3))
+        assertThat(json[0].recommendations*.item, contains(20, 30))
+        assertThat(json[1].recommendations*.item, containsInAnyOrder(10, 20))
+    }
+
+    @Test
+    void testBatchedRecommend() {
+        startServer(PopularItemRecommender, 4, 8, 4)
+        def pool = Executors.newFixedThreadPool(4)
+        try {
+            def futures = (1..4).collect { long user ->
+                pool.submit({
+                    new JsonSlurper().parse(url("/recommend?user=$user&n=1"))
+                } as Callable)
+            }
+            def answers = futures.collect { it.get(10, TimeUnit.SECONDS) }
+            assertThat(answers.collect { it[0].user }, contains(1, 2, 3, 4))
+            assertThat(answers[0][0].recommendations*.item, contains(20))
+            assertThat(answers[1][0].recommendations*.item, contains(30))
+        } finally {
+            pool.shutdownNow()
+        }
+        assertThat(server.latencies["/recommend"].count, equalTo(4L))
+        assertThat(server.latencies["/recommend"].errorCount, equalTo(0L))
+    }
+
+    @Test
+    void testMissingUser() {
+        startServer(PopularItemRecommender, 2, 4, 1)
+        assertThat(status(url("/recommend?n=2")), equalTo(400))
+    }
+
+    @Test
+    void testRejectWhenBusy() {
+        BlockingRecommender.reset()
+        startServer(BlockingRecommender, 1, 1, 1)
+        def pool = Executors.newCachedThreadPool()
+        try {
+            def first = pool.submit({ status(url("/recommend?user=1")) } as Callable)
+            assertThat(BlockingRecommender.entered.await(10, TimeUnit.SECONDS), equalTo(true))
+
+            // one request fits in the queue, the others are turned away at once
+            def rest = (2..4).collect { user ->
+                pool.submit({ status(url("/recommend?user=$user")) } as Callable)
+            }
+            long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(10)
+            while (rest.count { it.done } < 2 && System.nanoTime() < deadline) {
+                Thread.sleep(10)
+            }
+            BlockingRecommender.release.countDown()
+
+            def statuses = [first.get(10, TimeUnit.SECONDS)] + rest.collect { it.get(10, TimeUnit.SECONDS) }
+            assertThat(statuses.count { it == 200 }, equalTo(2))
+            assertThat(statuses.count { it == 503 }, equalTo(2))
+            assertThat(server.latencies["/recommend"].errorCount, equalTo(2L))
+        } finally {
+            BlockingRecommender.release.countDown()
+            pool.shutdownNow()
+        }
+    }
+
+    /**
+     * Recommender that blocks until released, to keep the server's worker busy.
+     */
+    static class BlockingRecommender extends AbstractItemRecommender {
+        static CountDownLatch entered
+        static CountDownLatch release
+
+        static void reset() {
+            entered = new CountDownLatch(1)
+            release = new CountDownLatch(1)
+        }
+
+        @Override
+        protected ResultList recommendWithDetails(long user, int n, LongSet candidates, LongSet exclude) {
+            entered.countDown()
+            release.await(10, TimeUnit.SECONDS)
+            return Results.newResultList([])
+        }
+    }
+}
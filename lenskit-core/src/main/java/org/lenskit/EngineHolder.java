@@ -0,0 +1,388 @@
+/*
+ * LensKit, an open-source toolkit for recommender systems.
+ * Copyright 2014-2017 LensKit contributors (see CONTRIBUTORS.md)
+ * Copyright 2010-2014 Regents of the University of Minnesota
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining
+ * a copy of this software and associated documentation files (the
+ * "Software"), to deal in the Software without restriction, including
+ * without limitation the rights to use, copy, modify, merge, publish,
+ * distribute, sublicense, and/or sell copies of the Software, and to
+ * permit persons to whom the Software is furnished to do so, subject to
+ * the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be
+ * included in all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+ * EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF
+ * MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT.
+ * IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY
+ * CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT,
+ * TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION WITH THE
+ * SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ */
+package org.lenskit;
+
+import com.google.common.base.Preconditions;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+import it.unimi.dsi.fastutil.longs.LongCollection;
+import it.unimi.dsi.fastutil.longs.LongIterator;
+import net.jcip.annotations.ThreadSafe;
+import org.grouplens.grapht.Component;
+import org.grouplens.grapht.Dependency;
+import org.grouplens.grapht.graph.DAGNode;
+import org.lenskit.api.ItemRecommender;
+import org.lenskit.api.RecommenderBuildException;
+import org.lenskit.data.dao.DataAccessObject;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import javax.annotation.Nonnull;
+import javax.annotation.Nullable;
+import javax.annotation.WillNotClose;
+import java.io.Closeable;
+import java.io.File;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.function.Consumer;
+
+/**
+ * Holder for a recommender engine that can be replaced while it is in use.  Long-running applications create
+ * their recommenders through the holder instead of directly from an engine; when a new engine is
+ * {@linkplain #swap(LenskitRecommenderEngine) swapped in}, the holder first warms it up, then atomically switches
+ * new recommenders to it.  Recommenders already created from the old engine keep working, and the old engine is
+ * retired (and passed to the {@linkplain #setDisposer(Consumer) disposer}) once all of them have been closed.
+ *
+ * New engines are typically loaded in the background with {@link #swapAsync(Callable)} or
+ * {@link #reloadAsync(LenskitRecommenderEngineLoader, File)}.  Swaps are applied one at a time, in the order they
+ * finish loading.
+ *
+ * @since 3.0
+ */
+@ThreadSafe
+public class EngineHolder implements Closeable {
+    private static final Logger logger = LoggerFactory.getLogger(EngineHolder.class);
+
+    private final AtomicReference<Generation> current;
+    private final Object swapLock = new Object();
+    private volatile Warmer warmer;
+    private volatile Consumer<LenskitRecommenderEngine> disposer;
+    private volatile ExecutorService loadExecutor;
+
+    /**
+     * Create a new engine holder.
+     * @param engine The initial engine.
+     */
+    public EngineHolder(@Nonnull LenskitRecommenderEngine engine) {
+        Preconditions.checkNotNull(engine, "engine");
+        current = new AtomicReference<>(new Generation(engine, 0));
+    }
+
+    /**
+     * Set the warmer used to prepare new engines before they are swapped in.
+     * @param w The warmer, or {@code null} to swap engines in without warming them.
+     * @return The holder (for chaining).
+     * @see #replayWarmer(DataAccessObject, LongCollection, int)
+     */
+    public EngineHolder setWarmer(@Nullable Warmer w) {
+        warmer = w;
+        return this;
+    }
+
+    /**
+     * Set a function to receive retired engines.  Applications can use this to release resources associated with
+     * an engine once nothing is using it any more.
+     *
+     * @param d The disposer, or {@code null} to simply drop retired engines.
+     * @return The holder (for chaining).
+     */
+    public EngineHolder setDisposer(@Nullable Consumer<LenskitRecommenderEngine> d) {
+        disposer = d;
+        return this;
+    }
+
+    /**
+     * Get the current engine.
+     * @return The engine new recommenders are created from.
+     */
+    public LenskitRecommenderEngine getEngine() {
+        return current().engine;
+    }
+
+    /**
+     * Get the generation of the current engine.  The initial engine is generation 0, and each swap increments it.
+     * @return The current generation.
+     */
+    public long getGeneration() {
+        return current().number;
+    }
+
+    private Generation current() {
+        Generation gen = current.get();
+        if (gen == null) {
+            throw new IllegalStateException("engine holder is closed");
+        }
+        return gen;
+    }
+
+    /**
+     * Create a recommender from the current engine.  The engine will not be retired until the recommender is
+     * closed, so callers must close it when they are finished with it (even if they do not otherwise need to).
+     *
+     * @param dao The data access object.
+     * @return The recommender.
+     * @throws RecommenderBuildException if there is an error creating the recommender.
+     */
+    public LenskitRecommender createRecommender(@WillNotClose DataAccessObject dao) throws RecommenderBuildException {
+        Generation gen = acquire();
+        try {
+            return new LeasedRecommender(gen.engine.createRecommenderGraph(dao), gen);
+        } catch (RuntimeException | Error e) {
+            gen.release();
+            throw e;
+        }
+    }
+
+    /**
+     * Obtain a lease on the current generation.  If a swap retires the generation while we are acquiring it, the
+     * lease is released and the new generation is acquired instead, so a retired generation is never handed out.
+     */
+    private Generation acquire() {
+        while (true) {
+            Generation gen = current();
+            gen.leases.incrementAndGet();
+            if (current.get() == gen) {
+                return gen;
+            }
+            gen.release();
+        }
+    }
+
+    /**
+     * Warm up a new engine and switch to it.
+     *
+     * @param engine The new engine.
+     * @return A future that completes with the old engine once it has been retired, i.e. all recommenders created
+     *         from it have been closed.
+     * @throws RecommenderBuildException if the warmer fails; the new engine is not swapped in.
+     */
+    public CompletableFuture<LenskitRecommenderEngine> swap(@Nonnull LenskitRecommenderEngine engine) throws RecommenderBuildException {
+        Preconditions.checkNotNull(engine, "engine");
+        synchronized (swapLock) {
+            Generation old = current();
+            Warmer w = warmer;
+            if (w != null) {
+                logger.info("warming engine generation {}", old.number + 1);
+                try {
+                    w.warm(engine);
+                } catch (Exception e) {
+                    throw new RecommenderBuildException("error warming new engine", e);
+                }
+            }
+            Generation gen = new Generation(engine, old.number + 1);
+            if (!current.compareAndSet(old, gen)) {
+                throw new IllegalStateException("engine holder is closed");
+            }
+            logger.info("switched to engine generation {}", gen.number);
+            old.retire();
+            return old.retired;
+        }
+    }
+
+    /**
+     * Load a new engine in the background and swap it in.
+     *
+     * @param source A task that loads or builds the new engine.  It is run on a background thread owned by the
+     *               holder.
+     * @return A future that completes with the new engine once it has been swapped in.  If loading or warming
+     *         fails, the future completes exceptionally and the current engine stays in place.
+     */
+    public CompletableFuture<LenskitRecommenderEngine> swapAsync(Callable<LenskitRecommenderEngine> source) {
+        return swapAsync(source, getLoadExecutor());
+    }
+
+    /**
+     * Load a new engine in the background and swap it in.
+     *
+     * @param source A task that loads or builds the new engine.
+     * @param executor The executor to load and warm the engine with.
+     * @return A future that completes with the new engine once it has been swapped in.
+     * @see #swapAsync(Callable)
+     */
+    public CompletableFuture<LenskitRecommenderEngine> swapAsync(Callable<LenskitRecommenderEngine> source,
+                                                                 Executor executor) {
+        return CompletableFuture.supplyAsync(() -> {
+            LenskitRecommenderEngine engine;
+            try {
+                engine = source.call();
+            } catch (RuntimeException e) {
+                throw e;
+            } catch (Exception e) {
+                throw new RecommenderBuildException("error loading new engine", e);
+            }
+            swap(engine);
+            return engine;
+        }, executor).whenComplete((engine, error) -> {
+            if (error != null) {
+                logger.error("engine swap failed, keeping generation " + getGeneration(), error);
+            }
+        });
+    }
+
+    /**
+     * Load a new engine from a file in the background and swap it in.
+     *
+     * @param loader The loader to use.
+     * @param file The engine file.
+     * @return A future that completes with the new engine once it has been swapped in.
+     * @see #swapAsync(Callable)
+     */
+    public CompletableFuture<LenskitRecommenderEngine> reloadAsync(LenskitRecommenderEngineLoader loader, File file) {
+        return swapAsync(() -> loader.load(file));
+    }
+
+    private ExecutorService getLoadExecutor() {
+        ExecutorService exec = loadExecutor;
+        if (exec == null) {
+            synchronized (this) {
+                exec = loadExecutor;
+                if (exec == null) {
+                    exec = Executors.newSingleThreadExecutor(new ThreadFactoryBuilder().setDaemon(true)
+                                                                                       .setNameFormat("engine-loader-%d")
+                                                                                       .build());
+                    loadExecutor = exec;
+                }
+            }
+        }
+        return exec;
+    }
+
+    /**
+     * Close the holder.  No new recommenders can be created; the current engine is retired once the recommenders
+     * created from it are closed.
+     */
+    @Override
+    public void close() {
+        Generation gen = current.getAndSet(null);
+        if (gen != null) {
+            gen.retire();
+        }
+        ExecutorService exec = loadExecutor;
+        if (exec != null) {
+            exec.shutdown();
+        }
+    }
+
+    /**
+     * Create a warmer that replays recommendation requests.  For each user, it asks a recommender from the new
+     * engine for a recommendation list, so that lazily-loaded components are loaded and per-user code paths are
+     * exercised before the engine receives traffic.
+     *
+     * @param dao The data access object to create the warm-up recommender with.
+     * @param users The users to recommend for.
+     * @param n The length of each recommendation list.
+     * @return The warmer.
+     */
+    public static Warmer replayWarmer(DataAccessObject dao, LongCollection users, int n) {
+        return engine -> {
+            try (LenskitRecommender rec = engine.createRecommender(dao)) {
+                ItemRecommender irec = rec.getItemRecommender();
+                if (irec == null) {
+                    logger.warn("new engine has no item recommender, cannot replay requests");
+                    return;
+                }
+                LongIterator iter = users.iterator();
+                while (iter.hasNext()) {
+                    irec.recommend(iter.nextLong(), n);
+                }
+                logger.debug("replayed {} requests", users.size());
+            }
+        };
+    }
+
+    /**
+     * Prepares a new engine for use before it is swapped in.
+     */
+    @FunctionalInterface
+    public interface Warmer {
+        /**
+         * Warm up an engine.
+         * @param engine The engine.
+         * @throws Exception if the engine cannot be used; it will not be swapped in.
+         */
+        void warm(LenskitRecommenderEngine engine) throws Exception;
+    }
+
+    /**
+     * An engine and the number of open recommenders created from it.
+     */
+    private class Generation {
+        final LenskitRecommenderEngine engine;
+        final long number;
+        final AtomicInteger leases = new AtomicInteger();
+        final CompletableFuture<LenskitRecommenderEngine> retired = new CompletableFuture<>();
+        private volatile boolean retiring;
+        private final AtomicBoolean disposed = new AtomicBoolean();
+
+        Generation(LenskitRecommenderEngine eng, long n) {
+            engine = eng;
+            number = n;
+        }
+
+        void release() {
+            if (leases.decrementAndGet() == 0 && retiring) {
+                dispose();
+            }
+        }
+
+        void retire() {
+            retiring = true;
+            if (leases.get() == 0) {
+                dispose();
+            }
+        }
+
+        private void dispose() {
+            if (disposed.compareAndSet(false, true)) {
+                logger.info("retiring engine generation {}", number);
+                Consumer<LenskitRecommenderEngine> d = disposer;
+                try {
+                    if (d != null) {
+                        d.accept(engine);
+                    }
+                } catch (RuntimeException e) {
+                    logger.error("error disposing engine generation " + number, e);
+                } finally {
+                    retired.complete(engine);
+                }
+            }
+        }
+    }
+
+    /**
+     * Recommender that releases its engine's lease when closed.
+     */
+    private static class LeasedRecommender extends LenskitRecommender {
+        private final Generation generation;
+        private final AtomicBoolean closed = new AtomicBoolean();
+
+        LeasedRecommender(DAGNode<Component, Dependency> graph, Generation gen) {
+            super(graph);
+            generation = gen;
+        }
+
+        @Override
+        public void close() {
+            if (closed.compareAndSet(false, true)) {
+                try {
+                    super.close();
+                } finally {
+                    generation.release();
+                }
+            }
+        }
+    }
+}
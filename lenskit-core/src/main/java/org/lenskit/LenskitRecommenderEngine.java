@@ -31,12 +31,16 @@ import org.grouplens.grapht.ResolutionException;
 import org.grouplens.grapht.graph.DAGNode;
 import org.grouplens.grapht.reflect.Qualifiers;
 import org.grouplens.grapht.reflect.Satisfaction;
+import org.grouplens.grapht.reflect.Satisfactions;
 import org.grouplens.grapht.reflect.internal.InstanceSatisfaction;
 import org.grouplens.grapht.solver.DependencySolver;
 import org.lenskit.util.io.CompressionMode;
 import org.lenskit.api.RecommenderBuildException;
 import org.lenskit.api.RecommenderEngine;
 import org.lenskit.data.dao.DataAccessObject;
+import org.lenskit.engine.ComponentCodecs;
+import org.lenskit.engine.EngineArchive;
+import org.lenskit.inject.BuildProfile;
 import org.lenskit.inject.GraphtUtils;
 import org.lenskit.inject.RecommenderGraphBuilder;
 import org.slf4j.Logger;
@@ -47,6 +51,12 @@ import javax.annotation.Nullable;
 import javax.annotation.WillClose;
 import javax.annotation.WillNotClose;
 import java.io.*;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.stream.Collectors;
 
 /**
  * LensKit implementation of a recommender engine.  It uses containers set up by
@@ -68,8 +78,20 @@ public final class LenskitRecommenderEngine implements RecommenderEngine, Serial
     private static final long serialVersionUID = 1L;
     private static final Logger logger = LoggerFactory.getLogger(LenskitRecommenderEngine.class);
 
-    private final DAGNode<Component, Dependency> graph;
+    private DAGNode<Component, Dependency> graph;
     private final boolean instantiable;
+    /**
+     * Archive to load components from on first use, if the engine was loaded lazily from an archive.  While it is
+     * set, {@link #graph} refers to the archived components rather than holding them.
+     */
+    @Nullable
+    private transient volatile EngineArchive archive;
+    /**
+     * Rewritten recommender graphs for {@link #createRecommender(DataAccessObject)}, keyed by DAO class.
+     */
+    private transient volatile Map<Class<?>, DAOGraphTemplate> daoTemplates;
+    @Nullable
+    private final transient BuildProfile buildProfile;
 
     /**
      * Build an engine encapsulating a dependency graph.  You generally do not want to use this - use
@@ -79,9 +101,24 @@ public final class LenskitRecommenderEngine implements RecommenderEngine, Serial
      */
     public LenskitRecommenderEngine(@Nonnull DAGNode<Component,Dependency> graph,
                                     boolean instantiable) {
+        this(graph, instantiable, null);
+    }
+
+    LenskitRecommenderEngine(@Nonnull DAGNode<Component,Dependency> graph,
+                             boolean instantiable,
+                             @Nullable BuildProfile profile) {
+        this(graph, instantiable, profile, null);
+    }
+
+    LenskitRecommenderEngine(@Nonnull DAGNode<Component,Dependency> graph,
+                             boolean instantiable,
+                             @Nullable BuildProfile profile,
+                             @Nullable EngineArchive archive) {
         Preconditions.checkNotNull(graph, "configuration graph");
         this.graph = graph;
         this.instantiable = instantiable;
+        buildProfile = profile;
+        this.archive = archive;
     }
 
     /**
@@ -178,10 +215,51 @@ public final class LenskitRecommenderEngine implements RecommenderEngine, Serial
      */
     public void write(@Nonnull @WillClose OutputStream stream) throws IOException {
         try (ObjectOutputStream out = new ObjectOutputStream(stream)) {
-            out.writeObject(graph);
+            out.writeObject(resolveGraph());
         }
     }
 
+    /**
+     * Write this recommender engine to a file as an {@linkplain EngineArchive engine archive}.  Each shareable
+     * component is stored as a separate entry, using a {@linkplain org.lenskit.engine.ComponentCodec codec} when one
+     * is registered for its class, so the engine can be loaded with its components read in parallel or on demand.
+     * Archives are never compressed.
+     *
+     * @param file The file to write the engine to.
+     * @throws IOException if there is an error writing the engine.
+     * @see LenskitRecommenderEngineLoader#load(File)
+     */
+    public void writeArchive(@Nonnull File file) throws IOException {
+        EngineArchive.write(resolveGraph(), file, ComponentCodecs.load(null));
+    }
+
+    private void writeObject(ObjectOutputStream out) throws IOException {
+        resolveGraph();
+        out.defaultWriteObject();
+    }
+
+    /**
+     * Get the graph with all archived components loaded, loading them if this is the first use of a lazily-loaded
+     * engine.
+     */
+    private DAGNode<Component, Dependency> resolveGraph() {
+        if (archive != null) {
+            synchronized (this) {
+                EngineArchive arch = archive;
+                if (arch != null) {
+                    try {
+                        graph = arch.resolve(graph);
+                        arch.close();
+                    } catch (IOException e) {
+                        throw new RecommenderBuildException("cannot load components from " + arch.getFile(), e);
+                    }
+                    archive = null;
+                }
+            }
+        }
+        return graph;
+    }
+
     /**
      * Create a recommender.
      * @return The recommender
@@ -191,7 +269,7 @@ public final class LenskitRecommenderEngine implements RecommenderEngine, Serial
     @Override
     public LenskitRecommender createRecommender() {
         Preconditions.checkState(instantiable, "recommender engine does not have instantiable graph");
-        return new LenskitRecommender(graph);
+        return new LenskitRecommender(resolveGraph());
     }
 
     /**
@@ -210,13 +288,53 @@ public final class LenskitRecommenderEngine implements RecommenderEngine, Serial
 
     /**
      * Create a LensKit recommender.
+     *
+     * The graph rewritten to use a DAO depends only on the DAO's class, so the engine rewrites its graph once for
+     * each DAO class and reuses the result, substituting `dao` into the rewritten graph.  Creating a recommender
+     * for a DAO class that has been used before therefore only needs to instantiate the per-recommender
+     * components, as they are requested.
+     *
      * @param dao The data access object
      * @return The constructed recommender.
      */
     public LenskitRecommender createRecommender(@WillNotClose DataAccessObject dao) throws RecommenderBuildException {
-        LenskitConfiguration config = new LenskitConfiguration();
-        config.addComponent(dao);
-        return createRecommender(config);
+        return new LenskitRecommender(createRecommenderGraph(dao));
+    }
+
+    /**
+     * Create the graph for a recommender using a DAO.
+     * @param dao The data access object.
+     * @return The recommender graph.
+     * @see #createRecommender(DataAccessObject)
+     */
+    DAGNode<Component, Dependency> createRecommenderGraph(DataAccessObject dao) throws RecommenderBuildException {
+        Preconditions.checkNotNull(dao, "data access object");
+        Map<Class<?>, DAOGraphTemplate> templates = getDAOTemplates();
+        DAOGraphTemplate template = templates.get(dao.getClass());
+        if (template == null) {
+            LenskitConfiguration config = new LenskitConfiguration();
+            config.addComponent(dao);
+            DAGNode<Component, Dependency> toBuild = createRecommenderGraph(config);
+            template = DAOGraphTemplate.create(toBuild, dao);
+            templates.putIfAbsent(dao.getClass(), template);
+            return toBuild;
+        }
+
+        return template.createGraph(dao);
+    }
+
+    private Map<Class<?>, DAOGraphTemplate> getDAOTemplates() {
+        Map<Class<?>, DAOGraphTemplate> templates = daoTemplates;
+        if (templates == null) {
+            synchronized (this) {
+                templates = daoTemplates;
+                if (templates == null) {
+                    templates = new ConcurrentHashMap<>();
+                    daoTemplates = templates;
+                }
+            }
+        }
+        return templates;
     }
 
     private DAGNode<Component, Dependency> createRecommenderGraph(LenskitConfiguration config) throws RecommenderConfigurationException {
@@ -226,7 +344,7 @@ public final class LenskitRecommenderEngine implements RecommenderEngine, Serial
         rgb.addBindings(config.getBindings());
         DependencySolver solver = rgb.buildDependencySolver();
         try {
-            toBuild = solver.rewrite(graph);
+            toBuild = solver.rewrite(resolveGraph());
         } catch (ResolutionException ex) {
             throw new RecommenderConfigurationException("error reconfiguring recommender", ex);
         }
@@ -234,6 +352,61 @@ public final class LenskitRecommenderEngine implements RecommenderEngine, Serial
         return toBuild;
     }
 
+    /**
+     * A recommender graph rewritten for a DAO class, with its DAO nodes replaced by placeholders so the template
+     * does not retain the DAO it was created with.
+     */
+    private static class DAOGraphTemplate {
+        private final DAGNode<Component, Dependency> graph;
+        private final List<DAGNode<Component, Dependency>> daoNodes;
+
+        private DAOGraphTemplate(DAGNode<Component, Dependency> g, List<DAGNode<Component, Dependency>> nodes) {
+            graph = g;
+            daoNodes = nodes;
+        }
+
+        /**
+         * Create a template from a rewritten graph.
+         * @param graph The graph rewritten to use `dao`.
+         * @param dao The DAO used to rewrite the graph.
+         * @return The template.
+         */
+        static DAOGraphTemplate create(DAGNode<Component, Dependency> graph, DataAccessObject dao) {
+            List<DAGNode<Component, Dependency>> nodes =
+                    graph.getReachableNodes()
+                         .stream()
+                         .filter(n -> {
+                             Satisfaction sat = n.getLabel().getSatisfaction();
+                             return sat instanceof InstanceSatisfaction
+                                     && ((InstanceSatisfaction) sat).getInstance() == dao;
+                         })
+                         .collect(Collectors.toList());
+            return new DAOGraphTemplate(graph, nodes).substitute(Satisfactions.nullOfType(dao.getClass()));
+        }
+
+        /**
+         * Create a recommender graph using a DAO.
+         * @param dao The DAO, whose class must be the class this template was created for.
+         * @return The recommender graph.
+         */
+        DAGNode<Component, Dependency> createGraph(DataAccessObject dao) {
+            return substitute(Satisfactions.instance(dao)).graph;
+        }
+
+        private DAOGraphTemplate substitute(Satisfaction sat) {
+            Map<DAGNode<Component, Dependency>, DAGNode<Component, Dependency>> memory = new HashMap<>();
+            DAGNode<Component, Dependency> result = graph;
+            List<DAGNode<Component, Dependency>> replacements = new ArrayList<>(daoNodes.size());
+            for (DAGNode<Component, Dependency> node: daoNodes) {
+                DAGNode<Component, Dependency> repl =
+                        DAGNode.newBuilder(Component.create(sat, node.getLabel().getCachePolicy())).build();
+                result = result.replaceNode(node, repl, memory);
+                replacements.add(repl);
+            }
+            return new DAOGraphTemplate(result, replacements);
+        }
+    }
+
     /**
      * Query whether this engine is instantiable.  Instantiable recommenders have all their
      * placeholders removed and are ready to instantiate.
@@ -250,7 +423,19 @@ public final class LenskitRecommenderEngine implements RecommenderEngine, Serial
      */
     @Nonnull
     public DAGNode<Component, Dependency> getGraph() {
-        return graph;
+        return resolveGraph();
+    }
+
+    /**
+     * Get the profile of this engine's build.
+     *
+     * @return The per-component build profile, or {@code null} if the engine was not built with
+     *         {@linkplain LenskitRecommenderEngineBuilder#setProfiling(boolean) profiling} enabled (or was loaded
+     *         from a file, as profiles are not serialized).
+     */
+    @Nullable
+    public BuildProfile getBuildProfile() {
+        return buildProfile;
     }
 
     /**
@@ -263,6 +448,15 @@ public final class LenskitRecommenderEngine implements RecommenderEngine, Serial
      */
     @Nullable
     public <T> T getComponent(Class<T> type) {
+        EngineArchive arch = archive;
+        if (arch != null) {
+            // only load the requested component
+            try {
+                return type.cast(arch.findComponent(graph, Qualifiers.matchDefault(), type));
+            } catch (IOException e) {
+                throw new RecommenderBuildException("cannot load component from " + arch.getFile(), e);
+            }
+        }
         DAGNode<Component, Dependency> node = GraphtUtils.findSatisfyingNode(graph, Qualifiers.matchDefault(), type);
         if (node == null) {
             return null;
@@ -34,12 +34,14 @@ import org.grouplens.grapht.solver.DependencySolver;
 import org.grouplens.grapht.util.ClassLoaders;
 import org.lenskit.api.RecommenderBuildException;
 import org.lenskit.data.dao.DataAccessObject;
+import org.lenskit.inject.BuildProfile;
 import org.lenskit.inject.GraphtUtils;
 import org.lenskit.inject.RecommenderGraphBuilder;
 import org.lenskit.inject.RecommenderInstantiator;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import javax.annotation.Nullable;
 import java.util.List;
 
 /**
@@ -61,6 +63,8 @@ public class LenskitRecommenderEngineBuilder {
     private static final Logger logger = LoggerFactory.getLogger(LenskitRecommenderEngineBuilder.class);
     private ClassLoader classLoader = ClassLoaders.inferDefault(getClass());
     private List<Pair<LenskitConfiguration,ModelDisposition>> configurations = Lists.newArrayList();
+    private int threadCount = 1;
+    private boolean profiling = false;
 
     /**
      * Get the class loader this builder will use.  By default, it uses the thread's current context
@@ -82,6 +86,47 @@ public class LenskitRecommenderEngineBuilder {
         return this;
     }
 
+    /**
+     * Get the number of threads this builder will use to instantiate components.
+     * @return The number of threads.
+     */
+    public int getThreadCount() {
+        return threadCount;
+    }
+
+    /**
+     * Set the number of threads to use to instantiate components.  With more than one thread, independent shareable
+     * components (such as the models of different algorithms in a hybrid) are built in parallel.
+     *
+     * @param n The number of threads.  The default is 1, building components sequentially.
+     * @return The builder (for chaining).
+     * @see RecommenderInstantiator#instantiate(int)
+     */
+    public LenskitRecommenderEngineBuilder setThreadCount(int n) {
+        threadCount = n;
+        return this;
+    }
+
+    /**
+     * Query whether this builder profiles component builds.
+     * @return {@code true} if builds are profiled.
+     */
+    public boolean isProfiling() {
+        return profiling;
+    }
+
+    /**
+     * Set whether to profile component builds.  When enabled, the time, CPU time, allocation and retained size of
+     * each shareable component is recorded and made available from {@link LenskitRecommenderEngine#getBuildProfile()}.
+     *
+     * @param prof {@code true} to profile builds.  The default is {@code false}.
+     * @return The builder (for chaining).
+     */
+    public LenskitRecommenderEngineBuilder setProfiling(boolean prof) {
+        profiling = prof;
+        return this;
+    }
+
     /**
      * Add a configuration to be included in the recommender engine.  This is the equivalent of
      * calling {@link #addConfiguration(LenskitConfiguration, ModelDisposition)} with the {@link ModelDisposition#INCLUDED}.
@@ -127,11 +172,15 @@ public class LenskitRecommenderEngineBuilder {
      */
     public LenskitRecommenderEngine build(DataAccessObject dao) throws RecommenderBuildException {
         DAGNode<Component, Dependency> graph = buildRecommenderGraph(dao);
-        graph = instantiateGraph(graph);
+        BuildProfile profile = profiling ? new BuildProfile() : null;
+        graph = instantiateGraph(graph, profile);
         graph = rewriteExcludedComponents(graph, dao);
+        if (profile != null) {
+            logger.debug("build profile:\n{}", profile.formatTable());
+        }
 
         boolean instantiable = GraphtUtils.getPlaceholderNodes(graph).isEmpty();
-        return new LenskitRecommenderEngine(graph, instantiable);
+        return new LenskitRecommenderEngine(graph, instantiable, profile);
     }
 
     /**
@@ -146,7 +195,7 @@ public class LenskitRecommenderEngineBuilder {
      */
     public LenskitRecommender buildRecommender(DataAccessObject dao) throws RecommenderBuildException {
         DAGNode<Component, Dependency> graph = buildRecommenderGraph(dao);
-        graph = instantiateGraph(graph);
+        graph = instantiateGraph(graph, null);
         return new LenskitRecommender(graph);
     }
 
@@ -185,12 +234,14 @@ public class LenskitRecommenderEngineBuilder {
     /**
      * Instantiate the recommender graph.
      * @param graph The recommender graph.
+     * @param profile The profile to record component builds in, or `null` if the build is not profiled.
      * @return The instantiated graph.
      */
-    protected DAGNode<Component, Dependency> instantiateGraph(DAGNode<Component, Dependency> graph) {
-        RecommenderInstantiator inst = RecommenderInstantiator.create(graph);
+    protected DAGNode<Component, Dependency> instantiateGraph(DAGNode<Component, Dependency> graph,
+                                                              @Nullable BuildProfile profile) {
+        RecommenderInstantiator inst = RecommenderInstantiator.create(graph, profile);
 
-        graph = inst.instantiate();
+        graph = inst.instantiate(threadCount);
         return graph;
     }
 
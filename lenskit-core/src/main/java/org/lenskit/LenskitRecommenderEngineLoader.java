@@ -33,6 +33,7 @@ import org.grouplens.grapht.graph.DAGNode;
 import org.grouplens.grapht.solver.DependencySolver;
 import org.grouplens.grapht.util.ClassLoaderContext;
 import org.grouplens.grapht.util.ClassLoaders;
+import org.lenskit.engine.EngineArchive;
 import org.lenskit.util.io.CompressionMode;
 import org.lenskit.util.io.CustomClassLoaderObjectInputStream;
 import org.lenskit.util.io.LKFileUtils;
@@ -41,6 +42,7 @@ import org.lenskit.inject.RecommenderGraphBuilder;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import javax.annotation.Nullable;
 import javax.annotation.WillClose;
 import java.io.*;
 import java.util.List;
@@ -57,6 +59,8 @@ public class LenskitRecommenderEngineLoader {
     private List<LenskitConfiguration> configurations = Lists.newArrayList();
     private EngineValidationMode validationMode = EngineValidationMode.IMMEDIATE;
     private CompressionMode compressionMode = CompressionMode.AUTO;
+    private int threadCount = Runtime.getRuntime().availableProcessors();
+    private boolean lazyLoading = false;
 
     /**
      * Get the configured class loader.
@@ -112,6 +116,49 @@ public class LenskitRecommenderEngineLoader {
         return this;
     }
 
+    /**
+     * Get the number of threads used to load components from engine archives.
+     * @return The thread count.
+     */
+    public int getThreadCount() {
+        return threadCount;
+    }
+
+    /**
+     * Set the number of threads to use when loading components from an {@linkplain EngineArchive engine archive}.
+     * This has no effect on engines written with {@link LenskitRecommenderEngine#write(OutputStream)}, which are
+     * always read sequentially.
+     *
+     * @param n The number of threads.  The default is the number of available processors.
+     * @return The loader (for chaining).
+     */
+    public LenskitRecommenderEngineLoader setThreadCount(int n) {
+        threadCount = n;
+        return this;
+    }
+
+    /**
+     * Query whether components of engine archives are loaded lazily.
+     * @return {@code true} if components are loaded on first use.
+     */
+    public boolean isLazyLoading() {
+        return lazyLoading;
+    }
+
+    /**
+     * Set whether to load the components of {@linkplain EngineArchive engine archives} lazily.  When lazy loading
+     * is enabled, loading an archive only reads its graph; {@link LenskitRecommenderEngine#getComponent(Class)}
+     * loads just the component it returns, and the first recommender created (or other use of the full graph)
+     * loads the remaining components in parallel.  The archive file is kept open until then.
+     *
+     * @param lazy {@code true} to load components lazily.  The default is {@code false}.
+     * @return The loader (for chaining).
+     */
+    public LenskitRecommenderEngineLoader setLazyLoading(boolean lazy) {
+        lazyLoading = lazy;
+        return this;
+    }
+
     /**
      * Load a recommender engine from an input stream.
      * <p>
@@ -139,7 +186,9 @@ public class LenskitRecommenderEngineLoader {
     }
 
     /**
-     * Load a recommender from a file.
+     * Load a recommender from a file.  The file may be either a serialized engine, written with
+     * {@link LenskitRecommenderEngine#write(File)}, or an engine archive, written with
+     * {@link LenskitRecommenderEngine#writeArchive(File)}; archives are detected automatically.
      *
      * @param file The recommender model file to load.
      * @return The recommender engine.
@@ -150,6 +199,9 @@ public class LenskitRecommenderEngineLoader {
      */
     public LenskitRecommenderEngine load(File file) throws IOException, RecommenderConfigurationException {
         logger.info("Loading recommender engine from {}", file);
+        if (EngineArchive.isArchive(file)) {
+            return loadArchive(file);
+        }
         try (FileInputStream input = new FileInputStream(file)) {
             CompressionMode effComp = compressionMode.getEffectiveCompressionMode(file.getName());
             logger.info("using {} compression", effComp);
@@ -208,6 +260,46 @@ public class LenskitRecommenderEngineLoader {
             in.close();
         }
 
+        return makeEngine(graph, null);
+    }
+
+    /**
+     * Load a recommender engine from an archive.
+     *
+     * @param file The archive file.
+     * @return The recommender engine.
+     * @throws IOException If there is an I/O error reading the engine.
+     * @throws RecommenderConfigurationException If there is a configuration error.
+     */
+    private LenskitRecommenderEngine loadArchive(File file) throws IOException, RecommenderConfigurationException {
+        EngineArchive archive = EngineArchive.open(file, classLoader);
+        try {
+            archive.setThreadCount(threadCount);
+            if (lazyLoading) {
+                logger.info("deferring component loading until first use");
+                LenskitRecommenderEngine engine = makeEngine(archive.getGraph(), archive);
+                archive = null; // the engine owns it now
+                return engine;
+            } else {
+                return makeEngine(archive.resolve(archive.getGraph()), null);
+            }
+        } finally {
+            if (archive != null) {
+                archive.close();
+            }
+        }
+    }
+
+    /**
+     * Rewrite and validate a loaded graph, and wrap it in an engine.
+     *
+     * @param graph The loaded graph.
+     * @param archive The archive to load components from lazily, if any.
+     * @return The recommender engine.
+     * @throws RecommenderConfigurationException If there is a configuration error.
+     */
+    private LenskitRecommenderEngine makeEngine(DAGNode<Component, Dependency> graph,
+                                                @Nullable EngineArchive archive) throws RecommenderConfigurationException {
         if (!configurations.isEmpty()) {
             logger.info("rewriting with {} configurations", configurations.size());
             RecommenderGraphBuilder rgb = new RecommenderGraphBuilder();
@@ -234,6 +326,6 @@ public class LenskitRecommenderEngineLoader {
             break; /* do nothing, mark it as instantiable. */
         }
 
-        return new LenskitRecommenderEngine(graph, instantiable);
+        return new LenskitRecommenderEngine(graph, instantiable, null, archive);
     }
 }
@@ -0,0 +1,109 @@
+/*
+ * LensKit, an open-source toolkit for recommender systems.
+ * Copyright 2014-2017 LensKit contributors (see CONTRIBUTORS.md)
+ * Copyright 2010-2014 Regents of the University of Minnesota
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining
+ * a copy of this software and associated documentation files (the
+ * "Software"), to deal in the Software without restriction, including
+ * without limitation the rights to use, copy, modify, merge, publish,
+ * distribute, sublicense, and/or sell copies of the Software, and to
+ * permit persons to whom the Software is furnished to do so, subject to
+ * the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be
+ * included in all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+ * EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF
+ * MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT.
+ * IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY
+ * CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT,
+ * TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION WITH THE
+ * SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ */
+package org.lenskit;
+
+import com.google.common.base.Preconditions;
+import com.google.common.base.Throwables;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+import com.google.common.util.concurrent.UncheckedExecutionException;
+import org.lenskit.api.ItemRecommender;
+import org.lenskit.api.Recommender;
+import org.lenskit.api.ResultList;
+
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.*;
+import java.util.function.Supplier;
+
+/**
+ * Computes batch recommendations on several threads.  Recommenders are per-thread (or per-request) objects, so a
+ * batch cannot be spread across threads with a single recommender; instead, this class splits the users into
+ * contiguous parts and gives each worker thread its own recommender, on which it computes its part with
+ * {@link ItemRecommender#recommendBatchWithDetails(java.util.Collection, int)}.
+ *
+ * @since 3.0
+ */
+public final class ParallelBatchRecommender {
+    private ParallelBatchRecommender() {}
+
+    /**
+     * Recommend for several users in parallel.
+     *
+     * @param recommenders A source of recommenders, such as `() -> engine.createRecommender(dao)`.  It is called
+     *                     once for each worker, from that worker's thread; each recommender is closed when its
+     *                     worker finishes.
+     * @param users The users to recommend for.
+     * @param n The number of recommendations for each user, or a negative value for as many as possible.
+     * @param nthreads The number of threads to use.
+     * @return A map from each user ID to the user's recommendations, in the order of `users`.
+     * @throws IllegalStateException if a recommender has no item recommender.
+     */
+    public static Map<Long, ResultList> recommendWithDetails(Supplier<? extends Recommender> recommenders,
+                                                             List<Long> users, int n, int nthreads) {
+        Preconditions.checkArgument(nthreads > 0, "thread count must be positive");
+        int nparts = Math.min(nthreads, users.size());
+        if (nparts <= 1) {
+            return recommendPart(recommenders, users, n);
+        }
+
+        ExecutorService pool = Executors.newFixedThreadPool(nparts, new ThreadFactoryBuilder()
+                .setNameFormat("lenskit-batch-%d")
+                .setDaemon(true)
+                .build());
+        try {
+            List<Future<Map<Long, ResultList>>> parts = new ArrayList<>(nparts);
+            for (int i = 0; i < nparts; i++) {
+                // divide the users as evenly as possible
+                List<Long> part = users.subList(users.size() * i / nparts, users.size() * (i + 1) / nparts);
+                parts.add(pool.submit(() -> recommendPart(recommenders, part, n)));
+            }
+
+            Map<Long, ResultList> results = new LinkedHashMap<>();
+            for (Future<Map<Long, ResultList>> part: parts) {
+                results.putAll(part.get());
+            }
+            return results;
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new UncheckedExecutionException("interrupted computing recommendations", e);
+        } catch (ExecutionException e) {
+            Throwables.throwIfUnchecked(e.getCause());
+            throw new UncheckedExecutionException(e.getCause());
+        } finally {
+            pool.shutdownNow();
+        }
+    }
+
+    private static Map<Long, ResultList> recommendPart(Supplier<? extends Recommender> recommenders,
+                                                       List<Long> users, int n) {
+        try (Recommender rec = recommenders.get()) {
+            ItemRecommender irec = rec.getItemRecommender();
+            Preconditions.checkState(irec != null, "recommender has no item recommender");
+            return irec.recommendBatchWithDetails(users, n);
+        }
+    }
+}
@@ -24,14 +24,14 @@
  */
 package org.lenskit.basic;
 
+import it.unimi.dsi.fastutil.longs.LongList;
 import it.unimi.dsi.fastutil.longs.LongSet;
 import org.lenskit.api.ItemRecommender;
 import org.lenskit.api.ResultList;
 import org.lenskit.util.collections.LongUtils;
 
 import javax.annotation.Nullable;
-import java.util.List;
-import java.util.Set;
+import java.util.*;
 
 /**
  * Base class to ease implementation of item recommenders.
@@ -96,4 +96,16 @@ public abstract class AbstractItemRecommender implements ItemRecommender {
      * @see #recommendWithDetails(long, int, Set, Set)
      */
     protected abstract ResultList recommendWithDetails(long user, int n, @Nullable LongSet candidates, @Nullable LongSet exclude);
+
+    /**
+     * Pair up users with their results for the batch methods.
+     */
+    static <T> Map<Long, T> zipUsers(LongList users, List<T> results) {
+        assert users.size() == results.size();
+        Map<Long, T> map = new LinkedHashMap<>();
+        for (int i = 0, n = users.size(); i < n; i++) {
+            map.put(users.getLong(i), results.get(i));
+        }
+        return map;
+    }
 }
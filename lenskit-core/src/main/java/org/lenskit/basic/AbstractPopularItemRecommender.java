@@ -0,0 +1,130 @@
+/*
+ * LensKit, an open-source toolkit for recommender systems.
+ * Copyright 2014-2017 LensKit contributors (see CONTRIBUTORS.md)
+ * Copyright 2010-2014 Regents of the University of Minnesota
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining
+ * a copy of this software and associated documentation files (the
+ * "Software"), to deal in the Software without restriction, including
+ * without limitation the rights to use, copy, modify, merge, publish,
+ * distribute, sublicense, and/or sell copies of the Software, and to
+ * permit persons to whom the Software is furnished to do so, subject to
+ * the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be
+ * included in all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+ * EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF
+ * MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT.
+ * IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY
+ * CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT,
+ * TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION WITH THE
+ * SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ */
+package org.lenskit.basic;
+
+import it.unimi.dsi.fastutil.ints.IntList;
+import it.unimi.dsi.fastutil.longs.LongArrayList;
+import it.unimi.dsi.fastutil.longs.LongList;
+import it.unimi.dsi.fastutil.longs.LongSet;
+import org.lenskit.api.ResultList;
+import org.lenskit.data.dao.DataAccessObject;
+import org.lenskit.data.entities.CommonAttributes;
+import org.lenskit.data.entities.EntityType;
+import org.lenskit.results.Results;
+import org.lenskit.util.collections.LongUtils;
+import org.lenskit.util.keys.KeyIndex;
+
+import javax.annotation.Nullable;
+import java.util.*;
+
+/**
+ * Base class for recommenders that recommend items in decreasing order of a precomputed popularity ranking.
+ * Subclasses supply the ranking and the score to report for each item.
+ */
+abstract class AbstractPopularItemRecommender extends AbstractItemRecommender {
+    private final DataAccessObject data;
+    private final EntityType entityType;
+    final PopularityRanking ranking;
+
+    /**
+     * Construct a popular item recommender.
+     * @param dao The data access object, used to look up the items each user has interacted with.
+     * @param type The interaction entity type.
+     * @param items The item index.
+     * @param order The item indexes in decreasing order of popularity.
+     */
+    protected AbstractPopularItemRecommender(DataAccessObject dao, EntityType type, KeyIndex items, IntList order) {
+        data = dao;
+        entityType = type;
+        ranking = new PopularityRanking(items, order);
+    }
+
+    /**
+     * Get the score to report for an item.
+     * @param item The item ID.
+     * @return The item's popularity score.
+     */
+    protected abstract double getPopularityScore(long item);
+
+    @Override
+    protected LongList recommend(long user, int n, @Nullable LongSet candidates, @Nullable LongSet exclude) {
+        if (exclude == null) {
+            exclude = getDefaultExcludes(user);
+        }
+        return ranking.select(n, candidates, exclude);
+    }
+
+    @Override
+    protected ResultList recommendWithDetails(long user, int n, @Nullable LongSet candidates, @Nullable LongSet exclude) {
+        return makeResults(recommend(user, n, candidates, exclude));
+    }
+
+    /**
+     * {@inheritDoc}
+     * This implementation filters the shared popularity ranking against each user's exclude set, reusing one
+     * exclusion mask for the whole batch.
+     */
+    @Override
+    public Map<Long, List<Long>> recommendBatch(Collection<Long> users, int n) {
+        LongList ids = new LongArrayList(LongUtils.asLongCollection(users));
+        List<List<Long>> lists = new ArrayList<>(ids.size());
+        BitSet scratch = new BitSet();
+        for (int i = 0, size = ids.size(); i < size; i++) {
+            lists.add(ranking.selectExcluding(n, getDefaultExcludes(ids.getLong(i)), scratch));
+        }
+        return zipUsers(ids, lists);
+    }
+
+    @Override
+    public Map<Long, ResultList> recommendBatchWithDetails(Collection<Long> users, int n) {
+        Map<Long, ResultList> results = new LinkedHashMap<>();
+        for (Map.Entry<Long, List<Long>> e: recommendBatch(users, n).entrySet()) {
+            results.put(e.getKey(), makeResults(e.getValue()));
+        }
+        return results;
+    }
+
+    /**
+     * Attach popularity scores to a list of items.
+     * @param items The items.
+     * @return The result list, in the same order as `items`.
+     */
+    protected ResultList makeResults(List<Long> items) {
+        return items.stream()
+                    .map(i -> Results.create(i, getPopularityScore(i)))
+                    .collect(Results.listCollector());
+    }
+
+    /**
+     * Get the default exclude set for a user: the items they have already interacted with.
+     * @param user The user ID.
+     * @return The set of items to exclude.
+     */
+    protected LongSet getDefaultExcludes(long user) {
+        return data.query(entityType)
+                   .withAttribute(CommonAttributes.USER_ID, user)
+                   .valueSet(CommonAttributes.ITEM_ID);
+    }
+}
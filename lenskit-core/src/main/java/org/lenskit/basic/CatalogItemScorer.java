@@ -0,0 +1,75 @@
+/*
+ * LensKit, an open-source toolkit for recommender systems.
+ * Copyright 2014-2017 LensKit contributors (see CONTRIBUTORS.md)
+ * Copyright 2010-2014 Regents of the University of Minnesota
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining
+ * a copy of this software and associated documentation files (the
+ * "Software"), to deal in the Software without restriction, including
+ * without limitation the rights to use, copy, modify, merge, publish,
+ * distribute, sublicense, and/or sell copies of the Software, and to
+ * permit persons to whom the Software is furnished to do so, subject to
+ * the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be
+ * included in all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+ * EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF
+ * MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT.
+ * IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY
+ * CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT,
+ * TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION WITH THE
+ * SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ */
+package org.lenskit.basic;
+
+import it.unimi.dsi.fastutil.longs.LongList;
+import it.unimi.dsi.fastutil.longs.LongSet;
+import org.lenskit.api.ItemScorer;
+import org.lenskit.util.collections.Long2DoubleAccumulator;
+
+import javax.annotation.Nonnull;
+import java.util.List;
+
+/**
+ * An item scorer that can score its whole item universe directly.  Scorers whose models cover a fixed set of
+ * items implement this so that full-catalog recommendation can walk the model's items in index order, skipping
+ * excluded ones with a bit mask (see {@link org.lenskit.util.keys.KeyIndex#getIndexMask}), instead of having the
+ * recommender build a candidate set of every item in the data set minus the excluded items on each request.
+ *
+ * {@link TopNItemRecommender} uses this interface when no candidate set is supplied, and uses
+ * {@link #scoreCatalogs(LongList, List, List)} to recommend for blocks of users in batch mode.
+ *
+ * @since 3.0
+ */
+public interface CatalogItemScorer extends ItemScorer {
+    /**
+     * Score every item this scorer can score for a user, except excluded items.  Items the scorer cannot
+     * score for the user are skipped, as they would be left out of {@link #score(long, java.util.Collection)}.
+     *
+     * @param user The user ID.
+     * @param exclude The items not to score.
+     * @param output The accumulator to receive the item scores.
+     */
+    void scoreCatalog(long user, @Nonnull LongSet exclude, @Nonnull Long2DoubleAccumulator output);
+
+    /**
+     * Score the catalog for a block of users.  Scorers can override this to share work between the users, e.g.
+     * by computing their scores as a blocked matrix product; the default implementation calls
+     * {@link #scoreCatalog(long, LongSet, Long2DoubleAccumulator)} for each user.  {@link TopNItemRecommender}
+     * scores one block at a time on the calling thread; scorers that want parallelism within a block must
+     * provide it themselves.
+     *
+     * @param users The user IDs.
+     * @param excludes The items not to score for each user.
+     * @param outputs The accumulator to receive each user's scores.
+     */
+    default void scoreCatalogs(@Nonnull LongList users,
+                               @Nonnull List<? extends LongSet> excludes,
+                               @Nonnull List<? extends Long2DoubleAccumulator> outputs) {
+        for (int i = 0, n = users.size(); i < n; i++) {
+            scoreCatalog(users.getLong(i), excludes.get(i), outputs.get(i));
+        }
+    }
+}
@@ -0,0 +1,56 @@
+/*
+ * LensKit, an open-source toolkit for recommender systems.
+ * Copyright 2014-2017 LensKit contributors (see CONTRIBUTORS.md)
+ * Copyright 2010-2014 Regents of the University of Minnesota
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining
+ * a copy of this software and associated documentation files (the
+ * "Software"), to deal in the Software without restriction, including
+ * without limitation the rights to use, copy, modify, merge, publish,
+ * distribute, sublicense, and/or sell copies of the Software, and to
+ * permit persons to whom the Software is furnished to do so, subject to
+ * the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be
+ * included in all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+ * EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF
+ * MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT.
+ * IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY
+ * CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT,
+ * TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION WITH THE
+ * SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ */
+package org.lenskit.basic;
+
+import org.lenskit.api.ItemRecommender;
+import org.lenskit.data.dao.DataAccessObject;
+import org.lenskit.data.ratings.DecayedInteractionStatistics;
+
+import javax.inject.Inject;
+
+/**
+ * Recommend the most popular items, with popularity decaying over time.  Scores are the items' decayed popularity.
+ *
+ * @see DecayedInteractionStatistics
+ */
+public class DecayedPopularItemRecommender extends AbstractPopularItemRecommender implements ItemRecommender {
+    private final DecayedInteractionStatistics statistics;
+
+    /**
+     * Create a new decayed popular item recommender.
+     * @param stats The decayed interaction statistics.
+     * @param dao The data access object.
+     */
+    @Inject
+    public DecayedPopularItemRecommender(DecayedInteractionStatistics stats, DataAccessObject dao) {
+        super(dao, stats.getEntityType(), stats.getItemIndex(), stats.getItemIndexesByPopularity());
+        statistics = stats;
+    }
+
+    @Override
+    protected double getPopularityScore(long item) {
+        return statistics.getPopularity(item);
+    }
+}
@@ -24,31 +24,24 @@
  */
 package org.lenskit.basic;
 
-import it.unimi.dsi.fastutil.longs.LongArrayList;
 import it.unimi.dsi.fastutil.longs.LongList;
-import it.unimi.dsi.fastutil.longs.LongSet;
 import org.lenskit.api.ItemBasedItemRecommender;
 import org.lenskit.api.ItemRecommender;
 import org.lenskit.api.ResultList;
 import org.lenskit.data.dao.DataAccessObject;
-import org.lenskit.data.entities.CommonAttributes;
 import org.lenskit.data.ratings.InteractionStatistics;
-import org.lenskit.results.Results;
 import org.lenskit.util.collections.LongUtils;
 
 import javax.annotation.Nullable;
 import javax.inject.Inject;
+import java.util.BitSet;
 import java.util.List;
 import java.util.Set;
-import java.util.function.LongPredicate;
-import java.util.stream.IntStream;
-import java.util.stream.LongStream;
 
 /**
  * Recommend the most popular items. More efficient than using a popularity rank scorer.
  */
-public class PopularItemRecommender extends AbstractItemRecommender implements ItemRecommender, ItemBasedItemRecommender {
-    private final DataAccessObject data;
+public class PopularItemRecommender extends AbstractPopularItemRecommender implements ItemRecommender, ItemBasedItemRecommender {
     private final InteractionStatistics statistics;
 
     /**
@@ -57,44 +50,15 @@ public class PopularItemRecommender extends AbstractItemRecommender implements I
      */
     @Inject
     public PopularItemRecommender(InteractionStatistics stats, DataAccessObject dao) {
-        data = dao;
+        super(dao, stats.getEntityType(), stats.getItemIndex(), stats.getItemIndexesByPopularity());
         statistics = stats;
     }
 
-    private LongList recommendWithPredicate(int n, LongPredicate filter) {
-        LongList items = statistics.getItemsByPopularity();
-        LongList list = new LongArrayList(items.size());
-        LongStream str = IntStream.range(0, items.size()).mapToLong(items::getLong);
-        if (filter != null) {
-            str = str.filter(filter);
-        }
-        if (n > 0) {
-            str = str.limit(n);
-        }
-        str.forEachOrdered(list::add);
-        return list;
-    }
-
-    private LongList recommendWithSets(int n, @Nullable Set<Long> candidates, @Nullable Set<Long> exclude) {
-        LongSet cs = LongUtils.asLongSet(candidates);
-        LongSet es = LongUtils.asLongSet(exclude);
-        LongPredicate f;
-        if (cs != null) {
-            if (es != null) {
-                f = i -> cs.contains(i) && !es.contains(i);
-            } else {
-                f = cs::contains;
-            }
-        } else if (es != null) {
-            f = i -> !es.contains(i);
-        } else {
-            f = null;
-        }
-
-        return recommendWithPredicate(n, f);
+    @Override
+    protected double getPopularityScore(long item) {
+        return statistics.getInteractionCount(item);
     }
 
-
     @Override
     public List<Long> recommendRelatedItems(long reference) {
         return recommendRelatedItems(reference, -1);
@@ -102,7 +66,12 @@ public class PopularItemRecommender extends AbstractItemRecommender implements I
 
     @Override
     public List<Long> recommendRelatedItems(long reference, int n) {
-        return recommendWithPredicate(n, i -> i != reference);
+        BitSet exclude = new BitSet();
+        int idx = statistics.getItemIndex().tryGetIndex(reference);
+        if (idx >= 0) {
+            exclude.set(idx);
+        }
+        return ranking.selectMasked(n, null, exclude);
     }
 
     @Override
@@ -112,39 +81,16 @@ public class PopularItemRecommender extends AbstractItemRecommender implements I
 
     @Override
     public List<Long> recommendRelatedItems(Set<Long> basket, int n) {
-        LongSet lbk = LongUtils.asLongSet(basket);
-        return recommendWithPredicate(n, i -> !lbk.contains(i));
+        return ranking.select(n, null, LongUtils.asLongSet(basket));
     }
 
     @Override
     public LongList recommendRelatedItems(Set<Long> basket, int n, @Nullable Set<Long> candidates, @Nullable Set<Long> exclude) {
-        return recommendWithSets(n, candidates, exclude);
+        return ranking.select(n, LongUtils.asLongSet(candidates), LongUtils.asLongSet(exclude));
     }
 
-
     @Override
     public ResultList recommendRelatedItemsWithDetails(Set<Long> basket, int n, @Nullable Set<Long> candidates, @Nullable Set<Long> exclude) {
-        return recommendRelatedItems(basket, n, candidates, exclude)
-                .stream()
-                .map(i -> Results.create(i, statistics.getInteractionCount(i)))
-                .collect(Results.listCollector());
-    }
-
-    @Override
-    protected LongList recommend(long user, int n, @Nullable LongSet candidates, @Nullable LongSet exclude) {
-        if (exclude == null) {
-            exclude = data.query(statistics.getEntityType())
-                          .withAttribute(CommonAttributes.USER_ID, user)
-                          .valueSet(CommonAttributes.ITEM_ID);
-        }
-        return recommendWithSets(n, candidates, exclude);
-    }
-
-    @Override
-    protected ResultList recommendWithDetails(long user, int n, @Nullable LongSet candidates, @Nullable LongSet exclude) {
-        return recommend(user, n, candidates, exclude)
-                .stream()
-                .map(i -> Results.create(i, statistics.getInteractionCount(i)))
-                .collect(Results.listCollector());
+        return makeResults(recommendRelatedItems(basket, n, candidates, exclude));
     }
 }
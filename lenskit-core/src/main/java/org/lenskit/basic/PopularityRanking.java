@@ -0,0 +1,129 @@
+/*
+ * LensKit, an open-source toolkit for recommender systems.
+ * Copyright 2014-2017 LensKit contributors (see CONTRIBUTORS.md)
+ * Copyright 2010-2014 Regents of the University of Minnesota
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining
+ * a copy of this software and associated documentation files (the
+ * "Software"), to deal in the Software without restriction, including
+ * without limitation the rights to use, copy, modify, merge, publish,
+ * distribute, sublicense, and/or sell copies of the Software, and to
+ * permit persons to whom the Software is furnished to do so, subject to
+ * the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be
+ * included in all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+ * EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF
+ * MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT.
+ * IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY
+ * CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT,
+ * TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION WITH THE
+ * SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ */
+package org.lenskit.basic;
+
+import it.unimi.dsi.fastutil.ints.IntList;
+import it.unimi.dsi.fastutil.longs.LongArrayList;
+import it.unimi.dsi.fastutil.longs.LongIterator;
+import it.unimi.dsi.fastutil.longs.LongList;
+import it.unimi.dsi.fastutil.longs.LongSet;
+import org.lenskit.util.keys.KeyIndex;
+
+import javax.annotation.Nullable;
+import java.util.BitSet;
+
+/**
+ * A popularity ranking over a dense item index, used by the popularity recommenders to select the top items
+ * passing candidate and exclude filters.  Filters are converted to bit sets over the item index, and the
+ * ranking is scanned only until enough items are found.
+ */
+final class PopularityRanking {
+    private final KeyIndex items;
+    private final IntList order;
+
+    /**
+     * Create a popularity ranking.
+     * @param items The item index.
+     * @param order The item indexes in decreasing order of popularity.
+     */
+    PopularityRanking(KeyIndex items, IntList order) {
+        this.items = items;
+        this.order = order;
+    }
+
+    /**
+     * Convert a set of items to a bit set over the item index.
+     * @param set The set of items.
+     * @return The bit set, or `null` if `set` is `null`.
+     */
+    @Nullable
+    BitSet mask(@Nullable LongSet set) {
+        return set == null ? null : items.getIndexMask(set);
+    }
+
+    /**
+     * Select the most popular items.
+     *
+     * @param n The number of items to select; only a positive value limits the list.
+     * @param candidates The item indexes to select from, or `null` to select from all items.
+     * @param exclude The item indexes to exclude, or `null` to exclude none.
+     * @return The selected item IDs, in decreasing order of popularity.
+     */
+    LongList selectMasked(int n, @Nullable BitSet candidates, @Nullable BitSet exclude) {
+        int size = order.size();
+        int limit = n > 0 ? Math.min(n, size) : size;
+        if (candidates != null) {
+            limit = Math.min(limit, candidates.cardinality());
+        }
+        LongList list = new LongArrayList(limit);
+        for (int i = 0; i < size && list.size() < limit; i++) {
+            int idx = order.getInt(i);
+            if ((candidates == null || candidates.get(idx)) && (exclude == null || !exclude.get(idx))) {
+                list.add(items.getKey(idx));
+            }
+        }
+        return list;
+    }
+
+    /**
+     * Select the most popular items.
+     *
+     * @param n The number of items to select; only a positive value limits the list.
+     * @param candidates The items to select from, or `null` to select from all items.
+     * @param exclude The items to exclude, or `null` to exclude none.
+     * @return The selected item IDs, in decreasing order of popularity.
+     */
+    LongList select(int n, @Nullable LongSet candidates, @Nullable LongSet exclude) {
+        return selectMasked(n, mask(candidates), mask(exclude));
+    }
+
+    /**
+     * Select the most popular items not in an exclude set, marking the excluded items in a reusable bit set
+     * instead of allocating a mask.  This is used to filter the one ranking for each user in a batch.
+     *
+     * @param n The number of items to select; only a positive value limits the list.
+     * @param exclude The items to exclude.
+     * @param scratch A bit set with no bits set; it is cleared again before this method returns.
+     * @return The selected item IDs, in decreasing order of popularity.
+     */
+    LongList selectExcluding(int n, LongSet exclude, BitSet scratch) {
+        setItems(exclude, scratch, true);
+        try {
+            return selectMasked(n, null, scratch);
+        } finally {
+            setItems(exclude, scratch, false);
+        }
+    }
+
+    private void setItems(LongSet set, BitSet bits, boolean value) {
+        LongIterator iter = set.iterator();
+        while (iter.hasNext()) {
+            int idx = items.tryGetIndex(iter.nextLong());
+            if (idx >= 0) {
+                bits.set(idx, value);
+            }
+        }
+    }
+}
@@ -25,8 +25,7 @@
 package org.lenskit.basic;
 
 
-import it.unimi.dsi.fastutil.longs.Long2DoubleMap;
-import it.unimi.dsi.fastutil.longs.LongSet;
+import it.unimi.dsi.fastutil.longs.*;
 import org.lenskit.api.ItemScorer;
 import org.lenskit.api.Result;
 import org.lenskit.api.ResultList;
@@ -34,17 +33,20 @@ import org.lenskit.api.ResultMap;
 import org.lenskit.data.dao.DataAccessObject;
 import org.lenskit.data.entities.CommonAttributes;
 import org.lenskit.data.entities.CommonTypes;
+import org.lenskit.results.PackedResultMap;
 import org.lenskit.results.ResultAccumulator;
 import org.lenskit.util.collections.Long2DoubleAccumulator;
 import org.lenskit.util.collections.LongUtils;
 import org.lenskit.util.collections.TopNLong2DoubleAccumulator;
 import org.lenskit.util.collections.UnlimitedLong2DoubleAccumulator;
+import org.lenskit.util.keys.Long2DoubleSortedArrayMap;
 import org.lenskit.util.math.Vectors;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import javax.annotation.Nonnull;
 import javax.inject.Inject;
+import java.util.ArrayList;
 import java.util.Collection;
 import java.util.List;
 import java.util.Map;
@@ -52,7 +54,9 @@ import java.util.Map;
 /**
  * Recommender that recommends the top N items by a scorer.
  * Implements all methods required by {@link AbstractItemRecommender}. The
- * default exclude set is all items rated by the user.
+ * default exclude set is all items rated by the user.  If no candidates are
+ * given and the scorer is a {@link CatalogItemScorer}, the scorer scores its
+ * own item universe directly.
  *
  * <p>Recommendations are returned in descending order of score.
  *
@@ -61,6 +65,10 @@ import java.util.Map;
  */
 public class TopNItemRecommender extends AbstractItemRecommender {
     private static final Logger logger = LoggerFactory.getLogger(TopNItemRecommender.class);
+    /**
+     * The number of users scored together in batch recommendation.
+     */
+    static final int BATCH_BLOCK_SIZE = 64;
     protected final DataAccessObject dao;
     protected final ItemScorer scorer;
 
@@ -81,6 +89,10 @@ public class TopNItemRecommender extends AbstractItemRecommender {
      */
     @Override
     protected List<Long> recommend(long user, int n, LongSet candidates, LongSet exclude) {
+        if (candidates == null && scorer instanceof CatalogItemScorer) {
+            return recommendFromCatalog(user, n, exclude);
+        }
+
         candidates = getEffectiveCandidates(user, candidates, exclude);
         logger.debug("Computing {} recommendations for user {} from {} candidates",
                      n, user, candidates.size());
@@ -88,7 +100,7 @@ public class TopNItemRecommender extends AbstractItemRecommender {
         Map<Long, Double> scores = scorer.score(user, candidates);
         Long2DoubleAccumulator accum;
         if (n >= 0) {
-            accum = new TopNLong2DoubleAccumulator(n);
+            accum = TopNLong2DoubleAccumulator.forThread(n);
         } else {
             accum = new UnlimitedLong2DoubleAccumulator();
         }
@@ -110,6 +122,13 @@ public class TopNItemRecommender extends AbstractItemRecommender {
      */
     @Override
     protected ResultList recommendWithDetails(long user, int n, LongSet candidates, LongSet exclude) {
+        if (candidates == null && scorer instanceof CatalogItemScorer) {
+            // find the top items by score, then get details for just those items
+            candidates = LongUtils.packedSet(recommendFromCatalog(user, n, exclude));
+            ResultMap scores = scorer.scoreWithDetails(user, candidates);
+            return getTopNResults(n, scores);
+        }
+
         candidates = getEffectiveCandidates(user, candidates, exclude);
         logger.debug("Computing {} recommendations for user {} from {} candidates",
                      n, user, candidates.size());
@@ -118,6 +137,99 @@ public class TopNItemRecommender extends AbstractItemRecommender {
         return getTopNResults(n, scores);
     }
 
+    /**
+     * {@inheritDoc}
+     * If the scorer is a {@link CatalogItemScorer}, this implementation scores blocks of users together
+     * with {@link CatalogItemScorer#scoreCatalogs(LongList, List, List)}.
+     */
+    @Override
+    public Map<Long, List<Long>> recommendBatch(Collection<Long> users, int n) {
+        if (!(scorer instanceof CatalogItemScorer)) {
+            return super.recommendBatch(users, n);
+        }
+
+        LongList ids = new LongArrayList(LongUtils.asLongCollection(users));
+        return zipUsers(ids, recommendBlocks(ids, n));
+    }
+
+    /**
+     * {@inheritDoc}
+     * If the scorer is a {@link CatalogItemScorer}, this implementation finds the top items for blocks of users
+     * as in {@link #recommendBatch(Collection, int)}, and then gets details for each user's top items.
+     */
+    @Override
+    public Map<Long, ResultList> recommendBatchWithDetails(Collection<Long> users, int n) {
+        if (!(scorer instanceof CatalogItemScorer)) {
+            return super.recommendBatchWithDetails(users, n);
+        }
+
+        LongList ids = new LongArrayList(LongUtils.asLongCollection(users));
+        List<List<Long>> lists = recommendBlocks(ids, n);
+        List<ResultList> results = new ArrayList<>(ids.size());
+        for (int i = 0; i < ids.size(); i++) {
+            ResultMap scores = scorer.scoreWithDetails(ids.getLong(i), lists.get(i));
+            results.add(getTopNResults(n, scores));
+        }
+        return zipUsers(ids, results);
+    }
+
+    /**
+     * Recommend for users from the scorer's catalog, in blocks of {@link #BATCH_BLOCK_SIZE} users.
+     * @return The recommendations for each user, in order.
+     */
+    private List<List<Long>> recommendBlocks(LongList users, int n) {
+        logger.debug("recommending for {} users in blocks of {}", users.size(), BATCH_BLOCK_SIZE);
+        List<List<Long>> lists = new ArrayList<>(users.size());
+        for (int start = 0; start < users.size(); start += BATCH_BLOCK_SIZE) {
+            int end = Math.min(users.size(), start + BATCH_BLOCK_SIZE);
+            lists.addAll(recommendBlock(users.subList(start, end), n));
+        }
+        return lists;
+    }
+
+    private List<List<Long>> recommendBlock(LongList users, int n) {
+        int size = users.size();
+        List<LongSet> excludes = new ArrayList<>(size);
+        List<Long2DoubleAccumulator> accums = new ArrayList<>(size);
+        for (int i = 0; i < size; i++) {
+            excludes.add(getDefaultExcludes(users.getLong(i)));
+            if (n >= 0) {
+                accums.add(new TopNLong2DoubleAccumulator(n));
+            } else {
+                accums.add(new UnlimitedLong2DoubleAccumulator());
+            }
+        }
+
+        ((CatalogItemScorer) scorer).scoreCatalogs(users, excludes, accums);
+
+        List<List<Long>> lists = new ArrayList<>(size);
+        for (Long2DoubleAccumulator accum: accums) {
+            lists.add(accum.finishList());
+        }
+        return lists;
+    }
+
+    /**
+     * Recommend from the scorer's whole item universe, without building a candidate set.
+     */
+    private List<Long> recommendFromCatalog(long user, int n, LongSet exclude) {
+        if (exclude == null) {
+            exclude = getDefaultExcludes(user);
+        }
+        logger.debug("Computing {} recommendations for user {} from scorer catalog, excluding {} items",
+                     n, user, exclude.size());
+
+        Long2DoubleAccumulator accum;
+        if (n >= 0) {
+            // not the thread's shared accumulator, the scorer may use that while filling this one
+            accum = new TopNLong2DoubleAccumulator(n);
+        } else {
+            accum = new UnlimitedLong2DoubleAccumulator();
+        }
+        ((CatalogItemScorer) scorer).scoreCatalog(user, exclude, accum);
+        return accum.finishList();
+    }
+
     private LongSet getEffectiveCandidates(long user, LongSet candidates, LongSet exclude) {
         if (candidates == null) {
             candidates = getPredictableItems(user);
@@ -134,10 +246,18 @@ public class TopNItemRecommender extends AbstractItemRecommender {
     }
 
     @Nonnull
-    private ResultList getTopNResults(int n, Iterable<Result> scores) {
+    private ResultList getTopNResults(int n, ResultMap scores) {
         ResultAccumulator accum = ResultAccumulator.create(n);
-        for (Result r: scores) {
-            accum.add(r);
+        if (scores instanceof PackedResultMap) {
+            // scores only, accumulate them without making result objects
+            Long2DoubleSortedArrayMap scoreMap = ((PackedResultMap) scores).scoreMap();
+            for (int i = 0, sz = scoreMap.size(); i < sz; i++) {
+                accum.add(scoreMap.getKeyByIndex(i), scoreMap.getValueByIndex(i));
+            }
+        } else {
+            for (Result r: scores) {
+                accum.add(r);
+            }
         }
         return accum.finish();
     }
@@ -159,7 +279,9 @@ public class TopNItemRecommender extends AbstractItemRecommender {
     /**
      * Determine the items for which predictions can be made for a certain user.
      * This implementation is naive and asks the DAO for all items; subclasses
-     * should override it with something more efficient if practical.
+     * should override it with something more efficient if practical.  It is not
+     * used if the scorer is a {@link CatalogItemScorer}, as such scorers enumerate
+     * their own items.
      *
      * @param user The user's ID.
      * @return All items for which predictions can be generated for the user.
@@ -24,20 +24,18 @@
  */
 package org.lenskit.bias;
 
-import it.unimi.dsi.fastutil.longs.LongIterator;
-import it.unimi.dsi.fastutil.longs.LongIterators;
 import it.unimi.dsi.fastutil.longs.LongSet;
 import org.lenskit.api.Result;
 import org.lenskit.api.ResultMap;
 import org.lenskit.basic.AbstractItemScorer;
 import org.lenskit.results.Results;
 import org.lenskit.util.collections.LongUtils;
+import org.lenskit.util.keys.Long2DoubleSortedArrayMap;
+import org.lenskit.util.keys.SortedKeyIndex;
 
 import javax.annotation.Nonnull;
 import javax.inject.Inject;
-import java.util.ArrayList;
 import java.util.Collection;
-import java.util.List;
 import java.util.Map;
 
 /**
@@ -71,13 +69,12 @@ public class BiasItemScorer extends AbstractItemScorer {
     @Nonnull
     @Override
     public ResultMap scoreWithDetails(long user, @Nonnull Collection<Long> items) {
-        List<Result> results = new ArrayList<>();
         double base = model.getIntercept() + model.getUserBias(user);
-        LongIterator iter = LongIterators.asLongIterator(items.iterator());
-        while (iter.hasNext()) {
-            long item = iter.nextLong();
-            results.add(Results.create(item, base + model.getItemBias(item)));
+        SortedKeyIndex keys = SortedKeyIndex.fromCollection(items);
+        double[] scores = new double[keys.getUpperBound()];
+        for (int i = keys.getLowerBound(); i < keys.getUpperBound(); i++) {
+            scores[i] = base + model.getItemBias(keys.getKey(i));
         }
-        return Results.newResultMap(results);
+        return Results.fromScoreMap(Long2DoubleSortedArrayMap.wrap(keys, scores));
     }
 }
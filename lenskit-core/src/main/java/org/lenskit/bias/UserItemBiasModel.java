@@ -27,10 +27,16 @@ package org.lenskit.bias;
 import it.unimi.dsi.fastutil.longs.Long2DoubleMap;
 import it.unimi.dsi.fastutil.longs.LongSet;
 import org.grouplens.grapht.annotation.DefaultProvider;
+import org.lenskit.engine.ComponentCodec;
 import org.lenskit.inject.Shareable;
+import org.lenskit.util.io.BinaryData;
 import org.lenskit.util.keys.Long2DoubleSortedArrayMap;
+import org.lenskit.util.keys.SortedKeyIndex;
 
 import net.jcip.annotations.Immutable;
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
 import java.io.Serializable;
 
 /**
@@ -93,4 +99,49 @@ public class UserItemBiasModel implements BiasModel, Serializable {
     public Long2DoubleMap getItemBiases() {
         return itemBiases;
     }
+
+    /**
+     * Binary codec for storing user-item bias models in engine archives.
+     */
+    public static class Codec implements ComponentCodec<UserItemBiasModel> {
+        @Override
+        public Class<UserItemBiasModel> getComponentType() {
+            return UserItemBiasModel.class;
+        }
+
+        @Override
+        public void write(UserItemBiasModel model, DataOutput output) throws IOException {
+            output.writeDouble(model.intercept);
+            writeBiases(model.userBiases, output);
+            writeBiases(model.itemBiases, output);
+        }
+
+        @Override
+        public UserItemBiasModel read(DataInput input) throws IOException {
+            double intercept = input.readDouble();
+            Long2DoubleSortedArrayMap users = readBiases(input);
+            Long2DoubleSortedArrayMap items = readBiases(input);
+            return new UserItemBiasModel(intercept, users, items);
+        }
+
+        private static void writeBiases(Long2DoubleSortedArrayMap biases, DataOutput output) throws IOException {
+            int n = biases.size();
+            long[] keys = new long[n];
+            double[] values = new double[n];
+            for (int i = 0; i < n; i++) {
+                keys[i] = biases.getKeyByIndex(i);
+                values[i] = biases.getValueByIndex(i);
+            }
+            output.writeInt(n);
+            BinaryData.writeLongs(output, keys);
+            BinaryData.writeDoubles(output, values);
+        }
+
+        private static Long2DoubleSortedArrayMap readBiases(DataInput input) throws IOException {
+            int n = input.readInt();
+            long[] keys = BinaryData.readLongs(input, n);
+            double[] values = BinaryData.readDoubles(input, n);
+            return Long2DoubleSortedArrayMap.wrap(SortedKeyIndex.wrap(keys, n), values);
+        }
+    }
 }
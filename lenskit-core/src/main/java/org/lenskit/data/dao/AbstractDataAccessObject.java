@@ -26,6 +26,8 @@ package org.lenskit.data.dao;
 
 import com.google.common.collect.ImmutableList;
 import com.google.common.collect.Ordering;
+import it.unimi.dsi.fastutil.longs.LongOpenHashSet;
+import it.unimi.dsi.fastutil.longs.LongSet;
 import org.lenskit.data.entities.DefaultEntityType;
 import org.lenskit.data.entities.Entity;
 import org.lenskit.data.entities.EntityType;
@@ -33,6 +35,7 @@ import org.lenskit.data.entities.TypedName;
 import org.lenskit.util.IdBox;
 import org.lenskit.util.io.GroupingObjectStream;
 import org.lenskit.util.io.ObjectStream;
+import org.lenskit.util.io.ObjectStreams;
 
 import javax.annotation.Nonnull;
 import javax.annotation.WillCloseWhenClosed;
@@ -99,6 +102,38 @@ public abstract class AbstractDataAccessObject implements DataAccessObject {
         return new GroupStream<>(stream, grpCol);
     }
 
+    /**
+     * Count the entities matching a query.  This is used by {@link Query#count()}; this implementation streams
+     * the query results and counts them.  DAOs that can count without materializing entities should override it.
+     *
+     * @param query The query.
+     * @return The number of entities matching the query.
+     */
+    protected int countEntities(EntityQuery<?> query) {
+        return ObjectStreams.count(streamEntities(query));
+    }
+
+    /**
+     * Get the distinct values of an attribute on the entities matching a query.  This is used by
+     * {@link Query#valueSet(TypedName)}; this implementation streams the query results and extracts the attribute.
+     * DAOs that can read attribute values without materializing entities should override it.
+     *
+     * @param query The query.
+     * @param attr The attribute whose values are wanted.
+     * @return A new (mutable) set of the values of `attr` on matching entities.
+     */
+    protected LongSet getAttributeValues(EntityQuery<?> query, TypedName<Long> attr) {
+        LongSet values = new LongOpenHashSet();
+        try (ObjectStream<? extends Entity> stream = streamEntities(query)) {
+            for (Entity entity: stream) {
+                if (entity.hasAttribute(attr)) {
+                    values.add(entity.getLong(attr));
+                }
+            }
+        }
+        return values;
+    }
+
     private static class GroupStream<E extends Entity> extends GroupingObjectStream<IdBox<List<E>>, E> {
         private final TypedName<Long> attribute;
         private long id;
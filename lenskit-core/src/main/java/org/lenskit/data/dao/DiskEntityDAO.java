@@ -0,0 +1,376 @@
+/*
+ * LensKit, an open-source toolkit for recommender systems.
+ * Copyright 2014-2017 LensKit contributors (see CONTRIBUTORS.md)
+ * Copyright 2010-2014 Regents of the University of Minnesota
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining
+ * a copy of this software and associated documentation files (the
+ * "Software"), to deal in the Software without restriction, including
+ * without limitation the rights to use, copy, modify, merge, publish,
+ * distribute, sublicense, and/or sell copies of the Software, and to
+ * permit persons to whom the Software is furnished to do so, subject to
+ * the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be
+ * included in all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+ * EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF
+ * MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT.
+ * IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY
+ * CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT,
+ * TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION WITH THE
+ * SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ */
+package org.lenskit.data.dao;
+
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableSet;
+import com.google.common.collect.Ordering;
+import com.google.common.hash.Hasher;
+import com.google.common.hash.Hashing;
+import it.unimi.dsi.fastutil.longs.LongArrayList;
+import it.unimi.dsi.fastutil.longs.LongSet;
+import it.unimi.dsi.fastutil.longs.LongSets;
+import org.lenskit.data.entities.*;
+import org.lenskit.util.IdBox;
+import org.lenskit.util.describe.Describable;
+import org.lenskit.util.describe.DescriptionWriter;
+import org.lenskit.util.io.GroupingObjectStream;
+import org.lenskit.util.io.ObjectStream;
+import org.lenskit.util.io.ObjectStreams;
+import org.lenskit.util.keys.LongSortedArraySet;
+
+import javax.annotation.Nonnull;
+import javax.annotation.Nullable;
+import javax.annotation.WillCloseWhenClosed;
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.file.DirectoryNotEmptyException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.*;
+import java.util.function.LongConsumer;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+/**
+ * A DAO backed by sorted on-disk segments, for data sets too large to hold in memory.  Each entity type is stored
+ * in a segment sorted by entity ID, and in one more segment for each indexed attribute (e.g. user and item IDs)
+ * sorted by that attribute.  Only the sparse block indexes of the segments live in memory.
+ *
+ * Queries filtering on an indexed attribute or the entity ID read only the relevant blocks; other queries, and
+ * grouped queries on indexed attributes, stream sequentially through a segment rather than materializing the
+ * data.  Queries requesting a sort order other than entity ID order (or, within a filter on an indexed
+ * attribute, by that attribute) must load their results into memory to sort them.
+ *
+ * The segment files are temporary: they and their directory are deleted when the DAO is {@linkplain #close() closed},
+ * or when the JVM exits if the DAO is never closed.
+ */
+public class DiskEntityDAO extends AbstractDataAccessObject implements Closeable, Describable {
+    private static final SortKey ID_ORDER = SortKey.create(CommonAttributes.ENTITY_ID);
+
+    private final Map<EntityType, EntitySegment> primary;
+    private final Map<EntityType, Map<TypedName<Long>, EntitySegment>> indexes;
+    private final Map<EntityType, LongSortedArraySet> bareIds;
+    private final Path directory;
+
+    DiskEntityDAO(Path dir,
+                  Map<EntityType, EntitySegment> prim,
+                  Map<EntityType, Map<TypedName<Long>, EntitySegment>> idx,
+                  Map<EntityType, LongSortedArraySet> bare) {
+        directory = dir;
+        primary = prim;
+        indexes = idx;
+        bareIds = bare;
+    }
+
+    /**
+     * Create a new DAO builder.
+     * @param dir The directory in which to store the segment files.
+     * @return The disk DAO builder.
+     */
+    public static DiskEntityDAOBuilder newBuilder(Path dir) {
+        return new DiskEntityDAOBuilder(dir);
+    }
+
+    @Override
+    public Set<EntityType> getEntityTypes() {
+        return ImmutableSet.<EntityType>builder()
+                           .addAll(primary.keySet())
+                           .addAll(bareIds.keySet())
+                           .build();
+    }
+
+    /**
+     * {@inheritDoc}
+     *
+     * The IDs of stored (non-derived) entities are read from disk on each call and are not retained, so callers
+     * that need them repeatedly should keep the returned set.
+     */
+    @Override
+    public LongSet getEntityIds(EntityType type) {
+        EntitySegment seg = primary.get(type);
+        LongSortedArraySet bare = bareIds.get(type);
+        if (seg == null) {
+            return bare != null ? bare : LongSets.EMPTY_SET;
+        }
+        LongArrayList ids = LongArrayList.wrap(seg.getKeys());
+        if (bare != null) {
+            ids.addAll(bare);
+        }
+        return new LongSortedArraySet(ids.toLongArray());
+    }
+
+    @Nullable
+    @Override
+    public Entity lookupEntity(EntityType type, long id) {
+        EntitySegment seg = primary.get(type);
+        if (seg != null) {
+            List<Entity> found = seg.find(id);
+            if (!found.isEmpty()) {
+                return found.get(0);
+            }
+        }
+        LongSortedArraySet bare = bareIds.get(type);
+        if (bare != null && bare.contains(id)) {
+            return Entities.create(type, id);
+        }
+        return null;
+    }
+
+    @Nullable
+    @Override
+    public <E extends Entity> E lookupEntity(EntityType type, long id, Class<E> view) {
+        Entity entity = lookupEntity(type, id);
+        if (entity == null) {
+            return null;
+        } else {
+            return Entities.project(entity, view);
+        }
+    }
+
+    @Override
+    public <E extends Entity> ObjectStream<E> streamEntities(EntityQuery<E> query) {
+        EntityType type = query.getEntityType();
+        List<Attribute<?>> filters = query.getFilterFields();
+        EntitySegment seg = primary.get(type);
+        LongSortedArraySet bare = bareIds.get(type);
+
+        ObjectStream<Entity> stored = null;
+        if (seg != null) {
+            stored = findIndexed(type, filters);
+            if (stored == null) {
+                stored = seg.scan();
+            }
+        }
+
+        List<Entity> bareMatches = bare != null ? findBare(type, bare, filters) : Collections.emptyList();
+
+        ObjectStream<Entity> base;
+        boolean idOrdered;
+        if (stored == null) {
+            base = ObjectStreams.wrap(bareMatches);
+            idOrdered = true;
+        } else if (bareMatches.isEmpty()) {
+            base = ObjectStreams.filter(stored, query);
+            idOrdered = true;
+        } else {
+            base = ObjectStreams.concat(ObjectStreams.filter(stored, query),
+                                        ObjectStreams.wrap(bareMatches));
+            idOrdered = false;
+        }
+
+        ObjectStream<E> stream = query.getViewType().equals(Entity.class)
+                ? (ObjectStream<E>) base
+                : ObjectStreams.transform(base, Entities.projection(query.getViewType()));
+
+        List<SortKey> sort = query.getSortKeys();
+        if (sort.isEmpty() || (idOrdered && sort.equals(ImmutableList.of(ID_ORDER)))) {
+            return stream;
+        }
+
+        Ordering<Entity> ord = query.getOrdering();
+        assert ord != null;
+        try {
+            return ObjectStreams.wrap(ord.immutableSortedCopy(stream));
+        } finally {
+            stream.close();
+        }
+    }
+
+    /**
+     * Find derived (bare) entities matching a list of filters.  Bare entities only have IDs, so they can only
+     * match ID filters.
+     */
+    private List<Entity> findBare(EntityType type, LongSortedArraySet ids, List<Attribute<?>> filters) {
+        Long id = null;
+        for (Attribute<?> filter: filters) {
+            if (filter.getTypedName() != CommonAttributes.ENTITY_ID) {
+                return Collections.emptyList();
+            }
+            Long fid = (Long) filter.getValue();
+            if (id != null && !id.equals(fid)) {
+                return Collections.emptyList();
+            }
+            id = fid;
+        }
+        if (id == null) {
+            return ids.stream()
+                      .map(i -> Entities.create(type, i))
+                      .collect(Collectors.toList());
+        } else if (ids.contains((long) id)) {
+            return Collections.singletonList(Entities.create(type, id));
+        } else {
+            return Collections.emptyList();
+        }
+    }
+
+    /**
+     * Look up entities using the first filter on an indexed attribute.
+     * @return The stream of entities, in ID order, matching the indexed filter, or `null` if no filter is indexed.
+     */
+    @Nullable
+    private ObjectStream<Entity> findIndexed(EntityType type, List<Attribute<?>> filters) {
+        Map<TypedName<Long>, EntitySegment> typeIndexes = indexes.get(type);
+        for (Attribute<?> filter: filters) {
+            TypedName<?> name = filter.getTypedName();
+            Object value = filter.getValue();
+            if (!(value instanceof Long)) {
+                continue;
+            }
+            EntitySegment seg;
+            if (name == CommonAttributes.ENTITY_ID) {
+                seg = primary.get(type);
+            } else {
+                seg = typeIndexes != null ? typeIndexes.get(name) : null;
+            }
+            if (seg != null) {
+                return ObjectStreams.wrap(seg.find((Long) value));
+            }
+        }
+        return null;
+    }
+
+    /**
+     * {@inheritDoc}
+     *
+     * If the grouping attribute is indexed, this implementation streams groups directly from the segment sorted
+     * by that attribute, holding only one group in memory at a time.
+     */
+    @Override
+    public <E extends Entity> ObjectStream<IdBox<List<E>>> streamEntityGroups(EntityQuery<E> query, TypedName<Long> grpCol) {
+        Map<TypedName<Long>, EntitySegment> typeIndexes = indexes.get(query.getEntityType());
+        EntitySegment seg = typeIndexes != null ? typeIndexes.get(grpCol) : null;
+        if (seg == null) {
+            return super.streamEntityGroups(query, grpCol);
+        }
+
+        return new GroupStream<>(ObjectStreams.filter(seg.scan(), query), query, grpCol);
+    }
+
+    /**
+     * Close the DAO, deleting its segment files and storage directory.
+     */
+    @Override
+    public void close() throws IOException {
+        List<EntitySegment> segments = new ArrayList<>(primary.values());
+        for (Map<TypedName<Long>, EntitySegment> idx: indexes.values()) {
+            segments.addAll(idx.values());
+        }
+        IOException error = null;
+        for (EntitySegment seg: segments) {
+            try {
+                seg.close();
+            } catch (IOException e) {
+                if (error == null) {
+                    error = e;
+                } else {
+                    error.addSuppressed(e);
+                }
+            }
+        }
+        try {
+            Files.deleteIfExists(directory);
+        } catch (DirectoryNotEmptyException e) {
+            // someone else put files there; leave them alone
+        } catch (IOException e) {
+            if (error == null) {
+                error = e;
+            } else {
+                error.addSuppressed(e);
+            }
+        }
+        if (error != null) {
+            throw error;
+        }
+    }
+
+    @Override
+    public void describeTo(DescriptionWriter writer) {
+        for (EntityType etype: Ordering.natural()
+                                       .onResultOf(Entities.entityTypeNameFunction())
+                                       .sortedCopy(getEntityTypes())) {
+            EntitySegment seg = primary.get(etype);
+            if (seg != null) {
+                writer.putField(etype.getName(), seg, (s, w) -> {
+                    w.putField("entity_count", s.size())
+                     .putField("content_hash", s.getContentHash().toString());
+                });
+            }
+            LongSortedArraySet bare = bareIds.get(etype);
+            if (bare != null) {
+                writer.putField(etype.getName() + "_derived", bare, (ids, w) -> {
+                    Hasher hash = Hashing.md5().newHasher();
+                    ids.forEach((LongConsumer) hash::putLong);
+                    w.putField("entity_count", ids.size())
+                     .putField("content_hash", hash.hash().toString());
+                });
+            }
+        }
+    }
+
+    private static class GroupStream<E extends Entity> extends GroupingObjectStream<IdBox<List<E>>, Entity> {
+        private final EntityQuery<E> query;
+        private final TypedName<Long> attribute;
+        private long id;
+        private List<Entity> group;
+
+        GroupStream(@WillCloseWhenClosed ObjectStream<Entity> base, EntityQuery<E> q, TypedName<Long> attr) {
+            super(base);
+            query = q;
+            attribute = attr;
+        }
+
+        @Override
+        protected void clearGroup() {
+            group = null;
+        }
+
+        @Override
+        protected boolean handleItem(@Nonnull Entity item) {
+            if (group == null) {
+                id = item.getLong(attribute);
+                group = new ArrayList<>();
+            } else if (id != item.getLong(attribute)) {
+                return false;
+            }
+            group.add(item);
+            return true;
+        }
+
+        @Nonnull
+        @Override
+        protected IdBox<List<E>> finishGroup() {
+            Stream<Entity> data = group.stream();
+            Ordering<Entity> ord = query.getOrdering();
+            if (ord != null) {
+                data = data.sorted(ord);
+            }
+            List<E> list = data.map(Entities.projection(query.getViewType()))
+                               .collect(Collectors.toList());
+            group = null;
+            return IdBox.create(id, list);
+        }
+    }
+}
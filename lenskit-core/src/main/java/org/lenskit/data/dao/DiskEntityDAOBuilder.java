@@ -0,0 +1,434 @@
+/*
+ * LensKit, an open-source toolkit for recommender systems.
+ * Copyright 2014-2017 LensKit contributors (see CONTRIBUTORS.md)
+ * Copyright 2010-2014 Regents of the University of Minnesota
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining
+ * a copy of this software and associated documentation files (the
+ * "Software"), to deal in the Software without restriction, including
+ * without limitation the rights to use, copy, modify, merge, publish,
+ * distribute, sublicense, and/or sell copies of the Software, and to
+ * permit persons to whom the Software is furnished to do so, subject to
+ * the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be
+ * included in all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+ * EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF
+ * MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT.
+ * IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY
+ * CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT,
+ * TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION WITH THE
+ * SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ */
+package org.lenskit.data.dao;
+
+import com.google.common.base.Preconditions;
+import com.google.common.collect.ImmutableMap;
+import com.google.common.collect.ImmutableSet;
+import it.unimi.dsi.fastutil.longs.LongOpenHashSet;
+import it.unimi.dsi.fastutil.longs.LongSet;
+import net.jcip.annotations.NotThreadSafe;
+import org.lenskit.data.entities.*;
+import org.lenskit.util.io.ObjectStream;
+import org.lenskit.util.keys.LongSortedArraySet;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.*;
+
+/**
+ * Builder for disk-backed DAOs.  Entities are buffered in memory up to the {@linkplain #setBufferSize(int) buffer
+ * size}, then sorted and spilled to run files; {@link #build()} merges the runs into the final sorted segments.
+ * Memory use is therefore bounded by the buffer size, not the size of the data.  Runs are kept as closed files, and
+ * at most {@linkplain #setMergeFanIn(int) fan-in} of them are opened at once; if there are more runs, they are
+ * merged in several passes.
+ *
+ * Like {@link EntityCollectionDAOBuilder}, these builders are *destructive*: their {@link #build()} method cannot
+ * be called more than once.
+ */
+@NotThreadSafe
+public class DiskEntityDAOBuilder {
+    private static final Logger logger = LoggerFactory.getLogger(DiskEntityDAOBuilder.class);
+    /**
+     * The default number of entities to buffer in memory before spilling a run to disk.
+     */
+    public static final int DEFAULT_BUFFER_SIZE = 1000000;
+    /**
+     * The default maximum number of runs to merge at once.
+     */
+    public static final int DEFAULT_MERGE_FAN_IN = 64;
+
+    private final Path directory;
+    private int bufferSize = DEFAULT_BUFFER_SIZE;
+    private int mergeFanIn = DEFAULT_MERGE_FAN_IN;
+    private int fileCount = 0;
+    private List<TypedName<Long>> defaultIndexes = new ArrayList<>();
+    private Map<EntityType, TypeBuilder> entitySets = new IdentityHashMap<>();
+    private List<EntityDerivation> derivations = new ArrayList<>();
+    // remember the last builder used as a fast path
+    private TypeBuilder lastBuilder = null;
+    private EntityType last = null;
+
+    DiskEntityDAOBuilder(Path dir) {
+        try {
+            Files.createDirectories(dir);
+            directory = Files.createTempDirectory(dir, "lkdao");
+        } catch (IOException e) {
+            throw new UncheckedIOException("cannot create storage directory in " + dir, e);
+        }
+        directory.toFile().deleteOnExit();
+    }
+
+    /**
+     * Set the number of entities to buffer in memory before sorting them and writing a run to disk.
+     * @param size The buffer size.
+     * @return The builder (for chaining).
+     */
+    public DiskEntityDAOBuilder setBufferSize(int size) {
+        Preconditions.checkArgument(size > 0, "buffer size must be positive");
+        bufferSize = size;
+        return this;
+    }
+
+    /**
+     * Set the maximum number of runs to merge at once.  Each run being merged holds an open file, so this bounds
+     * the number of files open while building.
+     * @param n The merge fan-in (at least 2).
+     * @return The builder (for chaining).
+     */
+    public DiskEntityDAOBuilder setMergeFanIn(int n) {
+        Preconditions.checkArgument(n >= 2, "merge fan-in must be at least 2");
+        mergeFanIn = n;
+        return this;
+    }
+
+    /**
+     * Set a layout for an entity type.  Disk storage does not restrict attributes, but uses the entity builder
+     * class to reconstitute entities.
+     * @param et The entity type.
+     * @param attributes The set of known attributes.
+     * @param ebc The entity builder class for reconstituting entities.
+     * @return The builder (for chaining).
+     * @throws IllegalStateException if the specified entity type already has a layout or entities.
+     */
+    public DiskEntityDAOBuilder addEntityLayout(EntityType et, AttributeSet attributes, Class<? extends EntityBuilder> ebc) {
+        Preconditions.checkState(entitySets != null, "build() already called");
+        if (entitySets.containsKey(et)) {
+            throw new IllegalStateException("layout or entities already added for " + et);
+        }
+        TypeBuilder tb = new TypeBuilder(et, ebc);
+        tb.indexes.addAll(defaultIndexes);
+        entitySets.put(et, tb);
+        return this;
+    }
+
+    /**
+     * Index entities by an attribute.  Only long-valued attributes can be indexed; each index is stored as a
+     * separate copy of the data sorted by the attribute.
+     * @param et The entity type.
+     * @param attr The attribute to index.
+     * @return The builder (for chaining).
+     * @throws IllegalStateException if entities of type `et` have already been added.
+     */
+    public DiskEntityDAOBuilder addIndex(EntityType et, TypedName<?> attr) {
+        Preconditions.checkState(entitySets != null, "build() already called");
+        if (!attr.getRawType().equals(Long.class)) {
+            logger.warn("disk storage can only index long attributes, not indexing {}", attr);
+            return this;
+        }
+        TypeBuilder tb = findBuilder(et);
+        Preconditions.checkState(tb.count == 0, "entities already added for %s", et);
+        tb.indexes.add((TypedName<Long>) attr);
+        return this;
+    }
+
+    /**
+     * Add an attribute to index by default on all entities.
+     * @param attr The attribute to index.
+     */
+    public void addDefaultIndex(TypedName<Long> attr) {
+        defaultIndexes.add(attr);
+        for (TypeBuilder tb: entitySets.values()) {
+            Preconditions.checkState(tb.count == 0, "entities already added for %s", tb.type);
+            tb.indexes.add(attr);
+        }
+    }
+
+    /**
+     * Get the entity types registered with this builder so far.
+     * @return The entity types registered so far.
+     */
+    public Set<EntityType> getEntityTypes() {
+        return ImmutableSet.copyOf(entitySets.keySet());
+    }
+
+    /**
+     * Add an entity to the DAO.
+     * @param e The entity to add
+     * @return The DAO builder (for chaining).
+     */
+    public DiskEntityDAOBuilder addEntity(Entity e) {
+        Preconditions.checkState(entitySets != null, "build() already called");
+        TypeBuilder tb = findBuilder(e.getType());
+        tb.add(e);
+        return this;
+    }
+
+    /**
+     * Add multiple entities.
+     * @param entities The entity list.
+     * @return The builder (for chaining).
+     */
+    public DiskEntityDAOBuilder addEntities(Iterable<? extends Entity> entities) {
+        for (Entity e: entities) {
+            addEntity(e);
+        }
+        return this;
+    }
+
+    /**
+     * Derive bare entities from the values in another type of entity.  Unlike
+     * {@link EntityCollectionDAOBuilder#deriveEntities(EntityType, EntityType, TypedName)}, the derivation is
+     * applied when the DAO is built, so it sees all entities regardless of when it is called.  Derived entities
+     * are stored in memory as a set of IDs.
+     *
+     * @param derived The derived entity type.
+     * @param source The source entity type.
+     * @param attr The source attribute.
+     * @return The builder (for chaining).
+     */
+    public DiskEntityDAOBuilder deriveEntities(EntityType derived, EntityType source, TypedName<Long> attr) {
+        Preconditions.checkState(entitySets != null, "build() already called");
+        derivations.add(EntityDerivation.create(derived, source, attr));
+        return this;
+    }
+
+    private TypeBuilder findBuilder(EntityType type) {
+        if (type != last) {
+            lastBuilder = entitySets.get(type);
+            last = type;
+            if (lastBuilder == null) {
+                lastBuilder = new TypeBuilder(type, null);
+                lastBuilder.indexes.addAll(defaultIndexes);
+                entitySets.put(type, lastBuilder);
+            }
+        }
+        assert lastBuilder != null;
+        return lastBuilder;
+    }
+
+    private Path newFile(String name) {
+        fileCount += 1;
+        return directory.resolve(String.format("%s-%05d.seg", name, fileCount));
+    }
+
+    /**
+     * Build the DAO.
+     * @return The disk-backed DAO.
+     */
+    public DiskEntityDAO build() {
+        Preconditions.checkState(entitySets != null, "build() already called");
+        ImmutableMap.Builder<EntityType, EntitySegment> primary = ImmutableMap.builder();
+        ImmutableMap.Builder<EntityType, Map<TypedName<Long>, EntitySegment>> indexes = ImmutableMap.builder();
+        Map<EntityType, LongSortedArraySet> bare = new HashMap<>();
+
+        try {
+            for (TypeBuilder tb: entitySets.values()) {
+                if (tb.count == 0) {
+                    continue;
+                }
+                tb.spill();
+                primary.put(tb.type, tb.merge(CommonAttributes.ENTITY_ID));
+                ImmutableMap.Builder<TypedName<Long>, EntitySegment> idx = ImmutableMap.builder();
+                for (TypedName<Long> attr: tb.indexes) {
+                    idx.put(attr, tb.merge(attr));
+                }
+                indexes.put(tb.type, idx.build());
+            }
+        } catch (IOException e) {
+            throw new DataAccessException("error writing entity segments", e);
+        }
+
+        Map<EntityType, EntitySegment> primaryMap = primary.build();
+        Map<EntityType, Map<TypedName<Long>, EntitySegment>> indexMap = indexes.build();
+        for (EntityDerivation deriv: derivations) {
+            EntitySegment src = primaryMap.get(deriv.getSourceType());
+            if (src == null) {
+                // no source entities, skip
+                continue;
+            }
+            logger.debug("deriving entity type {} from {} (column {})",
+                         deriv.getType(), deriv.getSourceType(), deriv.getAttribute());
+            LongSet ids = new LongOpenHashSet();
+            EntitySegment keySeg = indexMap.get(deriv.getSourceType()).get(deriv.getAttribute());
+            if (keySeg != null) {
+                for (long k: keySeg.getKeys()) {
+                    ids.add(k);
+                }
+            } else {
+                try (ObjectStream<Entity> stream = src.scan()) {
+                    for (Entity e: stream) {
+                        if (e.hasAttribute(deriv.getAttribute())) {
+                            ids.add(e.getLong(deriv.getAttribute()));
+                        }
+                    }
+                }
+            }
+            LongSortedArraySet prev = bare.get(deriv.getType());
+            if (prev != null) {
+                ids.addAll(prev);
+            }
+            EntitySegment stored = primaryMap.get(deriv.getType());
+            if (stored != null) {
+                // keep stored entities instead of derived ones
+                for (long id: stored.getKeys()) {
+                    ids.remove(id);
+                }
+            }
+            bare.put(deriv.getType(), new LongSortedArraySet(ids));
+        }
+
+        entitySets = null;
+        return new DiskEntityDAO(directory, primaryMap, indexMap, bare);
+    }
+
+    /**
+     * Accumulate the entities of one type.
+     */
+    private class TypeBuilder {
+        private final EntityType type;
+        private final Class<? extends EntityBuilder> builderClass;
+        private final Set<TypedName<Long>> indexes = new LinkedHashSet<>();
+        private final List<Entity> buffer = new ArrayList<>();
+        private final Map<TypedName<Long>, List<EntitySegment>> runs = new HashMap<>();
+        private int count = 0;
+
+        TypeBuilder(EntityType et, Class<? extends EntityBuilder> ebc) {
+            type = et;
+            builderClass = ebc;
+        }
+
+        void add(Entity e) {
+            buffer.add(e);
+            count += 1;
+            if (buffer.size() >= bufferSize) {
+                try {
+                    spill();
+                } catch (IOException ex) {
+                    throw new DataAccessException("error spilling entities to disk", ex);
+                }
+            }
+        }
+
+        /**
+         * Sort the buffered entities by each key and write them to run files.
+         */
+        void spill() throws IOException {
+            if (buffer.isEmpty()) {
+                return;
+            }
+            logger.debug("spilling {} entities of type {}", buffer.size(), type);
+            writeRun(CommonAttributes.ENTITY_ID);
+            for (TypedName<Long> attr: indexes) {
+                writeRun(attr);
+            }
+            buffer.clear();
+        }
+
+        private void writeRun(TypedName<Long> key) throws IOException {
+            List<Entity> sorted = new ArrayList<>(buffer.size());
+            for (Entity e: buffer) {
+                if (key == CommonAttributes.ENTITY_ID || e.hasAttribute(key)) {
+                    sorted.add(e);
+                }
+            }
+            sorted.sort(EntitySegment.keyOrder(key));
+            EntitySegment.Writer w = EntitySegment.create(newFile("run"), type, key, false, builderClass);
+            for (Entity e: sorted) {
+                w.write(e);
+            }
+            runs.computeIfAbsent(key, k -> new ArrayList<>())
+                .add(w.finish());
+        }
+
+        /**
+         * Merge the runs for a key into a final segment.  If there are more runs than the merge fan-in, groups of
+         * runs are first merged into longer intermediate runs until few enough remain.
+         */
+        EntitySegment merge(TypedName<Long> key) throws IOException {
+            List<EntitySegment> keyRuns = runs.remove(key);
+            if (keyRuns == null) {
+                keyRuns = Collections.emptyList();
+            }
+            logger.debug("merging {} runs of {} by {}", keyRuns.size(), type, key);
+            while (keyRuns.size() > mergeFanIn) {
+                logger.debug("merging {} runs of {} by {} in groups of {}",
+                             keyRuns.size(), type, key, mergeFanIn);
+                List<EntitySegment> merged = new ArrayList<>();
+                for (int i = 0; i < keyRuns.size(); i += mergeFanIn) {
+                    List<EntitySegment> group = keyRuns.subList(i, Math.min(keyRuns.size(), i + mergeFanIn));
+                    merged.add(mergeRuns(group, key, newFile("run"), false));
+                }
+                keyRuns = merged;
+            }
+            return mergeRuns(keyRuns, key, newFile(type.getName()), key != CommonAttributes.ENTITY_ID);
+        }
+
+        /**
+         * Merge runs into a new segment, deleting the runs.
+         */
+        private EntitySegment mergeRuns(List<EntitySegment> keyRuns, TypedName<Long> key,
+                                        Path file, boolean grouped) throws IOException {
+            Comparator<Entity> order = EntitySegment.keyOrder(key);
+            PriorityQueue<RunCursor> queue = new PriorityQueue<>((c1, c2) -> order.compare(c1.head, c2.head));
+            List<ObjectStream<Entity>> streams = new ArrayList<>();
+            EntitySegment.Writer w = EntitySegment.create(file, type, key, grouped, builderClass);
+            try {
+                for (EntitySegment run: keyRuns) {
+                    ObjectStream<Entity> stream = run.scan();
+                    streams.add(stream);
+                    RunCursor cur = new RunCursor(stream);
+                    if (cur.head != null) {
+                        queue.add(cur);
+                    }
+                }
+                while (!queue.isEmpty()) {
+                    RunCursor cur = queue.poll();
+                    w.write(cur.head);
+                    if (cur.advance()) {
+                        queue.add(cur);
+                    }
+                }
+                return w.finish();
+            } finally {
+                for (ObjectStream<Entity> stream: streams) {
+                    stream.close();
+                }
+                for (EntitySegment run: keyRuns) {
+                    run.close();
+                }
+            }
+        }
+    }
+
+    private static class RunCursor {
+        private final ObjectStream<Entity> stream;
+        private Entity head;
+
+        RunCursor(ObjectStream<Entity> s) {
+            stream = s;
+            head = stream.readObject();
+        }
+
+        boolean advance() {
+            head = stream.readObject();
+            return head != null;
+        }
+    }
+}
@@ -25,6 +25,7 @@
 package org.lenskit.data.dao;
 
 import com.google.common.collect.Ordering;
+import it.unimi.dsi.fastutil.longs.LongOpenHashSet;
 import it.unimi.dsi.fastutil.longs.LongSet;
 import it.unimi.dsi.fastutil.longs.LongSets;
 import org.lenskit.data.entities.*;
@@ -77,6 +78,23 @@ public class EntityCollectionDAO extends AbstractDataAccessObject implements Des
         return newBuilder().addEntities(data).build();
     }
 
+    /**
+     * Create a DAO from pre-built entity collections, such as snapshots of
+     * {@link org.lenskit.data.store.AppendableEntityCollection}.
+     * @param collections The entity collections, with at most one per entity type.
+     * @return The DAO.
+     * @throws IllegalArgumentException if two collections have the same entity type.
+     */
+    public static EntityCollectionDAO fromCollections(Iterable<? extends EntityCollection> collections) {
+        Map<EntityType, EntityCollection> data = new HashMap<>();
+        for (EntityCollection ec: collections) {
+            if (data.put(ec.getType(), ec) != null) {
+                throw new IllegalArgumentException("multiple collections for type " + ec.getType());
+            }
+        }
+        return new EntityCollectionDAO(data);
+    }
+
 
     @Override
     public Set<EntityType> getEntityTypes() {
@@ -207,6 +225,24 @@ public class EntityCollectionDAO extends AbstractDataAccessObject implements Des
         };
     }
 
+    @Override
+    protected int countEntities(EntityQuery<?> query) {
+        EntityCollection data = storage.get(query.getEntityType());
+        if (data == null) {
+            return 0;
+        }
+        return data.count(query.getFilterFields());
+    }
+
+    @Override
+    protected LongSet getAttributeValues(EntityQuery<?> query, TypedName<Long> attr) {
+        EntityCollection data = storage.get(query.getEntityType());
+        if (data == null) {
+            return new LongOpenHashSet();
+        }
+        return data.valueSet(attr, query.getFilterFields());
+    }
+
     @Override
     public void describeTo(DescriptionWriter writer) {
         for (EntityType etype: Ordering.natural()
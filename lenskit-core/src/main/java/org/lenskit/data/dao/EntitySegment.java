@@ -0,0 +1,498 @@
+/*
+ * LensKit, an open-source toolkit for recommender systems.
+ * Copyright 2014-2017 LensKit contributors (see CONTRIBUTORS.md)
+ * Copyright 2010-2014 Regents of the University of Minnesota
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining
+ * a copy of this software and associated documentation files (the
+ * "Software"), to deal in the Software without restriction, including
+ * without limitation the rights to use, copy, modify, merge, publish,
+ * distribute, sublicense, and/or sell copies of the Software, and to
+ * permit persons to whom the Software is furnished to do so, subject to
+ * the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be
+ * included in all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+ * EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF
+ * MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT.
+ * IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY
+ * CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT,
+ * TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION WITH THE
+ * SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ */
+package org.lenskit.data.dao;
+
+import com.google.common.base.Preconditions;
+import com.google.common.collect.ImmutableList;
+import com.google.common.hash.HashCode;
+import com.google.common.hash.Hasher;
+import com.google.common.hash.Hashing;
+import it.unimi.dsi.fastutil.longs.LongArrayList;
+import org.lenskit.data.entities.*;
+import org.lenskit.util.io.AbstractObjectStream;
+import org.lenskit.util.io.ObjectStream;
+import org.lenskit.util.reflect.InstanceFactory;
+
+import javax.annotation.Nullable;
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.*;
+
+/**
+ * A sorted on-disk segment of entities.  Entities are stored in blocks, sorted by a key attribute (and then by
+ * entity ID); an in-memory sparse index of the first key of each block supports key lookups, and the whole
+ * segment can be scanned sequentially without loading it into memory.
+ *
+ * Blocks in a *grouped* segment contain only one key each, so groups can be read without touching neighboring
+ * data; blocks in an ungrouped segment are packed with consecutive entities regardless of key.
+ *
+ * This class is thread-safe once written; lookups use positional reads on a shared channel, which is only opened
+ * on the first lookup.  Segments that are only scanned, such as the runs merged by {@link DiskEntityDAOBuilder},
+ * therefore do not hold a file open.
+ */
+class EntitySegment implements Closeable {
+    static final int BLOCK_SIZE = 1024;
+    private static final int HEADER_SIZE = 16;
+
+    private static final byte VAL_OBJECT = 0;
+    private static final byte VAL_LONG = 1;
+    private static final byte VAL_DOUBLE = 2;
+    private static final byte VAL_STRING = 3;
+
+    private final EntityType entityType;
+    private final TypedName<Long> keyAttribute;
+    private final Path file;
+    private final List<TypedName<?>> attributes;
+    private final long[] blockKeys;
+    private final long[] blockOffsets;
+    private final int size;
+    private final HashCode contentHash;
+    private final InstanceFactory<EntityBuilder> builderFactory;
+    private volatile FileChannel channel;
+
+    private EntitySegment(Writer w) throws IOException {
+        entityType = w.entityType;
+        keyAttribute = w.keyAttribute;
+        file = w.file;
+        attributes = ImmutableList.copyOf(w.attributes);
+        blockKeys = w.blockKeys.toLongArray();
+        blockOffsets = w.blockOffsets.toLongArray();
+        size = w.size;
+        contentHash = w.hasher.hash();
+        builderFactory = w.builderFactory;
+    }
+
+    /**
+     * Create a writer for a new segment.
+     * @param file The file to write.
+     * @param type The entity type.
+     * @param key The sort key attribute ({@link CommonAttributes#ENTITY_ID} for an ID-sorted segment).
+     * @param grouped Whether to keep each key in its own blocks.
+     * @param ebc The entity builder class to reconstitute entities, or `null` to use the default.
+     * @return The writer.
+     */
+    static Writer create(Path file, EntityType type, TypedName<Long> key, boolean grouped,
+                         @Nullable Class<? extends EntityBuilder> ebc) throws IOException {
+        return new Writer(file, type, key, grouped, ebc);
+    }
+
+    /**
+     * Extract a sort key from an entity.
+     * @param e The entity.
+     * @param key The key attribute.
+     * @return The key value.
+     */
+    static long keyOf(Entity e, TypedName<Long> key) {
+        return key == CommonAttributes.ENTITY_ID ? e.getId() : e.getLong(key);
+    }
+
+    /**
+     * Get a comparator ordering entities by a key attribute and then by ID.
+     * @param key The key attribute.
+     * @return The comparator.
+     */
+    static Comparator<Entity> keyOrder(TypedName<Long> key) {
+        if (key == CommonAttributes.ENTITY_ID) {
+            return Comparator.comparingLong(Entity::getId);
+        } else {
+            return Comparator.comparingLong((Entity e) -> e.getLong(key))
+                             .thenComparingLong(Entity::getId);
+        }
+    }
+
+    EntityType getEntityType() {
+        return entityType;
+    }
+
+    TypedName<Long> getKeyAttribute() {
+        return keyAttribute;
+    }
+
+    /**
+     * Get the number of entities in this segment.
+     */
+    int size() {
+        return size;
+    }
+
+    /**
+     * Get a hash of this segment's contents.
+     */
+    HashCode getContentHash() {
+        return contentHash;
+    }
+
+    /**
+     * Get the distinct keys in this segment, in sorted order.
+     * @return The keys.
+     */
+    long[] getKeys() {
+        LongArrayList keys = new LongArrayList();
+        if (keyAttribute == CommonAttributes.ENTITY_ID) {
+            // packed blocks only record their first key
+            try (ObjectStream<Entity> stream = scan()) {
+                for (Entity e: stream) {
+                    keys.add(e.getId());
+                }
+            }
+        } else {
+            for (long k: blockKeys) {
+                if (keys.isEmpty() || keys.getLong(keys.size() - 1) != k) {
+                    keys.add(k);
+                }
+            }
+        }
+        return keys.toLongArray();
+    }
+
+    /**
+     * Find the entities with a key.
+     * @param key The key value.
+     * @return The entities with that key, in ID order.
+     */
+    List<Entity> find(long key) {
+        int i = Arrays.binarySearch(blockKeys, key);
+        if (i < 0) {
+            // not a block boundary; the key may be inside the preceding block
+            i = -i - 2;
+        } else {
+            // back up to the first block with this key
+            while (i > 0 && blockKeys[i - 1] == key) {
+                i -= 1;
+            }
+        }
+        if (i < 0) {
+            return Collections.emptyList();
+        }
+
+        List<Entity> result = new ArrayList<>();
+        try {
+            for (; i < blockKeys.length && blockKeys[i] <= key; i++) {
+                for (Entity e: readBlock(i)) {
+                    if (keyOf(e, keyAttribute) == key) {
+                        result.add(e);
+                    }
+                }
+            }
+        } catch (IOException e) {
+            throw new DataAccessException("error reading " + file, e);
+        }
+        return result;
+    }
+
+    /**
+     * Scan the entire segment in key order.
+     * @return A stream of the segment's entities.
+     */
+    ObjectStream<Entity> scan() {
+        final DataInputStream input;
+        try {
+            input = new DataInputStream(new BufferedInputStream(Files.newInputStream(file)));
+        } catch (IOException e) {
+            throw new DataAccessException("cannot open " + file, e);
+        }
+        return new AbstractObjectStream<Entity>() {
+            int block = 0;
+            Iterator<Entity> current = Collections.emptyIterator();
+
+            @Override
+            public Entity readObject() {
+                try {
+                    while (!current.hasNext()) {
+                        if (block >= blockKeys.length) {
+                            return null;
+                        }
+                        input.readLong();
+                        int n = input.readInt();
+                        int len = input.readInt();
+                        byte[] data = new byte[len];
+                        input.readFully(data);
+                        current = decode(data, n).iterator();
+                        block += 1;
+                    }
+                } catch (IOException e) {
+                    throw new DataAccessException("error reading " + file, e);
+                }
+                return current.next();
+            }
+
+            @Override
+            public void close() {
+                try {
+                    input.close();
+                } catch (IOException e) {
+                    throw new DataAccessException("error closing " + file, e);
+                }
+            }
+        };
+    }
+
+    private List<Entity> readBlock(int block) throws IOException {
+        ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE);
+        long pos = blockOffsets[block];
+        readFully(header, pos);
+        header.flip();
+        header.getLong();
+        int n = header.getInt();
+        int len = header.getInt();
+        ByteBuffer data = ByteBuffer.allocate(len);
+        readFully(data, pos + HEADER_SIZE);
+        return decode(data.array(), n);
+    }
+
+    private FileChannel getChannel() throws IOException {
+        FileChannel ch = channel;
+        if (ch == null) {
+            synchronized (this) {
+                ch = channel;
+                if (ch == null) {
+                    ch = FileChannel.open(file, StandardOpenOption.READ);
+                    channel = ch;
+                }
+            }
+        }
+        return ch;
+    }
+
+    private void readFully(ByteBuffer buf, long pos) throws IOException {
+        FileChannel channel = getChannel();
+        while (buf.hasRemaining()) {
+            int n = channel.read(buf, pos);
+            if (n < 0) {
+                throw new EOFException("unexpected end of " + file);
+            }
+            pos += n;
+        }
+    }
+
+    @SuppressWarnings({"unchecked", "rawtypes"})
+    private List<Entity> decode(byte[] data, int n) throws IOException {
+        DataInputStream input = new DataInputStream(new ByteArrayInputStream(data));
+        List<Entity> entities = new ArrayList<>(n);
+        for (int i = 0; i < n; i++) {
+            EntityBuilder eb = builderFactory != null
+                    ? builderFactory.newInstance()
+                    : Entities.newBuilder(entityType);
+            eb.setId(input.readLong());
+            int na = input.readShort();
+            for (int j = 0; j < na; j++) {
+                TypedName name = attributes.get(input.readShort());
+                byte tag = input.readByte();
+                switch (tag) {
+                case VAL_LONG:
+                    eb.setLongAttribute(name, input.readLong());
+                    break;
+                case VAL_DOUBLE:
+                    eb.setDoubleAttribute(name, input.readDouble());
+                    break;
+                case VAL_STRING:
+                    eb.setAttribute(name, input.readUTF());
+                    break;
+                default:
+                    byte[] bytes = new byte[input.readInt()];
+                    input.readFully(bytes);
+                    try (ObjectInputStream ois = new ObjectInputStream(new ByteArrayInputStream(bytes))) {
+                        eb.setAttribute(name, ois.readObject());
+                    } catch (ClassNotFoundException e) {
+                        throw new IOException("cannot deserialize attribute " + name, e);
+                    }
+                }
+            }
+            entities.add(eb.build());
+        }
+        return entities;
+    }
+
+    /**
+     * Close this segment and delete its file.
+     */
+    @Override
+    public synchronized void close() throws IOException {
+        try {
+            if (channel != null) {
+                channel.close();
+            }
+        } finally {
+            Files.deleteIfExists(file);
+        }
+    }
+
+    @Override
+    public String toString() {
+        return String.format("EntitySegment(%s by %s, %d entities in %s)",
+                             entityType, keyAttribute.getName(), size, file);
+    }
+
+    /**
+     * Writer for entity segments.  Entities must be written in {@linkplain #keyOrder(TypedName) key order}.
+     */
+    static class Writer implements Closeable {
+        private final Path file;
+        private final EntityType entityType;
+        private final TypedName<Long> keyAttribute;
+        private final boolean grouped;
+        private final InstanceFactory<EntityBuilder> builderFactory;
+        private final DataOutputStream output;
+        private final List<TypedName<?>> attributes = new ArrayList<>();
+        private final Map<TypedName<?>, Integer> attrIndex = new HashMap<>();
+        private final LongArrayList blockKeys = new LongArrayList();
+        private final LongArrayList blockOffsets = new LongArrayList();
+        private final Hasher hasher = Hashing.md5().newHasher();
+
+        private long offset = 0;
+        private int size = 0;
+        private ByteArrayOutputStream blockBytes = new ByteArrayOutputStream();
+        private DataOutputStream blockOutput = new DataOutputStream(blockBytes);
+        private int blockCount = 0;
+        private long blockKey;
+        private long lastKey;
+        private long lastId;
+
+        private Writer(Path f, EntityType type, TypedName<Long> key, boolean grp,
+                       @Nullable Class<? extends EntityBuilder> ebc) throws IOException {
+            file = f;
+            entityType = type;
+            keyAttribute = key;
+            grouped = grp;
+            if (ebc == null || ebc.equals(BasicEntityBuilder.class)) {
+                builderFactory = null;
+            } else {
+                builderFactory = InstanceFactory.fromConstructor(ebc, type);
+            }
+            output = new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(file)));
+            file.toFile().deleteOnExit();
+        }
+
+        /**
+         * Write an entity to the segment.
+         * @param e The entity.
+         */
+        void write(Entity e) throws IOException {
+            Preconditions.checkArgument(e.getType() == entityType, "unexpected entity type %s", e.getType());
+            long key = keyOf(e, keyAttribute);
+            long id = e.getId();
+            if (size > 0) {
+                Preconditions.checkArgument(key > lastKey || (key == lastKey && id > lastId),
+                                            "entity %s out of order", e);
+            }
+            if (blockCount >= BLOCK_SIZE || (grouped && blockCount > 0 && key != blockKey)) {
+                flushBlock();
+            }
+            if (blockCount == 0) {
+                blockKey = key;
+            }
+
+            blockOutput.writeLong(id);
+            hasher.putLong(id);
+            Collection<Attribute<?>> attrs = e.getAttributes();
+            int na = 0;
+            for (Attribute<?> a: attrs) {
+                if (a.getTypedName() != CommonAttributes.ENTITY_ID) {
+                    na += 1;
+                }
+            }
+            blockOutput.writeShort(na);
+            for (Attribute<?> a: attrs) {
+                TypedName<?> name = a.getTypedName();
+                if (name == CommonAttributes.ENTITY_ID) {
+                    continue;
+                }
+                Integer ai = attrIndex.get(name);
+                if (ai == null) {
+                    ai = attributes.size();
+                    Preconditions.checkState(ai < Short.MAX_VALUE, "too many attributes");
+                    attributes.add(name);
+                    attrIndex.put(name, ai);
+                }
+                blockOutput.writeShort(ai);
+                Object val = a.getValue();
+                hasher.putInt(ai);
+                hasher.putInt(val.hashCode());
+                if (val instanceof Long) {
+                    blockOutput.writeByte(VAL_LONG);
+                    blockOutput.writeLong((Long) val);
+                } else if (val instanceof Double) {
+                    blockOutput.writeByte(VAL_DOUBLE);
+                    blockOutput.writeDouble((Double) val);
+                } else if (val instanceof String && ((String) val).length() < 16384) {
+                    blockOutput.writeByte(VAL_STRING);
+                    blockOutput.writeUTF((String) val);
+                } else {
+                    blockOutput.writeByte(VAL_OBJECT);
+                    ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+                    try (ObjectOutputStream oos = new ObjectOutputStream(bytes)) {
+                        oos.writeObject(val);
+                    }
+                    blockOutput.writeInt(bytes.size());
+                    bytes.writeTo(blockOutput);
+                }
+            }
+
+            blockCount += 1;
+            size += 1;
+            lastKey = key;
+            lastId = id;
+        }
+
+        private void flushBlock() throws IOException {
+            if (blockCount == 0) {
+                return;
+            }
+            blockOutput.flush();
+            blockKeys.add(blockKey);
+            blockOffsets.add(offset);
+            output.writeLong(blockKey);
+            output.writeInt(blockCount);
+            output.writeInt(blockBytes.size());
+            blockBytes.writeTo(output);
+            offset += HEADER_SIZE + blockBytes.size();
+            blockBytes.reset();
+            blockCount = 0;
+        }
+
+        /**
+         * Finish writing the segment.
+         * @return The segment, ready for reading.
+         */
+        EntitySegment finish() throws IOException {
+            flushBlock();
+            output.close();
+            return new EntitySegment(this);
+        }
+
+        /**
+         * Abandon the writer, deleting its file.
+         */
+        @Override
+        public void close() throws IOException {
+            output.close();
+            Files.deleteIfExists(file);
+        }
+    }
+}
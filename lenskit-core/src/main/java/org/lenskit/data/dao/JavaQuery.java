@@ -24,7 +24,6 @@
  */
 package org.lenskit.data.dao;
 
-import it.unimi.dsi.fastutil.longs.LongOpenHashSet;
 import it.unimi.dsi.fastutil.longs.LongSet;
 import org.lenskit.data.entities.Entity;
 import org.lenskit.data.entities.EntityType;
@@ -41,7 +40,7 @@ import java.util.List;
  * @param <E> The entity type.
  */
 class JavaQuery<E extends Entity> implements Query<E> {
-    private final DataAccessObject dao;
+    private final AbstractDataAccessObject dao;
     private final EntityQueryBuilder builder;
     private final Class<E> viewClass;
 
@@ -50,11 +49,11 @@ class JavaQuery<E extends Entity> implements Query<E> {
      * @param type The entity type.
      * @param view The view type.
      */
-    JavaQuery(DataAccessObject dao, EntityType type, Class<E> view) {
+    JavaQuery(AbstractDataAccessObject dao, EntityType type, Class<E> view) {
         this(dao, EntityQuery.newBuilder(type), view);
     }
 
-    JavaQuery(DataAccessObject dao, EntityQueryBuilder eqb, Class<E> view) {
+    JavaQuery(AbstractDataAccessObject dao, EntityQueryBuilder eqb, Class<E> view) {
         this.dao = dao;
         builder = eqb;
         viewClass = view;
@@ -102,19 +101,11 @@ class JavaQuery<E extends Entity> implements Query<E> {
 
     @Override
     public int count() {
-        return ObjectStreams.count(stream());
+        return dao.countEntities(builder.buildWithView(viewClass));
     }
 
     @Override
     public LongSet valueSet(TypedName<Long> attr) {
-        LongSet values = new LongOpenHashSet();
-        try (ObjectStream<E> stream = stream()) {
-            for (E entity: stream) {
-                if (entity.hasAttribute(attr)) {
-                    values.add(entity.getLong(attr));
-                }
-            }
-        }
-        return values;
+        return dao.getAttributeValues(builder.buildWithView(viewClass), attr);
     }
 }
@@ -32,6 +32,8 @@ import com.google.common.collect.*;
 import com.google.common.util.concurrent.Monitor;
 import org.lenskit.data.dao.DataAccessException;
 import org.lenskit.data.dao.DataAccessObject;
+import org.lenskit.data.dao.DiskEntityDAO;
+import org.lenskit.data.dao.DiskEntityDAOBuilder;
 import org.lenskit.data.dao.EntityCollectionDAOBuilder;
 import org.lenskit.data.entities.*;
 import org.lenskit.data.ratings.PreferenceDomain;
@@ -69,6 +71,9 @@ public class StaticDataSource implements Provider<DataAccessObject>, Describable
     private Set<EntityDerivation> derivations = Sets.newLinkedHashSet();
     private final Monitor monitor = new Monitor();
     private volatile SoftReference<DataAccessObject> cachedDao;
+    // disk DAOs own files, so they are held strongly and closed when replaced
+    private volatile DiskEntityDAO diskDao;
+    private volatile Path diskStorage;
 
     /**
      * Construct a new data layout object.
@@ -159,6 +164,43 @@ public class StaticDataSource implements Provider<DataAccessObject>, Describable
         derivations.add(deriv);
     }
 
+    /**
+     * Get the directory for disk-backed storage.
+     * @return The directory in which the data is stored on disk, or `null` if it is stored in memory.
+     */
+    @Nullable
+    public Path getDiskStorage() {
+        return diskStorage;
+    }
+
+    /**
+     * Store the data on disk instead of in memory.  If a storage directory is set, the data source produces a
+     * {@link DiskEntityDAO} whose sorted segments are stored in this directory, so data sets larger than
+     * memory can be used.  The disk DAO is kept until the storage directory is changed, at which point it is closed
+     * and its files deleted.
+     *
+     * @param dir The storage directory, or `null` to store data in memory (the default).
+     */
+    public void setDiskStorage(@Nullable Path dir) {
+        if (Objects.equals(dir, diskStorage)) {
+            return;
+        }
+        monitor.enter();
+        try {
+            diskStorage = dir;
+            cachedDao = null;
+            DiskEntityDAO old = diskDao;
+            diskDao = null;
+            if (old != null) {
+                old.close();
+            }
+        } catch (IOException e) {
+            logger.warn("error closing disk DAO for {}", name, e);
+        } finally {
+            monitor.leave();
+        }
+    }
+
     /**
      * Get the list of entity sources.
      * @return The list of entity sources.
@@ -189,8 +231,7 @@ public class StaticDataSource implements Provider<DataAccessObject>, Describable
      */
     @Override
     public DataAccessObject get() {
-        SoftReference<DataAccessObject> cache = cachedDao;
-        DataAccessObject dao = cache != null ? cache.get() : null;
+        DataAccessObject dao = getCachedDAO();
         if (dao == null) {
             try {
                 Blockers.enterMonitor(monitor);
@@ -200,12 +241,17 @@ public class StaticDataSource implements Provider<DataAccessObject>, Describable
             }
             try {
                 // did someone else make a DAO?
-                cache = cachedDao;
-                dao = cache != null ? cache.get() : null;
+                dao = getCachedDAO();
                 if (dao == null) {
                     try {
-                        dao = makeDAO();
-                        cachedDao = new SoftReference<>(dao);
+                        if (diskStorage != null) {
+                            DiskEntityDAO disk = makeDiskDAO();
+                            diskDao = disk;
+                            dao = disk;
+                        } else {
+                            dao = makeDAO();
+                            cachedDao = new SoftReference<>(dao);
+                        }
                     } catch (IOException e) {
                         throw new DataAccessException("cannot load data", e);
                     }
@@ -218,6 +264,16 @@ public class StaticDataSource implements Provider<DataAccessObject>, Describable
         return dao;
     }
 
+    @Nullable
+    private DataAccessObject getCachedDAO() {
+        DiskEntityDAO disk = diskDao;
+        if (disk != null) {
+            return disk;
+        }
+        SoftReference<DataAccessObject> cache = cachedDao;
+        return cache != null ? cache.get() : null;
+    }
+
     @Nullable
     public PreferenceDomain getPreferenceDomain() {
         PreferenceDomain domain = null;
@@ -246,24 +302,41 @@ public class StaticDataSource implements Provider<DataAccessObject>, Describable
         Set<EntityType> types = new HashSet<>();
 
         EntityCollectionDAOBuilder builder = new EntityCollectionDAOBuilder();
-        SetMultimap<EntityType, EntitySource.Layout> layouts = HashMultimap.create();
+        for (EntitySource.Layout layout: findLayouts()) {
+            builder.addEntityLayout(layout.getEntityType(), layout.getAttributes(), layout.getEntityBuilder());
+        }
+
+        builder.addDefaultIndex(CommonAttributes.USER_ID);
+        builder.addDefaultIndex(CommonAttributes.ITEM_ID);
+        for (Map.Entry<EntityType,TypedName<?>> iae: indexedAttributes.entries()) {
+            builder.addIndex(iae.getKey(), iae.getValue());
+        }
         for (EntitySource source: sources) {
-            logger.debug("source {} declares types {} and layout {}",
-                         source, source.getTypes(), source.getLayout());
-            for (EntityType et: source.getTypes()) {
-                layouts.put(et, source.getLayout());
+            try (ObjectStream<Entity> data = source.openStream()) {
+                for (Entity e: data) {
+                    builder.addEntity(e);
+                    types.add(e.getType());
+                }
             }
         }
-        for (Map.Entry<EntityType, Collection<EntitySource.Layout>> e: layouts.asMap().entrySet()) {
-            EntitySource.Layout layout = null;
-            layout = Iterables.getFirst(e.getValue(), null);
-            if (layout != null && e.getValue().size() == 1) {
-                assert layout.getEntityType() == e.getKey();
-                logger.info("using static layout {}", layout);
-                builder.addEntityLayout(layout.getEntityType(), layout.getAttributes(), layout.getEntityBuilder());
-            } else {
-                logger.debug("found {} layouts for entity type {}", e.getValue().size(), e.getKey());
-            }
+
+        for (EntityDerivation deriv: findDerivations(types)) {
+            TypedName<Long> column = deriv.getAttribute();
+            logger.debug("deriving entity type {} from {} (column {})",
+                         deriv.getType(), deriv.getSourceType(), column);
+            builder.deriveEntities(deriv.getType(), deriv.getSourceType(), column);
+        }
+
+        return builder.build();
+    }
+
+    private DiskEntityDAO makeDiskDAO() throws IOException {
+        logger.info("creating disk-backed DAO for {} in {}", name, diskStorage);
+        Set<EntityType> types = new HashSet<>();
+
+        DiskEntityDAOBuilder builder = DiskEntityDAO.newBuilder(diskStorage);
+        for (EntitySource.Layout layout: findLayouts()) {
+            builder.addEntityLayout(layout.getEntityType(), layout.getAttributes(), layout.getEntityBuilder());
         }
 
         builder.addDefaultIndex(CommonAttributes.USER_ID);
@@ -280,6 +353,44 @@ public class StaticDataSource implements Provider<DataAccessObject>, Describable
             }
         }
 
+        for (EntityDerivation deriv: findDerivations(types)) {
+            builder.deriveEntities(deriv.getType(), deriv.getSourceType(), deriv.getAttribute());
+        }
+
+        return builder.build();
+    }
+
+    /**
+     * Find the static layouts of entity types that have exactly one layout.
+     */
+    private List<EntitySource.Layout> findLayouts() {
+        SetMultimap<EntityType, EntitySource.Layout> layouts = HashMultimap.create();
+        for (EntitySource source: sources) {
+            logger.debug("source {} declares types {} and layout {}",
+                         source, source.getTypes(), source.getLayout());
+            for (EntityType et: source.getTypes()) {
+                layouts.put(et, source.getLayout());
+            }
+        }
+        List<EntitySource.Layout> result = new ArrayList<>();
+        for (Map.Entry<EntityType, Collection<EntitySource.Layout>> e: layouts.asMap().entrySet()) {
+            EntitySource.Layout layout = null;
+            layout = Iterables.getFirst(e.getValue(), null);
+            if (layout != null && e.getValue().size() == 1) {
+                assert layout.getEntityType() == e.getKey();
+                logger.info("using static layout {}", layout);
+                result.add(layout);
+            } else {
+                logger.debug("found {} layouts for entity type {}", e.getValue().size(), e.getKey());
+            }
+        }
+        return result;
+    }
+
+    /**
+     * Get the entity derivations to apply, including the defaults for the types found in the data.
+     */
+    private Set<EntityDerivation> findDerivations(Set<EntityType> types) {
         for (EntityType type: types) {
             EntityDefaults defaults = EntityDefaults.lookup(type);
             if (defaults == null) {
@@ -287,15 +398,7 @@ public class StaticDataSource implements Provider<DataAccessObject>, Describable
             }
             derivations.addAll(defaults.getDefaultDerivations());
         }
-
-        for (EntityDerivation deriv: derivations) {
-            TypedName<Long> column = deriv.getAttribute();
-            logger.debug("deriving entity type {} from {} (column {})",
-                         deriv.getType(), deriv.getSourceType(), column);
-            builder.deriveEntities(deriv.getType(), deriv.getSourceType(), column);
-        }
-
-        return builder.build();
+        return derivations;
     }
 
     @Override
@@ -0,0 +1,117 @@
+/*
+ * LensKit, an open-source toolkit for recommender systems.
+ * Copyright 2014-2017 LensKit contributors (see CONTRIBUTORS.md)
+ * Copyright 2010-2014 Regents of the University of Minnesota
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining
+ * a copy of this software and associated documentation files (the
+ * "Software"), to deal in the Software without restriction, including
+ * without limitation the rights to use, copy, modify, merge, publish,
+ * distribute, sublicense, and/or sell copies of the Software, and to
+ * permit persons to whom the Software is furnished to do so, subject to
+ * the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be
+ * included in all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+ * EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF
+ * MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT.
+ * IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY
+ * CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT,
+ * TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION WITH THE
+ * SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ */
+package org.lenskit.data.ratings;
+
+import com.google.common.cache.CacheBuilder;
+import com.google.common.cache.CacheLoader;
+import com.google.common.cache.CacheStats;
+import com.google.common.cache.LoadingCache;
+import it.unimi.dsi.fastutil.longs.Long2DoubleMap;
+import net.jcip.annotations.ThreadSafe;
+import org.lenskit.inject.Shareable;
+import org.lenskit.util.IdBox;
+import org.lenskit.util.io.ObjectStream;
+import org.lenskit.util.io.ObjectStreams;
+import org.lenskit.util.keys.Long2DoubleSortedArrayMap;
+
+import javax.annotation.Nonnull;
+import javax.inject.Inject;
+
+/**
+ * Rating vector DAO that caches the user rating vectors of a rating matrix snapshot.  **This DAO is snapshot-only:**
+ * it serves the ratings as they were when the recommender model was built, and never sees ratings added to the
+ * data source afterwards.  Only bind it where that is intended, such as offline evaluation or batch recommendation
+ * over a fixed data set; components that should see live ratings, like
+ * {@code LiveNeighborFinder}, must keep using the standard DAO.
+ *
+ * The cache is concurrent and bounded, evicting the least-recently-used vectors.  Since it only depends on the
+ * snapshot, it is shareable: one instance lives in the recommender model, so the cached vectors are reused across
+ * requests.  To use it, bind it as the rating vector DAO of the snapshot-based components that repeatedly fetch the
+ * same users' vectors:
+ *
+ * ```groovy
+ * at(SnapshotNeighborFinder) {
+ *     bind RatingVectorPDAO to CachingRatingVectorPDAO
+ * }
+ * ```
+ *
+ * Use `at` rather than `within` or a global binding: the snapshot is itself built from a rating vector DAO, and
+ * that must not resolve to this cache.  The cache size is set by {@link UserVectorCacheSize}.  Cached vectors are
+ * immutable.  {@link #streamUsers()} is not cached.
+ */
+@Shareable
+@ThreadSafe
+public class CachingRatingVectorPDAO implements RatingVectorPDAO {
+    private final RatingMatrix snapshot;
+    private final LoadingCache<Long, Long2DoubleMap> cache;
+
+    /**
+     * Construct a caching rating vector DAO.
+     * @param snapshot The rating snapshot to read vectors from.
+     * @param size The maximum number of user vectors to cache.
+     */
+    @Inject
+    public CachingRatingVectorPDAO(RatingMatrix snapshot,
+                                   @UserVectorCacheSize int size) {
+        this.snapshot = snapshot;
+        cache = CacheBuilder.newBuilder()
+                            .maximumSize(size)
+                            .recordStats()
+                            .build(new CacheLoader<Long, Long2DoubleMap>() {
+                                @Override
+                                public Long2DoubleMap load(@Nonnull Long user) {
+                                    return Long2DoubleSortedArrayMap.create(snapshot.getUserRatingVector(user));
+                                }
+                            });
+    }
+
+    @Nonnull
+    @Override
+    public Long2DoubleMap userRatingVector(long user) {
+        return cache.getUnchecked(user);
+    }
+
+    @Override
+    public ObjectStream<IdBox<Long2DoubleMap>> streamUsers() {
+        return ObjectStreams.wrap(snapshot.getUserIds()
+                                          .stream()
+                                          .map(u -> IdBox.create(u, snapshot.getUserRatingVector(u))));
+    }
+
+    /**
+     * Get the statistics of this cache.
+     * @return The cache statistics (hit and miss counts, load times, and evictions).
+     */
+    public CacheStats getStats() {
+        return cache.stats();
+    }
+
+    /**
+     * Discard all cached vectors.
+     */
+    public void invalidateAll() {
+        cache.invalidateAll();
+    }
+}
@@ -0,0 +1,290 @@
+/*
+ * LensKit, an open-source toolkit for recommender systems.
+ * Copyright 2014-2017 LensKit contributors (see CONTRIBUTORS.md)
+ * Copyright 2010-2014 Regents of the University of Minnesota
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining
+ * a copy of this software and associated documentation files (the
+ * "Software"), to deal in the Software without restriction, including
+ * without limitation the rights to use, copy, modify, merge, publish,
+ * distribute, sublicense, and/or sell copies of the Software, and to
+ * permit persons to whom the Software is furnished to do so, subject to
+ * the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be
+ * included in all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+ * EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF
+ * MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT.
+ * IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY
+ * CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT,
+ * TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION WITH THE
+ * SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ */
+package org.lenskit.data.ratings;
+
+import com.google.common.base.Preconditions;
+import it.unimi.dsi.fastutil.ints.IntArrayList;
+import it.unimi.dsi.fastutil.ints.IntArrays;
+import it.unimi.dsi.fastutil.ints.IntList;
+import it.unimi.dsi.fastutil.ints.IntLists;
+import it.unimi.dsi.fastutil.longs.*;
+import org.grouplens.grapht.annotation.DefaultProvider;
+import org.lenskit.data.dao.DataAccessObject;
+import org.lenskit.data.entities.CommonAttributes;
+import org.lenskit.data.entities.Entity;
+import org.lenskit.data.entities.EntityType;
+import org.lenskit.inject.Shareable;
+import org.lenskit.inject.Transient;
+import org.lenskit.util.io.ObjectStream;
+import org.lenskit.util.keys.KeyIndex;
+import org.lenskit.util.keys.SortedKeyIndex;
+
+import net.jcip.annotations.Immutable;
+import javax.inject.Inject;
+import javax.inject.Provider;
+import java.io.Serializable;
+
+/**
+ * Time-decayed interaction statistics.  Each interaction contributes a weight that halves every
+ * {@linkplain PopularityHalfLife half-life} before the most recent interaction, so an item's popularity is
+ * $\sum_t 2^{-(T - t)/h}$ over its interaction times $t$, where $T$ is the {@linkplain #getReferenceTime() reference
+ * time}.  Since decay scales all items equally, the popularity ranking does not change as time passes without new
+ * interactions.
+ *
+ * The statistics can be {@linkplain #update(Iterable) updated} with new interactions without rescanning the
+ * interactions they were computed from.  The interaction entity must have {@link CommonAttributes#ITEM_ID} and
+ * {@link CommonAttributes#TIMESTAMP} attributes.
+ */
+@Shareable
+@Immutable
+@DefaultProvider(DecayedInteractionStatistics.DISProvider.class)
+public class DecayedInteractionStatistics implements Serializable {
+    private static final long serialVersionUID = 1L;
+
+    private final EntityType entityType;
+    private final double halfLife;
+    private final long referenceTime;
+    private final SortedKeyIndex items;
+    private final double[] weights;
+    private final int[] popularityOrder;
+
+    private DecayedInteractionStatistics(EntityType type, double hl, long ref, Long2DoubleMap itemWeights) {
+        entityType = type;
+        halfLife = hl;
+        referenceTime = ref;
+        items = SortedKeyIndex.fromCollection(itemWeights.keySet());
+        int n = items.size();
+        weights = new double[n];
+        popularityOrder = new int[n];
+        for (int i = 0; i < n; i++) {
+            weights[i] = itemWeights.get(items.getKey(i));
+            popularityOrder[i] = i;
+        }
+        IntArrays.quickSort(popularityOrder, (i1, i2) -> {
+            int cmp = Double.compare(weights[i2], weights[i1]);
+            return cmp != 0 ? cmp : Integer.compare(i1, i2);
+        });
+    }
+
+    /**
+     * Compute time-decayed statistics.
+     * @param dao The DAO.
+     * @param type The entity type to count.
+     * @param halfLife The half-life of interaction weights.
+     * @return The statistics.
+     */
+    public static DecayedInteractionStatistics create(DataAccessObject dao, EntityType type, double halfLife) {
+        return new DISProvider(type, halfLife, dao).get();
+    }
+
+    /**
+     * Get the interaction entity type.
+     * @return The type of entities counted for this statistics object.
+     */
+    public EntityType getEntityType() {
+        return entityType;
+    }
+
+    /**
+     * Get the half-life of interaction weights.
+     * @return The half-life.
+     */
+    public double getHalfLife() {
+        return halfLife;
+    }
+
+    /**
+     * Get the reference time, the time of the most recent interaction.
+     * @return The time at which popularities are computed.
+     */
+    public long getReferenceTime() {
+        return referenceTime;
+    }
+
+    /**
+     * Get the decayed popularity of an item at the reference time.
+     * @param item The item.
+     * @return The item's decayed interaction weight.
+     */
+    public double getPopularity(long item) {
+        int idx = items.tryGetIndex(item);
+        if (idx >= 0) {
+            return weights[idx];
+        } else {
+            return 0;
+        }
+    }
+
+    /**
+     * Get the set of known items.
+     * @return The set of known items.
+     */
+    public LongSortedSet getKnownItems() {
+        return items.keySet();
+    }
+
+    /**
+     * Get the list of items by decreasing decayed popularity.
+     * @return The list of items, ordered by non-increasing popularity.
+     */
+    public LongList getItemsByPopularity() {
+        long[] list = new long[popularityOrder.length];
+        for (int i = 0; i < list.length; i++) {
+            list[i] = items.getKey(popularityOrder[i]);
+        }
+        return LongLists.unmodifiable(LongArrayList.wrap(list));
+    }
+
+    /**
+     * Get the index of known items.
+     * @return The item index, whose indexes are used by {@link #getItemIndexesByPopularity()}.
+     */
+    public KeyIndex getItemIndex() {
+        return items;
+    }
+
+    /**
+     * Get the indexes of items by decreasing decayed popularity.
+     * @return The list of item indexes, ordered by non-increasing popularity.
+     */
+    public IntList getItemIndexesByPopularity() {
+        return IntLists.unmodifiable(IntArrayList.wrap(popularityOrder));
+    }
+
+    /**
+     * Add new interactions to these statistics.  This statistics object is unchanged.
+     * @param interactions The new interactions.
+     * @return Statistics including both the interactions counted by this object and `interactions`.
+     */
+    public DecayedInteractionStatistics update(Iterable<? extends Entity> interactions) {
+        Accumulator acc = new Accumulator(halfLife);
+        acc.load(this);
+        for (Entity e: interactions) {
+            acc.add(e);
+        }
+        return acc.finish(entityType);
+    }
+
+    /**
+     * Accumulate decayed weights.  Weights are kept relative to an anchor time, which is moved forward when
+     * newer interactions would make them overflow.
+     */
+    private static class Accumulator {
+        /**
+         * The largest base-2 exponent of weights before the anchor is moved.
+         */
+        private static final double MAX_EXPONENT = 512;
+        private final double halfLife;
+        private final Long2DoubleOpenHashMap weights = new Long2DoubleOpenHashMap();
+        private boolean empty = true;
+        private long anchor;
+        private long latest;
+
+        Accumulator(double hl) {
+            Preconditions.checkArgument(hl > 0, "half-life must be positive");
+            halfLife = hl;
+        }
+
+        void load(DecayedInteractionStatistics stats) {
+            for (int i = 0; i < stats.weights.length; i++) {
+                weights.put(stats.items.getKey(i), stats.weights[i]);
+            }
+            if (stats.weights.length > 0) {
+                empty = false;
+                anchor = latest = stats.referenceTime;
+            }
+        }
+
+        void add(Entity e) {
+            Long time = e.maybeGet(CommonAttributes.TIMESTAMP);
+            if (time == null) {
+                throw new IllegalArgumentException("interaction " + e.getId() + " has no timestamp");
+            }
+            add(e.getLong(CommonAttributes.ITEM_ID), time);
+        }
+
+        void add(long item, long time) {
+            if (empty) {
+                anchor = latest = time;
+                empty = false;
+            }
+            double exp = (time - anchor) / halfLife;
+            if (exp > MAX_EXPONENT) {
+                rescale(Math.pow(2, -exp));
+                anchor = time;
+                exp = 0;
+            }
+            weights.addTo(item, Math.pow(2, exp));
+            latest = Math.max(latest, time);
+        }
+
+        private void rescale(double factor) {
+            for (Long2DoubleMap.Entry e: weights.long2DoubleEntrySet()) {
+                e.setValue(e.getDoubleValue() * factor);
+            }
+        }
+
+        DecayedInteractionStatistics finish(EntityType type) {
+            rescale(Math.pow(2, (anchor - latest) / halfLife));
+            return new DecayedInteractionStatistics(type, halfLife, latest, weights);
+        }
+    }
+
+    /**
+     * Provider that computes decayed item interaction weights.
+     */
+    public static class DISProvider implements Provider<DecayedInteractionStatistics> {
+        private final EntityType entityType;
+        private final double halfLife;
+        private final DataAccessObject dao;
+
+        /**
+         * Construct the provider.
+         * @param type The entity type. It should have {@link CommonAttributes#ITEM_ID} and
+         *             {@link CommonAttributes#TIMESTAMP} attributes.
+         * @param hl The half-life of interaction weights.
+         * @param dao The data access object.
+         */
+        @Inject
+        public DISProvider(@InteractionEntityType EntityType type,
+                           @PopularityHalfLife double hl,
+                           @Transient DataAccessObject dao) {
+            entityType = type;
+            halfLife = hl;
+            this.dao = dao;
+        }
+
+        @Override
+        public DecayedInteractionStatistics get() {
+            Accumulator acc = new Accumulator(halfLife);
+            try (ObjectStream<Entity> stream = dao.query(entityType).stream()) {
+                for (Entity e : stream) {
+                    acc.add(e);
+                }
+            }
+            return acc.finish(entityType);
+        }
+    }
+}
@@ -24,7 +24,10 @@
  */
 package org.lenskit.data.ratings;
 
-import com.google.common.primitives.Doubles;
+import it.unimi.dsi.fastutil.ints.IntArrayList;
+import it.unimi.dsi.fastutil.ints.IntArrays;
+import it.unimi.dsi.fastutil.ints.IntList;
+import it.unimi.dsi.fastutil.ints.IntLists;
 import it.unimi.dsi.fastutil.longs.*;
 import org.grouplens.grapht.annotation.DefaultProvider;
 import org.lenskit.data.dao.DataAccessObject;
@@ -35,6 +38,7 @@ import org.lenskit.data.entities.EntityType;
 import org.lenskit.inject.Shareable;
 import org.lenskit.inject.Transient;
 import org.lenskit.util.io.ObjectStream;
+import org.lenskit.util.keys.KeyIndex;
 import org.lenskit.util.keys.SortedKeyIndex;
 
 import net.jcip.annotations.Immutable;
@@ -50,12 +54,12 @@ import java.io.Serializable;
 @Immutable
 @DefaultProvider(InteractionStatistics.ISProvider.class)
 public class InteractionStatistics implements Serializable {
-    private static final long serialVersionUID = 1L;
+    private static final long serialVersionUID = 2L;
 
     private final EntityType entityType;
     private final SortedKeyIndex items;
     private final int[] interactionCounts;
-    private final LongArrayList itemList;
+    private final int[] popularityOrder;
 
     /**
      * Construct a new interaction statistics object.
@@ -71,9 +75,14 @@ public class InteractionStatistics implements Serializable {
         for (int i = 0; i < n; i++) {
             interactionCounts[i] = counts.get(items.getKey(i));
         }
-        long[] iarray = items.keySet().toLongArray();
-        LongArrays.quickSort(iarray, (l1, l2) -> Doubles.compare(counts.get(l2), counts.get(l1)));
-        itemList = LongArrayList.wrap(iarray);
+        popularityOrder = new int[n];
+        for (int i = 0; i < n; i++) {
+            popularityOrder[i] = i;
+        }
+        IntArrays.quickSort(popularityOrder, (i1, i2) -> {
+            int cmp = Integer.compare(interactionCounts[i2], interactionCounts[i1]);
+            return cmp != 0 ? cmp : Integer.compare(i1, i2);
+        });
     }
 
     /**
@@ -130,7 +139,39 @@ public class InteractionStatistics implements Serializable {
      * @return The list of items, ordered by non-increasing popularity.
      */
     public LongList getItemsByPopularity() {
-        return LongLists.unmodifiable(itemList);
+        return new PopularItemList();
+    }
+
+    /**
+     * Get the index of known items.
+     * @return The item index, whose indexes are used by {@link #getItemIndexesByPopularity()}.
+     */
+    public KeyIndex getItemIndex() {
+        return items;
+    }
+
+    /**
+     * Get the indexes of items by decreasing popularity.  This is the same order as
+     * {@link #getItemsByPopularity()}, as positions in {@link #getItemIndex()}.
+     * @return The list of item indexes, ordered by non-increasing popularity.
+     */
+    public IntList getItemIndexesByPopularity() {
+        return IntLists.unmodifiable(IntArrayList.wrap(popularityOrder));
+    }
+
+    /**
+     * View of the popularity order as item IDs.
+     */
+    private class PopularItemList extends AbstractLongList {
+        @Override
+        public long getLong(int index) {
+            return items.getKey(popularityOrder[index]);
+        }
+
+        @Override
+        public int size() {
+            return popularityOrder.length;
+        }
     }
 
     /**
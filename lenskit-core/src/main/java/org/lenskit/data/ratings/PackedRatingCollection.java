@@ -80,7 +80,7 @@ class PackedRatingCollection extends AbstractList<RatingMatrixEntry> {
     @Override
     public RatingMatrixEntry get(int index) {
         Preconditions.checkElementIndex(index, indices.size());
-        return data.getEntry(index);
+        return data.getEntry(indices.getInt(index));
     }
 
     @Override
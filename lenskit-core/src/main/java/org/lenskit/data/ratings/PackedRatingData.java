@@ -24,11 +24,18 @@
  */
 package org.lenskit.data.ratings;
 
+import it.unimi.dsi.fastutil.ints.IntList;
+import org.lenskit.util.collections.CollectionUtils;
 import org.lenskit.util.keys.KeyIndex;
 
 /**
  * Data storage for packed rating snapshots.
  *
+ * The data is stored in one of two layouts.  The standard layout stores a user index, item index, and value for each
+ * entry in full-width arrays.  The compressed layout (built by {@link PackedRatingDataBuilder#buildCompressed(PreferenceDomain)})
+ * sorts entries by user, so the user index is stored as an array of run offsets, and (if the values fit in at most
+ * 256 distinct levels) stores each value as a byte code into a table of rating values.
+ *
  * @author <a href="http://www.grouplens.org">GroupLens Research</a>
  */
 final class PackedRatingData {
@@ -37,8 +44,11 @@ final class PackedRatingData {
     static final int CHUNK_MASK = CHUNK_SIZE - 1;
 
     private final int[][] users;
+    private final int[] userOffsets;
     private final int[][] items;
     private final double[][] values;
+    private final byte[][] valueCodes;
+    private final double[] codeValues;
     private final int nprefs;
 
     private final KeyIndex itemIndex;
@@ -47,8 +57,38 @@ final class PackedRatingData {
     public PackedRatingData(int[][] us, int[][] is, double[][] vs, int size,
                             KeyIndex uidx, KeyIndex iidx) {
         users = us;
+        userOffsets = null;
         items = is;
         values = vs;
+        valueCodes = null;
+        codeValues = null;
+        nprefs = size;
+        userIndex = uidx;
+        itemIndex = iidx;
+    }
+
+    /**
+     * Construct a compressed (user-sorted) data pack.
+     *
+     * @param uoff The user run offsets; entries for user {@code u} are at {@code [uoff[u],uoff[u+1])}.
+     * @param is The item index chunks.
+     * @param vs The value chunks, or {@code null} if values are coded.
+     * @param codes The value code chunks, or {@code null} if values are stored directly.
+     * @param table The value table for decoding value codes.
+     * @param size The number of entries.
+     * @param uidx The user index.
+     * @param iidx The item index.
+     */
+    PackedRatingData(int[] uoff, int[][] is, double[][] vs, byte[][] codes, double[] table,
+                     int size, KeyIndex uidx, KeyIndex iidx) {
+        assert uoff.length == uidx.size() + 1;
+        assert (vs == null) != (codes == null);
+        users = null;
+        userOffsets = uoff;
+        items = is;
+        values = vs;
+        valueCodes = codes;
+        codeValues = table;
         nprefs = size;
         userIndex = uidx;
         itemIndex = iidx;
@@ -94,6 +134,60 @@ final class PackedRatingData {
         return new IndirectEntry(index);
     }
 
+    /**
+     * Query whether this data pack is sorted by user.  If it is, each user's entries occupy a contiguous range of
+     * indexes, available from {@link #getUserEntries(int)}.
+     *
+     * @return {@code true} if the entries are stored sorted by user.
+     */
+    public boolean isUserSorted() {
+        return userOffsets != null;
+    }
+
+    /**
+     * Query whether the values are stored as byte codes.
+     *
+     * @return {@code true} if values are stored as codes into a value table.
+     */
+    public boolean isValueCoded() {
+        return valueCodes != null;
+    }
+
+    /**
+     * Get the entry indexes for a user in a user-sorted data pack.
+     *
+     * @param uidx The user index.
+     * @return The (contiguous) list of entry indexes for the user.
+     * @throws IllegalStateException if the data pack is not sorted by user.
+     */
+    public IntList getUserEntries(int uidx) {
+        if (userOffsets == null) {
+            throw new IllegalStateException("data pack is not sorted by user");
+        }
+        return CollectionUtils.interval(userOffsets[uidx], userOffsets[uidx + 1]);
+    }
+
+    /**
+     * Find the user whose run contains an entry index in a user-sorted data pack.
+     *
+     * @param index The entry index.
+     * @return The user index.
+     */
+    private int findUser(int index) {
+        // find the last offset <= index, skipping over empty runs
+        int lo = 0;
+        int hi = userOffsets.length - 1;
+        while (lo < hi) {
+            int mid = (lo + hi + 1) >>> 1;
+            if (userOffsets[mid] <= index) {
+                lo = mid;
+            } else {
+                hi = mid - 1;
+            }
+        }
+        return lo;
+    }
+
     /**
      * Get the user index mapping between user IDs and indexes.
      *
@@ -114,6 +208,10 @@ final class PackedRatingData {
 
     final class IndirectEntry extends RatingMatrixEntry {
         private int index;
+        // cached user run for user-sorted packs
+        private int runUser = -1;
+        private int runStart = 0;
+        private int runEnd = 0;
 
         IndirectEntry(int idx) {
             index = idx;
@@ -146,7 +244,11 @@ final class PackedRatingData {
 
         @Override
         public double getValue() {
-            return values[chunk(index)][element(index)];
+            if (valueCodes != null) {
+                return codeValues[valueCodes[chunk(index)][element(index)] & 0xFF];
+            } else {
+                return values[chunk(index)][element(index)];
+            }
         }
 
         @Override
@@ -160,7 +262,15 @@ final class PackedRatingData {
 
         @Override
         public int getUserIndex() {
-            return users[chunk(index)][element(index)];
+            if (users != null) {
+                return users[chunk(index)][element(index)];
+            }
+            if (index < runStart || index >= runEnd) {
+                runUser = findUser(index);
+                runStart = userOffsets[runUser];
+                runEnd = userOffsets[runUser + 1];
+            }
+            return runUser;
         }
 
         @Override
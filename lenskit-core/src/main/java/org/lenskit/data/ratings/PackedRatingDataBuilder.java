@@ -25,10 +25,13 @@
 package org.lenskit.data.ratings;
 
 import com.google.common.base.Preconditions;
+import it.unimi.dsi.fastutil.doubles.DoubleAVLTreeSet;
+import it.unimi.dsi.fastutil.doubles.DoubleSortedSet;
 import it.unimi.dsi.fastutil.ints.IntHeapPriorityQueue;
 import org.apache.commons.lang3.builder.Builder;
 import org.lenskit.util.keys.HashKeyIndex;
 
+import javax.annotation.Nullable;
 import java.util.Arrays;
 import java.util.Random;
 
@@ -42,6 +45,7 @@ import static org.lenskit.data.ratings.PackedRatingData.*;
  */
 class PackedRatingDataBuilder implements Builder<PackedRatingData> {
     private static final int INITIAL_CHUNK_COUNT = 512;
+    private static final int MAX_CODES = 256;
 
     private int[][] users;
     private int[][] items;
@@ -313,4 +317,98 @@ class PackedRatingDataBuilder implements Builder<PackedRatingData> {
         trim();
         return internalBuild();
     }
+
+    /**
+     * Build a compressed packed rating data structure.  The entries are sorted by user (preserving the relative order
+     * of each user's entries), and values are stored as byte codes if they take on at most 256 distinct values.
+     * Shuffling prior to this method has no effect on the final order.
+     *
+     * @param domain The preference domain.  If it has a precision, the value table is seeded with its levels;
+     *               any other distinct values in the data are added to the table.
+     * @return The packed rating data structure.
+     */
+    public PackedRatingData buildCompressed(@Nullable PreferenceDomain domain) {
+        repack();
+        trim();
+
+        final int np = nprefs;
+        final int nusers = userIndex.size();
+
+        // count entries per user, then accumulate into run offsets
+        int[] offsets = new int[nusers + 1];
+        for (int i = 0; i < np; i++) {
+            offsets[users[chunk(i)][element(i)] + 1] += 1;
+        }
+        for (int u = 0; u < nusers; u++) {
+            offsets[u + 1] += offsets[u];
+        }
+
+        double[] table = makeCodeTable(domain);
+        int[][] sitems = new int[items.length][];
+        byte[][] scodes = table != null ? new byte[values.length][] : null;
+        double[][] svals = table != null ? null : new double[values.length][];
+        for (int c = 0; c < items.length; c++) {
+            int n = items[c].length;
+            sitems[c] = new int[n];
+            if (scodes != null) {
+                scodes[c] = new byte[n];
+            } else {
+                svals[c] = new double[n];
+            }
+        }
+
+        // stable counting sort into the new arrays
+        int[] next = Arrays.copyOf(offsets, nusers);
+        for (int i = 0; i < np; i++) {
+            final int ci = chunk(i);
+            final int ei = element(i);
+            final int j = next[users[ci][ei]]++;
+            final int cj = chunk(j);
+            final int ej = element(j);
+            sitems[cj][ej] = items[ci][ei];
+            if (scodes != null) {
+                int code = Arrays.binarySearch(table, values[ci][ei]);
+                assert code >= 0;
+                scodes[cj][ej] = (byte) code;
+            } else {
+                svals[cj][ej] = values[ci][ei];
+            }
+        }
+
+        return new PackedRatingData(offsets, sitems, svals, scodes, table, np,
+                                    userIndex.frozenCopy(), itemIndex.frozenCopy());
+    }
+
+    /**
+     * Compute the table of values for value codes.
+     *
+     * @param domain The preference domain, if available.
+     * @return The sorted table of values, or {@code null} if the values cannot be coded in a byte.
+     */
+    @Nullable
+    private double[] makeCodeTable(@Nullable PreferenceDomain domain) {
+        DoubleSortedSet levels = new DoubleAVLTreeSet();
+        if (domain != null && domain.hasPrecision()) {
+            double min = domain.getMinimum();
+            double prec = domain.getPrecision();
+            long n = Math.round((domain.getMaximum() - min) / prec) + 1;
+            if (n > MAX_CODES) {
+                return null;
+            }
+            for (int k = 0; k < n; k++) {
+                levels.add(min + k * prec);
+            }
+        }
+        for (int i = 0; i < nprefs; i++) {
+            double v = values[chunk(i)][element(i)];
+            if (!levels.contains(v)) {
+                if (levels.size() >= MAX_CODES) {
+                    // too many distinct values to code in a byte
+                    return null;
+                }
+                levels.add(v);
+            }
+        }
+        return levels.toDoubleArray();
+    }
 }
@@ -27,6 +27,7 @@ package org.lenskit.data.ratings;
 import com.google.common.base.Supplier;
 import com.google.common.base.Suppliers;
 import it.unimi.dsi.fastutil.ints.IntArrayList;
+import it.unimi.dsi.fastutil.ints.IntList;
 import it.unimi.dsi.fastutil.longs.*;
 import org.grouplens.grapht.annotation.DefaultProvider;
 import org.lenskit.inject.Shareable;
@@ -47,13 +48,25 @@ import java.util.List;
 @Shareable
 public class PackedRatingMatrix implements RatingMatrix {
     private PackedRatingData data;
+    private IntList order;
     @SuppressWarnings("deprecation")
     private Supplier<List<Collection<RatingMatrixEntry>>> userIndexLists;
-    private transient Long2ObjectMap<Long2DoubleMap> cache;
 
     PackedRatingMatrix(PackedRatingData data) {
+        this(data, null);
+    }
+
+    /**
+     * Create a packed rating matrix.
+     *
+     * @param data The rating data.
+     * @param order The order in which {@link #getRatings()} lists entries, or {@code null} to list them in storage
+     *              order.  This lets a user-sorted data pack still present its entries in a shuffled order.
+     */
+    PackedRatingMatrix(PackedRatingData data, IntList order) {
         super();
         this.data = data;
+        this.order = order;
         userIndexLists = Suppliers.memoize(new UserPreferenceSupplier());
     }
 
@@ -87,7 +100,11 @@ public class PackedRatingMatrix implements RatingMatrix {
 
     @Override
     public List<RatingMatrixEntry> getRatings() {
-        return new PackedRatingCollection(data);
+        if (order != null) {
+            return new PackedRatingCollection(data, order);
+        } else {
+            return new PackedRatingCollection(data);
+        }
     }
 
     @Override
@@ -101,25 +118,19 @@ public class PackedRatingMatrix implements RatingMatrix {
         }
     }
 
+    /**
+     * {@inheritDoc}
+     *
+     * The vector is built on each call; use {@link CachingRatingVectorPDAO} to share vectors across requests.
+     */
     @Override
-    public synchronized Long2DoubleMap getUserRatingVector(long userId) {
-        // FIXME Don't make this so locky
-        if (cache == null) {
-            cache = new Long2ObjectOpenHashMap<>();
-        }
-        Long2DoubleMap data = cache.get(userId);
-        if (data != null) {
-            return data;
-        } else {
-            Collection<RatingMatrixEntry> prefs = this.getUserRatings(userId);
-            Long2DoubleMap map = new Long2DoubleOpenHashMap();
-            for (RatingMatrixEntry e: prefs) {
-                map.put(e.getItemId(), e.getValue());
-            }
-            data = new Long2DoubleSortedArrayMap(map);
-            cache.put(userId, data);
-            return data;
+    public Long2DoubleMap getUserRatingVector(long userId) {
+        Collection<RatingMatrixEntry> prefs = this.getUserRatings(userId);
+        Long2DoubleMap map = new Long2DoubleOpenHashMap();
+        for (RatingMatrixEntry e: prefs) {
+            map.put(e.getItemId(), e.getValue());
         }
+        return new Long2DoubleSortedArrayMap(map);
     }
 
     /**
@@ -129,6 +140,7 @@ public class PackedRatingMatrix implements RatingMatrix {
     @PreDestroy
     public void dispose() {
         data = null;
+        order = null;
         userIndexLists = null;
     }
 
@@ -140,6 +152,14 @@ public class PackedRatingMatrix implements RatingMatrix {
         @Override @Nonnull
         public List<Collection<RatingMatrixEntry>> get() {
             int nusers = data.getUserIndex().size();
+            if (data.isUserSorted()) {
+                // user entries are already contiguous ranges
+                ArrayList<Collection<RatingMatrixEntry>> users = new ArrayList<>(nusers);
+                for (int i = 0; i < nusers; i++) {
+                    users.add(new PackedRatingCollection(data, data.getUserEntries(i)));
+                }
+                return users;
+            }
             ArrayList<IntArrayList> userLists = new ArrayList<>(nusers);
             for (int i = 0; i < nusers; i++) {
                 userLists.add(new IntArrayList());
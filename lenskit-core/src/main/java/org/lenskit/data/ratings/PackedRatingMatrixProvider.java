@@ -31,23 +31,36 @@ import org.lenskit.util.io.ObjectStream;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import javax.annotation.Nullable;
 import javax.inject.Inject;
 import javax.inject.Provider;
 import java.util.Random;
 
 /**
- * Build a packed rating matrix from the available rating events.
+ * Build a packed rating matrix from the available rating events.  If {@link CompressRatingMatrix} is set, the matrix
+ * is stored in the compressed user-sorted layout.  Each user's entries are shuffled within their block, and
+ * {@link PackedRatingMatrix#getRatings()} lists the blocks in a shuffled order.
  */
 public class PackedRatingMatrixProvider implements Provider<PackedRatingMatrix> {
     private static final Logger logger = LoggerFactory.getLogger(PackedRatingMatrixProvider.class);
 
     private final RatingVectorPDAO dao;
     private Random random;
+    private final boolean compress;
+    private final PreferenceDomain domain;
+
+    public PackedRatingMatrixProvider(RatingVectorPDAO dao, Random random) {
+        this(dao, random, false, null);
+    }
 
     @Inject
-    public PackedRatingMatrixProvider(@Transient RatingVectorPDAO dao, Random random) {
+    public PackedRatingMatrixProvider(@Transient RatingVectorPDAO dao, Random random,
+                                      @CompressRatingMatrix boolean compress,
+                                      @Nullable PreferenceDomain domain) {
         this.dao = dao;
         this.random = random;
+        this.compress = compress;
+        this.domain = domain;
     }
 
     @Override
@@ -83,6 +96,14 @@ public class PackedRatingMatrixProvider implements Provider<PackedRatingMatrix>
             logger.debug("Packed {} ratings", bld.size());
         }
 
+        if (compress) {
+            // the user sort is stable, so shuffling first leaves each user's entries in random order
+            bld.shuffle(random);
+            PackedRatingData data = bld.buildCompressed(domain);
+            logger.debug("Compressed rating data (value codes: {})", data.isValueCoded());
+            return new PackedRatingMatrix(data, new UserBlockOrder(data, random));
+        }
+
         bld.shuffle(random);
         PackedRatingData data = bld.build();
 
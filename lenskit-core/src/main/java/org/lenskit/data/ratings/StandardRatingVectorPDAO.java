@@ -68,6 +68,7 @@ public class StandardRatingVectorPDAO implements RatingVectorPDAO {
                                               .stream()) {
             map = Ratings.userRatingVector(stream);
         }
+        cachedValue = IdBox.create(user, map);
 
         return map;
     }
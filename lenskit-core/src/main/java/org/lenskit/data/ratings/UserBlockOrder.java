@@ -0,0 +1,171 @@
+/*
+ * LensKit, an open-source toolkit for recommender systems.
+ * Copyright 2014-2017 LensKit contributors (see CONTRIBUTORS.md)
+ * Copyright 2010-2014 Regents of the University of Minnesota
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining
+ * a copy of this software and associated documentation files (the
+ * "Software"), to deal in the Software without restriction, including
+ * without limitation the rights to use, copy, modify, merge, publish,
+ * distribute, sublicense, and/or sell copies of the Software, and to
+ * permit persons to whom the Software is furnished to do so, subject to
+ * the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be
+ * included in all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+ * EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF
+ * MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT.
+ * IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY
+ * CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT,
+ * TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION WITH THE
+ * SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ */
+package org.lenskit.data.ratings;
+
+import it.unimi.dsi.fastutil.ints.AbstractIntList;
+import it.unimi.dsi.fastutil.ints.AbstractIntListIterator;
+import it.unimi.dsi.fastutil.ints.IntArrays;
+import it.unimi.dsi.fastutil.ints.IntListIterator;
+
+import java.util.NoSuchElementException;
+import java.util.Random;
+
+/**
+ * Entry order for a user-sorted data pack that visits the users' blocks in a shuffled order.  Each user's entries
+ * stay contiguous, so walking the order keeps hitting the user run cached by each indirect entry, and the order only
+ * costs two integers per user instead of one per entry.
+ */
+final class UserBlockOrder extends AbstractIntList {
+    // position in the order at which each block starts, with the total size at the end
+    private final int[] starts;
+    // storage index of the first entry of each block
+    private final int[] firsts;
+
+    /**
+     * Create a shuffled block order for a data pack.
+     *
+     * @param data The data pack, which must be sorted by user.
+     * @param rng The random number generator for shuffling the blocks.
+     */
+    UserBlockOrder(PackedRatingData data, Random rng) {
+        final int nusers = data.getUserIndex().size();
+        int[] offsets = new int[nusers + 1];
+        for (int u = 0; u < nusers; u++) {
+            offsets[u + 1] = offsets[u] + data.getUserEntries(u).size();
+        }
+
+        int[] users = new int[nusers];
+        for (int u = 0; u < nusers; u++) {
+            users[u] = u;
+        }
+        IntArrays.shuffle(users, rng);
+
+        starts = new int[nusers + 1];
+        firsts = new int[nusers];
+        for (int b = 0; b < nusers; b++) {
+            final int u = users[b];
+            firsts[b] = offsets[u];
+            starts[b + 1] = starts[b] + offsets[u + 1] - offsets[u];
+        }
+    }
+
+    /**
+     * Find the block containing a position, skipping over empty blocks.
+     *
+     * @param pos The position.
+     * @return The index of the last block starting at or before {@code pos}.
+     */
+    private int findBlock(int pos) {
+        int lo = 0;
+        int hi = firsts.length - 1;
+        while (lo < hi) {
+            int mid = (lo + hi + 1) >>> 1;
+            if (starts[mid] <= pos) {
+                lo = mid;
+            } else {
+                hi = mid - 1;
+            }
+        }
+        return lo;
+    }
+
+    @Override
+    public int getInt(int index) {
+        if (index < 0 || index >= size()) {
+            throw new IndexOutOfBoundsException(String.format("%d not in [0,%d)", index, size()));
+        }
+        int b = findBlock(index);
+        return firsts[b] + index - starts[b];
+    }
+
+    @Override
+    public int size() {
+        return starts[starts.length - 1];
+    }
+
+    @Override
+    public IntListIterator listIterator(int idx) {
+        if (idx < 0 || idx > size()) {
+            throw new IndexOutOfBoundsException(String.format("%d not in [0,%d]", idx, size()));
+        }
+        return new BlockIterator(idx);
+    }
+
+    /**
+     * Iterator that walks the blocks in order without searching for each position.
+     */
+    private final class BlockIterator extends AbstractIntListIterator {
+        private int pos;
+        private int block;
+
+        BlockIterator(int idx) {
+            pos = idx;
+            block = findBlock(idx);
+        }
+
+        @Override
+        public boolean hasNext() {
+            return pos < size();
+        }
+
+        @Override
+        public int nextInt() {
+            if (!hasNext()) {
+                throw new NoSuchElementException();
+            }
+            while (pos >= starts[block + 1]) {
+                block += 1;
+            }
+            return firsts[block] + pos++ - starts[block];
+        }
+
+        @Override
+        public boolean hasPrevious() {
+            return pos > 0;
+        }
+
+        @Override
+        public int previousInt() {
+            if (!hasPrevious()) {
+                throw new NoSuchElementException();
+            }
+            pos -= 1;
+            while (pos < starts[block]) {
+                block -= 1;
+            }
+            return firsts[block] + pos - starts[block];
+        }
+
+        @Override
+        public int nextIndex() {
+            return pos;
+        }
+
+        @Override
+        public int previousIndex() {
+            return pos - 1;
+        }
+    }
+}
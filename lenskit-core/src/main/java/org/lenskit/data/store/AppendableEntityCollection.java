@@ -0,0 +1,197 @@
+/*
+ * LensKit, an open-source toolkit for recommender systems.
+ * Copyright 2014-2017 LensKit contributors (see CONTRIBUTORS.md)
+ * Copyright 2010-2014 Regents of the University of Minnesota
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining
+ * a copy of this software and associated documentation files (the
+ * "Software"), to deal in the Software without restriction, including
+ * without limitation the rights to use, copy, modify, merge, publish,
+ * distribute, sublicense, and/or sell copies of the Software, and to
+ * permit persons to whom the Software is furnished to do so, subject to
+ * the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be
+ * included in all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+ * EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF
+ * MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT.
+ * IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY
+ * CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT,
+ * TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION WITH THE
+ * SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ */
+package org.lenskit.data.store;
+
+import com.google.common.base.Preconditions;
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.Iterables;
+import it.unimi.dsi.fastutil.longs.LongOpenHashSet;
+import it.unimi.dsi.fastutil.longs.LongSet;
+import net.jcip.annotations.ThreadSafe;
+import org.lenskit.data.entities.AttributeSet;
+import org.lenskit.data.entities.Entity;
+import org.lenskit.data.entities.EntityBuilder;
+import org.lenskit.data.entities.EntityType;
+import org.lenskit.data.entities.TypedName;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import javax.annotation.Nullable;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * An append-only store of entities of a single type that provides point-in-time snapshots.  A writer appends entities
+ * with {@link #add(Entity)}; readers call {@link #snapshot()} to get an immutable {@link EntityCollection} of all
+ * entities added so far.  Snapshots are not affected by later appends, so a reader can use one as the backing store
+ * for a DAO while ingest continues.
+ *
+ * Internally, the entities are stored in a sequence of immutable segments, each built (and indexed) with the usual
+ * entity collection builders.  Taking a snapshot seals the entities appended since the last snapshot into a new
+ * segment, merging it with its predecessors as long as they are not much larger; this keeps the number of segments
+ * logarithmic in the number of entities, and means each entity is re-indexed a logarithmic number of times.
+ *
+ * Since the store is append-only, entity IDs must be unique; adding an entity with an existing ID is an error.
+ */
+@ThreadSafe
+public class AppendableEntityCollection {
+    private static final Logger logger = LoggerFactory.getLogger(AppendableEntityCollection.class);
+    /**
+     * Merge the last segment into the previous one while the previous segment is at most this many times its size.
+     */
+    private static final int MERGE_RATIO = 2;
+
+    private final EntityType type;
+    @Nullable
+    private final AttributeSet attributes;
+    @Nullable
+    private final Class<? extends EntityBuilder> entityBuilder;
+    private final List<TypedName<?>> indexes = new ArrayList<>();
+
+    // guarded by this
+    private final LongSet ids = new LongOpenHashSet();
+    private List<Entity> pending = new ArrayList<>();
+    private SegmentedEntityCollection current;
+
+    AppendableEntityCollection(EntityType type, @Nullable AttributeSet attrs,
+                               @Nullable Class<? extends EntityBuilder> ebc) {
+        this.type = type;
+        attributes = attrs;
+        entityBuilder = ebc;
+        current = new SegmentedEntityCollection(type, ImmutableList.of());
+    }
+
+    /**
+     * Get the type of entity stored in this collection.
+     * @return The entity type.
+     */
+    public EntityType getType() {
+        return type;
+    }
+
+    /**
+     * Index entities by an attribute.  Indexes must be added before any entities.
+     * @param attribute The attribute to index.
+     * @return The collection (for chaining).
+     * @throws IllegalStateException if entities have already been added.
+     */
+    public synchronized AppendableEntityCollection addIndex(TypedName<?> attribute) {
+        Preconditions.checkState(ids.isEmpty(), "cannot add index after entities have been added");
+        if (!indexes.contains(attribute)) {
+            indexes.add(attribute);
+        }
+        return this;
+    }
+
+    /**
+     * Append an entity.  It will be visible in snapshots taken after this method returns.
+     * @param e The entity to add.
+     * @return The collection (for chaining).
+     * @throws IllegalArgumentException if the entity has the wrong type or an entity with its ID has already been added.
+     */
+    public synchronized AppendableEntityCollection add(Entity e) {
+        Preconditions.checkArgument(e.getType() == type, "entity %s has type %s, expected %s",
+                                    e, e.getType(), type);
+        if (!ids.add(e.getId())) {
+            throw new IllegalArgumentException("entity " + e.getId() + " already added");
+        }
+        pending.add(e);
+        return this;
+    }
+
+    /**
+     * Append several entities.
+     * @param entities The entities to add.
+     * @return The collection (for chaining).
+     * @see #add(Entity)
+     */
+    public synchronized AppendableEntityCollection addAll(Iterable<? extends Entity> entities) {
+        for (Entity e: entities) {
+            add(e);
+        }
+        return this;
+    }
+
+    /**
+     * Get the number of entities added so far.
+     * @return The number of entities added.
+     */
+    public synchronized int size() {
+        return ids.size();
+    }
+
+    /**
+     * Get a snapshot of the entities added so far.  If no entities have been added since the last snapshot, the same
+     * collection is returned.
+     *
+     * @return An immutable collection of all entities added before this call.
+     */
+    public synchronized EntityCollection snapshot() {
+        if (!pending.isEmpty()) {
+            seal();
+        }
+        return current;
+    }
+
+    /**
+     * Seal the pending entities into a new segment.
+     */
+    private void seal() {
+        assert Thread.holdsLock(this);
+        List<EntityCollection> segments = new ArrayList<>(current.getSegments());
+        segments.add(buildSegment(pending));
+        pending = new ArrayList<>();
+
+        int n;
+        while ((n = segments.size()) > 1) {
+            EntityCollection prev = segments.get(n - 2);
+            EntityCollection last = segments.get(n - 1);
+            if (prev.size() > last.size() * MERGE_RATIO) {
+                break;
+            }
+            segments.remove(n - 1);
+            segments.set(n - 2, buildSegment(Iterables.concat(prev, last)));
+        }
+        logger.debug("{} entities of type {} now in {} segments", ids.size(), type, segments.size());
+
+        current = new SegmentedEntityCollection(type, segments);
+    }
+
+    private EntityCollection buildSegment(Iterable<Entity> entities) {
+        EntityCollectionBuilder ecb;
+        if (attributes != null) {
+            ecb = EntityCollection.newBuilder(type, attributes, entityBuilder);
+        } else {
+            ecb = EntityCollection.newBuilder(type);
+        }
+        for (TypedName<?> attr: indexes) {
+            ecb.addIndex(attr);
+        }
+        for (Entity e: entities) {
+            ecb.add(e);
+        }
+        return ecb.build();
+    }
+}
@@ -26,6 +26,8 @@ package org.lenskit.data.store;
 
 import com.google.common.base.Preconditions;
 import com.google.common.collect.ImmutableList;
+import com.google.common.collect.Iterables;
+import it.unimi.dsi.fastutil.longs.LongOpenHashSet;
 import it.unimi.dsi.fastutil.longs.LongSet;
 import org.lenskit.data.dao.SortKey;
 import org.lenskit.data.entities.*;
@@ -85,6 +87,29 @@ public abstract class EntityCollection extends AbstractCollection<Entity> {
     }
 
 
+    /**
+     * Create a new appendable entity collection.
+     * @param type The entity type.
+     * @return An empty appendable collection.
+     */
+    public static AppendableEntityCollection newAppendable(EntityType type) {
+        return new AppendableEntityCollection(type, null, null);
+    }
+
+    /**
+     * Create a new appendable entity collection with packed storage.
+     * @param type The entity type.
+     * @param attrs The attributes to store.
+     * @param eb An entity builder to use when reconstituting entities, or `null` for the default.
+     * @return An empty appendable collection.
+     */
+    public static AppendableEntityCollection newAppendable(EntityType type, AttributeSet attrs,
+                                                           @Nullable Class<? extends EntityBuilder> eb) {
+        Preconditions.checkArgument(attrs.lookup(CommonAttributes.ENTITY_ID) == 0,
+                                    "could not find entity ID in: %s", attrs);
+        return new AppendableEntityCollection(type, attrs, eb);
+    }
+
     /**
      * Create a new builder for colletions of bare entitites (only storing IDs).
      * @param type The entity type.
@@ -144,6 +169,58 @@ public abstract class EntityCollection extends AbstractCollection<Entity> {
      */
     public abstract Map<Long,List<Entity>> grouped(TypedName<Long> attr);
 
+    /**
+     * Count the entities matching a set of attribute filters.
+     * @param filters The filters; entities must match *all* filters to be counted.
+     * @return The number of matching entities.
+     */
+    public int count(List<Attribute<?>> filters) {
+        if (filters.isEmpty()) {
+            return size();
+        }
+        return Iterables.size(findAll(filters));
+    }
+
+    /**
+     * Get the values of a long attribute on the entities matching a set of attribute filters.
+     * @param attr The attribute whose values are to be collected.
+     * @param filters The filters; entities must match *all* filters to be included.
+     * @return A new (mutable) set of the distinct values of `attr` on matching entities.
+     */
+    public LongSet valueSet(TypedName<Long> attr, List<Attribute<?>> filters) {
+        LongSet values = new LongOpenHashSet();
+        for (Entity e: findAll(filters)) {
+            if (e.hasAttribute(attr)) {
+                values.add(e.getLong(attr));
+            }
+        }
+        return values;
+    }
+
+    /**
+     * Find entities matching all of a list of filters.
+     * @param filters The filters.
+     * @return The matching entities.
+     */
+    private Iterable<Entity> findAll(List<Attribute<?>> filters) {
+        if (filters.isEmpty()) {
+            return this;
+        }
+        List<Entity> base = find(filters.get(0));
+        if (filters.size() == 1) {
+            return base;
+        }
+        List<Attribute<?>> rest = filters.subList(1, filters.size());
+        return Iterables.filter(base, e -> {
+            for (Attribute<?> attr: rest) {
+                if (!attr.getValue().equals(e.maybeGet(attr.getTypedName()))) {
+                    return false;
+                }
+            }
+            return true;
+        });
+    }
+
     /**
      * Get the sort keys, if this collection stores attributes in sorted order.
      * @return The sort keys.
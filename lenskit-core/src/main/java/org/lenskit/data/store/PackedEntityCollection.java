@@ -30,10 +30,15 @@ import com.google.common.hash.HashCode;
 import com.google.common.hash.Hasher;
 import com.google.common.hash.Hashing;
 import com.google.common.primitives.Longs;
+import it.unimi.dsi.fastutil.ints.IntArrayList;
+import it.unimi.dsi.fastutil.ints.IntIterator;
+import it.unimi.dsi.fastutil.ints.IntIterators;
 import it.unimi.dsi.fastutil.ints.IntList;
+import it.unimi.dsi.fastutil.ints.IntLists;
 import it.unimi.dsi.fastutil.longs.AbstractLongIterator;
 import it.unimi.dsi.fastutil.longs.AbstractLongSet;
 import it.unimi.dsi.fastutil.longs.LongIterator;
+import it.unimi.dsi.fastutil.longs.LongOpenHashSet;
 import it.unimi.dsi.fastutil.longs.LongSet;
 import org.apache.commons.lang3.builder.ToStringBuilder;
 import org.apache.commons.lang3.builder.ToStringStyle;
@@ -180,6 +185,133 @@ class PackedEntityCollection extends EntityCollection implements Describable {
         }
     }
 
+    /**
+     * {@inheritDoc}
+     *
+     * This implementation finds matching positions with the attribute indexes and columns, without
+     * reconstituting entities.
+     */
+    @Override
+    public int count(List<Attribute<?>> filters) {
+        IntList positions = findPositions(filters);
+        return positions == null ? size : positions.size();
+    }
+
+    /**
+     * {@inheritDoc}
+     *
+     * This implementation reads values directly from the attribute columns, without reconstituting entities.
+     */
+    @Override
+    public LongSet valueSet(TypedName<Long> attr, List<Attribute<?>> filters) {
+        LongSet values = new LongOpenHashSet();
+        int ai = attributes.lookup(attr);
+        if (ai < 0) {
+            return values;
+        }
+
+        PackIndex index = indexes[ai];
+        if (filters.isEmpty() && index != null) {
+            // the index knows all the values
+            for (Object v: index.getValues()) {
+                values.add((long) (Long) v);
+            }
+            return values;
+        }
+
+        AttrStore store = attrStores[ai];
+        IntList positions = findPositions(filters);
+        IntIterator iter = positions == null ? IntIterators.fromTo(0, size) : positions.iterator();
+        if (store instanceof LongAttrStore) {
+            LongAttrStore ls = (LongAttrStore) store;
+            while (iter.hasNext()) {
+                int pos = iter.nextInt();
+                if (!ls.isNull(pos)) {
+                    values.add(ls.getLong(pos));
+                }
+            }
+        } else {
+            while (iter.hasNext()) {
+                Object v = store.get(iter.nextInt());
+                if (v != null) {
+                    values.add((long) (Long) v);
+                }
+            }
+        }
+        return values;
+    }
+
+    /**
+     * Find the positions of entities matching a list of filters.  The most selective indexed filter is used to
+     * find candidate positions, and the remaining filters are checked against the attribute columns.
+     *
+     * @param filters The filters.
+     * @return The list of matching positions, or `null` if there are no filters (so all positions match).
+     */
+    @Nullable
+    private IntList findPositions(List<Attribute<?>> filters) {
+        int nf = filters.size();
+        if (nf == 0) {
+            return null;
+        }
+
+        int[] attrIdx = new int[nf];
+        IntList base = null;
+        int baseFilter = -1;
+        for (int i = 0; i < nf; i++) {
+            Attribute<?> filter = filters.get(i);
+            int ai = attributes.lookup(filter.getTypedName());
+            if (ai < 0) {
+                return IntLists.EMPTY_LIST;
+            }
+            attrIdx[i] = ai;
+
+            IntList candidates = null;
+            if (ai == 0) {
+                int pos = new IdSearch((Long) filter.getValue()).search(0, size);
+                candidates = pos >= 0 ? IntLists.singleton(pos) : IntLists.EMPTY_LIST;
+            } else if (indexes[ai] != null) {
+                candidates = indexes[ai].getPositions(filter.getValue());
+            }
+            if (candidates != null && (base == null || candidates.size() < base.size())) {
+                base = candidates;
+                baseFilter = i;
+            }
+        }
+
+        if (base != null && nf == 1) {
+            return base;
+        }
+
+        IntArrayList result = new IntArrayList();
+        IntIterator iter = base == null ? IntIterators.fromTo(0, size) : base.iterator();
+        while (iter.hasNext()) {
+            int pos = iter.nextInt();
+            boolean matches = true;
+            for (int i = 0; matches && i < nf; i++) {
+                if (i != baseFilter) {
+                    matches = matchesAt(pos, attrIdx[i], filters.get(i).getValue());
+                }
+            }
+            if (matches) {
+                result.add(pos);
+            }
+        }
+        return result;
+    }
+
+    /**
+     * Test whether the attribute value at a position equals a value.
+     */
+    private boolean matchesAt(int pos, int attrIdx, Object value) {
+        AttrStore store = attrStores[attrIdx];
+        if (store instanceof LongAttrStore && value instanceof Long) {
+            return !store.isNull(pos) && ((LongAttrStore) store).getLong(pos) == (Long) value;
+        } else {
+            return value.equals(store.get(pos));
+        }
+    }
+
     @Override
     public List<SortKey> getSortKeys() {
         return ImmutableList.of(SortKey.create(CommonAttributes.ENTITY_ID));
@@ -0,0 +1,185 @@
+/*
+ * LensKit, an open-source toolkit for recommender systems.
+ * Copyright 2014-2017 LensKit contributors (see CONTRIBUTORS.md)
+ * Copyright 2010-2014 Regents of the University of Minnesota
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining
+ * a copy of this software and associated documentation files (the
+ * "Software"), to deal in the Software without restriction, including
+ * without limitation the rights to use, copy, modify, merge, publish,
+ * distribute, sublicense, and/or sell copies of the Software, and to
+ * permit persons to whom the Software is furnished to do so, subject to
+ * the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be
+ * included in all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+ * EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF
+ * MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT.
+ * IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY
+ * CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT,
+ * TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION WITH THE
+ * SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ */
+package org.lenskit.data.store;
+
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.Iterators;
+import it.unimi.dsi.fastutil.longs.LongOpenHashSet;
+import it.unimi.dsi.fastutil.longs.LongSet;
+import org.lenskit.data.entities.*;
+import org.lenskit.util.collections.LongUtils;
+import org.lenskit.util.describe.Describable;
+import org.lenskit.util.describe.DescriptionWriter;
+
+import javax.annotation.Nonnull;
+import javax.annotation.Nullable;
+import java.util.*;
+
+/**
+ * An immutable entity collection made up of several segments with disjoint entity IDs.  Used for the snapshots of
+ * an {@link AppendableEntityCollection}.
+ */
+class SegmentedEntityCollection extends EntityCollection implements Describable {
+    private final EntityType type;
+    private final List<EntityCollection> segments;
+    private final int size;
+    private volatile LongSet idSet;
+
+    SegmentedEntityCollection(EntityType type, List<EntityCollection> segs) {
+        this.type = type;
+        segments = ImmutableList.copyOf(segs);
+        int n = 0;
+        for (EntityCollection seg: segments) {
+            n += seg.size();
+        }
+        size = n;
+    }
+
+    /**
+     * Get the segments of this collection.
+     * @return The segments, oldest first.
+     */
+    List<EntityCollection> getSegments() {
+        return segments;
+    }
+
+    @Override
+    public EntityType getType() {
+        return type;
+    }
+
+    @Override
+    public LongSet idSet() {
+        LongSet ids = idSet;
+        if (ids == null) {
+            if (segments.size() == 1) {
+                ids = segments.get(0).idSet();
+            } else {
+                LongOpenHashSet all = new LongOpenHashSet(size);
+                for (EntityCollection seg: segments) {
+                    all.addAll(seg.idSet());
+                }
+                ids = LongUtils.frozenSet(all);
+            }
+            idSet = ids;
+        }
+        return ids;
+    }
+
+    @Nullable
+    @Override
+    public Entity lookup(long id) {
+        // newest segments are most likely to be looked up in live use
+        for (int i = segments.size() - 1; i >= 0; i--) {
+            Entity e = segments.get(i).lookup(id);
+            if (e != null) {
+                return e;
+            }
+        }
+        return null;
+    }
+
+    @Nonnull
+    @Override
+    public <T> List<Entity> find(TypedName<T> name, T value) {
+        if (segments.size() == 1) {
+            return segments.get(0).find(name, value);
+        }
+        ImmutableList.Builder<Entity> results = ImmutableList.builder();
+        for (EntityCollection seg: segments) {
+            results.addAll(seg.find(name, value));
+        }
+        return results.build();
+    }
+
+    @Nonnull
+    @Override
+    public <T> List<Entity> find(Attribute<T> attr) {
+        return find(attr.getTypedName(), attr.getValue());
+    }
+
+    @Nonnull
+    @Override
+    public List<Entity> find(String name, Object value) {
+        if (segments.size() == 1) {
+            return segments.get(0).find(name, value);
+        }
+        ImmutableList.Builder<Entity> results = ImmutableList.builder();
+        for (EntityCollection seg: segments) {
+            results.addAll(seg.find(name, value));
+        }
+        return results.build();
+    }
+
+    @Override
+    public Map<Long, List<Entity>> grouped(TypedName<Long> attr) {
+        if (segments.size() == 1) {
+            return segments.get(0).grouped(attr);
+        }
+        Map<Long, List<Entity>> groups = new HashMap<>();
+        for (EntityCollection seg: segments) {
+            for (Map.Entry<Long, List<Entity>> e: seg.grouped(attr).entrySet()) {
+                groups.computeIfAbsent(e.getKey(), k -> new ArrayList<>())
+                      .addAll(e.getValue());
+            }
+        }
+        return groups;
+    }
+
+    @Override
+    public int count(List<Attribute<?>> filters) {
+        int n = 0;
+        for (EntityCollection seg: segments) {
+            n += seg.count(filters);
+        }
+        return n;
+    }
+
+    @Override
+    public LongSet valueSet(TypedName<Long> attr, List<Attribute<?>> filters) {
+        LongSet values = new LongOpenHashSet();
+        for (EntityCollection seg: segments) {
+            values.addAll(seg.valueSet(attr, filters));
+        }
+        return values;
+    }
+
+    @Nonnull
+    @Override
+    public Iterator<Entity> iterator() {
+        return Iterators.concat(Iterators.transform(segments.iterator(), EntityCollection::iterator));
+    }
+
+    @Override
+    public int size() {
+        return size;
+    }
+
+    @Override
+    public void describeTo(DescriptionWriter writer) {
+        writer.putField("entity_count", size);
+        writer.putList("segments", segments);
+    }
+}
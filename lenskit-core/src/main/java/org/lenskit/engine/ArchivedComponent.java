@@ -0,0 +1,84 @@
+/*
+ * LensKit, an open-source toolkit for recommender systems.
+ * Copyright 2014-2017 LensKit contributors (see CONTRIBUTORS.md)
+ * Copyright 2010-2014 Regents of the University of Minnesota
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining
+ * a copy of this software and associated documentation files (the
+ * "Software"), to deal in the Software without restriction, including
+ * without limitation the rights to use, copy, modify, merge, publish,
+ * distribute, sublicense, and/or sell copies of the Software, and to
+ * permit persons to whom the Software is furnished to do so, subject to
+ * the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be
+ * included in all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+ * EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF
+ * MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT.
+ * IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY
+ * CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT,
+ * TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION WITH THE
+ * SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ */
+package org.lenskit.engine;
+
+import net.jcip.annotations.Immutable;
+
+import java.io.Serializable;
+
+/**
+ * Stand-in for a component stored as a separate entry in an engine archive.  The archived graph has an instance
+ * node holding one of these in place of each stored component.
+ */
+@Immutable
+final class ArchivedComponent implements Serializable {
+    private static final long serialVersionUID = 1L;
+
+    private final int entry;
+    private final String typeName;
+
+    ArchivedComponent(int entry, String type) {
+        this.entry = entry;
+        typeName = type;
+    }
+
+    /**
+     * Get the archive entry holding the component.
+     * @return The entry number.
+     */
+    int getEntry() {
+        return entry;
+    }
+
+    /**
+     * Get the name of the component's class.
+     * @return The class name.
+     */
+    String getTypeName() {
+        return typeName;
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        if (this == o) {
+            return true;
+        } else if (o instanceof ArchivedComponent) {
+            ArchivedComponent oc = (ArchivedComponent) o;
+            return entry == oc.entry && typeName.equals(oc.typeName);
+        } else {
+            return false;
+        }
+    }
+
+    @Override
+    public int hashCode() {
+        return entry * 31 + typeName.hashCode();
+    }
+
+    @Override
+    public String toString() {
+        return "archived " + typeName + " (entry " + entry + ")";
+    }
+}
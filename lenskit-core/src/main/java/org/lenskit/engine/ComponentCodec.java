@@ -0,0 +1,66 @@
+/*
+ * LensKit, an open-source toolkit for recommender systems.
+ * Copyright 2014-2017 LensKit contributors (see CONTRIBUTORS.md)
+ * Copyright 2010-2014 Regents of the University of Minnesota
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining
+ * a copy of this software and associated documentation files (the
+ * "Software"), to deal in the Software without restriction, including
+ * without limitation the rights to use, copy, modify, merge, publish,
+ * distribute, sublicense, and/or sell copies of the Software, and to
+ * permit persons to whom the Software is furnished to do so, subject to
+ * the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be
+ * included in all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+ * EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF
+ * MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT.
+ * IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY
+ * CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT,
+ * TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION WITH THE
+ * SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ */
+package org.lenskit.engine;
+
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+
+/**
+ * Binary codec for a component class, used to store components in {@linkplain EngineArchive engine archives}
+ * without Java serialization.  Codecs are discovered with {@link java.util.ServiceLoader}; to register one, list
+ * its class in `META-INF/services/org.lenskit.engine.ComponentCodec`.  Implementations must be public and have a
+ * public no-argument constructor.
+ *
+ * A codec applies only to exactly its {@linkplain #getComponentType() component type}, not to subclasses;
+ * components of other classes are stored with Java serialization.  Archives record the codec class used for each
+ * component, so a codec's format must remain readable as long as archives written with it are in use.
+ *
+ * @param <T> The component type.
+ * @since 3.0
+ */
+public interface ComponentCodec<T> {
+    /**
+     * Get the component class this codec handles.
+     * @return The component class.
+     */
+    Class<T> getComponentType();
+
+    /**
+     * Write a component.
+     * @param component The component to write.
+     * @param output The output to write to.
+     * @throws IOException if there is an error writing the component.
+     */
+    void write(T component, DataOutput output) throws IOException;
+
+    /**
+     * Read a component.
+     * @param input The input to read from.
+     * @return The component.
+     * @throws IOException if there is an error reading the component.
+     */
+    T read(DataInput input) throws IOException;
+}
@@ -0,0 +1,112 @@
+/*
+ * LensKit, an open-source toolkit for recommender systems.
+ * Copyright 2014-2017 LensKit contributors (see CONTRIBUTORS.md)
+ * Copyright 2010-2014 Regents of the University of Minnesota
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining
+ * a copy of this software and associated documentation files (the
+ * "Software"), to deal in the Software without restriction, including
+ * without limitation the rights to use, copy, modify, merge, publish,
+ * distribute, sublicense, and/or sell copies of the Software, and to
+ * permit persons to whom the Software is furnished to do so, subject to
+ * the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be
+ * included in all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+ * EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF
+ * MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT.
+ * IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY
+ * CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT,
+ * TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION WITH THE
+ * SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ */
+package org.lenskit.engine;
+
+import com.google.common.collect.ImmutableMap;
+import org.grouplens.grapht.util.ClassLoaders;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import javax.annotation.Nullable;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.ServiceLoader;
+
+/**
+ * A set of component codecs.
+ *
+ * @since 3.0
+ */
+public final class ComponentCodecs {
+    private static final Logger logger = LoggerFactory.getLogger(ComponentCodecs.class);
+    private final Map<Class<?>, ComponentCodec<?>> byType;
+    private final Map<String, ComponentCodec<?>> byName;
+
+    private ComponentCodecs(Iterable<? extends ComponentCodec<?>> codecs) {
+        Map<Class<?>, ComponentCodec<?>> types = new HashMap<>();
+        Map<String, ComponentCodec<?>> names = new HashMap<>();
+        for (ComponentCodec<?> codec: codecs) {
+            ComponentCodec<?> prev = types.put(codec.getComponentType(), codec);
+            if (prev != null) {
+                logger.warn("codecs {} and {} both handle {}, using the latter",
+                            prev.getClass().getName(), codec.getClass().getName(), codec.getComponentType());
+            }
+            names.put(codec.getClass().getName(), codec);
+        }
+        byType = ImmutableMap.copyOf(types);
+        byName = ImmutableMap.copyOf(names);
+    }
+
+    /**
+     * Load the codecs registered with a class loader.
+     * @param loader The class loader to search, or {@code null} to use a default class loader.
+     * @return The available codecs.
+     */
+    public static ComponentCodecs load(@Nullable ClassLoader loader) {
+        if (loader == null) {
+            loader = ClassLoaders.inferDefault(ComponentCodecs.class);
+        }
+        List<ComponentCodec<?>> codecs = new ArrayList<>();
+        for (ComponentCodec<?> codec: ServiceLoader.load(ComponentCodec.class, loader)) {
+            logger.debug("found codec {} for {}", codec.getClass().getName(), codec.getComponentType());
+            codecs.add(codec);
+        }
+        return new ComponentCodecs(codecs);
+    }
+
+    /**
+     * Create a codec set from specific codecs.
+     * @param codecs The codecs.
+     * @return The codec set.
+     */
+    public static ComponentCodecs of(ComponentCodec<?>... codecs) {
+        return new ComponentCodecs(Arrays.asList(codecs));
+    }
+
+    /**
+     * Get the codec for a component class.
+     * @param type The component class.
+     * @param <T> The component type.
+     * @return The codec for exactly `type`, or {@code null} if there is none.
+     */
+    @SuppressWarnings("unchecked")
+    @Nullable
+    public <T> ComponentCodec<T> forType(Class<T> type) {
+        return (ComponentCodec<T>) byType.get(type);
+    }
+
+    /**
+     * Get a codec by its class name.
+     * @param name The name of the codec class.
+     * @return The codec, or {@code null} if no such codec is available.
+     */
+    @Nullable
+    public ComponentCodec<?> forName(String name) {
+        return byName.get(name);
+    }
+}
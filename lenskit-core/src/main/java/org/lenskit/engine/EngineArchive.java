@@ -0,0 +1,657 @@
+/*
+ * LensKit, an open-source toolkit for recommender systems.
+ * Copyright 2014-2017 LensKit contributors (see CONTRIBUTORS.md)
+ * Copyright 2010-2014 Regents of the University of Minnesota
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining
+ * a copy of this software and associated documentation files (the
+ * "Software"), to deal in the Software without restriction, including
+ * without limitation the rights to use, copy, modify, merge, publish,
+ * distribute, sublicense, and/or sell copies of the Software, and to
+ * permit persons to whom the Software is furnished to do so, subject to
+ * the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be
+ * included in all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+ * EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF
+ * MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT.
+ * IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY
+ * CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT,
+ * TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION WITH THE
+ * SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ */
+package org.lenskit.engine;
+
+import com.google.common.collect.ImmutableList;
+import com.google.common.io.CountingOutputStream;
+import net.jcip.annotations.ThreadSafe;
+import org.apache.commons.lang3.ClassUtils;
+import org.grouplens.grapht.Component;
+import org.grouplens.grapht.Dependency;
+import org.grouplens.grapht.graph.DAGEdge;
+import org.grouplens.grapht.graph.DAGNode;
+import org.grouplens.grapht.reflect.QualifierMatcher;
+import org.grouplens.grapht.reflect.Satisfaction;
+import org.grouplens.grapht.reflect.Satisfactions;
+import org.grouplens.grapht.reflect.internal.InstanceSatisfaction;
+import org.grouplens.grapht.util.ClassLoaderContext;
+import org.grouplens.grapht.util.ClassLoaders;
+import org.lenskit.RecommenderConfigurationException;
+import org.lenskit.inject.Shareable;
+import org.lenskit.util.io.CustomClassLoaderObjectInputStream;
+import org.lenskit.util.io.StagedWrite;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import javax.annotation.Nullable;
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.channels.ClosedByInterruptException;
+import java.nio.channels.ClosedChannelException;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.*;
+import java.util.concurrent.*;
+
+/**
+ * A recommender engine stored component-wise in a single file.  The archive holds the engine's graph, with each
+ * shareable component replaced by a reference to a separate entry holding that component.  Components are stored
+ * with a {@linkplain ComponentCodec codec} if one is available for their class, and with Java serialization
+ * otherwise.  Because each component is a separate entry, the components can be read in parallel, or only when
+ * they are first needed.
+ *
+ * The file starts with a magic number and version, followed by the entries, an index of the entries (codec,
+ * component class, offset and length of each), and a trailer with the index offset and the magic number again.
+ * Entry 0 is the graph.  Archives are not compressed, as entries are read at arbitrary offsets.
+ *
+ * Each entry is stored independently, so an object referenced by several components (other than the components
+ * themselves) is written once per component and loaded as a separate copy for each.  Components that should share
+ * such an object after loading must intern it when they are read, as the matrix factorization model does for its key indexes.
+ *
+ * Archives are normally used through {@link org.lenskit.LenskitRecommenderEngine#writeArchive(File)} and
+ * {@link org.lenskit.LenskitRecommenderEngineLoader}.
+ *
+ * @since 3.0
+ * @compat Experimental
+ */
+@ThreadSafe
+public final class EngineArchive implements Closeable {
+    private static final Logger logger = LoggerFactory.getLogger(EngineArchive.class);
+    private static final byte[] MAGIC = "LKENGARC".getBytes(StandardCharsets.US_ASCII);
+    private static final int VERSION = 1;
+    private static final int HEADER_SIZE = MAGIC.length + 4;
+    private static final int TRAILER_SIZE = MAGIC.length + 8;
+    private static final String JAVA_SERIALIZATION = "";
+    private static final int BUFFER_SIZE = 64 * 1024;
+
+    private final File file;
+    private final ArchiveChannel channel;
+    @Nullable
+    private final ClassLoader classLoader;
+    private final ComponentCodecs codecs;
+    private final List<Entry> entries;
+    private final DAGNode<Component, Dependency> graph;
+    private final ConcurrentMap<Integer, CompletableFuture<Object>> loaded = new ConcurrentHashMap<>();
+    private volatile int threadCount = 1;
+
+    private EngineArchive(File f, ArchiveChannel ch, @Nullable ClassLoader loader,
+                          List<Entry> index) throws IOException {
+        file = f;
+        channel = ch;
+        classLoader = loader;
+        codecs = ComponentCodecs.load(loader);
+        entries = index;
+        graph = readGraph();
+    }
+
+    /**
+     * Query whether a file is an engine archive.
+     * @param file The file.
+     * @return {@code true} if the file starts with the engine archive magic number.
+     * @throws IOException if there is an error reading the file.
+     */
+    public static boolean isArchive(File file) throws IOException {
+        if (!file.isFile() || file.length() < HEADER_SIZE + TRAILER_SIZE) {
+            return false;
+        }
+        byte[] buf = new byte[MAGIC.length];
+        try (DataInputStream in = new DataInputStream(new FileInputStream(file))) {
+            in.readFully(buf);
+        }
+        return Arrays.equals(buf, MAGIC);
+    }
+
+    /**
+     * Open an engine archive.  This reads the archive's graph, but none of its components.
+     *
+     * @param file The archive file.
+     * @param loader The class loader to use, or {@code null} for a default class loader.
+     * @return The archive.  It keeps the file open until it is {@linkplain #close() closed}.
+     * @throws IOException if there is an error reading the archive.
+     * @throws RecommenderConfigurationException if the archive's graph refers to an unavailable class.
+     */
+    public static EngineArchive open(File file, @Nullable ClassLoader loader) throws IOException, RecommenderConfigurationException {
+        ArchiveChannel channel = new ArchiveChannel(file.toPath());
+        try {
+            long size = channel.size();
+            if (size < HEADER_SIZE + TRAILER_SIZE) {
+                throw new IOException(file + ": file too short to be an engine archive");
+            }
+            DataInputStream header = new DataInputStream(new SliceInputStream(channel, 0, HEADER_SIZE));
+            checkMagic(file, header);
+            int version = header.readInt();
+            if (version != VERSION) {
+                throw new IOException(file + ": unsupported engine archive version " + version);
+            }
+
+            DataInputStream trailer = new DataInputStream(new SliceInputStream(channel, size - TRAILER_SIZE, TRAILER_SIZE));
+            long indexOffset = trailer.readLong();
+            checkMagic(file, trailer);
+            if (indexOffset < HEADER_SIZE || indexOffset > size - TRAILER_SIZE) {
+                throw new IOException(file + ": invalid index offset " + indexOffset);
+            }
+
+            DataInputStream index = new DataInputStream(new BufferedInputStream(
+                    new SliceInputStream(channel, indexOffset, size - TRAILER_SIZE - indexOffset)));
+            int n = index.readInt();
+            ImmutableList.Builder<Entry> entries = ImmutableList.builder();
+            for (int i = 0; i < n; i++) {
+                String codec = index.readUTF();
+                String type = index.readUTF();
+                long offset = index.readLong();
+                long length = index.readLong();
+                entries.add(new Entry(codec, type, offset, length));
+            }
+            logger.debug("opened archive {} with {} entries", file, n);
+            return new EngineArchive(file, channel, loader, entries.build());
+        } catch (IOException | RuntimeException e) {
+            channel.close();
+            throw e;
+        }
+    }
+
+    private static void checkMagic(File file, DataInput in) throws IOException {
+        byte[] buf = new byte[MAGIC.length];
+        in.readFully(buf);
+        if (!Arrays.equals(buf, MAGIC)) {
+            throw new IOException(file + ": not an engine archive");
+        }
+    }
+
+    /**
+     * Write a recommender graph as an engine archive.  Each distinct instance of a {@link Shareable} class, or of a
+     * class with a codec, is stored as a separate entry.  The archive is written to a temporary file that replaces
+     * {@code file} once it is complete, so readers never see a partial archive, and an archive that is open (and
+     * possibly memory-mapped) is not overwritten in place.
+     *
+     * @param graph The recommender graph.
+     * @param file The file to write.
+     * @param codecs The codecs to use.
+     * @throws IOException if there is an error writing the archive.
+     */
+    public static void write(DAGNode<Component, Dependency> graph, File file,
+                             ComponentCodecs codecs) throws IOException {
+        List<Object> components = new ArrayList<>();
+        DAGNode<Component, Dependency> archived = externalize(graph, codecs, components);
+        logger.info("writing {} components to archive {}", components.size(), file);
+
+        try (StagedWrite stage = StagedWrite.begin(file)) {
+            try (OutputStream fout = stage.openOutputStream();
+                 CountingOutputStream counter = new CountingOutputStream(new BufferedOutputStream(fout, BUFFER_SIZE))) {
+                writeArchive(archived, components, codecs, counter);
+            }
+            stage.commit();
+        }
+    }
+
+    /**
+     * Write the contents of an archive.
+     */
+    private static void writeArchive(DAGNode<Component, Dependency> archived, List<Object> components,
+                                     ComponentCodecs codecs, CountingOutputStream counter) throws IOException {
+        DataOutputStream out = new DataOutputStream(counter);
+        out.write(MAGIC);
+        out.writeInt(VERSION);
+
+        List<Entry> index = new ArrayList<>(components.size() + 1);
+        index.add(writeEntry(counter, archived, null));
+        for (Object comp: components) {
+            @SuppressWarnings("unchecked")
+            ComponentCodec<Object> codec = (ComponentCodec<Object>) codecs.forType(comp.getClass());
+            index.add(writeEntry(counter, comp, codec));
+        }
+
+        long indexOffset = counter.getCount();
+        out.writeInt(index.size());
+        for (Entry e: index) {
+            out.writeUTF(e.codec);
+            out.writeUTF(e.type);
+            out.writeLong(e.offset);
+            out.writeLong(e.length);
+        }
+        out.writeLong(indexOffset);
+        out.write(MAGIC);
+        out.flush();
+    }
+
+    /**
+     * Replace stored components in a graph with references to their archive entries.
+     * @param graph The graph.
+     * @param codecs The available codecs.
+     * @param components A list to receive the stored components; component <em>i</em> is stored in entry
+     *                   <em>i</em>+1.
+     * @return The graph with components replaced by references.
+     */
+    private static DAGNode<Component, Dependency> externalize(DAGNode<Component, Dependency> graph,
+                                                              ComponentCodecs codecs,
+                                                              List<Object> components) {
+        Map<Object, ArchivedComponent> refs = new IdentityHashMap<>();
+        Map<DAGNode<Component, Dependency>, DAGNode<Component, Dependency>> memory = new HashMap<>();
+        DAGNode<Component, Dependency> result = graph;
+        for (DAGNode<Component, Dependency> node: graph.getReachableNodes()) {
+            Satisfaction sat = node.getLabel().getSatisfaction();
+            if (!(sat instanceof InstanceSatisfaction)) {
+                continue;
+            }
+            Object obj = ((InstanceSatisfaction) sat).getInstance();
+            if (obj == null || !(obj.getClass().isAnnotationPresent(Shareable.class)
+                                 || codecs.forType(obj.getClass()) != null)) {
+                continue;
+            }
+            ArchivedComponent ref = refs.get(obj);
+            if (ref == null) {
+                components.add(obj);
+                ref = new ArchivedComponent(components.size(), obj.getClass().getName());
+                refs.put(obj, ref);
+            }
+            DAGNode<Component, Dependency> repl =
+                    DAGNode.newBuilder(Component.create(Satisfactions.instance(ref), node.getLabel().getCachePolicy()))
+                           .build();
+            DAGNode<Component, Dependency> current = node;
+            while (memory.containsKey(current)) {
+                current = memory.get(current);
+            }
+            result = result.replaceNode(current, repl, memory);
+        }
+        return result;
+    }
+
+    private static Entry writeEntry(CountingOutputStream counter, Object obj,
+                                    @Nullable ComponentCodec<Object> codec) throws IOException {
+        long start = counter.getCount();
+        String codecName;
+        if (codec != null) {
+            logger.debug("writing {} with {}", obj.getClass().getName(), codec.getClass().getName());
+            DataOutputStream data = new DataOutputStream(counter);
+            codec.write(obj, data);
+            data.flush();
+            codecName = codec.getClass().getName();
+        } else {
+            logger.debug("serializing {}", obj.getClass().getName());
+            ObjectOutputStream oos = new ObjectOutputStream(counter);
+            oos.writeObject(obj);
+            oos.flush();
+            codecName = JAVA_SERIALIZATION;
+        }
+        return new Entry(codecName, obj.getClass().getName(), start, counter.getCount() - start);
+    }
+
+    /**
+     * Get the archive file.
+     * @return The file this archive was opened from.
+     */
+    public File getFile() {
+        return file;
+    }
+
+    /**
+     * Get the archived graph.  In this graph, each stored component is represented by an instance node holding a
+     * reference to its entry; use {@link #resolve(DAGNode)} to obtain a graph with the components themselves.
+     *
+     * @return The archived graph.
+     */
+    public DAGNode<Component, Dependency> getGraph() {
+        return graph;
+    }
+
+    /**
+     * Get the number of threads used to load components.
+     * @return The thread count.
+     */
+    public int getThreadCount() {
+        return threadCount;
+    }
+
+    /**
+     * Set the number of threads to use to load components in {@link #resolve(DAGNode)}.
+     * @param n The number of threads.  The default is 1.
+     */
+    public void setThreadCount(int n) {
+        threadCount = n;
+    }
+
+    /**
+     * Load all archived components referenced by a graph, and replace the references with the components.
+     *
+     * @param g The graph, either the {@linkplain #getGraph() archived graph} or a graph derived from it (e.g. by
+     *          rewriting it with additional configuration).
+     * @return The graph with its archived components loaded.
+     * @throws IOException if there is an error reading the components.
+     */
+    public DAGNode<Component, Dependency> resolve(DAGNode<Component, Dependency> g) throws IOException {
+        List<DAGNode<Component, Dependency>> nodes = new ArrayList<>();
+        for (DAGNode<Component, Dependency> node: g.getReachableNodes()) {
+            if (getReference(node) != null) {
+                nodes.add(node);
+            }
+        }
+
+        int threads = Math.min(threadCount, nodes.size());
+        if (threads > 1) {
+            logger.info("loading {} components from {} with {} threads", nodes.size(), file, threads);
+            ForkJoinPool pool = new ForkJoinPool(threads);
+            try {
+                List<Future<Object>> results = new ArrayList<>();
+                for (DAGNode<Component, Dependency> node: nodes) {
+                    final ArchivedComponent ref = getReference(node);
+                    results.add(pool.submit(() -> load(ref)));
+                }
+                for (Future<Object> result: results) {
+                    result.get();
+                }
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new InterruptedIOException("interrupted loading components");
+            } catch (ExecutionException e) {
+                throw unwrap(e.getCause());
+            } finally {
+                pool.shutdown();
+            }
+        } else {
+            logger.info("loading {} components from {}", nodes.size(), file);
+        }
+
+        Map<DAGNode<Component, Dependency>, DAGNode<Component, Dependency>> memory = new HashMap<>();
+        DAGNode<Component, Dependency> result = g;
+        for (DAGNode<Component, Dependency> node: nodes) {
+            Object obj = load(getReference(node));
+            DAGNode<Component, Dependency> repl =
+                    DAGNode.newBuilder(Component.create(Satisfactions.instance(obj), node.getLabel().getCachePolicy()))
+                           .build();
+            DAGNode<Component, Dependency> current = node;
+            while (memory.containsKey(current)) {
+                current = memory.get(current);
+            }
+            result = result.replaceNode(current, repl, memory);
+        }
+        return result;
+    }
+
+    /**
+     * Find the instance of a component in a graph, loading it from the archive if necessary.  This is the
+     * archive-aware equivalent of looking up a component with
+     * {@link org.lenskit.inject.GraphtUtils#findSatisfyingNode(DAGNode, QualifierMatcher, Class)}; only the
+     * component found is loaded.
+     *
+     * @param g The graph.
+     * @param qmatch The qualifier matcher.
+     * @param type The component type.
+     * @return The component instance, or {@code null} if no matching component is found or the matching component
+     * is not pre-instantiated.
+     * @throws IOException if there is an error reading the component.
+     */
+    @Nullable
+    public Object findComponent(DAGNode<Component, Dependency> g, QualifierMatcher qmatch,
+                                Class<?> type) throws IOException {
+        Iterator<DAGEdge<Component, Dependency>> edges = g.breadthFirstEdges().iterator();
+        while (edges.hasNext()) {
+            DAGEdge<Component, Dependency> edge = edges.next();
+            DAGNode<Component, Dependency> tail = edge.getTail();
+            ArchivedComponent ref = getReference(tail);
+            Satisfaction sat = tail.getLabel().getSatisfaction();
+            Class<?> tailType = ref != null ? loadType(ref) : sat.getErasedType();
+            if (tailType == null || !type.isAssignableFrom(tailType)) {
+                continue;
+            }
+            if (!qmatch.apply(edge.getLabel().getInitialDesire().getInjectionPoint().getQualifier())) {
+                continue;
+            }
+            if (ref != null) {
+                return load(ref);
+            } else if (sat instanceof InstanceSatisfaction) {
+                return ((InstanceSatisfaction) sat).getInstance();
+            } else {
+                return null;
+            }
+        }
+        return null;
+    }
+
+    @Nullable
+    private static ArchivedComponent getReference(DAGNode<Component, Dependency> node) {
+        Satisfaction sat = node.getLabel().getSatisfaction();
+        if (sat instanceof InstanceSatisfaction) {
+            Object obj = ((InstanceSatisfaction) sat).getInstance();
+            if (obj instanceof ArchivedComponent) {
+                return (ArchivedComponent) obj;
+            }
+        }
+        return null;
+    }
+
+    @Nullable
+    private Class<?> loadType(ArchivedComponent ref) {
+        ClassLoader loader = classLoader != null ? classLoader : ClassLoaders.inferDefault(EngineArchive.class);
+        try {
+            return ClassUtils.getClass(loader, ref.getTypeName());
+        } catch (ClassNotFoundException e) {
+            logger.debug("cannot load archived component type {}", ref.getTypeName());
+            return null;
+        }
+    }
+
+    /**
+     * Load a component, reading it at most once.  A failed read is not remembered, so a read that failed because its
+     * thread was interrupted can be retried.
+     */
+    private Object load(ArchivedComponent ref) throws IOException {
+        int id = ref.getEntry();
+        CompletableFuture<Object> result = loaded.get(id);
+        if (result == null) {
+            CompletableFuture<Object> fresh = new CompletableFuture<>();
+            result = loaded.putIfAbsent(id, fresh);
+            if (result == null) {
+                result = fresh;
+                try {
+                    fresh.complete(readEntry(id));
+                } catch (Throwable th) {
+                    loaded.remove(id, fresh);
+                    fresh.completeExceptionally(th);
+                }
+            }
+        }
+        try {
+            return result.join();
+        } catch (CompletionException e) {
+            throw unwrap(e.getCause());
+        }
+    }
+
+    private static IOException unwrap(Throwable th) {
+        if (th instanceof IOException) {
+            return (IOException) th;
+        } else if (th instanceof RuntimeException) {
+            throw (RuntimeException) th;
+        } else if (th instanceof Error) {
+            throw (Error) th;
+        } else {
+            return new IOException("error loading component", th);
+        }
+    }
+
+    private DAGNode<Component, Dependency> readGraph() throws IOException {
+        Object obj = readEntry(0);
+        if (!(obj instanceof DAGNode)) {
+            throw new IOException(file + ": archive does not contain a recommender graph");
+        }
+        @SuppressWarnings("unchecked")
+        DAGNode<Component, Dependency> g = (DAGNode<Component, Dependency>) obj;
+        return g;
+    }
+
+    private Object readEntry(int id) throws IOException {
+        Entry entry = entries.get(id);
+        logger.debug("reading entry {} ({}) from {}", id, entry.type, file);
+        try (InputStream in = new BufferedInputStream(new SliceInputStream(channel, entry.offset, entry.length),
+                                                      BUFFER_SIZE)) {
+            if (entry.codec.equals(JAVA_SERIALIZATION)) {
+                ClassLoaderContext ctx = null;
+                if (classLoader != null) {
+                    ctx = ClassLoaders.pushContext(classLoader);
+                }
+                try (ObjectInputStream oin = new CustomClassLoaderObjectInputStream(in, classLoader)) {
+                    return oin.readObject();
+                } catch (ClassNotFoundException e) {
+                    throw new RecommenderConfigurationException("cannot load " + entry.type, e);
+                } finally {
+                    if (ctx != null) {
+                        ctx.pop();
+                    }
+                }
+            } else {
+                ComponentCodec<?> codec = codecs.forName(entry.codec);
+                if (codec == null) {
+                    throw new IOException("codec " + entry.codec + " for " + entry.type + " is not available");
+                }
+                return codec.read(new DataInputStream(in));
+            }
+        }
+    }
+
+    @Override
+    public void close() throws IOException {
+        channel.close();
+    }
+
+    @Override
+    public String toString() {
+        return "EngineArchive(" + file + ")";
+    }
+
+    /**
+     * An entry in the archive index.
+     */
+    private static class Entry {
+        final String codec;
+        final String type;
+        final long offset;
+        final long length;
+
+        Entry(String codec, String type, long offset, long length) {
+            this.codec = codec;
+            this.type = type;
+            this.offset = offset;
+            this.length = length;
+        }
+    }
+
+    /**
+     * The archive's file channel.  A thread interrupted while reading a file channel closes the channel for every
+     * thread, so this reopens the channel when a read finds it closed by someone other than {@link #close()}.  The
+     * interrupted thread's own read still fails.
+     */
+    private static class ArchiveChannel implements Closeable {
+        private final Path path;
+        private volatile FileChannel channel;
+        private volatile boolean closed;
+
+        ArchiveChannel(Path path) throws IOException {
+            this.path = path;
+            channel = FileChannel.open(path, StandardOpenOption.READ);
+        }
+
+        long size() throws IOException {
+            return channel.size();
+        }
+
+        int read(ByteBuffer buf, long position) throws IOException {
+            while (true) {
+                FileChannel ch = channel;
+                try {
+                    return ch.read(buf, position);
+                } catch (ClosedByInterruptException e) {
+                    reopen(ch);
+                    throw e;
+                } catch (ClosedChannelException e) {
+                    // another reader was interrupted
+                    reopen(ch);
+                }
+            }
+        }
+
+        private synchronized void reopen(FileChannel failed) throws IOException {
+            if (closed) {
+                throw new ClosedChannelException();
+            }
+            if (channel == failed) {
+                logger.debug("reopening {} after an interrupted read", path);
+                channel = FileChannel.open(path, StandardOpenOption.READ);
+            }
+        }
+
+        @Override
+        public synchronized void close() throws IOException {
+            closed = true;
+            channel.close();
+        }
+    }
+
+    /**
+     * Input stream over a region of the archive, using positional reads so that several streams can read the
+     * archive concurrently.
+     */
+    private static class SliceInputStream extends InputStream {
+        private final ArchiveChannel channel;
+        private final long end;
+        private long position;
+
+        SliceInputStream(ArchiveChannel ch, long start, long length) {
+            channel = ch;
+            position = start;
+            end = start + length;
+        }
+
+        @Override
+        public int read() throws IOException {
+            byte[] buf = new byte[1];
+            int n = read(buf, 0, 1);
+            return n < 0 ? -1 : buf[0] & 0xFF;
+        }
+
+        @Override
+        public int read(byte[] b, int off, int len) throws IOException {
+            if (len == 0) {
+                return 0;
+            }
+            if (position >= end) {
+                return -1;
+            }
+            int n = (int) Math.min(len, end - position);
+            int read = channel.read(ByteBuffer.wrap(b, off, n), position);
+            if (read < 0) {
+                throw new EOFException("unexpected end of archive");
+            }
+            position += read;
+            return read;
+        }
+
+        @Override
+        public int available() {
+            return (int) Math.min(Integer.MAX_VALUE, end - position);
+        }
+    }
+}
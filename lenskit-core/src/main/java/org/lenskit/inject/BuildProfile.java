@@ -0,0 +1,379 @@
+/*
+ * LensKit, an open-source toolkit for recommender systems.
+ * Copyright 2014-2017 LensKit contributors (see CONTRIBUTORS.md)
+ * Copyright 2010-2014 Regents of the University of Minnesota
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining
+ * a copy of this software and associated documentation files (the
+ * "Software"), to deal in the Software without restriction, including
+ * without limitation the rights to use, copy, modify, merge, publish,
+ * distribute, sublicense, and/or sell copies of the Software, and to
+ * permit persons to whom the Software is furnished to do so, subject to
+ * the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be
+ * included in all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+ * EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF
+ * MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT.
+ * IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY
+ * CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT,
+ * TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION WITH THE
+ * SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ */
+package org.lenskit.inject;
+
+import com.fasterxml.jackson.core.JsonGenerator;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.node.ArrayNode;
+import com.fasterxml.jackson.databind.node.ObjectNode;
+import com.google.common.collect.ImmutableList;
+import net.jcip.annotations.Immutable;
+import net.jcip.annotations.ThreadSafe;
+import org.grouplens.grapht.Component;
+import org.grouplens.grapht.Dependency;
+import org.grouplens.grapht.InjectionException;
+import org.grouplens.grapht.graph.DAGEdge;
+import org.grouplens.grapht.graph.DAGNode;
+import org.lenskit.util.ObjectSizeEstimator;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.lang.annotation.Annotation;
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+import java.util.*;
+
+/**
+ * Per-component profile of a recommender build.  A build profile {@linkplain #instrument(NodeInstantiator) wraps}
+ * the node instantiator used for shareable components and records, for each one, the wall-clock time, thread CPU
+ * time and bytes allocated while building it (including any non-shareable dependencies built along the way), and
+ * an estimate of the heap space retained by the finished component.
+ *
+ * CPU time and allocation are measured with the platform {@link ThreadMXBean}; if the JVM does not support them,
+ * they are reported as -1.  Retained sizes are estimated by {@link #estimateSizes()}, which the instantiator calls
+ * once the build is finished; each component's estimate excludes other profiled components it references.
+ *
+ * @since 3.0
+ */
+@ThreadSafe
+public class BuildProfile {
+    private static final Logger logger = LoggerFactory.getLogger(BuildProfile.class);
+    private static final ThreadMXBean threadBean = ManagementFactory.getThreadMXBean();
+    private static final boolean ALLOCATION_SUPPORTED;
+    private static final long MAX_SIZE_OBJECTS = 50000000;
+
+    static {
+        boolean alloc = false;
+        try {
+            if (threadBean instanceof com.sun.management.ThreadMXBean) {
+                com.sun.management.ThreadMXBean bean = (com.sun.management.ThreadMXBean) threadBean;
+                alloc = bean.isThreadAllocatedMemorySupported() && bean.isThreadAllocatedMemoryEnabled();
+            }
+        } catch (LinkageError e) {
+            logger.debug("thread allocation measurement unavailable", e);
+        }
+        ALLOCATION_SUPPORTED = alloc;
+    }
+
+    private final List<Entry> entries = new ArrayList<>();
+    private boolean sizesEstimated;
+
+    /**
+     * Wrap a node instantiator so that the nodes it instantiates are profiled.
+     * @param delegate The node instantiator to wrap.
+     * @param component The name to record the instantiated components under, such as the one produced by
+     *                  {@link #describe(DAGNode, DAGNode)}.
+     * @return A node instantiator that records each instantiation in this profile.
+     */
+    public NodeInstantiator instrument(final NodeInstantiator delegate, final String component) {
+        return new NodeInstantiator() {
+            @Override
+            public Object instantiate(DAGNode<Component, Dependency> node) throws InjectionException {
+                long cpu0 = currentCpuTime();
+                long alloc0 = currentAllocatedBytes();
+                long wall0 = System.nanoTime();
+                Object result = delegate.instantiate(node);
+                long wall = System.nanoTime() - wall0;
+                long cpu = cpu0 < 0 ? -1 : currentCpuTime() - cpu0;
+                long alloc = alloc0 < 0 ? -1 : currentAllocatedBytes() - alloc0;
+                record(component, result, wall, cpu, alloc);
+                return result;
+            }
+        };
+    }
+
+    private synchronized void record(String name, Object instance, long wall, long cpu, long alloc) {
+        entries.add(new Entry(name, instance, wall, cpu, alloc));
+    }
+
+    /**
+     * Describe a node for the profile.  The description is the name of the node's type, followed by the qualifiers
+     * it is injected with (such as {@code @Left} and {@code @Right} for the two sides of a hybrid), so that
+     * components of the same type are told apart.
+     *
+     * @param node The node.
+     * @param graph The graph containing the node.
+     * @return The node's description.
+     */
+    public static String describe(DAGNode<Component, Dependency> node, DAGNode<Component, Dependency> graph) {
+        Set<String> qualifiers = new TreeSet<>();
+        for (DAGNode<Component, Dependency> head: graph.getReachableNodes()) {
+            for (DAGEdge<Component, Dependency> edge: head.getOutgoingEdges()) {
+                if (edge.getTail().equals(node)) {
+                    Annotation qual = edge.getLabel().getInitialDesire().getInjectionPoint().getQualifier();
+                    if (qual != null) {
+                        qualifiers.add(describe(qual));
+                    }
+                }
+            }
+        }
+        StringBuilder sb = new StringBuilder(node.getLabel().getSatisfaction().getErasedType().getName());
+        for (String q: qualifiers) {
+            sb.append(' ').append(q);
+        }
+        return sb.toString();
+    }
+
+    /**
+     * Describe a qualifier by its simple name and, if it has any, its parameters.
+     */
+    private static String describe(Annotation qual) {
+        String str = qual.toString();
+        String type = qual.annotationType().getName();
+        int start = str.indexOf(type);
+        String params = start < 0 ? "" : str.substring(start + type.length());
+        if (params.equals("()")) {
+            params = "";
+        }
+        return "@" + qual.annotationType().getSimpleName() + params;
+    }
+
+    /**
+     * Estimate the retained size of each recorded component.  References to the built components are released
+     * once the estimates are computed, so the profile does not keep models reachable.  Calling this method more
+     * than once has no further effect.
+     */
+    public synchronized void estimateSizes() {
+        if (sizesEstimated) {
+            return;
+        }
+        List<Object> instances = new ArrayList<>();
+        for (Entry e: entries) {
+            if (e.instance != null) {
+                instances.add(e.instance);
+            }
+        }
+        for (Entry e: entries) {
+            if (e.instance != null) {
+                List<Object> bounds = new ArrayList<>(instances);
+                bounds.remove(e.instance);
+                e.retained = ObjectSizeEstimator.create(bounds, MAX_SIZE_OBJECTS).estimateSize(e.instance);
+            } else {
+                e.retained = 0;
+            }
+            e.instance = null;
+        }
+        sizesEstimated = true;
+    }
+
+    /**
+     * Get the profiled components.
+     * @return The component profiles, in the order the components finished building.
+     */
+    public synchronized List<ComponentProfile> getComponents() {
+        ImmutableList.Builder<ComponentProfile> bld = ImmutableList.builder();
+        for (Entry e: entries) {
+            bld.add(new ComponentProfile(e.name, e.wall, e.cpu, e.alloc, e.retained));
+        }
+        return bld.build();
+    }
+
+    /**
+     * Write the profile as JSON.  The output is an object with a <code>components</code> list, each element of
+     * which has the fields <code>component</code>, <code>wall_ns</code>, <code>cpu_ns</code>,
+     * <code>allocated_bytes</code> and <code>retained_bytes</code>, and a <code>total</code> object summing them.
+     * @param out The output stream (not closed).
+     * @throws IOException if there is an error writing the profile.
+     */
+    public void writeJSON(OutputStream out) throws IOException {
+        ObjectMapper mapper = new ObjectMapper();
+        ObjectNode root = mapper.createObjectNode();
+        ArrayNode list = root.putArray("components");
+        long wall = 0, cpu = 0, alloc = 0, retained = 0;
+        for (ComponentProfile cp: getComponents()) {
+            ObjectNode obj = list.addObject();
+            obj.put("component", cp.getComponent());
+            obj.put("wall_ns", cp.getWallTime());
+            obj.put("cpu_ns", cp.getCpuTime());
+            obj.put("allocated_bytes", cp.getAllocatedBytes());
+            obj.put("retained_bytes", cp.getRetainedBytes());
+            wall += cp.getWallTime();
+            cpu = addMeasure(cpu, cp.getCpuTime());
+            alloc = addMeasure(alloc, cp.getAllocatedBytes());
+            retained = addMeasure(retained, cp.getRetainedBytes());
+        }
+        ObjectNode total = root.putObject("total");
+        total.put("wall_ns", wall);
+        total.put("cpu_ns", cpu);
+        total.put("allocated_bytes", alloc);
+        total.put("retained_bytes", retained);
+        mapper.writerWithDefaultPrettyPrinter().without(JsonGenerator.Feature.AUTO_CLOSE_TARGET)
+              .writeValue(out, root);
+    }
+
+    /**
+     * Format the profile as a human-readable table, one component per line, slowest first.
+     * @return The formatted table.
+     */
+    public String formatTable() {
+        List<ComponentProfile> comps = new ArrayList<>(getComponents());
+        comps.sort(Comparator.comparingLong(ComponentProfile::getWallTime).reversed());
+        int width = "component".length();
+        for (ComponentProfile cp: comps) {
+            width = Math.max(width, cp.getComponent().length());
+        }
+        String fmt = "%-" + width + "s %10s %10s %10s %10s%n";
+        StringBuilder sb = new StringBuilder();
+        Formatter f = new Formatter(sb);
+        f.format(fmt, "component", "wall", "cpu", "alloc", "retained");
+        for (ComponentProfile cp: comps) {
+            f.format(fmt, cp.getComponent(),
+                     formatNanos(cp.getWallTime()), formatNanos(cp.getCpuTime()),
+                     formatBytes(cp.getAllocatedBytes()), formatBytes(cp.getRetainedBytes()));
+        }
+        f.flush();
+        return sb.toString();
+    }
+
+    private static long addMeasure(long total, long value) {
+        return total < 0 || value < 0 ? -1 : total + value;
+    }
+
+    private static String formatNanos(long ns) {
+        if (ns < 0) {
+            return "n/a";
+        } else if (ns < 1000000) {
+            return String.format("%.1fus", ns / 1.0e3);
+        } else if (ns < 1000000000) {
+            return String.format("%.1fms", ns / 1.0e6);
+        } else {
+            return String.format("%.2fs", ns / 1.0e9);
+        }
+    }
+
+    private static String formatBytes(long bytes) {
+        if (bytes < 0) {
+            return "n/a";
+        } else if (bytes < 1024) {
+            return bytes + "B";
+        } else if (bytes < 1024 * 1024) {
+            return String.format("%.1fKiB", bytes / 1024.0);
+        } else if (bytes < 1024L * 1024 * 1024) {
+            return String.format("%.1fMiB", bytes / (1024.0 * 1024));
+        } else {
+            return String.format("%.2fGiB", bytes / (1024.0 * 1024 * 1024));
+        }
+    }
+
+    private static long currentCpuTime() {
+        return threadBean.isCurrentThreadCpuTimeSupported() ? threadBean.getCurrentThreadCpuTime() : -1;
+    }
+
+    private static long currentAllocatedBytes() {
+        if (ALLOCATION_SUPPORTED) {
+            com.sun.management.ThreadMXBean bean = (com.sun.management.ThreadMXBean) threadBean;
+            return bean.getThreadAllocatedBytes(Thread.currentThread().getId());
+        } else {
+            return -1;
+        }
+    }
+
+    /**
+     * Mutable record of a component, holding the instance until sizes are estimated.
+     */
+    private static class Entry {
+        final String name;
+        final long wall, cpu, alloc;
+        Object instance;
+        long retained = -1;
+
+        Entry(String n, Object inst, long w, long c, long a) {
+            name = n;
+            instance = inst;
+            wall = w;
+            cpu = c;
+            alloc = a;
+        }
+    }
+
+    /**
+     * The profile of a single component.
+     */
+    @Immutable
+    public static final class ComponentProfile {
+        private final String component;
+        private final long wallTime;
+        private final long cpuTime;
+        private final long allocatedBytes;
+        private final long retainedBytes;
+
+        ComponentProfile(String comp, long wall, long cpu, long alloc, long retained) {
+            component = comp;
+            wallTime = wall;
+            cpuTime = cpu;
+            allocatedBytes = alloc;
+            retainedBytes = retained;
+        }
+
+        /**
+         * Get the description of the component: the name of its type, followed by the qualifiers it is injected with.
+         * @return The component description.
+         * @see #describe(DAGNode, DAGNode)
+         */
+        public String getComponent() {
+            return component;
+        }
+
+        /**
+         * Get the wall-clock time spent building the component.
+         * @return The build time, in nanoseconds.
+         */
+        public long getWallTime() {
+            return wallTime;
+        }
+
+        /**
+         * Get the CPU time the building thread spent on the component.
+         * @return The CPU time, in nanoseconds, or -1 if unavailable.
+         */
+        public long getCpuTime() {
+            return cpuTime;
+        }
+
+        /**
+         * Get the number of bytes allocated while building the component.
+         * @return The allocated bytes, or -1 if unavailable.
+         */
+        public long getAllocatedBytes() {
+            return allocatedBytes;
+        }
+
+        /**
+         * Get the estimated heap space retained by the component, excluding other profiled components.
+         * @return The estimated retained bytes, or -1 if sizes have not been estimated.
+         */
+        public long getRetainedBytes() {
+            return retainedBytes;
+        }
+
+        @Override
+        public String toString() {
+            return String.format("%s: wall=%dns cpu=%dns alloc=%d retained=%d",
+                                 component, wallTime, cpuTime, allocatedBytes, retainedBytes);
+        }
+    }
+}
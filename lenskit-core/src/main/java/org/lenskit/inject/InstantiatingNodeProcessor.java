@@ -25,6 +25,7 @@
 package org.lenskit.inject;
 
 import com.google.common.base.Function;
+import com.google.common.base.Preconditions;
 import org.grouplens.grapht.Component;
 import org.grouplens.grapht.Dependency;
 import org.grouplens.grapht.graph.DAGEdge;
@@ -36,6 +37,8 @@ import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import javax.annotation.Nonnull;
+import java.util.Map;
+import java.util.function.BiFunction;
 
 /**
  * Node processor that simulates instantiation.
@@ -43,19 +46,35 @@ import javax.annotation.Nonnull;
  */
 class InstantiatingNodeProcessor implements NodeProcessor {
     private static final Logger logger = LoggerFactory.getLogger(InstantiatingNodeProcessor.class);
-    private final Function<DAGNode<Component, Dependency>, Object> instantiator;
+    private final BiFunction<DAGNode<Component, Dependency>, DAGNode<Component, Dependency>, Object> instantiator;
 
     InstantiatingNodeProcessor(Function<DAGNode<Component,Dependency>,Object> inst) {
+        instantiator = (node, original) -> inst.apply(node);
+    }
+
+    private InstantiatingNodeProcessor(BiFunction<DAGNode<Component, Dependency>, DAGNode<Component, Dependency>, Object> inst) {
         instantiator = inst;
     }
 
+    /**
+     * Create a processor that replaces nodes with instances that have already been built.
+     * @param instances The instances, keyed by original node.
+     * @return The node processor.
+     */
+    static InstantiatingNodeProcessor withInstances(Map<DAGNode<Component, Dependency>, Object> instances) {
+        return new InstantiatingNodeProcessor((node, original) -> {
+            Preconditions.checkArgument(instances.containsKey(original), "node %s was not instantiated", original);
+            return instances.get(original);
+        });
+    }
+
     public DAGNode<Component, Dependency> processNode(@Nonnull DAGNode<Component, Dependency> node, @Nonnull DAGNode<Component, Dependency> original) {
         Component label = node.getLabel();
         Satisfaction satisfaction = label.getSatisfaction();
         if (satisfaction.hasInstance()) {
             return node;
         }
-        Object obj = instantiator.apply(node);
+        Object obj = instantiator.apply(node, original);
 
         Satisfaction instanceSat;
         if (obj == null) {
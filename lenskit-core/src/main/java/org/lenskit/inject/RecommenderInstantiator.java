@@ -28,14 +28,22 @@ import org.grouplens.grapht.Component;
 import org.grouplens.grapht.Dependency;
 import org.grouplens.grapht.InjectionException;
 import org.grouplens.grapht.LifecycleManager;
+import org.grouplens.grapht.graph.DAGEdge;
 import org.grouplens.grapht.graph.DAGNode;
+import org.grouplens.grapht.reflect.Satisfaction;
+import org.grouplens.grapht.reflect.Satisfactions;
 import org.lenskit.LenskitConfiguration;
 import org.lenskit.RecommenderConfigurationException;
 import org.lenskit.api.RecommenderBuildException;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
-import java.util.Set;
+import javax.annotation.Nullable;
+
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
 
 /**
  * Process a recommender graph to deal with its shareable nodes.
@@ -47,9 +55,21 @@ import java.util.Set;
 public final class RecommenderInstantiator {
     private static final Logger logger = LoggerFactory.getLogger(RecommenderInstantiator.class);
     private final DAGNode<Component, Dependency> graph;
+    @Nullable
+    private final BuildProfile profile;
 
     public static RecommenderInstantiator create(DAGNode<Component,Dependency> g) {
-        return new RecommenderInstantiator(g);
+        return new RecommenderInstantiator(g, null);
+    }
+
+    /**
+     * Create a recommender instantiator that profiles the components it builds.
+     * @param g The graph to instantiate.
+     * @param profile The profile to record shareable component builds in, or {@code null} to disable profiling.
+     * @return The instantiator.
+     */
+    public static RecommenderInstantiator create(DAGNode<Component,Dependency> g, @Nullable BuildProfile profile) {
+        return new RecommenderInstantiator(g, profile);
     }
 
     @Deprecated
@@ -57,8 +77,9 @@ public final class RecommenderInstantiator {
         return create(config.buildGraph());
     }
 
-    private RecommenderInstantiator(DAGNode<Component, Dependency> g) {
+    private RecommenderInstantiator(DAGNode<Component, Dependency> g, @Nullable BuildProfile prof) {
         graph = g;
+        profile = prof;
     }
 
     /**
@@ -83,13 +104,217 @@ public final class RecommenderInstantiator {
     public DAGNode<Component,Dependency> instantiate() throws RecommenderBuildException {
         try (LifecycleManager lm = new LifecycleManager()) {
             NodeInstantiator instantiator = NodeInstantiator.create(lm);
+            NodeProcessor processor = NodeProcessors.instantiate(instantiator);
+            if (profile != null) {
+                // name each profiled component from its place in the original graph
+                processor = (node, original) ->
+                        NodeProcessors.instantiate(profiled(instantiator, original)).processNode(node, original);
+            }
             // TODO Verify that no sharable components are lifecycle-managed
-            return replaceShareableNodes(NodeProcessors.instantiate(instantiator));
+            DAGNode<Component,Dependency> result = replaceShareableNodes(processor);
+            finishProfile();
+            return result;
         } catch (InjectionException e) {
             throw new RecommenderBuildException("Recommender instantiation failed", e);
         }
     }
 
+    /**
+     * Instantiate the recommender graph, building independent shareable components in parallel.  Each shareable
+     * component is built as soon as the shareable components it depends on have been built, so independent
+     * subgraphs (such as the models of the two sides of a hybrid) are built concurrently.
+     *
+     * Each component is built with its own injection container.  That container, with the component's transient and
+     * non-shareable dependencies, is closed as soon as the component and every shareable component built from it
+     * have been built, rather than at the end of the whole graph.  Non-shareable components used by several
+     * shareable ones may therefore be instantiated more than once.
+     *
+     * @param threads The number of threads to use. If 1 or less, the graph is instantiated sequentially with
+     *                {@link #instantiate()}.
+     * @return A new recommender graph with all shareable nodes pre-instantiated.
+     * @throws RecommenderBuildException If there is an error instantiating the graph.
+     */
+    public DAGNode<Component,Dependency> instantiate(int threads) throws RecommenderBuildException {
+        if (threads <= 1) {
+            return instantiate();
+        }
+        ForkJoinPool pool = new ForkJoinPool(threads);
+        try {
+            return instantiate(pool);
+        } finally {
+            pool.shutdown();
+        }
+    }
+
+    /**
+     * Instantiate the recommender graph, building independent shareable components in parallel.
+     *
+     * @param executor The executor to build components with.
+     * @return A new recommender graph with all shareable nodes pre-instantiated.
+     * @throws RecommenderBuildException If there is an error instantiating the graph.
+     * @see #instantiate(int)
+     */
+    public DAGNode<Component,Dependency> instantiate(Executor executor) throws RecommenderBuildException {
+        Set<DAGNode<Component,Dependency>> shared = GraphtUtils.getShareableNodes(graph);
+        logger.debug("instantiating {} shared nodes in parallel", shared.size());
+        Map<DAGNode<Component,Dependency>, CompletableFuture<Object>> futures = new HashMap<>();
+        Map<DAGNode<Component,Dependency>, NodeLifecycle> lifecycles = new HashMap<>();
+        Map<DAGNode<Component,Dependency>, Set<DAGNode<Component,Dependency>>> sharedDeps = new HashMap<>();
+        Map<DAGNode<Component,Dependency>, Object> instances = new HashMap<>();
+        try {
+            // count each node's users up front, so no container is closed before all its users are scheduled
+            for (DAGNode<Component,Dependency> node: shared) {
+                Set<DAGNode<Component,Dependency>> deps = findSharedDependencies(node, shared);
+                sharedDeps.put(node, deps);
+                lifecycles.put(node, new NodeLifecycle());
+                for (DAGNode<Component,Dependency> dep: deps) {
+                    lifecycles.get(dep).retain();
+                }
+            }
+
+            // shareable nodes are topologically sorted, so each node's dependencies already have futures
+            for (DAGNode<Component,Dependency> node: shared) {
+                Map<DAGNode<Component,Dependency>, CompletableFuture<Object>> deps = new LinkedHashMap<>();
+                for (DAGNode<Component,Dependency> dep: sharedDeps.get(node)) {
+                    deps.put(dep, futures.get(dep));
+                }
+                NodeLifecycle life = lifecycles.get(node);
+                CompletableFuture<Void> ready = CompletableFuture.allOf(deps.values().toArray(new CompletableFuture[0]));
+                CompletableFuture<Object> result = ready.thenApplyAsync(v -> {
+                    DAGNode<Component,Dependency> prepared = substituteInstances(node, deps);
+                    logger.debug("instantiating {}", node.getLabel());
+                    return profiled(NodeInstantiator.create(life.getManager()), node).apply(prepared);
+                }, executor);
+                result.whenComplete((obj, ex) -> {
+                    // this node is built, and no longer needs its dependencies
+                    life.release();
+                    for (DAGNode<Component,Dependency> dep: deps.keySet()) {
+                        lifecycles.get(dep).release();
+                    }
+                });
+                futures.put(node, result);
+            }
+
+            // wait for every build to finish, even if one fails, so the lifecycle managers can be closed
+            CompletableFuture.allOf(futures.values().toArray(new CompletableFuture[0])).join();
+            for (Map.Entry<DAGNode<Component,Dependency>, CompletableFuture<Object>> e: futures.entrySet()) {
+                instances.put(e.getKey(), e.getValue().join());
+            }
+        } catch (CompletionException e) {
+            Throwable cause = e.getCause();
+            if (cause instanceof RecommenderBuildException) {
+                throw (RecommenderBuildException) cause;
+            } else {
+                throw new RecommenderBuildException("Recommender instantiation failed", cause);
+            }
+        } finally {
+            // every container should be closed by now; this catches builds that were never scheduled
+            for (NodeLifecycle life: lifecycles.values()) {
+                life.close();
+            }
+        }
+
+        finishProfile();
+        try {
+            return replaceShareableNodes(InstantiatingNodeProcessor.withInstances(instances));
+        } catch (InjectionException e) {
+            throw new RecommenderBuildException("Recommender instantiation failed", e);
+        }
+    }
+
+    /**
+     * The injection container of a shareable node built in parallel.  It is closed once the node and every shareable
+     * node using it have been built.
+     */
+    private static class NodeLifecycle {
+        private final LifecycleManager manager = new LifecycleManager();
+        // the node itself, plus one for each shareable node that uses it
+        private final AtomicInteger references = new AtomicInteger(1);
+        private final AtomicBoolean closed = new AtomicBoolean(false);
+
+        LifecycleManager getManager() {
+            return manager;
+        }
+
+        void retain() {
+            references.incrementAndGet();
+        }
+
+        void release() {
+            if (references.decrementAndGet() == 0) {
+                close();
+            }
+        }
+
+        void close() {
+            if (closed.compareAndSet(false, true)) {
+                manager.close();
+            }
+        }
+    }
+
+    private NodeInstantiator profiled(NodeInstantiator inst, DAGNode<Component,Dependency> node) {
+        return profile == null ? inst : profile.instrument(inst, BuildProfile.describe(node, graph));
+    }
+
+    private void finishProfile() {
+        if (profile != null) {
+            profile.estimateSizes();
+        }
+    }
+
+    /**
+     * Find the shareable nodes a node depends on that are not dependencies of other shareable nodes it depends on.
+     */
+    private static Set<DAGNode<Component,Dependency>> findSharedDependencies(DAGNode<Component,Dependency> node,
+                                                                            Set<DAGNode<Component,Dependency>> shared) {
+        Set<DAGNode<Component,Dependency>> deps = new LinkedHashSet<>();
+        Set<DAGNode<Component,Dependency>> seen = new HashSet<>();
+        Deque<DAGNode<Component,Dependency>> work = new ArrayDeque<>();
+        for (DAGEdge<Component,Dependency> edge: node.getOutgoingEdges()) {
+            work.push(edge.getTail());
+        }
+        while (!work.isEmpty()) {
+            DAGNode<Component,Dependency> dep = work.pop();
+            if (!seen.add(dep)) {
+                continue;
+            }
+            if (shared.contains(dep)) {
+                deps.add(dep);
+            } else {
+                for (DAGEdge<Component,Dependency> edge: dep.getOutgoingEdges()) {
+                    work.push(edge.getTail());
+                }
+            }
+        }
+        return deps;
+    }
+
+    /**
+     * Replace a node's shareable dependencies with their built instances.
+     */
+    private static DAGNode<Component,Dependency> substituteInstances(DAGNode<Component,Dependency> node,
+                                                                     Map<DAGNode<Component,Dependency>, CompletableFuture<Object>> deps) {
+        Map<DAGNode<Component,Dependency>,DAGNode<Component,Dependency>> memory = new HashMap<>();
+        DAGNode<Component,Dependency> result = node;
+        for (Map.Entry<DAGNode<Component,Dependency>, CompletableFuture<Object>> entry: deps.entrySet()) {
+            DAGNode<Component,Dependency> dep = entry.getKey();
+            DAGNode<Component,Dependency> current = dep;
+            while (memory.containsKey(current)) {
+                current = memory.get(current);
+            }
+            Object obj = entry.getValue().join();
+            Component label = dep.getLabel();
+            Satisfaction sat = obj == null
+                    ? Satisfactions.nullOfType(label.getSatisfaction().getErasedType())
+                    : Satisfactions.instance(obj);
+            DAGNode<Component,Dependency> repl = DAGNode.newBuilder(Component.create(sat, label.getCachePolicy()))
+                                                        .build();
+            result = result.replaceNode(current, repl, memory);
+        }
+        return result;
+    }
+
     /**
      * Simulate instantiating a graph.
      * @return The simulated graph.
@@ -0,0 +1,143 @@
+/*
+ * LensKit, an open-source toolkit for recommender systems.
+ * Copyright 2014-2017 LensKit contributors (see CONTRIBUTORS.md)
+ * Copyright 2010-2014 Regents of the University of Minnesota
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining
+ * a copy of this software and associated documentation files (the
+ * "Software"), to deal in the Software without restriction, including
+ * without limitation the rights to use, copy, modify, merge, publish,
+ * distribute, sublicense, and/or sell copies of the Software, and to
+ * permit persons to whom the Software is furnished to do so, subject to
+ * the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be
+ * included in all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+ * EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF
+ * MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT.
+ * IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY
+ * CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT,
+ * TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION WITH THE
+ * SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ */
+package org.lenskit.materialized;
+
+import it.unimi.dsi.fastutil.longs.Long2DoubleMap;
+import it.unimi.dsi.fastutil.longs.LongSet;
+import org.grouplens.grapht.annotation.DefaultImplementation;
+import org.lenskit.api.ItemRecommender;
+import org.lenskit.api.ResultList;
+import org.lenskit.basic.AbstractItemRecommender;
+import org.lenskit.basic.TopNItemRecommender;
+import org.lenskit.data.ratings.RatingVectorPDAO;
+import org.lenskit.results.PackedResultList;
+import org.lenskit.results.Results;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import javax.annotation.Nullable;
+import javax.inject.Inject;
+import javax.inject.Qualifier;
+import java.lang.annotation.*;
+import java.util.Arrays;
+
+/**
+ * Item recommender that serves precomputed recommendation lists.  Requests are answered from
+ * {@link MaterializedRecommendations} when the user's list is current and the request can be satisfied by
+ * filtering it; all other requests are passed to the {@linkplain Source source recommender}.
+ *
+ * A stored list can satisfy a request if:
+ *
+ * - the user's profile has not changed since the list was computed;
+ * - the request's exclude set is either the default or contains all items in the user's profile; and
+ * - after removing non-candidate and excluded items, enough items remain (or the stored list was not truncated).
+ */
+public class MaterializedItemRecommender extends AbstractItemRecommender {
+    private static final Logger logger = LoggerFactory.getLogger(MaterializedItemRecommender.class);
+
+    private final MaterializedRecommendations store;
+    private final ItemRecommender source;
+    private final RatingVectorPDAO rvDAO;
+
+    /**
+     * Construct a new materialized recommender.
+     * @param store The materialized recommendations.
+     * @param src The source recommender, used for requests the materialized lists cannot answer.
+     * @param dao The rating vector DAO, to check that the materialized lists are current.
+     */
+    @Inject
+    public MaterializedItemRecommender(MaterializedRecommendations store,
+                                       @Source ItemRecommender src,
+                                       RatingVectorPDAO dao) {
+        this.store = store;
+        source = src;
+        rvDAO = dao;
+    }
+
+    @Override
+    protected ResultList recommendWithDetails(long user, int n, @Nullable LongSet candidates, @Nullable LongSet exclude) {
+        ResultList results = recommendFromStore(user, n, candidates, exclude);
+        if (results == null) {
+            logger.debug("materialized list for user {} cannot answer request, using source", user);
+            results = source.recommendWithDetails(user, n, candidates, exclude);
+        }
+        return results;
+    }
+
+    /**
+     * Try to answer a request from the store.
+     * @return The results, or `null` if the store cannot answer the request.
+     */
+    @Nullable
+    private ResultList recommendFromStore(long user, int n, @Nullable LongSet candidates, @Nullable LongSet exclude) {
+        Long2DoubleMap profile = rvDAO.userRatingVector(user);
+        if (!store.isCurrent(user, profile)) {
+            return null;
+        }
+        if (exclude != null && !exclude.containsAll(profile.keySet())) {
+            return null;
+        }
+
+        PackedResultList stored = store.getRecommendations(user);
+        assert stored != null;
+        boolean truncated = stored.size() >= store.getListSize();
+        int size = stored.size();
+        int limit = n >= 0 ? Math.min(n, size) : size;
+
+        long[] items = new long[limit];
+        double[] scores = new double[limit];
+        int count = 0;
+        for (int i = 0; i < size && count < limit; i++) {
+            long item = stored.idList().getLong(i);
+            if ((candidates == null || candidates.contains(item))
+                    && (exclude == null || !exclude.contains(item))) {
+                items[count] = item;
+                scores[count] = stored.getScore(i);
+                count++;
+            }
+        }
+
+        if (truncated && (n < 0 || count < n)) {
+            return null;
+        }
+        if (count < limit) {
+            items = Arrays.copyOf(items, count);
+            scores = Arrays.copyOf(scores, count);
+        }
+        return Results.newResultList(items, scores);
+    }
+
+    /**
+     * Qualifier for the source recommender, whose recommendations are materialized and which answers requests
+     * the materialized lists cannot.
+     */
+    @Qualifier
+    @Documented
+    @DefaultImplementation(TopNItemRecommender.class)
+    @Retention(RetentionPolicy.RUNTIME)
+    @Target({ElementType.PARAMETER, ElementType.FIELD, ElementType.METHOD})
+    public @interface Source {
+    }
+}
@@ -0,0 +1,443 @@
+/*
+ * LensKit, an open-source toolkit for recommender systems.
+ * Copyright 2014-2017 LensKit contributors (see CONTRIBUTORS.md)
+ * Copyright 2010-2014 Regents of the University of Minnesota
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining
+ * a copy of this software and associated documentation files (the
+ * "Software"), to deal in the Software without restriction, including
+ * without limitation the rights to use, copy, modify, merge, publish,
+ * distribute, sublicense, and/or sell copies of the Software, and to
+ * permit persons to whom the Software is furnished to do so, subject to
+ * the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be
+ * included in all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+ * EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF
+ * MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT.
+ * IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY
+ * CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT,
+ * TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION WITH THE
+ * SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ */
+package org.lenskit.materialized;
+
+import com.google.common.base.Preconditions;
+import com.google.common.hash.Hasher;
+import com.google.common.hash.Hashing;
+import it.unimi.dsi.fastutil.longs.*;
+import org.grouplens.grapht.annotation.DefaultProvider;
+import org.lenskit.api.ItemRecommender;
+import org.lenskit.api.ResultList;
+import org.lenskit.data.ratings.RatingVectorPDAO;
+import org.lenskit.inject.Shareable;
+import org.lenskit.inject.Transient;
+import org.lenskit.results.PackedResultList;
+import org.lenskit.results.Results;
+import org.lenskit.util.IdBox;
+import org.lenskit.util.io.ObjectStream;
+import org.lenskit.util.keys.Long2DoubleSortedArrayMap;
+import org.lenskit.util.keys.SortedKeyIndex;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import javax.annotation.Nullable;
+import net.jcip.annotations.ThreadSafe;
+import javax.inject.Inject;
+import javax.inject.Provider;
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Map;
+
+/**
+ * Top-N recommendation lists materialized for every user with a profile.  The lists are stored in a file, as
+ * item IDs and single-precision scores; only the sorted user index, the list offsets, and a fingerprint of each
+ * user's profile are kept in memory, so reading a user's list is a single positional read.
+ *
+ * The profile fingerprints record what each list was computed from: a list is only {@linkplain #isCurrent current}
+ * if the user's rating vector still has the same fingerprint.  {@link #refresh(ItemRecommender, RatingVectorPDAO)}
+ * builds an updated store, recomputing only the lists of users whose profiles have changed.
+ *
+ * When serialized, the store writes the contents of its file into the stream; the deserialized store copies them
+ * to a new temporary file.  {@link #close()} releases the file; a store that is replaced by a refreshed copy should be
+ * closed once nothing reads from it.
+ */
+@Shareable
+@ThreadSafe
+@DefaultProvider(MaterializedRecommendations.Builder.class)
+public class MaterializedRecommendations implements Serializable, Closeable {
+    private static final long serialVersionUID = 1L;
+    private static final Logger logger = LoggerFactory.getLogger(MaterializedRecommendations.class);
+    /**
+     * The size of a stored list entry: an item ID and a float score.
+     */
+    static final int ENTRY_SIZE = 12;
+    /**
+     * The number of users recommended for at a time while materializing.
+     */
+    static final int CHUNK_SIZE = 4096;
+
+    private final int listSize;
+    private final SortedKeyIndex users;
+    private final long[] offsets;
+    private final long[] profileHashes;
+    private transient Path file;
+    private transient volatile FileChannel channel;
+
+    private MaterializedRecommendations(int n, SortedKeyIndex us, long[] offs, long[] hashes, Path f) throws IOException {
+        listSize = n;
+        users = us;
+        offsets = offs;
+        profileHashes = hashes;
+        file = f;
+        channel = FileChannel.open(f, StandardOpenOption.READ);
+    }
+
+    /**
+     * Materialize recommendations for all users with ratings.
+     *
+     * @param rec The recommender to materialize.
+     * @param dao The rating vector DAO, to enumerate users and fingerprint their profiles.
+     * @param n The number of recommendations to store for each user.
+     * @return The materialized recommendations.
+     */
+    public static MaterializedRecommendations materialize(ItemRecommender rec, RatingVectorPDAO dao, int n) {
+        return build(rec, dao, n, null);
+    }
+
+    /**
+     * Get the number of recommendations materialized for each user.  Users with shorter lists have all the
+     * recommendations their recommender could produce.
+     * @return The materialized list length.
+     */
+    public int getListSize() {
+        return listSize;
+    }
+
+    /**
+     * Get the users with materialized recommendations.
+     * @return The set of users.
+     */
+    public LongSortedSet getUsers() {
+        return users.keySet();
+    }
+
+    /**
+     * Query whether a user's materialized list was computed from their current profile.
+     * @param user The user ID.
+     * @param profile The user's current rating vector.
+     * @return `true` if the store has a list for `user` computed from a profile with the same fingerprint.
+     */
+    public boolean isCurrent(long user, Long2DoubleMap profile) {
+        return isCurrent(user, hashProfile(profile));
+    }
+
+    private boolean isCurrent(long user, long hash) {
+        int idx = users.tryGetIndex(user);
+        return idx >= 0 && profileHashes[idx - users.getLowerBound()] == hash;
+    }
+
+    /**
+     * Get a user's materialized recommendations.
+     * @param user The user ID.
+     * @return The stored list, or `null` if the user has no materialized list.
+     */
+    @Nullable
+    public PackedResultList getRecommendations(long user) {
+        int idx = users.tryGetIndex(user);
+        if (idx < 0) {
+            return null;
+        }
+        idx -= users.getLowerBound();
+        long start = offsets[idx];
+        int len = (int) (offsets[idx + 1] - start);
+        ByteBuffer buf = ByteBuffer.allocate(len * ENTRY_SIZE);
+        FileChannel channel = this.channel;
+        Preconditions.checkState(channel != null, "materialized recommendations closed");
+        try {
+            long pos = start * ENTRY_SIZE;
+            while (buf.hasRemaining()) {
+                int nread = channel.read(buf, pos + buf.position());
+                if (nread < 0) {
+                    throw new EOFException("unexpected end of materialized recommendations");
+                }
+            }
+        } catch (IOException e) {
+            throw new UncheckedIOException("error reading recommendations for user " + user, e);
+        }
+        buf.flip();
+
+        long[] items = new long[len];
+        double[] scores = new double[len];
+        for (int i = 0; i < len; i++) {
+            items[i] = buf.getLong();
+            scores[i] = buf.getFloat();
+        }
+        return Results.newResultList(items, scores);
+    }
+
+    /**
+     * Build an updated copy of this store.  Lists of users whose profiles have the same fingerprint are copied
+     * from this store; users who are new or whose profiles have changed are recomputed with `rec`, and users who
+     * no longer have ratings are dropped.
+     *
+     * This store remains open; {@linkplain #close() close} it once the updated store has replaced it and no
+     * readers are using it, to release its file.
+     *
+     * @param rec The recommender to compute new lists.
+     * @param dao The rating vector DAO.
+     * @return The updated store.
+     */
+    public MaterializedRecommendations refresh(ItemRecommender rec, RatingVectorPDAO dao) {
+        return build(rec, dao, listSize, this);
+    }
+
+    /**
+     * Close the store and delete its file.  Closing a store that has already been closed has no effect.
+     * @throws IOException if there is an error closing or deleting the file.
+     */
+    @Override
+    public synchronized void close() throws IOException {
+        FileChannel ch = channel;
+        if (ch == null) {
+            return;
+        }
+        channel = null;
+        try {
+            ch.close();
+        } finally {
+            Files.deleteIfExists(file);
+        }
+    }
+
+    /**
+     * Get the file backing this store.
+     * @return The file.
+     */
+    Path getFile() {
+        return file;
+    }
+
+    /**
+     * Compute the fingerprint of a user profile.
+     * @param profile The user's rating vector.
+     * @return A fingerprint of the profile's items and values.
+     */
+    static long hashProfile(Long2DoubleMap profile) {
+        Long2DoubleSortedArrayMap sorted = Long2DoubleSortedArrayMap.create(profile);
+        Hasher hasher = Hashing.murmur3_128().newHasher();
+        for (int i = 0, n = sorted.size(); i < n; i++) {
+            hasher.putLong(sorted.getKeyByIndex(i));
+            hasher.putDouble(sorted.getValueByIndex(i));
+        }
+        return hasher.hash().asLong();
+    }
+
+    private static MaterializedRecommendations build(ItemRecommender rec, RatingVectorPDAO dao, int n,
+                                                     @Nullable MaterializedRecommendations previous) {
+        Preconditions.checkArgument(n > 0, "list size must be positive");
+        Long2LongMap hashes = new Long2LongOpenHashMap();
+        try (ObjectStream<IdBox<Long2DoubleMap>> stream = dao.streamUsers()) {
+            for (IdBox<Long2DoubleMap> user: stream) {
+                hashes.put(user.getId(), hashProfile(user.getValue()));
+            }
+        }
+        long[] ids = hashes.keySet().toLongArray();
+        Arrays.sort(ids);
+        boolean reuse = previous != null && previous.listSize == n;
+        logger.info("materializing {} recommendations for {} users", n, ids.length);
+
+        int recomputed = 0;
+        try (Writer writer = new Writer(ids.length)) {
+            for (int start = 0; start < ids.length; start += CHUNK_SIZE) {
+                int end = Math.min(ids.length, start + CHUNK_SIZE);
+                LongSet stale = new LongOpenHashSet();
+                for (int i = start; i < end; i++) {
+                    if (!reuse || !previous.isCurrent(ids[i], hashes.get(ids[i]))) {
+                        stale.add(ids[i]);
+                    }
+                }
+                Map<Long, ResultList> fresh = stale.isEmpty()
+                        ? Collections.emptyMap()
+                        : rec.recommendBatchWithDetails(stale, n);
+                recomputed += stale.size();
+
+                for (int i = start; i < end; i++) {
+                    long user = ids[i];
+                    ResultList list = fresh.get(user);
+                    if (list == null && !stale.contains(user)) {
+                        list = previous.getRecommendations(user);
+                    }
+                    if (list == null) {
+                        list = Results.newResultList();
+                    }
+                    writer.write(list, hashes.get(user));
+                }
+            }
+            logger.info("computed lists for {} of {} users", recomputed, ids.length);
+            return writer.finish(n, SortedKeyIndex.compress(SortedKeyIndex.wrap(ids, ids.length)));
+        } catch (IOException e) {
+            throw new UncheckedIOException("error writing materialized recommendations", e);
+        }
+    }
+
+    private void writeObject(ObjectOutputStream out) throws IOException {
+        Preconditions.checkState(channel != null, "materialized recommendations closed");
+        out.defaultWriteObject();
+        long size = channel.size();
+        out.writeLong(size);
+        byte[] buf = new byte[8192];
+        try (InputStream in = Channels.newInputStream(FileChannel.open(file, StandardOpenOption.READ))) {
+            long remaining = size;
+            while (remaining > 0) {
+                int nread = in.read(buf, 0, (int) Math.min(buf.length, remaining));
+                if (nread < 0) {
+                    throw new EOFException("materialized recommendation file truncated");
+                }
+                out.write(buf, 0, nread);
+                remaining -= nread;
+            }
+        }
+    }
+
+    private void readObject(ObjectInputStream in) throws IOException, ClassNotFoundException {
+        in.defaultReadObject();
+        if (offsets.length != users.size() + 1 || profileHashes.length != users.size()) {
+            throw new InvalidObjectException("inconsistent materialized recommendation index");
+        }
+        long size = in.readLong();
+        if (size != offsets[offsets.length - 1] * ENTRY_SIZE) {
+            throw new InvalidObjectException("materialized recommendation data has wrong size");
+        }
+        file = createFile();
+        try {
+            byte[] buf = new byte[8192];
+            try (OutputStream out = new BufferedOutputStream(Files.newOutputStream(file))) {
+                long remaining = size;
+                while (remaining > 0) {
+                    int nread = in.read(buf, 0, (int) Math.min(buf.length, remaining));
+                    if (nread < 0) {
+                        throw new EOFException("materialized recommendation data truncated");
+                    }
+                    out.write(buf, 0, nread);
+                    remaining -= nread;
+                }
+            }
+            channel = FileChannel.open(file, StandardOpenOption.READ);
+        } catch (IOException | RuntimeException e) {
+            deleteQuietly(file, e);
+            throw e;
+        }
+    }
+
+    private static Path createFile() throws IOException {
+        Path file = Files.createTempFile("lenskit-recs", ".bin");
+        file.toFile().deleteOnExit();
+        return file;
+    }
+
+    /**
+     * Delete a temporary file after a failure, recording any error deleting it on the failure.
+     */
+    private static void deleteQuietly(Path file, Throwable failure) {
+        try {
+            Files.deleteIfExists(file);
+        } catch (IOException e) {
+            failure.addSuppressed(e);
+        }
+    }
+
+    /**
+     * Sequential writer for the list file.  If the writer is closed without {@linkplain #finish finishing}, the file
+     * is deleted.
+     */
+    private static class Writer implements Closeable {
+        private final Path file;
+        private final DataOutputStream output;
+        private final long[] offsets;
+        private final long[] hashes;
+        private int nusers;
+        private long nentries;
+        private boolean finished;
+
+        Writer(int size) throws IOException {
+            file = createFile();
+            try {
+                output = new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(file)));
+            } catch (IOException | RuntimeException e) {
+                deleteQuietly(file, e);
+                throw e;
+            }
+            offsets = new long[size + 1];
+            hashes = new long[size];
+        }
+
+        void write(ResultList list, long hash) throws IOException {
+            for (int i = 0, n = list.size(); i < n; i++) {
+                output.writeLong(list.get(i).getId());
+                output.writeFloat((float) list.get(i).getScore());
+            }
+            nentries += list.size();
+            hashes[nusers] = hash;
+            nusers += 1;
+            offsets[nusers] = nentries;
+        }
+
+        MaterializedRecommendations finish(int n, SortedKeyIndex users) throws IOException {
+            Preconditions.checkState(nusers == users.size(), "wrote %s users, expected %s", nusers, users.size());
+            output.close();
+            MaterializedRecommendations recs = new MaterializedRecommendations(n, users, offsets, hashes, file);
+            finished = true;
+            return recs;
+        }
+
+        @Override
+        public void close() throws IOException {
+            try {
+                output.close();
+            } finally {
+                if (!finished) {
+                    Files.deleteIfExists(file);
+                }
+            }
+        }
+    }
+
+    /**
+     * Build materialized recommendations from the configured source recommender.
+     */
+    public static class Builder implements Provider<MaterializedRecommendations> {
+        private final ItemRecommender recommender;
+        private final RatingVectorPDAO dao;
+        private final int listSize;
+
+        /**
+         * Construct a new builder.
+         * @param rec The recommender whose recommendations should be materialized.
+         * @param dao The rating vector DAO.
+         * @param n The number of recommendations to store per user.
+         */
+        @Inject
+        public Builder(@Transient @MaterializedItemRecommender.Source ItemRecommender rec,
+                       @Transient RatingVectorPDAO dao,
+                       @MaterializedListSize int n) {
+            recommender = rec;
+            this.dao = dao;
+            listSize = n;
+        }
+
+        @Override
+        public MaterializedRecommendations get() {
+            return materialize(recommender, dao, listSize);
+        }
+    }
+}
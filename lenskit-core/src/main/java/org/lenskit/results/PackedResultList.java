@@ -0,0 +1,95 @@
+/*
+ * LensKit, an open-source toolkit for recommender systems.
+ * Copyright 2014-2017 LensKit contributors (see CONTRIBUTORS.md)
+ * Copyright 2010-2014 Regents of the University of Minnesota
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining
+ * a copy of this software and associated documentation files (the
+ * "Software"), to deal in the Software without restriction, including
+ * without limitation the rights to use, copy, modify, merge, publish,
+ * distribute, sublicense, and/or sell copies of the Software, and to
+ * permit persons to whom the Software is furnished to do so, subject to
+ * the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be
+ * included in all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+ * EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF
+ * MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT.
+ * IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY
+ * CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT,
+ * TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION WITH THE
+ * SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ */
+package org.lenskit.results;
+
+import com.google.common.base.Preconditions;
+import it.unimi.dsi.fastutil.longs.LongArrayList;
+import it.unimi.dsi.fastutil.longs.LongList;
+import it.unimi.dsi.fastutil.longs.LongLists;
+import net.jcip.annotations.Immutable;
+import org.lenskit.api.Result;
+import org.lenskit.api.ResultList;
+
+import java.util.AbstractList;
+
+/**
+ * Result list implementation that stores only IDs and scores, in parallel arrays.  Result objects are created (as
+ * {@link BasicResult}s) when they are requested, so a large list does not need a result object per entry.
+ *
+ * Create one with {@link Results#newResultList(long[], double[])}.
+ */
+@Immutable
+public class PackedResultList extends AbstractList<Result> implements LenskitResultList {
+    private final long[] ids;
+    private final double[] scores;
+
+    PackedResultList(long[] ids, double[] scores) {
+        Preconditions.checkArgument(ids.length == scores.length, "ID and score arrays have different lengths");
+        this.ids = ids;
+        this.scores = scores;
+    }
+
+    @Override
+    public Result get(int index) {
+        Preconditions.checkElementIndex(index, ids.length);
+        return Results.create(ids[index], scores[index]);
+    }
+
+    /**
+     * Get the score at a position without creating a result object.
+     * @param index The position.
+     * @return The score at position `index`.
+     */
+    public double getScore(int index) {
+        Preconditions.checkElementIndex(index, ids.length);
+        return scores[index];
+    }
+
+    @Override
+    public int size() {
+        return ids.length;
+    }
+
+    @Override
+    public LongList idList() {
+        return LongLists.unmodifiable(LongArrayList.wrap(ids));
+    }
+
+    @Override
+    public boolean equals(Object obj) {
+        if (obj == this) {
+            return true;
+        } else if (obj instanceof ResultList) {
+            return super.equals(obj);
+        } else {
+            return false;
+        }
+    }
+
+    @Override
+    public int hashCode() {
+        return super.hashCode();
+    }
+}
@@ -0,0 +1,175 @@
+/*
+ * LensKit, an open-source toolkit for recommender systems.
+ * Copyright 2014-2017 LensKit contributors (see CONTRIBUTORS.md)
+ * Copyright 2010-2014 Regents of the University of Minnesota
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining
+ * a copy of this software and associated documentation files (the
+ * "Software"), to deal in the Software without restriction, including
+ * without limitation the rights to use, copy, modify, merge, publish,
+ * distribute, sublicense, and/or sell copies of the Software, and to
+ * permit persons to whom the Software is furnished to do so, subject to
+ * the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be
+ * included in all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+ * EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF
+ * MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT.
+ * IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY
+ * CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT,
+ * TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION WITH THE
+ * SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ */
+package org.lenskit.results;
+
+import com.google.common.base.Preconditions;
+import it.unimi.dsi.fastutil.longs.*;
+import it.unimi.dsi.fastutil.objects.*;
+import net.jcip.annotations.Immutable;
+import org.lenskit.api.Result;
+import org.lenskit.util.keys.Long2DoubleSortedArrayMap;
+import org.lenskit.util.keys.SortedKeyIndex;
+
+import javax.annotation.Nonnull;
+import java.util.Iterator;
+
+/**
+ * Result map implementation that stores only IDs and scores, in a sorted array map.  It is much more compact than
+ * {@link BasicResultMap} for large numbers of results, as it does not store a result object per ID; result objects
+ * are created (as {@link BasicResult}s) when they are requested.  Its {@link #scoreMap()} is the backing array map,
+ * so the scores can be used without copying.
+ *
+ * Create one with {@link Results#fromScoreMap(java.util.Map)}.
+ */
+@Immutable
+public class PackedResultMap extends AbstractLong2ObjectMap<Result> implements LenskitResultMap {
+    private static final long serialVersionUID = 1L;
+
+    private final Long2DoubleSortedArrayMap scores;
+
+    PackedResultMap(Long2DoubleSortedArrayMap scores) {
+        this.scores = scores;
+    }
+
+    private SortedKeyIndex index() {
+        return scores.keySet().getIndex();
+    }
+
+    /**
+     * Get the result at a position.
+     * @param pos The position (relative to the start of the map).
+     * @return The result.
+     */
+    private Result resultAt(int pos) {
+        return Results.create(scores.getKeyByIndex(pos), scores.getValueByIndex(pos));
+    }
+
+    @Override
+    public Long2DoubleSortedArrayMap scoreMap() {
+        return scores;
+    }
+
+    @Override
+    public Result get(long id) {
+        SortedKeyIndex idx = index();
+        int pos = idx.tryGetIndex(id);
+        if (pos >= 0) {
+            return resultAt(pos - idx.getLowerBound());
+        } else {
+            return null;
+        }
+    }
+
+    @Override
+    public double getScore(long id) {
+        SortedKeyIndex idx = index();
+        int pos = idx.tryGetIndex(id);
+        if (pos >= 0) {
+            return scores.getValueByIndex(pos - idx.getLowerBound());
+        } else {
+            return Double.NaN;
+        }
+    }
+
+    @Override
+    public boolean containsKey(long id) {
+        return scores.containsKey(id);
+    }
+
+    @Override
+    public int size() {
+        return scores.size();
+    }
+
+    @Override
+    public LongSortedSet keySet() {
+        return scores.keySet();
+    }
+
+    @Override
+    public ObjectCollection<Result> values() {
+        return new AbstractObjectCollection<Result>() {
+            @Override
+            public ObjectIterator<Result> iterator() {
+                return new ResultIter();
+            }
+
+            @Override
+            public int size() {
+                return scores.size();
+            }
+        };
+    }
+
+    @Nonnull
+    @Override
+    public Iterator<Result> iterator() {
+        return new ResultIter();
+    }
+
+    @Override
+    public ObjectSet<Entry<Result>> long2ObjectEntrySet() {
+        return new AbstractObjectSet<Entry<Result>>() {
+            @Override
+            public ObjectIterator<Entry<Result>> iterator() {
+                return new AbstractObjectIterator<Entry<Result>>() {
+                    int pos = 0;
+
+                    @Override
+                    public boolean hasNext() {
+                        return pos < scores.size();
+                    }
+
+                    @Override
+                    public Entry<Result> next() {
+                        Preconditions.checkState(hasNext(), "no more entries");
+                        Result r = resultAt(pos++);
+                        return new BasicEntry<>(r.getId(), r);
+                    }
+                };
+            }
+
+            @Override
+            public int size() {
+                return scores.size();
+            }
+        };
+    }
+
+    private class ResultIter extends AbstractObjectIterator<Result> {
+        int pos = 0;
+
+        @Override
+        public boolean hasNext() {
+            return pos < scores.size();
+        }
+
+        @Override
+        public Result next() {
+            Preconditions.checkState(hasNext(), "no more results");
+            return resultAt(pos++);
+        }
+    }
+}
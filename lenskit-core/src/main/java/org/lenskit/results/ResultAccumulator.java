@@ -28,16 +28,22 @@ import org.lenskit.api.Result;
 import org.lenskit.api.ResultList;
 import org.lenskit.api.ResultMap;
 import org.lenskit.util.collections.SortedListAccumulator;
+import org.lenskit.util.collections.TopNLong2DoubleAccumulator;
+import org.lenskit.util.keys.Long2DoubleSortedArrayMap;
 
 import javax.annotation.Nonnull;
 
 /**
  * Accumulator for sorted lists of results.  This class will return result lists, with the highest-scored result first.
  *
- * Create one with {@link #create(int)}.
+ * Create one with {@link #create(int)}.  If a limited number of results is requested and all results are added as
+ * IDs and scores with {@link #add(long, double)}, the accumulator stores them in primitive arrays and produces packed
+ * results, so no object is allocated per added result.
  */
 public class ResultAccumulator {
-    private final SortedListAccumulator<Result> accum;
+    private final int count;
+    private SortedListAccumulator<Result> accum;
+    private TopNLong2DoubleAccumulator scores;
 
     /**
      * Create a new result accumulator.
@@ -45,11 +51,18 @@ public class ResultAccumulator {
      * @return A result accumulator.
      */
     public static ResultAccumulator create(int n) {
-        return new ResultAccumulator(SortedListAccumulator.decreasing(n, Results.scoreOrder()));
+        return new ResultAccumulator(n);
     }
 
-    private ResultAccumulator(SortedListAccumulator<Result> acc) {
-        accum = acc;
+    private ResultAccumulator(int n) {
+        count = n;
+    }
+
+    private SortedListAccumulator<Result> resultAccumulator() {
+        if (accum == null) {
+            accum = SortedListAccumulator.decreasing(count, Results.scoreOrder());
+        }
+        return accum;
     }
 
     /**
@@ -57,7 +70,7 @@ public class ResultAccumulator {
      * @param r The result to add.
      */
     public void add(@Nonnull Result r) {
-        accum.add(r);
+        resultAccumulator().add(r);
     }
 
     /**
@@ -66,7 +79,14 @@ public class ResultAccumulator {
      * @param score The score to add.
      */
     public void add(long item, double score) {
-        add(Results.create(item, score));
+        if (count < 0) {
+            add(Results.create(item, score));
+        } else {
+            if (scores == null) {
+                scores = new TopNLong2DoubleAccumulator(count);
+            }
+            scores.put(item, score);
+        }
     }
 
     /**
@@ -77,10 +97,49 @@ public class ResultAccumulator {
      * @return The accumulated results, in nonincreasing order of score.
      */
     public ResultList finish() {
+        if (accum == null) {
+            return finishScores();
+        }
+        mergeScores();
         return Results.newResultList(accum.finish());
     }
 
     public ResultMap finishMap() {
+        if (accum == null) {
+            int n = scores == null ? 0 : scores.size();
+            long[] ids = new long[n];
+            double[] values = new double[n];
+            if (scores != null) {
+                scores.drainTo(ids, values);
+            }
+            return Results.fromScoreMap(Long2DoubleSortedArrayMap.wrapUnsorted(ids, values));
+        }
+        mergeScores();
         return Results.newResultMap(accum.finish());
     }
+
+    /**
+     * Finish the primitive score accumulator.
+     * @return The accumulated scores.
+     */
+    private PackedResultList finishScores() {
+        int n = scores == null ? 0 : scores.size();
+        long[] ids = new long[n];
+        double[] values = new double[n];
+        if (scores != null) {
+            scores.drainTo(ids, values);
+        }
+        return Results.newResultList(ids, values);
+    }
+
+    /**
+     * Move any primitive scores into the result accumulator, for when results and scores have both been added.
+     */
+    private void mergeScores() {
+        if (scores != null && !scores.isEmpty()) {
+            for (Result r: finishScores()) {
+                accum.add(r);
+            }
+        }
+    }
 }
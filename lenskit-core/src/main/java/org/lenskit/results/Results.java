@@ -34,6 +34,7 @@ import it.unimi.dsi.fastutil.longs.Long2DoubleMap;
 import org.lenskit.api.Result;
 import org.lenskit.api.ResultList;
 import org.lenskit.util.keys.KeyExtractor;
+import org.lenskit.util.keys.Long2DoubleSortedArrayMap;
 
 import javax.annotation.Nonnull;
 import javax.annotation.Nullable;
@@ -138,6 +139,30 @@ public final class Results {
         return new BasicResultMap(Arrays.asList(results));
     }
 
+    /**
+     * Create a new result list from parallel arrays of IDs and scores.  The list does not store a result object for
+     * each ID; the arrays are used directly, and must not be modified after this method is called.
+     *
+     * @param ids The IDs.
+     * @param scores The scores.
+     * @return The result list.
+     */
+    @Nonnull
+    public static PackedResultList newResultList(@Nonnull long[] ids, @Nonnull double[] scores) {
+        return new PackedResultList(ids, scores);
+    }
+
+    /**
+     * Create a new result map from a map of scores.  The result map does not store a result object for each ID.
+     *
+     * @param scores The scores.  If this is a {@link Long2DoubleSortedArrayMap}, it is used without copying.
+     * @return The result map.
+     */
+    @Nonnull
+    public static PackedResultMap fromScoreMap(@Nonnull Map<Long,Double> scores) {
+        return new PackedResultMap(Long2DoubleSortedArrayMap.create(scores));
+    }
+
     /**
      * A Java 8 collector that makes result lists.
      * @return A new result list collector.
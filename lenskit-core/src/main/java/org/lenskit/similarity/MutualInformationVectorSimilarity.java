@@ -26,6 +26,7 @@ package org.lenskit.similarity;
 
 import it.unimi.dsi.fastutil.longs.Long2DoubleMap;
 import org.lenskit.transform.quantize.Quantizer;
+import org.lenskit.util.math.CommonValueCursor;
 import org.lenskit.util.math.MutualInformationAccumulator;
 
 import javax.inject.Inject;
@@ -61,12 +62,10 @@ public class MutualInformationVectorSimilarity implements VectorSimilarity, Seri
     public double similarity(Long2DoubleMap vec1, Long2DoubleMap vec2) {
         MutualInformationAccumulator accum = new MutualInformationAccumulator(quantizer.getCount());
 
-        for (Long2DoubleMap.Entry e: vec1.long2DoubleEntrySet()) {
-            long k = e.getLongKey();
-            if (vec2.containsKey(k)) {
-                accum.count(quantizer.index(e.getDoubleValue()),
-                            quantizer.index(vec2.get(k)));
-            }
+        CommonValueCursor common = CommonValueCursor.create(vec1, vec2);
+        while (common.next()) {
+            accum.count(quantizer.index(common.getLeftValue()),
+                        quantizer.index(common.getRightValue()));
         }
 
         return accum.getMutualInformation();
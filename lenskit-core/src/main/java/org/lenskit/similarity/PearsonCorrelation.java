@@ -26,11 +26,9 @@ package org.lenskit.similarity;
 
 import com.google.common.base.Preconditions;
 import it.unimi.dsi.fastutil.longs.Long2DoubleMap;
-import it.unimi.dsi.fastutil.longs.LongIterator;
-import it.unimi.dsi.fastutil.longs.LongSortedSet;
 import net.jcip.annotations.ThreadSafe;
 import org.lenskit.inject.Shareable;
-import org.lenskit.util.collections.LongUtils;
+import org.lenskit.util.math.CommonValueCursor;
 
 import javax.inject.Inject;
 import java.io.Serializable;
@@ -84,19 +82,18 @@ public class PearsonCorrelation implements VectorSimilarity, Serializable {
          */
 
         // first compute means of common items
-        LongSortedSet commonKeys = LongUtils.setIntersect(vec1.keySet(), vec2.keySet());
-        int n = commonKeys.size();
-        if (n == 0) {
-            return 0;
-        }
-
+        CommonValueCursor common = CommonValueCursor.create(vec1, vec2);
+        int n = 0;
         double sum1 = 0;
         double sum2 = 0;
 
-        for (LongIterator iter = commonKeys.iterator(); iter.hasNext();) {
-            long k = iter.nextLong();
-            sum1 += vec1.get(k);
-            sum2 += vec2.get(k);
+        while (common.next()) {
+            sum1 += common.getLeftValue();
+            sum2 += common.getRightValue();
+            n += 1;
+        }
+        if (n == 0) {
+            return 0;
         }
 
 
@@ -108,10 +105,10 @@ public class PearsonCorrelation implements VectorSimilarity, Serializable {
         double dot = 0;
         int nCoratings = 0;
 
-        for (LongIterator iter = commonKeys.iterator(); iter.hasNext();) {
-            long k = iter.nextLong();
-            final double v1 = vec1.get(k) - mu1;
-            final double v2 = vec2.get(k) - mu2;
+        common.reset();
+        while (common.next()) {
+            final double v1 = common.getLeftValue() - mu1;
+            final double v2 = common.getRightValue() - mu2;
             var1 += v1 * v1;
             var2 += v2 * v2;
             dot += v1 * v2;
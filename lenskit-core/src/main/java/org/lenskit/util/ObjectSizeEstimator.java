@@ -0,0 +1,245 @@
+/*
+ * LensKit, an open-source toolkit for recommender systems.
+ * Copyright 2014-2017 LensKit contributors (see CONTRIBUTORS.md)
+ * Copyright 2010-2014 Regents of the University of Minnesota
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining
+ * a copy of this software and associated documentation files (the
+ * "Software"), to deal in the Software without restriction, including
+ * without limitation the rights to use, copy, modify, merge, publish,
+ * distribute, sublicense, and/or sell copies of the Software, and to
+ * permit persons to whom the Software is furnished to do so, subject to
+ * the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be
+ * included in all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+ * EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF
+ * MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT.
+ * IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY
+ * CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT,
+ * TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION WITH THE
+ * SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ */
+package org.lenskit.util;
+
+import java.lang.reflect.Array;
+import java.lang.reflect.Field;
+import java.lang.reflect.Modifier;
+import java.util.*;
+
+/**
+ * Estimates the heap space retained by an object graph.  The estimate walks every object
+ * reachable through instance fields and array elements, summing shallow sizes computed from
+ * the field layout under the usual 64-bit HotSpot conventions (8-byte alignment, compressed
+ * references on heaps smaller than 32GB).  It is an estimate: padding, field packing and
+ * JVM-internal structures are approximated.  Collections and maps whose fields the walk cannot
+ * open (because of module access restrictions, as with the JDK's own collections) are walked
+ * through their public interface, charging an estimated per-element overhead for their internal
+ * structure; other such objects are counted only shallowly.
+ *
+ * Classes, class loaders and threads are never traversed, so static and infrastructure
+ * state does not leak into the total.  Callers can stop the walk at other objects (e.g.
+ * other components whose size is accounted separately) by passing them as boundaries.
+ *
+ * @since 3.0
+ */
+public final class ObjectSizeEstimator {
+    private static final boolean COMPRESSED_REFS = Runtime.getRuntime().maxMemory() < (32L << 30);
+    private static final int REF_SIZE = COMPRESSED_REFS ? 4 : 8;
+    private static final int OBJECT_HEADER = COMPRESSED_REFS ? 12 : 16;
+    private static final int ARRAY_HEADER = COMPRESSED_REFS ? 16 : 24;
+
+    private static final ClassValue<Layout> layouts = new ClassValue<Layout>() {
+        @Override
+        protected Layout computeValue(Class<?> type) {
+            return Layout.compute(type);
+        }
+    };
+
+    private final Set<Object> boundaries;
+    private final long maxObjects;
+
+    private ObjectSizeEstimator(Set<Object> bounds, long max) {
+        boundaries = bounds;
+        maxObjects = max;
+    }
+
+    /**
+     * Create an estimator.
+     * @param boundaries Objects at which the walk should stop (compared by identity).  They,
+     *                   and anything reachable only through them, are excluded.
+     * @param maxObjects The maximum number of objects to visit; once exceeded, the walk stops
+     *                   and the estimate covers the objects seen so far.
+     * @return The estimator.
+     */
+    public static ObjectSizeEstimator create(Collection<?> boundaries, long maxObjects) {
+        Set<Object> bounds = Collections.newSetFromMap(new IdentityHashMap<Object, Boolean>());
+        bounds.addAll(boundaries);
+        return new ObjectSizeEstimator(bounds, maxObjects);
+    }
+
+    /**
+     * Estimate the size of an object graph with no boundaries or object limit.
+     * @param root The root object.
+     * @return The estimated number of bytes retained by the graph.
+     */
+    public static long estimate(Object root) {
+        return create(Collections.emptySet(), Long.MAX_VALUE).estimateSize(root);
+    }
+
+    /**
+     * Estimate the shallow size of an object.
+     * @param obj The object.
+     * @return The number of bytes occupied by the object itself, excluding referents.
+     */
+    public static long shallowSize(Object obj) {
+        Class<?> type = obj.getClass();
+        if (type.isArray()) {
+            Class<?> ct = type.getComponentType();
+            int elt = ct.isPrimitive() ? primitiveSize(ct) : REF_SIZE;
+            return align(ARRAY_HEADER + (long) Array.getLength(obj) * elt);
+        } else {
+            return layouts.get(type).size;
+        }
+    }
+
+    /**
+     * Estimate the size of the object graph reachable from an object.
+     * @param root The root object.
+     * @return The estimated number of bytes retained by the graph.
+     */
+    public long estimateSize(Object root) {
+        if (root == null || isOpaque(root)) {
+            return 0;
+        }
+        Set<Object> seen = Collections.newSetFromMap(new IdentityHashMap<Object, Boolean>());
+        ArrayDeque<Object> work = new ArrayDeque<>();
+        seen.add(root);
+        work.add(root);
+        long total = 0;
+        while (!work.isEmpty() && seen.size() <= maxObjects) {
+            Object obj = work.removeLast();
+            total += shallowSize(obj);
+            Class<?> type = obj.getClass();
+            if (type.isArray()) {
+                if (!type.getComponentType().isPrimitive()) {
+                    for (Object ref: (Object[]) obj) {
+                        visit(ref, seen, work);
+                    }
+                }
+            } else {
+                Layout layout = layouts.get(type);
+                for (Field f: layout.references) {
+                    try {
+                        visit(f.get(obj), seen, work);
+                    } catch (IllegalAccessException e) {
+                        /* layout only lists accessible fields; skip if that changed */
+                    }
+                }
+                if (!layout.complete) {
+                    total += visitContents(obj, seen, work);
+                }
+            }
+        }
+        return total;
+    }
+
+    private void visit(Object ref, Set<Object> seen, Deque<Object> work) {
+        if (ref != null && !isOpaque(ref) && seen.add(ref)) {
+            work.add(ref);
+        }
+    }
+
+    /**
+     * Walk the contents of a collection or map whose internals are inaccessible.
+     * @return The estimated size of its internal structure.
+     */
+    private long visitContents(Object obj, Set<Object> seen, Deque<Object> work) {
+        try {
+            if (obj instanceof Collection) {
+                Collection<?> coll = (Collection<?>) obj;
+                for (Object elt: coll) {
+                    visit(elt, seen, work);
+                }
+                return align(ARRAY_HEADER + (long) coll.size() * REF_SIZE);
+            } else if (obj instanceof Map) {
+                Map<?,?> map = (Map<?,?>) obj;
+                for (Map.Entry<?,?> e: map.entrySet()) {
+                    visit(e.getKey(), seen, work);
+                    visit(e.getValue(), seen, work);
+                }
+                // table slot plus an entry object holding hash, key, value and next
+                long entry = align(OBJECT_HEADER + 4 + 3 * REF_SIZE);
+                return align(ARRAY_HEADER + (long) map.size() * REF_SIZE) + map.size() * entry;
+            }
+        } catch (RuntimeException e) {
+            /* lazy or concurrent structures may fail to iterate; count them shallowly */
+        }
+        return 0;
+    }
+
+    private boolean isOpaque(Object obj) {
+        return obj instanceof Class || obj instanceof ClassLoader || obj instanceof Thread
+                || boundaries.contains(obj);
+    }
+
+    private static long align(long size) {
+        return (size + 7) & ~7L;
+    }
+
+    private static int primitiveSize(Class<?> type) {
+        if (type == long.class || type == double.class) {
+            return 8;
+        } else if (type == int.class || type == float.class) {
+            return 4;
+        } else if (type == short.class || type == char.class) {
+            return 2;
+        } else {
+            return 1;
+        }
+    }
+
+    /**
+     * Cached instance layout of a class.
+     */
+    private static final class Layout {
+        private final long size;
+        private final Field[] references;
+        private final boolean complete;
+
+        private Layout(long sz, Field[] refs, boolean done) {
+            size = sz;
+            references = refs;
+            complete = done;
+        }
+
+        static Layout compute(Class<?> type) {
+            long size = OBJECT_HEADER;
+            List<Field> refs = new ArrayList<>();
+            boolean complete = true;
+            for (Class<?> c = type; c != null; c = c.getSuperclass()) {
+                for (Field f: c.getDeclaredFields()) {
+                    if (Modifier.isStatic(f.getModifiers())) {
+                        continue;
+                    }
+                    Class<?> ft = f.getType();
+                    if (ft.isPrimitive()) {
+                        size += primitiveSize(ft);
+                    } else {
+                        size += REF_SIZE;
+                        try {
+                            f.setAccessible(true);
+                            refs.add(f);
+                        } catch (RuntimeException e) {
+                            /* inaccessible (module restrictions); count the reference only */
+                            complete = false;
+                        }
+                    }
+                }
+            }
+            return new Layout(align(size), refs.toArray(new Field[refs.size()]), complete);
+        }
+    }
+}
@@ -30,6 +30,7 @@ import com.google.common.primitives.Doubles;
 import it.unimi.dsi.fastutil.longs.*;
 import org.lenskit.util.keys.Long2DoubleSortedArrayMap;
 import org.lenskit.util.keys.LongSortedArraySet;
+import org.lenskit.util.keys.SortedIntersections;
 import org.lenskit.util.keys.SortedKeyIndex;
 
 import javax.annotation.Nullable;
@@ -320,6 +321,12 @@ public final class LongUtils {
      * @return The number of common items, or `max` if there are at least `max` common items.
      */
     private static int countCommonItems(LongSortedSet a, LongSortedSet b, int max) {
+        if (a instanceof LongSortedArraySet && b instanceof LongSortedArraySet) {
+            return SortedIntersections.countCommon(((LongSortedArraySet) a).getIndex(),
+                                                   ((LongSortedArraySet) b).getIndex(),
+                                                   max);
+        }
+
         LongIterator ait = a.iterator();
         LongIterator bit = b.iterator();
         boolean hasA = ait.hasNext();
@@ -451,6 +458,21 @@ public final class LongUtils {
     public static LongSortedSet setIntersect(LongSortedSet a, LongSortedSet b) {
         long[] data = new long[Math.min(a.size(), b.size())];
 
+        if (a instanceof LongSortedArraySet && b instanceof LongSortedArraySet) {
+            SortedKeyIndex ai = ((LongSortedArraySet) a).getIndex();
+            SortedKeyIndex bi = ((LongSortedArraySet) b).getIndex();
+            int[] pos = new int[data.length];
+            int n = SortedIntersections.findCommon(ai, bi, pos, null);
+            int lb = ai.getLowerBound();
+            for (int i = 0; i < n; i++) {
+                data[i] = ai.getKey(lb + pos[i]);
+            }
+            if (data.length > n + n / 2) {
+                data = Arrays.copyOf(data, n);
+            }
+            return SortedKeyIndex.wrap(data, n).keySet();
+        }
+
         LongIterator ait = a.iterator();
         LongIterator bit = b.iterator();
         boolean hasA = ait.hasNext();
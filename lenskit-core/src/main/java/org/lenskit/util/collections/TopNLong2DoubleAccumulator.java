@@ -24,28 +24,33 @@
  */
 package org.lenskit.util.collections;
 
-import com.google.common.primitives.Doubles;
-import it.unimi.dsi.fastutil.doubles.DoubleArrayList;
-import it.unimi.dsi.fastutil.ints.IntHeapPriorityQueue;
-import it.unimi.dsi.fastutil.ints.IntPriorityQueue;
+import com.google.common.base.Preconditions;
 import it.unimi.dsi.fastutil.longs.*;
 import org.lenskit.util.keys.Long2DoubleSortedArrayMap;
 
+import javax.annotation.Nullable;
+import java.util.Arrays;
+
 /**
  * Accumulate the top <i>N</i> scored IDs.  IDs are sorted by their associated
  * scores.
+ *
+ * The accumulator keeps a binary min-heap of the best IDs seen so far in parallel `long` and `double` arrays, so
+ * accumulating does not allocate once the arrays have grown to the target size.  The accumulator is reset after
+ * each `finish` or {@link #drainTo(long[], double[])} call and keeps its storage, so it can be re-used (e.g. through
+ * a thread-local) to avoid allocating a new one for each request.  Use {@link #reset(int)} to re-use it with a
+ * different target size.
  */
 public final class TopNLong2DoubleAccumulator implements Long2DoubleAccumulator {
-    private final int targetCount;
-    private DoubleArrayList scores;
-    private CompactableLongArrayList items;
-
-    // The index of the empty space to use.  Once the accumulator is at capacity, this will be the
-    // index of the last-removed item.
-    private int slot;
-    // The current size of the accumulator.
+    private static final int INITIAL_CAPACITY = 16;
+    private static final ThreadLocal<TopNLong2DoubleAccumulator> threadAccumulator =
+            ThreadLocal.withInitial(() -> new TopNLong2DoubleAccumulator(0));
+
+    private int targetCount;
+    private long[] items;
+    private double[] scores;
+    // The current size of the accumulator (and heap).
     private int size;
-    private IntPriorityQueue heap;
 
     /**
      * Create a new accumulator to accumulate the top <var>n</var> IDs.
@@ -53,46 +58,52 @@ public final class TopNLong2DoubleAccumulator implements Long2DoubleAccumulator
      * @param n The number of IDs to retain.
      */
     public TopNLong2DoubleAccumulator(int n) {
-        this.targetCount = n;
-
-        slot = 0;
+        Preconditions.checkArgument(n >= 0, "target count must be nonnegative");
+        targetCount = n;
+        int cap = Math.min(n, INITIAL_CAPACITY);
+        items = new long[cap];
+        scores = new double[cap];
         size = 0;
+    }
 
-        int isz = findInitialSize(targetCount + 1);
-        scores = new DoubleArrayList(isz);
-        items = new CompactableLongArrayList(isz);
-        heap = new IntHeapPriorityQueue(this::comparePositions);
-
-        // item lists are lazy-allocated
+    /**
+     * Get the current thread's shared accumulator, reset to accumulate the top <var>n</var> IDs.  The accumulator
+     * must be finished (or drained) before any other code on this thread that may use the shared accumulator runs,
+     * so this is only appropriate for tight loops that put a set of items and immediately finish.
+     *
+     * @param n The number of IDs to retain.
+     * @return The thread's accumulator.
+     */
+    public static TopNLong2DoubleAccumulator forThread(int n) {
+        TopNLong2DoubleAccumulator accum = threadAccumulator.get();
+        accum.reset(n);
+        return accum;
     }
 
-    private int comparePositions(int i1, int i2) {
-        return Doubles.compare(scores.getDouble(i1), scores.getDouble(i2));
+    /**
+     * Get the number of IDs this accumulator retains.
+     * @return The target count.
+     */
+    public int getTargetCount() {
+        return targetCount;
     }
 
     /**
-     * Find a good initial size to minimize the overhead when up to <em>n</em> items are added to a
-     * list.
+     * Clear the accumulator and change its target count.  The accumulator's storage is re-used.
      *
-     * @param maxSize The maximum number of items expected.
-     * @return A size in the range [10,25] that, when used as the initial size of an array
-     *         list, minimizes the overhead when {@code maxSize} items have been added.
+     * @param n The number of IDs to retain.
      */
-    private static int findInitialSize(int maxSize) {
-        int best = 10;
-        int overhead = maxSize;
-        for (int i = 10; i <= 25; i++) {
-            int cap = i;
-            while (cap < maxSize) {
-                cap *= 2;
-            }
-            int ovh = maxSize - cap;
-            if (ovh < overhead) {
-                overhead = ovh;
-                best = i;
-            }
-        }
-        return best;
+    public void reset(int n) {
+        Preconditions.checkArgument(n >= 0, "target count must be nonnegative");
+        targetCount = n;
+        clear();
+    }
+
+    /**
+     * Clear the accumulator, discarding all accumulated items.
+     */
+    public void clear() {
+        size = 0;
     }
 
     @Override
@@ -107,76 +118,102 @@ public final class TopNLong2DoubleAccumulator implements Long2DoubleAccumulator
 
     @Override
     public void put(long item, double score) {
-        assert slot <= targetCount;
-        assert heap.size() == size;
-
-        if (items == null) {
-            int isz = findInitialSize(targetCount + 1);
-            scores = new DoubleArrayList(isz);
-            items = new CompactableLongArrayList(isz);
-            heap = new IntHeapPriorityQueue(this::comparePositions);
+        if (size < targetCount) {
+            if (size == items.length) {
+                int cap = (int) Math.min(targetCount, Math.max(INITIAL_CAPACITY, items.length * 2L));
+                items = Arrays.copyOf(items, cap);
+                scores = Arrays.copyOf(scores, cap);
+            }
+            int i = size++;
+            // sift up
+            while (i > 0) {
+                int parent = (i - 1) >>> 1;
+                if (Double.compare(score, scores[parent]) >= 0) {
+                    break;
+                }
+                items[i] = items[parent];
+                scores[i] = scores[parent];
+                i = parent;
+            }
+            items[i] = item;
+            scores[i] = score;
+        } else if (size > 0 && score > scores[0]) {
+            // replace the smallest item
+            siftDown(0, item, score);
         }
+        // otherwise, the item won't beat anything else
+    }
 
-        /*
-         * Store the new item. The slot shows where the current item is, and
-         * then we deal with it based on whether we're oversized.
-         */
-        if (slot == items.size()) {
-            // we are still adding items
-            items.add(item);
-            scores.add(score);
-        } else {
-            // we are reusing slots
-            if (!heap.isEmpty() && score <= scores.getDouble(heap.firstInt())) {
-                return; // the item won't beat anything else
+    /**
+     * Place an item at a position in the heap, sifting down as needed.
+     */
+    private void siftDown(int pos, long item, double score) {
+        final int n = size;
+        int i = pos;
+        while (true) {
+            int child = 2 * i + 1;
+            if (child >= n) {
+                break;
+            }
+            int right = child + 1;
+            if (right < n && Double.compare(scores[right], scores[child]) < 0) {
+                child = right;
+            }
+            if (Double.compare(score, scores[child]) <= 0) {
+                break;
             }
-            items.set(slot, item);
-            scores.set(slot, score);
+            items[i] = items[child];
+            scores[i] = scores[child];
+            i = child;
         }
-        heap.enqueue(slot);
-
-        if (size == targetCount) {
-            // already at capacity, so remove and reuse smallest item
-            slot = heap.dequeueInt();
-        } else {
-            // we have free space, so increment the slot and size
-            slot += 1;
-            size += 1;
+        items[i] = item;
+        scores[i] = score;
+    }
+
+    /**
+     * Drain the accumulated items into arrays, in decreasing order of score, and reset the accumulator.
+     *
+     * @param itemOut The array to receive the items.  It must have room for {@link #size()} items.
+     * @param scoreOut The array to receive the scores, or `null` to discard them.
+     * @return The number of items written.
+     */
+    public int drainTo(long[] itemOut, @Nullable double[] scoreOut) {
+        final int n = size;
+        Preconditions.checkArgument(itemOut.length >= n, "item array too small");
+        Preconditions.checkArgument(scoreOut == null || scoreOut.length >= n, "score array too small");
+        // repeatedly pop the smallest item, filling the output from the end
+        for (int i = n - 1; i >= 0; i--) {
+            itemOut[i] = items[0];
+            if (scoreOut != null) {
+                scoreOut[i] = scores[0];
+            }
+            size -= 1;
+            if (size > 0) {
+                siftDown(0, items[size], scores[size]);
+            }
         }
+        assert size == 0;
+        return n;
     }
 
     @Override
     public Long2DoubleMap finishMap() {
-        if (scores == null) {
+        if (size == 0) {
             return Long2DoubleMaps.EMPTY_MAP;
         }
 
-        assert size == heap.size();
-        int[] indices = new int[size];
-        // Copy backwards so the scored list is sorted.
-        for (int i = size - 1; i >= 0; i--) {
-            indices[i] = heap.dequeueInt();
-        }
-        assert heap.isEmpty();
-
-        long[] keys = new long[indices.length];
-        double[] values = new double[indices.length];
-        for (int i = 0; i < indices.length; i++) {
-            keys[i] = items.getLong(indices[i]);
-            values[i] = scores.getDouble(indices[i]);
-        }
-        clear();
+        long[] keys = new long[size];
+        double[] values = new double[size];
+        drainTo(keys, values);
 
         return Long2DoubleSortedArrayMap.wrapUnsorted(keys, values);
     }
 
     @Override
     public LongSet finishSet() {
-        assert size == heap.size();
-
         LongSet longs = new LongOpenHashSet(size);
-        while (!heap.isEmpty()) {
-            longs.add(items.getLong(heap.dequeueInt()));
+        for (int i = 0; i < size; i++) {
+            longs.add(items[i]);
         }
         clear();
 
@@ -185,28 +222,8 @@ public final class TopNLong2DoubleAccumulator implements Long2DoubleAccumulator
 
     @Override
     public LongList finishList() {
-        assert size == heap.size();
-        int[] indices = new int[size];
-        // Copy backwards so the scored list is sorted.
-        for (int i = size - 1; i >= 0; i--) {
-            indices[i] = heap.dequeueInt();
-        }
-        LongList list = new LongArrayList(size);
-        for (int i : indices) {
-            list.add(items.getLong(i));
-        }
-
-        assert heap.isEmpty();
-
-        clear();
-
-        return list;
-    }
-
-    private void clear() {
-        size = 0;
-        slot = 0;
-        items = null;
-        scores = null;
+        long[] keys = new long[size];
+        drainTo(keys, null);
+        return LongArrayList.wrap(keys);
     }
 }
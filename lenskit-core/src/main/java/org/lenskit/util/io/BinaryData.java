@@ -0,0 +1,192 @@
+/*
+ * LensKit, an open-source toolkit for recommender systems.
+ * Copyright 2014-2017 LensKit contributors (see CONTRIBUTORS.md)
+ * Copyright 2010-2014 Regents of the University of Minnesota
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining
+ * a copy of this software and associated documentation files (the
+ * "Software"), to deal in the Software without restriction, including
+ * without limitation the rights to use, copy, modify, merge, publish,
+ * distribute, sublicense, and/or sell copies of the Software, and to
+ * permit persons to whom the Software is furnished to do so, subject to
+ * the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be
+ * included in all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+ * EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF
+ * MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT.
+ * IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY
+ * CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT,
+ * TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION WITH THE
+ * SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ */
+package org.lenskit.util.io;
+
+import com.google.common.base.Preconditions;
+import it.unimi.dsi.fastutil.longs.LongArrayList;
+import org.lenskit.util.keys.FrozenHashKeyIndex;
+import org.lenskit.util.keys.KeyIndex;
+import org.lenskit.util.keys.SortedKeyIndex;
+
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+
+/**
+ * Utilities for reading and writing primitive arrays and key indexes in compact binary form.  Arrays are
+ * converted in bulk through byte buffers, which is much faster than writing them element by element through a
+ * {@link DataOutput} or an object stream.  All values are big-endian, consistent with {@link DataOutput}.
+ *
+ * @since 3.0
+ */
+public final class BinaryData {
+    private static final int CHUNK_ELEMENTS = 8192;
+    private static final byte SORTED_INDEX = 0;
+    private static final byte COMPRESSED_SORTED_INDEX = 1;
+    private static final byte HASH_INDEX = 2;
+
+    private BinaryData() {}
+
+    /**
+     * Write an array of longs.
+     * @param out The output.
+     * @param data The array to write.  Its length is not written.
+     * @throws IOException if there is an error writing the data.
+     */
+    public static void writeLongs(DataOutput out, long[] data) throws IOException {
+        byte[] bytes = new byte[Math.min(data.length, CHUNK_ELEMENTS) * 8];
+        ByteBuffer buf = ByteBuffer.wrap(bytes);
+        for (int start = 0; start < data.length; start += CHUNK_ELEMENTS) {
+            int n = Math.min(CHUNK_ELEMENTS, data.length - start);
+            buf.clear();
+            buf.asLongBuffer().put(data, start, n);
+            out.write(bytes, 0, n * 8);
+        }
+    }
+
+    /**
+     * Read an array of longs written by {@link #writeLongs(DataOutput, long[])}.
+     * @param in The input.
+     * @param n The number of longs to read.
+     * @return The array of longs.
+     * @throws IOException if there is an error reading the data.
+     */
+    public static long[] readLongs(DataInput in, int n) throws IOException {
+        long[] data = new long[n];
+        byte[] bytes = new byte[Math.min(n, CHUNK_ELEMENTS) * 8];
+        ByteBuffer buf = ByteBuffer.wrap(bytes);
+        for (int start = 0; start < n; start += CHUNK_ELEMENTS) {
+            int len = Math.min(CHUNK_ELEMENTS, n - start);
+            in.readFully(bytes, 0, len * 8);
+            buf.clear();
+            buf.asLongBuffer().get(data, start, len);
+        }
+        return data;
+    }
+
+    /**
+     * Write an array of doubles.
+     * @param out The output.
+     * @param data The array to write.  Its length is not written.
+     * @throws IOException if there is an error writing the data.
+     */
+    public static void writeDoubles(DataOutput out, double[] data) throws IOException {
+        byte[] bytes = new byte[Math.min(data.length, CHUNK_ELEMENTS) * 8];
+        ByteBuffer buf = ByteBuffer.wrap(bytes);
+        for (int start = 0; start < data.length; start += CHUNK_ELEMENTS) {
+            int n = Math.min(CHUNK_ELEMENTS, data.length - start);
+            buf.clear();
+            buf.asDoubleBuffer().put(data, start, n);
+            out.write(bytes, 0, n * 8);
+        }
+    }
+
+    /**
+     * Read an array of doubles written by {@link #writeDoubles(DataOutput, double[])}.
+     * @param in The input.
+     * @param n The number of doubles to read.
+     * @return The array of doubles.
+     * @throws IOException if there is an error reading the data.
+     */
+    public static double[] readDoubles(DataInput in, int n) throws IOException {
+        double[] data = new double[n];
+        byte[] bytes = new byte[Math.min(n, CHUNK_ELEMENTS) * 8];
+        ByteBuffer buf = ByteBuffer.wrap(bytes);
+        for (int start = 0; start < n; start += CHUNK_ELEMENTS) {
+            int len = Math.min(CHUNK_ELEMENTS, n - start);
+            in.readFully(bytes, 0, len * 8);
+            buf.clear();
+            buf.asDoubleBuffer().get(data, start, len);
+        }
+        return data;
+    }
+
+    /**
+     * Write a key index.  The index's kind (sorted, compressed sorted, or hashed) is recorded so that
+     * {@link #readKeyIndex(DataInput)} restores an index with the same lookup behavior.
+     *
+     * @param out The output.
+     * @param index The index to write.  Its lower bound must be 0.
+     * @throws IOException if there is an error writing the index.
+     */
+    public static void writeKeyIndex(DataOutput out, KeyIndex index) throws IOException {
+        Preconditions.checkArgument(index.getLowerBound() == 0, "key index must have lower bound 0");
+        byte kind;
+        if (index instanceof SortedKeyIndex) {
+            kind = ((SortedKeyIndex) index).isCompressed() ? COMPRESSED_SORTED_INDEX : SORTED_INDEX;
+        } else {
+            kind = HASH_INDEX;
+        }
+        int n = index.size();
+        long[] keys = new long[n];
+        for (int i = 0; i < n; i++) {
+            keys[i] = index.getKey(i);
+        }
+        out.writeByte(kind);
+        out.writeInt(n);
+        writeLongs(out, keys);
+    }
+
+    /**
+     * Read a key index written by {@link #writeKeyIndex(DataOutput, KeyIndex)}.  Sorted and frozen hash
+     * indexes are {@linkplain SortedKeyIndex#intern(SortedKeyIndex) interned}, so components read from the same
+     * file share their indexes.
+     *
+     * @param in The input.
+     * @return The key index.
+     * @throws IOException if there is an error reading the index.
+     */
+    public static KeyIndex readKeyIndex(DataInput in) throws IOException {
+        byte kind = in.readByte();
+        int n = in.readInt();
+        long[] keys = readLongs(in, n);
+        switch (kind) {
+        case SORTED_INDEX:
+            return SortedKeyIndex.intern(SortedKeyIndex.wrap(keys, n));
+        case COMPRESSED_SORTED_INDEX:
+            return SortedKeyIndex.intern(SortedKeyIndex.compress(SortedKeyIndex.wrap(keys, n)));
+        case HASH_INDEX:
+            return FrozenHashKeyIndex.intern(FrozenHashKeyIndex.create(LongArrayList.wrap(keys)));
+        default:
+            throw new IOException("invalid key index kind " + kind);
+        }
+    }
+
+    /**
+     * Read a sorted key index written by {@link #writeKeyIndex(DataOutput, KeyIndex)}.
+     * @param in The input.
+     * @return The key index.
+     * @throws IOException if there is an error reading the index, or if the stored index is not sorted.
+     */
+    public static SortedKeyIndex readSortedKeyIndex(DataInput in) throws IOException {
+        KeyIndex idx = readKeyIndex(in);
+        if (idx instanceof SortedKeyIndex) {
+            return (SortedKeyIndex) idx;
+        } else {
+            throw new IOException("expected sorted key index, found " + idx.getClass().getName());
+        }
+    }
+}
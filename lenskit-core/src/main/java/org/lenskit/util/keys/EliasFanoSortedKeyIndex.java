@@ -0,0 +1,282 @@
+/*
+ * LensKit, an open-source toolkit for recommender systems.
+ * Copyright 2014-2017 LensKit contributors (see CONTRIBUTORS.md)
+ * Copyright 2010-2014 Regents of the University of Minnesota
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining
+ * a copy of this software and associated documentation files (the
+ * "Software"), to deal in the Software without restriction, including
+ * without limitation the rights to use, copy, modify, merge, publish,
+ * distribute, sublicense, and/or sell copies of the Software, and to
+ * permit persons to whom the Software is furnished to do so, subject to
+ * the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be
+ * included in all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+ * EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF
+ * MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT.
+ * IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY
+ * CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT,
+ * TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION WITH THE
+ * SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ */
+package org.lenskit.util.keys;
+
+import com.google.common.base.Preconditions;
+
+import javax.annotation.Nullable;
+
+/**
+ * Succinct implementation of {@link SortedKeyIndex} using the Elias-Fano encoding.
+ *
+ * Each key is stored, relative to the smallest key, as `l` explicit low bits plus a unary-coded high part;
+ * `l` is chosen from the ratio of the key range to the number of keys, so the index takes about
+ * `2 + log2(range / n)` bits per key instead of 32 or 64.  Positions of every {@link #SAMPLE_RATE}-th one and
+ * zero of the high bit vector are sampled, so {@link #getKey(int)} is a sampled select followed by a short scan,
+ * and {@link #tryGetIndex(long)} locates the key's bucket with a select on zeros and binary-searches the low bits
+ * within it.
+ *
+ * Instances are built with {@link SortedKeyIndex#compress(SortedKeyIndex)}.
+ */
+class EliasFanoSortedKeyIndex extends SortedKeyIndex {
+    private static final long serialVersionUID = 1L;
+    static final int SAMPLE_SHIFT = 8;
+    static final int SAMPLE_RATE = 1 << SAMPLE_SHIFT;
+
+    /**
+     * The absolute index of the first encoded key.
+     */
+    private final int origin;
+    /**
+     * The number of encoded keys.
+     */
+    private final int count;
+    /**
+     * The smallest encoded key.
+     */
+    private final long base;
+    private final int lowBitCount;
+    private final long lowMask;
+    /**
+     * The largest high part of any key.
+     */
+    private final long maxHigh;
+    private final long[] lowBits;
+    private final long[] highBits;
+    private final int[] oneSamples;
+    private final int[] zeroSamples;
+
+    private EliasFanoSortedKeyIndex(EliasFanoSortedKeyIndex enc, int lb, int ub) {
+        super(lb, ub);
+        origin = enc.origin;
+        count = enc.count;
+        base = enc.base;
+        lowBitCount = enc.lowBitCount;
+        lowMask = enc.lowMask;
+        maxHigh = enc.maxHigh;
+        lowBits = enc.lowBits;
+        highBits = enc.highBits;
+        oneSamples = enc.oneSamples;
+        zeroSamples = enc.zeroSamples;
+    }
+
+    private EliasFanoSortedKeyIndex(SortedKeyIndex keys, int nlow) {
+        super(keys.getLowerBound(), keys.getUpperBound());
+        origin = lowerBound;
+        count = upperBound - lowerBound;
+        base = count > 0 ? keys.getKey(lowerBound) : 0;
+        lowBitCount = nlow;
+        lowMask = nlow == 0 ? 0 : (-1L >>> (64 - nlow));
+        maxHigh = count > 0 ? (keys.getKey(upperBound - 1) - base) >>> nlow : 0;
+
+        long highLength = count + maxHigh + 1;
+        lowBits = new long[(int) (((long) count * nlow + 63) >>> 6)];
+        highBits = new long[(int) ((highLength + 63) >>> 6)];
+        for (int i = 0; i < count; i++) {
+            long delta = keys.getKey(origin + i) - base;
+            if (nlow > 0) {
+                long bit = (long) i * nlow;
+                int word = (int) (bit >>> 6);
+                int off = (int) (bit & 63);
+                long low = delta & lowMask;
+                lowBits[word] |= low << off;
+                if (off + nlow > 64) {
+                    lowBits[word + 1] |= low >>> (64 - off);
+                }
+            }
+            long pos = (delta >>> nlow) + i;
+            highBits[(int) (pos >>> 6)] |= 1L << (pos & 63);
+        }
+
+        oneSamples = new int[(count + SAMPLE_RATE - 1) >>> SAMPLE_SHIFT];
+        zeroSamples = new int[(int) ((maxHigh + SAMPLE_RATE) >>> SAMPLE_SHIFT)];
+        int ones = 0, zeros = 0;
+        for (int pos = 0; pos < highLength; pos++) {
+            if ((highBits[pos >>> 6] & (1L << (pos & 63))) != 0) {
+                if ((ones & (SAMPLE_RATE - 1)) == 0) {
+                    oneSamples[ones >>> SAMPLE_SHIFT] = pos;
+                }
+                ones++;
+            } else {
+                if ((zeros & (SAMPLE_RATE - 1)) == 0) {
+                    zeroSamples[zeros >>> SAMPLE_SHIFT] = pos;
+                }
+                zeros++;
+            }
+        }
+        assert ones == count;
+        assert zeros == maxHigh + 1;
+    }
+
+    /**
+     * Encode a key index, if it can be encoded.
+     * @param keys The key index to encode.
+     * @return The encoded index, or `null` if the key range is too wide to encode.
+     */
+    @Nullable
+    static EliasFanoSortedKeyIndex encode(SortedKeyIndex keys) {
+        int n = keys.size();
+        if (n == 0) {
+            return new EliasFanoSortedKeyIndex(keys, 0);
+        }
+        long range = keys.getKey(keys.getUpperBound() - 1) - keys.getKey(keys.getLowerBound());
+        if (range < 0) {
+            // the key range overflows a long
+            return null;
+        }
+        long ratio = range / n;
+        int nlow = ratio > 0 ? 63 - Long.numberOfLeadingZeros(ratio) : 0;
+        if (n + (range >>> nlow) + 1 >= Integer.MAX_VALUE) {
+            return null;
+        }
+        return new EliasFanoSortedKeyIndex(keys, nlow);
+    }
+
+    @Override
+    public boolean isCompressed() {
+        return true;
+    }
+
+    /**
+     * Estimate the memory used by this encoding.
+     * @return The approximate number of bytes used by the encoded keys.
+     */
+    long getEncodedSize() {
+        return 8L * (lowBits.length + highBits.length) + 4L * (oneSamples.length + zeroSamples.length);
+    }
+
+    private long getLow(int i) {
+        if (lowBitCount == 0) {
+            return 0;
+        }
+        long bit = (long) i * lowBitCount;
+        int word = (int) (bit >>> 6);
+        int off = (int) (bit & 63);
+        long v = lowBits[word] >>> off;
+        if (off + lowBitCount > 64) {
+            v |= lowBits[word + 1] << (64 - off);
+        }
+        return v & lowMask;
+    }
+
+    /**
+     * Find the position of the `i`th set bit in the high bit vector.
+     */
+    private int selectOne(int i) {
+        int pos = oneSamples[i >>> SAMPLE_SHIFT];
+        int skip = i & (SAMPLE_RATE - 1);
+        int word = pos >>> 6;
+        long bits = highBits[word] & (-1L << (pos & 63));
+        while (true) {
+            int c = Long.bitCount(bits);
+            if (skip < c) {
+                return (word << 6) + selectInWord(bits, skip);
+            }
+            skip -= c;
+            bits = highBits[++word];
+        }
+    }
+
+    /**
+     * Find the position of the `i`th clear bit in the high bit vector.
+     */
+    private int selectZero(long i) {
+        int pos = zeroSamples[(int) (i >>> SAMPLE_SHIFT)];
+        int skip = (int) (i & (SAMPLE_RATE - 1));
+        int word = pos >>> 6;
+        long bits = ~highBits[word] & (-1L << (pos & 63));
+        while (true) {
+            int c = Long.bitCount(bits);
+            if (skip < c) {
+                return (word << 6) + selectInWord(bits, skip);
+            }
+            skip -= c;
+            bits = ~highBits[++word];
+        }
+    }
+
+    private static int selectInWord(long bits, int rank) {
+        for (int i = 0; i < rank; i++) {
+            bits &= bits - 1;
+        }
+        return Long.numberOfTrailingZeros(bits);
+    }
+
+    @Override
+    public int tryGetIndex(long key) {
+        int ins;
+        long delta = key - base;
+        if (count == 0 || key < base) {
+            ins = 0;
+        } else if (delta < 0 || (delta >>> lowBitCount) > maxHigh) {
+            ins = count;
+        } else {
+            long high = delta >>> lowBitCount;
+            long low = delta & lowMask;
+            // the bucket for a high part is delimited by the zeros before and after it
+            int lo = high == 0 ? 0 : (int) (selectZero(high - 1) - high + 1);
+            int hi = (int) (selectZero(high) - high);
+            while (lo < hi) {
+                int mid = (lo + hi) >>> 1;
+                long v = getLow(mid);
+                if (v < low) {
+                    lo = mid + 1;
+                } else if (v > low) {
+                    hi = mid;
+                } else {
+                    int idx = origin + mid;
+                    if (idx < lowerBound) {
+                        return -lowerBound - 1;
+                    } else if (idx >= upperBound) {
+                        return -upperBound - 1;
+                    } else {
+                        return idx;
+                    }
+                }
+            }
+            ins = lo;
+        }
+        ins = Math.min(Math.max(origin + ins, lowerBound), upperBound);
+        return -ins - 1;
+    }
+
+    @Override
+    public long getKey(int idx) {
+        if (idx < lowerBound || idx >= upperBound) {
+            throw new IndexOutOfBoundsException("index " + idx + " is not in range [" + lowerBound + "," + upperBound + ")");
+        }
+        int i = idx - origin;
+        long high = selectOne(i) - i;
+        return base + ((high << lowBitCount) | getLow(i));
+    }
+
+    @Override
+    public SortedKeyIndex subIndex(int lb, int ub) {
+        Preconditions.checkArgument(lb >= lowerBound && lb <= upperBound, "lower bound out of range");
+        Preconditions.checkArgument(lb <= ub, "range is negative");
+        Preconditions.checkArgument(ub >= lowerBound && ub <= upperBound, "upper bound out of range");
+        return new EliasFanoSortedKeyIndex(this, lb, ub);
+    }
+}
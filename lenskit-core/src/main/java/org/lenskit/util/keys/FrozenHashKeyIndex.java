@@ -24,15 +24,19 @@
  */
 package org.lenskit.util.keys;
 
+import com.google.common.collect.Interner;
+import com.google.common.collect.Interners;
 import it.unimi.dsi.fastutil.longs.*;
 
 import java.io.Serializable;
 
 /**
- * Immutable key index backed by a hash table.
+ * Immutable key index backed by a hash table.  Two frozen indexes are equal if they have the same key list;
+ * model loaders can {@linkplain #intern(FrozenHashKeyIndex) intern} them to share one copy.
  */
 public final class FrozenHashKeyIndex implements KeyIndex, Serializable {
     private static final long serialVersionUID = 1L;
+    private static final Interner<FrozenHashKeyIndex> INTERNER = Interners.newWeakInterner();
 
     private Long2IntMap indexMap;
     private LongArrayList keyList;
@@ -94,6 +98,16 @@ public final class FrozenHashKeyIndex implements KeyIndex, Serializable {
         }
     }
 
+    /**
+     * Get a canonical instance of a key index, so models built over the same domain can share it.
+     *
+     * @param keys The key index.
+     * @return An index equal to `keys`; all calls with equal indexes return the same instance while it is in use.
+     */
+    public static FrozenHashKeyIndex intern(FrozenHashKeyIndex keys) {
+        return INTERNER.intern(keys);
+    }
+
     @Override
     public int getIndex(long id) {
         int idx = tryGetIndex(id);
@@ -143,4 +157,20 @@ public final class FrozenHashKeyIndex implements KeyIndex, Serializable {
     public FrozenHashKeyIndex frozenCopy() {
         return this;
     }
+
+    @Override
+    public boolean equals(Object o) {
+        if (o == this) {
+            return true;
+        } else if (o instanceof FrozenHashKeyIndex) {
+            return keyList.equals(((FrozenHashKeyIndex) o).keyList);
+        } else {
+            return false;
+        }
+    }
+
+    @Override
+    public int hashCode() {
+        return keyList.hashCode();
+    }
 }
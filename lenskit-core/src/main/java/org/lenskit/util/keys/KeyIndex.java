@@ -24,8 +24,12 @@
  */
 package org.lenskit.util.keys;
 
+import it.unimi.dsi.fastutil.longs.LongCollection;
+import it.unimi.dsi.fastutil.longs.LongIterator;
 import it.unimi.dsi.fastutil.longs.LongList;
 
+import java.util.BitSet;
+
 /**
  * Bidirectional mapping between long keys and a contiguous range of integer indexes.
  */
@@ -99,4 +103,23 @@ public interface KeyIndex {
      * @return An immutable key index with the same contents as this key index.
      */
     KeyIndex frozenCopy();
+
+    /**
+     * Get the indexes of a collection of keys as a bit set, e.g. to skip excluded items while iterating over
+     * the index in index order.  The cost is proportional to the size of `keys`, not of the index.
+     *
+     * @param keys The keys to look up.  Keys not in the index are ignored.
+     * @return A bit set with the indexes of `keys` set.
+     */
+    default BitSet getIndexMask(LongCollection keys) {
+        BitSet mask = new BitSet();
+        LongIterator iter = keys.iterator();
+        while (iter.hasNext()) {
+            int idx = tryGetIndex(iter.nextLong());
+            if (idx >= 0) {
+                mask.set(idx);
+            }
+        }
+        return mask;
+    }
 }
@@ -0,0 +1,306 @@
+/*
+ * LensKit, an open-source toolkit for recommender systems.
+ * Copyright 2014-2017 LensKit contributors (see CONTRIBUTORS.md)
+ * Copyright 2010-2014 Regents of the University of Minnesota
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining
+ * a copy of this software and associated documentation files (the
+ * "Software"), to deal in the Software without restriction, including
+ * without limitation the rights to use, copy, modify, merge, publish,
+ * distribute, sublicense, and/or sell copies of the Software, and to
+ * permit persons to whom the Software is furnished to do so, subject to
+ * the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be
+ * included in all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+ * EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF
+ * MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT.
+ * IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY
+ * CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT,
+ * TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION WITH THE
+ * SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ */
+package org.lenskit.util.keys;
+
+import javax.annotation.Nullable;
+
+/**
+ * Intersection kernels for sorted key indexes.  These are the inner loops of most pairwise similarity computations,
+ * so they adapt to the sizes of their inputs: when one side is much smaller than the other, they walk the small side
+ * and use galloping (exponential) search to skip through the large side; otherwise, they do a linear merge.
+ */
+public final class SortedIntersections {
+    /**
+     * The size ratio above which galloping search is used instead of a linear merge.
+     */
+    static final int GALLOP_RATIO = 16;
+
+    private SortedIntersections() {}
+
+    /**
+     * Query whether to use galloping search.
+     * @param small The size of the smaller side.
+     * @param large The size of the larger side.
+     * @return `true` if the sizes are skewed enough to gallop.
+     */
+    static boolean shouldGallop(int small, int large) {
+        return (long) small * GALLOP_RATIO < large;
+    }
+
+    /**
+     * Galloping search for the first position at or after `from` whose key is at least `key`.
+     * @param idx The index to search.
+     * @param key The key to search for.
+     * @param from The position to start from.
+     * @param ub The upper bound of the search.
+     * @return The first position in `[from,ub)` whose key is at least `key`, or `ub` if there is none.
+     */
+    static int gallop(SortedKeyIndex idx, long key, int from, int ub) {
+        // all positions before lo have keys < key
+        int lo = from;
+        int hi = from;
+        int step = 1;
+        while (hi < ub && idx.getKey(hi) < key) {
+            lo = hi + 1;
+            hi = from + step;
+            step <<= 1;
+        }
+        if (hi > ub) {
+            hi = ub;
+        }
+        // the answer is in [lo, hi]; binary search the rest
+        while (lo < hi) {
+            int mid = (lo + hi) >>> 1;
+            if (idx.getKey(mid) < key) {
+                lo = mid + 1;
+            } else {
+                hi = mid;
+            }
+        }
+        return lo;
+    }
+
+    /**
+     * Count the keys two indexes have in common.
+     * @param a The first index.
+     * @param b The second index.
+     * @param max The maximum number of common keys to count; negative means no limit.
+     * @return The number of common keys, or `max` if there are at least `max` common keys.
+     */
+    public static int countCommon(SortedKeyIndex a, SortedKeyIndex b, int max) {
+        return intersect(a, b, max, null, null);
+    }
+
+    /**
+     * Find the keys two indexes have in common.
+     * @param a The first index.
+     * @param b The second index.
+     * @param posA An array to receive the positions (relative to the lower bound) in `a` of the common keys, or `null`.
+     *             It must have room for the smaller of the two indexes' sizes.
+     * @param posB An array to receive the positions in `b` of the common keys, or `null`.
+     * @return The number of common keys.
+     */
+    public static int findCommon(SortedKeyIndex a, SortedKeyIndex b, @Nullable int[] posA, @Nullable int[] posB) {
+        return intersect(a, b, -1, posA, posB);
+    }
+
+    /**
+     * Create a cursor over the keys two indexes have in common.  Unlike {@link #findCommon(SortedKeyIndex,
+     * SortedKeyIndex, int[], int[])}, the cursor needs no arrays sized to the indexes, so it is suited to
+     * computations that visit each common key once or twice.
+     *
+     * @param a The first index.
+     * @param b The second index.
+     * @return A cursor positioned before the first common key.
+     */
+    public static Cursor cursor(SortedKeyIndex a, SortedKeyIndex b) {
+        return new Cursor(a, b);
+    }
+
+    /**
+     * Cursor over the keys two indexes have in common, in increasing key order.  Positions are relative to each
+     * index's lower bound, as with {@link #findCommon(SortedKeyIndex, SortedKeyIndex, int[], int[])}.
+     */
+    public static final class Cursor {
+        private final SortedKeyIndex small;
+        private final SortedKeyIndex large;
+        private final boolean swapped;
+        private final boolean gallop;
+        private int i;
+        private int j;
+        private int posSmall = -1;
+        private int posLarge = -1;
+
+        private Cursor(SortedKeyIndex a, SortedKeyIndex b) {
+            swapped = a.size() > b.size();
+            small = swapped ? b : a;
+            large = swapped ? a : b;
+            gallop = shouldGallop(small.size(), large.size());
+            reset();
+        }
+
+        /**
+         * Move to the next common key.
+         * @return `true` if there is another common key, `false` if the intersection is exhausted.
+         */
+        public boolean next() {
+            final int sub = small.getUpperBound();
+            final int lub = large.getUpperBound();
+            if (gallop) {
+                while (i < sub && j < lub) {
+                    final long k = small.getKey(i);
+                    j = gallop(large, k, j, lub);
+                    if (j < lub && large.getKey(j) == k) {
+                        return found();
+                    }
+                    i += 1;
+                }
+            } else {
+                while (i < sub && j < lub) {
+                    final long ks = small.getKey(i);
+                    final long kl = large.getKey(j);
+                    if (ks == kl) {
+                        return found();
+                    }
+                    i += ks < kl ? 1 : 0;
+                    j += kl < ks ? 1 : 0;
+                }
+            }
+            posSmall = posLarge = -1;
+            return false;
+        }
+
+        private boolean found() {
+            posSmall = i - small.getLowerBound();
+            posLarge = j - large.getLowerBound();
+            i += 1;
+            j += 1;
+            return true;
+        }
+
+        /**
+         * Get the position of the current key in the first index.
+         * @return The position, relative to the first index's lower bound.
+         */
+        public int getPositionA() {
+            return swapped ? posLarge : posSmall;
+        }
+
+        /**
+         * Get the position of the current key in the second index.
+         * @return The position, relative to the second index's lower bound.
+         */
+        public int getPositionB() {
+            return swapped ? posSmall : posLarge;
+        }
+
+        /**
+         * Move the cursor back before the first common key.
+         */
+        public void reset() {
+            i = small.getLowerBound();
+            j = large.getLowerBound();
+            posSmall = posLarge = -1;
+        }
+    }
+
+    private static int intersect(SortedKeyIndex a, SortedKeyIndex b, int max,
+                                 @Nullable int[] outA, @Nullable int[] outB) {
+        if (a.size() > b.size()) {
+            return intersect(b, a, max, outB, outA);
+        }
+
+        final int alb = a.getLowerBound();
+        final int aub = a.getUpperBound();
+        final int blb = b.getLowerBound();
+        final int bub = b.getUpperBound();
+        int n = 0;
+
+        if (shouldGallop(a.size(), b.size())) {
+            int j = blb;
+            for (int i = alb; i < aub && j < bub && n != max; i++) {
+                final long k = a.getKey(i);
+                j = gallop(b, k, j, bub);
+                if (j < bub && b.getKey(j) == k) {
+                    if (outA != null) {
+                        outA[n] = i - alb;
+                    }
+                    if (outB != null) {
+                        outB[n] = j - blb;
+                    }
+                    n += 1;
+                    j += 1;
+                }
+            }
+        } else {
+            int i = alb;
+            int j = blb;
+            while (i < aub && j < bub && n != max) {
+                final long ka = a.getKey(i);
+                final long kb = b.getKey(j);
+                if (ka == kb) {
+                    if (outA != null) {
+                        outA[n] = i - alb;
+                    }
+                    if (outB != null) {
+                        outB[n] = j - blb;
+                    }
+                    n += 1;
+                }
+                // advance the side(s) with the smaller key without branching on the comparison
+                i += ka <= kb ? 1 : 0;
+                j += kb <= ka ? 1 : 0;
+            }
+        }
+
+        return n;
+    }
+
+    /**
+     * Compute the dot product of two sorted array maps.
+     * @param v1 The first vector.
+     * @param v2 The second vector.
+     * @return The sum of the products of the values of common keys.
+     */
+    public static double dotProduct(Long2DoubleSortedArrayMap v1, Long2DoubleSortedArrayMap v2) {
+        if (v1.size() > v2.size()) {
+            return dotProduct(v2, v1);
+        }
+
+        final SortedKeyIndex a = v1.keySet().getIndex();
+        final SortedKeyIndex b = v2.keySet().getIndex();
+        final int alb = a.getLowerBound();
+        final int aub = a.getUpperBound();
+        final int blb = b.getLowerBound();
+        final int bub = b.getUpperBound();
+        double result = 0;
+
+        if (shouldGallop(a.size(), b.size())) {
+            int j = blb;
+            for (int i = alb; i < aub && j < bub; i++) {
+                final long k = a.getKey(i);
+                j = gallop(b, k, j, bub);
+                if (j < bub && b.getKey(j) == k) {
+                    result += v1.getValueByIndex(i - alb) * v2.getValueByIndex(j - blb);
+                    j += 1;
+                }
+            }
+        } else {
+            int i = alb;
+            int j = blb;
+            while (i < aub && j < bub) {
+                final long ka = a.getKey(i);
+                final long kb = b.getKey(j);
+                if (ka == kb) {
+                    result += v1.getValueByIndex(i - alb) * v2.getValueByIndex(j - blb);
+                }
+                i += ka <= kb ? 1 : 0;
+                j += kb <= ka ? 1 : 0;
+            }
+        }
+
+        return result;
+    }
+}
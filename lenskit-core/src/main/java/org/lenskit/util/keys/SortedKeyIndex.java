@@ -25,6 +25,8 @@
 package org.lenskit.util.keys;
 
 import com.google.common.base.Preconditions;
+import com.google.common.collect.Interner;
+import com.google.common.collect.Interners;
 import it.unimi.dsi.fastutil.longs.*;
 import org.lenskit.util.MoreArrays;
 
@@ -36,6 +38,11 @@ import java.util.*;
  * Implement an index of long keys, sorted by key.  Keys can be mapped back to integer indexes (contiguous and 0-based)
  * and vice versa.
  *
+ * Two indexes are equal if they have the same bounds and the same key at each index, regardless of how they are
+ * stored.  Indexes are not interned automatically; model loaders such as
+ * {@link org.lenskit.util.io.BinaryData#readKeyIndex(java.io.DataInput)} {@linkplain #intern(SortedKeyIndex) intern}
+ * the indexes they read.
+ *
  * @since 3.0
  */
 @Immutable
@@ -153,6 +160,43 @@ public abstract class SortedKeyIndex implements KeyIndex, Serializable {
     }
 
     private static final SortedKeyIndex EMPTY_DOMAIN = wrap(new long[0], 0);
+
+    /**
+     * Create a compressed copy of a key index.  The keys are stored with the Elias-Fano encoding, which is much
+     * smaller than a plain array for large, reasonably dense key spaces such as user or item IDs, at the cost of
+     * somewhat slower lookups.
+     *
+     * @param keys The key index to compress.
+     * @return A compressed index with the same bounds and keys as `keys`, or `keys` itself if compressing it would
+     * not save at least half of its memory.
+     */
+    public static SortedKeyIndex compress(SortedKeyIndex keys) {
+        if (keys instanceof EliasFanoSortedKeyIndex || keys.size() == 0) {
+            return keys;
+        }
+        long first = keys.getKey(keys.getLowerBound());
+        long last = keys.getKey(keys.getUpperBound() - 1);
+        long width = first >= Integer.MIN_VALUE && last <= Integer.MAX_VALUE ? 4 : 8;
+        EliasFanoSortedKeyIndex compressed = EliasFanoSortedKeyIndex.encode(keys);
+        if (compressed == null || compressed.getEncodedSize() * 2 > width * keys.size()) {
+            return keys;
+        } else {
+            return compressed;
+        }
+    }
+
+    /**
+     * Get a canonical instance of a key index.  Models that are built over the same user or item domain can
+     * use this to share a single index instead of each holding a copy.
+     *
+     * @param keys The key index.
+     * @return An index equal to `keys`; all calls with equal indexes return the same instance while it is in use.
+     */
+    public static SortedKeyIndex intern(SortedKeyIndex keys) {
+        return INTERNER.intern(keys);
+    }
+
+    private static final Interner<SortedKeyIndex> INTERNER = Interners.newWeakInterner();
     //endregion
 
     private static final long serialVersionUID = 2L;
@@ -165,6 +209,7 @@ public abstract class SortedKeyIndex implements KeyIndex, Serializable {
      * The upper bound (exclusive) of the indexes in the index.  This is used to implement subviews.
      */
     final int upperBound;
+    private transient int hash;
 
     SortedKeyIndex(int lower, int upper) {
         lowerBound = lower;
@@ -198,6 +243,14 @@ public abstract class SortedKeyIndex implements KeyIndex, Serializable {
         return upperBound;
     }
 
+    /**
+     * Query whether this index is {@linkplain #compress(SortedKeyIndex) compressed}.
+     * @return {@code true} if the index stores its keys in compressed form.
+     */
+    public boolean isCompressed() {
+        return false;
+    }
+
     /**
      * Create a view of a subset of this index.
      * @param lb The index of the lower bound of the subset (inclusive).
@@ -326,6 +379,41 @@ public abstract class SortedKeyIndex implements KeyIndex, Serializable {
         return this;
     }
 
+    @Override
+    public boolean equals(Object o) {
+        if (o == this) {
+            return true;
+        } else if (!(o instanceof SortedKeyIndex)) {
+            return false;
+        }
+
+        SortedKeyIndex oi = (SortedKeyIndex) o;
+        if (lowerBound != oi.lowerBound || upperBound != oi.upperBound || hashCode() != oi.hashCode()) {
+            return false;
+        }
+        LongIterator ai = keyIterator(), bi = oi.keyIterator();
+        while (ai.hasNext()) {
+            if (ai.nextLong() != bi.nextLong()) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    @Override
+    public int hashCode() {
+        int h = hash;
+        if (h == 0) {
+            h = 31 * lowerBound + upperBound;
+            LongIterator iter = keyIterator();
+            while (iter.hasNext()) {
+                h = 31 * h + Long.hashCode(iter.nextLong());
+            }
+            hash = h;
+        }
+        return h;
+    }
+
     //region Iterators and lists
     private class KeyIter extends AbstractLongBidirectionalIterator {
         private int position;
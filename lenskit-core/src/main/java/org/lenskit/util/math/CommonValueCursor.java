@@ -0,0 +1,158 @@
+/*
+ * LensKit, an open-source toolkit for recommender systems.
+ * Copyright 2014-2017 LensKit contributors (see CONTRIBUTORS.md)
+ * Copyright 2010-2014 Regents of the University of Minnesota
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining
+ * a copy of this software and associated documentation files (the
+ * "Software"), to deal in the Software without restriction, including
+ * without limitation the rights to use, copy, modify, merge, publish,
+ * distribute, sublicense, and/or sell copies of the Software, and to
+ * permit persons to whom the Software is furnished to do so, subject to
+ * the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be
+ * included in all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+ * EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF
+ * MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT.
+ * IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY
+ * CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT,
+ * TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION WITH THE
+ * SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ */
+package org.lenskit.util.math;
+
+import it.unimi.dsi.fastutil.longs.Long2DoubleMap;
+import org.lenskit.util.keys.Long2DoubleSortedArrayMap;
+import org.lenskit.util.keys.SortedIntersections;
+
+import java.util.Iterator;
+
+/**
+ * Cursor over the values two vectors have for their common keys, for computations (such as similarity functions)
+ * that only look at co-occurring entries.  If both vectors are {@link Long2DoubleSortedArrayMap}s, the cursor walks
+ * their key indexes with {@link SortedIntersections#cursor(org.lenskit.util.keys.SortedKeyIndex,
+ * org.lenskit.util.keys.SortedKeyIndex)}; otherwise, it iterates the smaller vector and looks its keys up in the
+ * larger one.  Neither vector is copied.
+ */
+public abstract class CommonValueCursor {
+    CommonValueCursor() {}
+
+    /**
+     * Create a cursor over the common entries of two vectors.
+     * @param v1 The first vector.
+     * @param v2 The second vector.
+     * @return A cursor positioned before the first common entry.
+     */
+    public static CommonValueCursor create(Long2DoubleMap v1, Long2DoubleMap v2) {
+        if (v1 instanceof Long2DoubleSortedArrayMap && v2 instanceof Long2DoubleSortedArrayMap) {
+            return new Sorted((Long2DoubleSortedArrayMap) v1, (Long2DoubleSortedArrayMap) v2);
+        } else if (v1.size() <= v2.size()) {
+            return new Lookup(v1, v2, false);
+        } else {
+            return new Lookup(v2, v1, true);
+        }
+    }
+
+    /**
+     * Move to the next common entry.
+     * @return {@code true} if there is another common entry.
+     */
+    public abstract boolean next();
+
+    /**
+     * Get the first vector's value for the current key.
+     * @return The value.
+     */
+    public abstract double getLeftValue();
+
+    /**
+     * Get the second vector's value for the current key.
+     * @return The value.
+     */
+    public abstract double getRightValue();
+
+    /**
+     * Move the cursor back before the first common entry.
+     */
+    public abstract void reset();
+
+    private static final class Sorted extends CommonValueCursor {
+        private final Long2DoubleSortedArrayMap left;
+        private final Long2DoubleSortedArrayMap right;
+        private final SortedIntersections.Cursor keys;
+
+        Sorted(Long2DoubleSortedArrayMap v1, Long2DoubleSortedArrayMap v2) {
+            left = v1;
+            right = v2;
+            keys = SortedIntersections.cursor(v1.keySet().getIndex(), v2.keySet().getIndex());
+        }
+
+        @Override
+        public boolean next() {
+            return keys.next();
+        }
+
+        @Override
+        public double getLeftValue() {
+            return left.getValueByIndex(keys.getPositionA());
+        }
+
+        @Override
+        public double getRightValue() {
+            return right.getValueByIndex(keys.getPositionB());
+        }
+
+        @Override
+        public void reset() {
+            keys.reset();
+        }
+    }
+
+    private static final class Lookup extends CommonValueCursor {
+        private final Long2DoubleMap iterated;
+        private final Long2DoubleMap probed;
+        private final boolean swapped;
+        private Iterator<Long2DoubleMap.Entry> iter;
+        private double iteratedValue;
+        private double probedValue;
+
+        Lookup(Long2DoubleMap small, Long2DoubleMap large, boolean swap) {
+            iterated = small;
+            probed = large;
+            swapped = swap;
+            reset();
+        }
+
+        @Override
+        public boolean next() {
+            while (iter.hasNext()) {
+                Long2DoubleMap.Entry e = iter.next();
+                long k = e.getLongKey();
+                if (probed.containsKey(k)) {
+                    iteratedValue = e.getDoubleValue();
+                    probedValue = probed.get(k);
+                    return true;
+                }
+            }
+            return false;
+        }
+
+        @Override
+        public double getLeftValue() {
+            return swapped ? probedValue : iteratedValue;
+        }
+
+        @Override
+        public double getRightValue() {
+            return swapped ? iteratedValue : probedValue;
+        }
+
+        @Override
+        public void reset() {
+            iter = Vectors.fastEntryIterator(iterated);
+        }
+    }
+}
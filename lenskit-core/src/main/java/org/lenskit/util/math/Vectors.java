@@ -32,6 +32,7 @@ import org.apache.commons.math3.exception.OutOfRangeException;
 import org.apache.commons.math3.linear.RealMatrix;
 import org.apache.commons.math3.linear.RealVector;
 import org.lenskit.util.keys.Long2DoubleSortedArrayMap;
+import org.lenskit.util.keys.SortedIntersections;
 import org.lenskit.util.keys.SortedKeyIndex;
 
 import javax.annotation.Nonnull;
@@ -186,26 +187,7 @@ public final class Vectors {
      * @return The sum of the products of corresponding values in the two vectors.
      */
     public static double dotProduct(Long2DoubleSortedArrayMap v1, Long2DoubleSortedArrayMap v2) {
-        double result;
-        result = 0;
-        final int sz1 = v1.size();
-        final int sz2 = v2.size();
-
-        int i1 = 0, i2 = 0;
-        while (i1 < sz1 && i2 < sz2) {
-            final long k1 = v1.getKeyByIndex(i1);
-            final long k2 = v2.getKeyByIndex(i2);
-            if (k1 < k2) {
-                i1++;
-            } else if (k2 < k1) {
-                i2++;
-            } else {
-                result += v1.getValueByIndex(i1) * v2.getValueByIndex(i2);
-                i1++;
-                i2++;
-            }
-        }
-        return result;
+        return SortedIntersections.dotProduct(v1, v2);
     }
 
     /**
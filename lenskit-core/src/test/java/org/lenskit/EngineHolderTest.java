@@ -0,0 +1,135 @@
+/*
+ * LensKit, an open-source toolkit for recommender systems.
+ * Copyright 2014-2017 LensKit contributors (see CONTRIBUTORS.md)
+ * Copyright 2010-2014 Regents of the University of Minnesota
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining
+ * a copy of this software and associated documentation files (the
+ * "Software"), to deal in the Software without restriction, including
+ * without limitation the rights to use, copy, modify, merge, publish,
+ * distribute, sublicense, and/or sell copies of the Software, and to
+ * permit persons to whom the Software is furnished to do so, subject to
+ * the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be
+ * included in all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+ * EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF
+ * MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT.
+ * IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY
+ * CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT,
+ * TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION WITH THE
+ * SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ */
+package org.lenskit;
+
+import com.google.common.collect.ImmutableList;
+import it.unimi.dsi.fastutil.longs.LongArrayList;
+import org.junit.Before;
+import org.junit.Test;
+import org.lenskit.api.ItemRecommender;
+import org.lenskit.api.RecommenderBuildException;
+import org.lenskit.basic.PopularItemRecommender;
+import org.lenskit.data.dao.DataAccessObject;
+import org.lenskit.data.dao.file.StaticDataSource;
+import org.lenskit.data.ratings.Rating;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+
+import static org.hamcrest.Matchers.*;
+import static org.junit.Assert.assertThat;
+import static org.junit.Assert.fail;
+
+public class EngineHolderTest {
+    private DataAccessObject dao;
+    private LenskitRecommenderEngine first;
+    private LenskitRecommenderEngine second;
+
+    @Before
+    public void setUp() {
+        dao = StaticDataSource.fromList(ImmutableList.of(Rating.create(1, 10, 3.0),
+                                                         Rating.create(2, 10, 4.0),
+                                                         Rating.create(2, 20, 2.5),
+                                                         Rating.create(3, 30, 5.0)))
+                              .get();
+        LenskitConfiguration config = new LenskitConfiguration();
+        config.bind(ItemRecommender.class).to(PopularItemRecommender.class);
+        first = LenskitRecommenderEngine.build(config, dao);
+        second = LenskitRecommenderEngine.build(config, dao);
+    }
+
+    @Test
+    public void testSwapAfterRecommendersClose() throws Exception {
+        List<LenskitRecommenderEngine> disposed = new ArrayList<>();
+        EngineHolder holder = new EngineHolder(first).setDisposer(disposed::add);
+        assertThat(holder.getEngine(), sameInstance(first));
+        assertThat(holder.getGeneration(), equalTo(0L));
+
+        LenskitRecommender old = holder.createRecommender(dao);
+        CompletableFuture<LenskitRecommenderEngine> retired = holder.swap(second);
+        assertThat(holder.getEngine(), sameInstance(second));
+        assertThat(holder.getGeneration(), equalTo(1L));
+
+        // the old recommender still works, and keeps its engine alive
+        assertThat(old.getItemRecommender().recommend(5), contains(10L, 20L, 30L));
+        assertThat(retired.isDone(), equalTo(false));
+        assertThat(disposed, hasSize(0));
+
+        old.close();
+        assertThat(retired.get(), sameInstance(first));
+        assertThat(disposed, contains(first));
+
+        // closing twice does not release twice
+        old.close();
+        holder.close();
+        assertThat(disposed, contains(first, second));
+    }
+
+    @Test
+    public void testSwapWithoutRecommenders() throws Exception {
+        EngineHolder holder = new EngineHolder(first);
+        CompletableFuture<LenskitRecommenderEngine> retired = holder.swap(second);
+        assertThat(retired.isDone(), equalTo(true));
+        assertThat(retired.get(), sameInstance(first));
+        try (LenskitRecommender rec = holder.createRecommender(dao)) {
+            assertThat(rec.getItemRecommender().recommend(5), contains(10L, 20L, 30L));
+        }
+    }
+
+    @Test
+    public void testWarmerFailureKeepsEngine() {
+        EngineHolder holder = new EngineHolder(first);
+        holder.setWarmer(e -> {
+            throw new IllegalStateException("broken engine");
+        });
+        try {
+            holder.swap(second);
+            fail("swap should fail when warming fails");
+        } catch (RecommenderBuildException e) {
+            assertThat(e.getCause(), instanceOf(IllegalStateException.class));
+        }
+        assertThat(holder.getEngine(), sameInstance(first));
+        assertThat(holder.getGeneration(), equalTo(0L));
+    }
+
+    @Test
+    public void testAsyncSwapWithReplay() throws Exception {
+        EngineHolder holder = new EngineHolder(first);
+        holder.setWarmer(EngineHolder.replayWarmer(dao, LongArrayList.wrap(new long[]{1, 2, 3}), 5));
+        LenskitRecommenderEngine swapped = holder.swapAsync(() -> second).get(10, TimeUnit.SECONDS);
+        assertThat(swapped, sameInstance(second));
+        assertThat(holder.getEngine(), sameInstance(second));
+        holder.close();
+    }
+
+    @Test(expected = IllegalStateException.class)
+    public void testClosedHolder() {
+        EngineHolder holder = new EngineHolder(first);
+        holder.close();
+        holder.createRecommender(dao);
+    }
+}
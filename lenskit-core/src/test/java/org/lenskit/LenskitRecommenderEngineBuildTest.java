@@ -0,0 +1,278 @@
+/*
+ * LensKit, an open-source toolkit for recommender systems.
+ * Copyright 2014-2017 LensKit contributors (see CONTRIBUTORS.md)
+ * Copyright 2010-2014 Regents of the University of Minnesota
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining
+ * a copy of this software and associated documentation files (the
+ * "Software"), to deal in the Software without restriction, including
+ * without limitation the rights to use, copy, modify, merge, publish,
+ * distribute, sublicense, and/or sell copies of the Software, and to
+ * permit persons to whom the Software is furnished to do so, subject to
+ * the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be
+ * included in all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+ * EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF
+ * MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT.
+ * IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY
+ * CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT,
+ * TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION WITH THE
+ * SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ */
+package org.lenskit;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.google.common.collect.ImmutableList;
+import org.grouplens.grapht.Component;
+import org.grouplens.grapht.Dependency;
+import org.grouplens.grapht.graph.DAGNode;
+import org.grouplens.grapht.reflect.Qualifiers;
+import org.junit.Before;
+import org.junit.Test;
+import org.lenskit.api.ItemRecommender;
+import org.lenskit.api.ItemScorer;
+import org.lenskit.baseline.BaselineScorer;
+import org.lenskit.baseline.GlobalMeanRatingItemScorer;
+import org.lenskit.basic.FallbackItemScorer;
+import org.lenskit.basic.PopularItemRecommender;
+import org.lenskit.basic.PrimaryScorer;
+import org.lenskit.bias.BiasItemScorer;
+import org.lenskit.bias.BiasModel;
+import org.lenskit.bias.UserItemBiasModel;
+import org.lenskit.hybrid.RankBlendingItemRecommender;
+import org.lenskit.inject.BuildProfile;
+import org.lenskit.inject.GraphtUtils;
+import org.lenskit.data.dao.DataAccessObject;
+import org.lenskit.data.dao.file.StaticDataSource;
+import org.lenskit.data.ratings.Rating;
+import org.lenskit.engine.EngineArchive;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.nio.channels.ClosedByInterruptException;
+
+import static org.hamcrest.Matchers.*;
+import static org.junit.Assert.assertThat;
+import static org.junit.Assert.fail;
+
+public class LenskitRecommenderEngineBuildTest {
+    private DataAccessObject dao;
+    private LenskitRecommenderEngine engine;
+
+    @Before
+    public void setUp() {
+        dao = StaticDataSource.fromList(ImmutableList.of(Rating.create(1, 10, 3.0),
+                                                         Rating.create(2, 10, 4.0),
+                                                         Rating.create(2, 20, 2.5),
+                                                         Rating.create(3, 30, 5.0)))
+                              .get();
+        LenskitConfiguration config = new LenskitConfiguration();
+        config.bind(ItemRecommender.class).to(PopularItemRecommender.class);
+        engine = LenskitRecommenderEngine.build(config, dao);
+    }
+
+    @Test
+    public void testCreateRecommendersForDAOs() {
+        DataAccessObject other = StaticDataSource.fromList(ImmutableList.of(Rating.create(5, 10, 4.0)))
+                                                 .get();
+
+        try (LenskitRecommender rec = engine.createRecommender(dao)) {
+            assertThat(rec.getDataAccessObject(), sameInstance(dao));
+            assertThat(rec.getItemRecommender().recommend(5), contains(10L, 20L, 30L));
+        }
+        // the second recommender reuses the rewritten graph with a different DAO
+        try (LenskitRecommender rec = engine.createRecommender(other)) {
+            assertThat(rec.getDataAccessObject(), sameInstance(other));
+            assertThat(rec.getItemRecommender().recommend(5), contains(20L, 30L));
+        }
+        try (LenskitRecommender rec = engine.createRecommender(dao);
+             LenskitRecommender rec2 = engine.createRecommender(dao)) {
+            assertThat(rec.getDataAccessObject(), sameInstance(dao));
+            assertThat(rec.getItemRecommender(), not(sameInstance(rec2.getItemRecommender())));
+            assertThat(rec.getItemRecommender().recommend(5), contains(10L, 20L, 30L));
+        }
+    }
+
+    @Test
+    public void testParallelBuild() {
+        LenskitConfiguration config = new LenskitConfiguration();
+        config.bind(ItemScorer.class).to(BiasItemScorer.class);
+        config.bind(BiasModel.class).to(UserItemBiasModel.class);
+        config.bind(ItemRecommender.class).to(RankBlendingItemRecommender.class);
+        config.bind(RankBlendingItemRecommender.Left.class, ItemRecommender.class)
+              .to(PopularItemRecommender.class);
+
+        LenskitRecommenderEngine sequential = LenskitRecommenderEngine.newBuilder()
+                                                                      .addConfiguration(config)
+                                                                      .build(dao);
+        LenskitRecommenderEngine parallel = LenskitRecommenderEngine.newBuilder()
+                                                                    .setThreadCount(4)
+                                                                    .addConfiguration(config)
+                                                                    .build(dao);
+        assertThat(parallel.getComponent(UserItemBiasModel.class), notNullValue());
+
+        try (LenskitRecommender seqRec = sequential.createRecommender(dao);
+             LenskitRecommender parRec = parallel.createRecommender(dao)) {
+            assertThat(parRec.getItemRecommender(), instanceOf(RankBlendingItemRecommender.class));
+            assertThat(parRec.getItemRecommender().recommend(1),
+                       equalTo(seqRec.getItemRecommender().recommend(1)));
+            assertThat(parRec.getItemScorer().score(3, 20).getScore(),
+                       equalTo(seqRec.getItemScorer().score(3, 20).getScore()));
+        }
+    }
+
+    @Test
+    public void testProfiledBuild() throws IOException {
+        LenskitConfiguration config = new LenskitConfiguration();
+        config.bind(ItemScorer.class).to(BiasItemScorer.class);
+        config.bind(BiasModel.class).to(UserItemBiasModel.class);
+
+        LenskitRecommenderEngine plain = LenskitRecommenderEngine.newBuilder()
+                                                                 .addConfiguration(config)
+                                                                 .build(dao);
+        assertThat(plain.getBuildProfile(), nullValue());
+
+        LenskitRecommenderEngine engine = LenskitRecommenderEngine.newBuilder()
+                                                                  .setProfiling(true)
+                                                                  .addConfiguration(config)
+                                                                  .build(dao);
+        BuildProfile profile = engine.getBuildProfile();
+        assertThat(profile, notNullValue());
+        BuildProfile.ComponentProfile model = null;
+        for (BuildProfile.ComponentProfile cp: profile.getComponents()) {
+            if (cp.getComponent().equals(UserItemBiasModel.class.getName())) {
+                model = cp;
+            }
+        }
+        assertThat(model, notNullValue());
+        assertThat(model.getWallTime(), greaterThan(0L));
+        assertThat(model.getRetainedBytes(), greaterThan(0L));
+        assertThat(profile.formatTable(), containsString(UserItemBiasModel.class.getName()));
+
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        profile.writeJSON(out);
+        JsonNode json = new ObjectMapper().readTree(out.toByteArray());
+        assertThat(json.get("components").size(), equalTo(profile.getComponents().size()));
+    }
+
+    @Test
+    public void testProfileDescribesQualifiers() throws RecommenderConfigurationException {
+        LenskitConfiguration config = new LenskitConfiguration();
+        config.bind(ItemScorer.class).to(FallbackItemScorer.class);
+        config.bind(PrimaryScorer.class, ItemScorer.class).to(BiasItemScorer.class);
+        config.bind(BaselineScorer.class, ItemScorer.class).to(GlobalMeanRatingItemScorer.class);
+        config.bind(BiasModel.class).to(UserItemBiasModel.class);
+        config.addComponent(dao);
+        DAGNode<Component, Dependency> graph = config.buildGraph();
+
+        DAGNode<Component, Dependency> baseline =
+                GraphtUtils.findSatisfyingNode(graph, Qualifiers.match(BaselineScorer.class),
+                                               GlobalMeanRatingItemScorer.class);
+        assertThat(baseline, notNullValue());
+        assertThat(BuildProfile.describe(baseline, graph),
+                   equalTo(GlobalMeanRatingItemScorer.class.getName() + " @BaselineScorer"));
+        DAGNode<Component, Dependency> model =
+                GraphtUtils.findSatisfyingNode(graph, Qualifiers.matchDefault(), UserItemBiasModel.class);
+        assertThat(model, notNullValue());
+        assertThat(BuildProfile.describe(model, graph),
+                   equalTo(UserItemBiasModel.class.getName()));
+    }
+
+    @Test
+    public void testArchive() throws IOException {
+        LenskitConfiguration config = new LenskitConfiguration();
+        config.bind(ItemScorer.class).to(BiasItemScorer.class);
+        config.bind(BiasModel.class).to(UserItemBiasModel.class);
+        LenskitRecommenderEngine engine = LenskitRecommenderEngine.newBuilder()
+                                                                  .addConfiguration(config)
+                                                                  .build(dao);
+        UserItemBiasModel model = engine.getComponent(UserItemBiasModel.class);
+
+        File file = File.createTempFile("lenskit", "archive");
+        try {
+            engine.writeArchive(file);
+            assertThat(EngineArchive.isArchive(file), equalTo(true));
+
+            LenskitRecommenderEngine loaded = LenskitRecommenderEngine.newLoader()
+                                                                      .setThreadCount(2)
+                                                                      .load(file);
+            UserItemBiasModel m2 = loaded.getComponent(UserItemBiasModel.class);
+            assertThat(m2, not(sameInstance(model)));
+            assertThat(m2.getIntercept(), equalTo(model.getIntercept()));
+            assertThat(m2.getUserBiases(), equalTo(model.getUserBiases()));
+            assertThat(m2.getItemBiases(), equalTo(model.getItemBiases()));
+            try (LenskitRecommender orig = engine.createRecommender(dao);
+                 LenskitRecommender rec = loaded.createRecommender(dao)) {
+                assertThat(rec.getItemScorer().score(3, 20).getScore(),
+                           equalTo(orig.getItemScorer().score(3, 20).getScore()));
+            }
+        } finally {
+            file.delete();
+        }
+    }
+
+    @Test
+    public void testArchiveReadAfterInterrupt() throws IOException {
+        LenskitConfiguration config = new LenskitConfiguration();
+        config.bind(ItemScorer.class).to(BiasItemScorer.class);
+        config.bind(BiasModel.class).to(UserItemBiasModel.class);
+        LenskitRecommenderEngine engine = LenskitRecommenderEngine.newBuilder()
+                                                                  .addConfiguration(config)
+                                                                  .build(dao);
+
+        File file = File.createTempFile("lenskit", "archive");
+        try {
+            engine.writeArchive(file);
+            try (EngineArchive archive = EngineArchive.open(file, null)) {
+                Thread.currentThread().interrupt();
+                try {
+                    archive.resolve(archive.getGraph());
+                    fail("reading with the interrupt flag set should fail");
+                } catch (ClosedByInterruptException e) {
+                    /* expected */
+                } finally {
+                    Thread.interrupted();
+                }
+
+                // the interrupt must not close the archive for later readers
+                Object model = archive.findComponent(archive.getGraph(), Qualifiers.matchDefault(), BiasModel.class);
+                assertThat(model, instanceOf(UserItemBiasModel.class));
+            }
+        } finally {
+            file.delete();
+        }
+    }
+
+    @Test
+    public void testLazyArchive() throws IOException {
+        LenskitConfiguration config = new LenskitConfiguration();
+        config.bind(ItemScorer.class).to(BiasItemScorer.class);
+        config.bind(BiasModel.class).to(UserItemBiasModel.class);
+        LenskitRecommenderEngine engine = LenskitRecommenderEngine.newBuilder()
+                                                                  .addConfiguration(config)
+                                                                  .build(dao);
+
+        File file = File.createTempFile("lenskit", "archive");
+        try {
+            engine.writeArchive(file);
+            LenskitRecommenderEngine loaded = LenskitRecommenderEngine.newLoader()
+                                                                      .setLazyLoading(true)
+                                                                      .load(file);
+            // a single component can be loaded without the rest of the graph
+            BiasModel model = loaded.getComponent(BiasModel.class);
+            assertThat(model, instanceOf(UserItemBiasModel.class));
+            try (LenskitRecommender rec = loaded.createRecommender(dao)) {
+                assertThat(rec.getItemScorer(), instanceOf(BiasItemScorer.class));
+            }
+            // once the graph is resolved, the already-loaded component is used
+            assertThat(loaded.getComponent(BiasModel.class), sameInstance(model));
+        } finally {
+            file.delete();
+        }
+    }
+}
@@ -0,0 +1,91 @@
+/*
+ * LensKit, an open-source toolkit for recommender systems.
+ * Copyright 2014-2017 LensKit contributors (see CONTRIBUTORS.md)
+ * Copyright 2010-2014 Regents of the University of Minnesota
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining
+ * a copy of this software and associated documentation files (the
+ * "Software"), to deal in the Software without restriction, including
+ * without limitation the rights to use, copy, modify, merge, publish,
+ * distribute, sublicense, and/or sell copies of the Software, and to
+ * permit persons to whom the Software is furnished to do so, subject to
+ * the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be
+ * included in all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+ * EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF
+ * MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT.
+ * IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY
+ * CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT,
+ * TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION WITH THE
+ * SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ */
+package org.lenskit;
+
+import com.google.common.collect.ImmutableList;
+import org.junit.Before;
+import org.junit.Test;
+import org.lenskit.api.ItemRecommender;
+import org.lenskit.api.ResultList;
+import org.lenskit.basic.PopularItemRecommender;
+import org.lenskit.data.dao.DataAccessObject;
+import org.lenskit.data.dao.file.StaticDataSource;
+import org.lenskit.data.ratings.Rating;
+
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.hamcrest.Matchers.*;
+import static org.junit.Assert.assertThat;
+
+public class ParallelBatchRecommenderTest {
+    private DataAccessObject dao;
+    private LenskitRecommenderEngine engine;
+
+    @Before
+    public void setUp() {
+        dao = StaticDataSource.fromList(ImmutableList.of(Rating.create(1, 10, 3.0),
+                                                         Rating.create(2, 10, 4.0),
+                                                         Rating.create(2, 20, 2.5),
+                                                         Rating.create(3, 30, 5.0),
+                                                         Rating.create(4, 20, 1.0)))
+                              .get();
+        LenskitConfiguration config = new LenskitConfiguration();
+        config.bind(ItemRecommender.class).to(PopularItemRecommender.class);
+        engine = LenskitRecommenderEngine.build(config, dao);
+    }
+
+    @Test
+    public void testRecommendWithOneRecommenderPerWorker() {
+        List<Long> users = ImmutableList.of(1L, 2L, 3L, 4L, 5L);
+        AtomicInteger created = new AtomicInteger();
+        Map<Long, ResultList> results = ParallelBatchRecommender.recommendWithDetails(() -> {
+            created.incrementAndGet();
+            return engine.createRecommender(dao);
+        }, users, 2, 3);
+
+        assertThat(created.get(), equalTo(3));
+        assertThat(results.keySet(), contains(users.toArray()));
+        try (LenskitRecommender rec = engine.createRecommender(dao)) {
+            ItemRecommender irec = rec.getItemRecommender();
+            for (long user: users) {
+                assertThat(results.get(user).idList(), equalTo(irec.recommend(user, 2)));
+            }
+        }
+    }
+
+    @Test
+    public void testSingleThread() {
+        AtomicInteger created = new AtomicInteger();
+        Map<Long, ResultList> results = ParallelBatchRecommender.recommendWithDetails(() -> {
+            created.incrementAndGet();
+            return engine.createRecommender(dao);
+        }, ImmutableList.of(1L, 3L), 5, 1);
+        assertThat(created.get(), equalTo(1));
+        assertThat(results.get(1L).idList(), contains(20L, 30L));
+        assertThat(results.get(3L).idList(), containsInAnyOrder(10L, 20L));
+    }
+}
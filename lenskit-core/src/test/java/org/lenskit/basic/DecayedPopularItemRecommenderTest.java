@@ -0,0 +1,76 @@
+/*
+ * LensKit, an open-source toolkit for recommender systems.
+ * Copyright 2014-2017 LensKit contributors (see CONTRIBUTORS.md)
+ * Copyright 2010-2014 Regents of the University of Minnesota
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining
+ * a copy of this software and associated documentation files (the
+ * "Software"), to deal in the Software without restriction, including
+ * without limitation the rights to use, copy, modify, merge, publish,
+ * distribute, sublicense, and/or sell copies of the Software, and to
+ * permit persons to whom the Software is furnished to do so, subject to
+ * the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be
+ * included in all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+ * EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF
+ * MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT.
+ * IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY
+ * CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT,
+ * TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION WITH THE
+ * SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ */
+package org.lenskit.basic;
+
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableSet;
+import org.junit.Before;
+import org.junit.Test;
+import org.lenskit.api.ResultList;
+import org.lenskit.data.dao.DataAccessObject;
+import org.lenskit.data.dao.file.StaticDataSource;
+import org.lenskit.data.entities.CommonTypes;
+import org.lenskit.data.ratings.DecayedInteractionStatistics;
+import org.lenskit.data.ratings.Rating;
+
+import static org.hamcrest.Matchers.*;
+import static org.junit.Assert.assertThat;
+
+public class DecayedPopularItemRecommenderTest {
+    private DecayedPopularItemRecommender recommender;
+
+    @Before
+    public void setUp() {
+        StaticDataSource source = StaticDataSource.fromList(ImmutableList.of(Rating.create(1, 10, 3.0, 0),
+                                                                             Rating.create(2, 10, 4.0, 0),
+                                                                             Rating.create(1, 20, 2.5, 20),
+                                                                             Rating.create(3, 30, 5.0, 15)));
+        DataAccessObject dao = source.get();
+        recommender = new DecayedPopularItemRecommender(DecayedInteractionStatistics.create(dao, CommonTypes.RATING, 10),
+                                                        dao);
+    }
+
+    @Test
+    public void testRecommendUnratedItems() {
+        assertThat(recommender.recommend(1), contains(30L));
+        assertThat(recommender.recommend(5), contains(20L, 30L, 10L));
+        assertThat(recommender.recommend(5, 1), contains(20L));
+    }
+
+    @Test
+    public void testRecommendWithFilters() {
+        assertThat(recommender.recommend(5, -1, ImmutableSet.of(10L, 30L, 50L), null),
+                   contains(30L, 10L));
+        assertThat(recommender.recommend(1, -1, null, ImmutableSet.of(30L)),
+                   contains(20L, 10L));
+    }
+
+    @Test
+    public void testRecommendWithDetails() {
+        ResultList results = recommender.recommendWithDetails(5, 1, null, null);
+        assertThat(results.idList(), contains(20L));
+        assertThat(results.get(0).getScore(), closeTo(1.0, 1.0e-6));
+    }
+}
@@ -35,8 +35,9 @@ import org.lenskit.data.ratings.InteractionStatistics;
 import org.lenskit.data.ratings.Rating;
 
 import java.util.List;
+import java.util.Map;
 
-import static org.hamcrest.Matchers.contains;
+import static org.hamcrest.Matchers.*;
 import static org.junit.Assert.assertThat;
 
 public class PopularItemRecommenderTest {
@@ -67,6 +68,19 @@ public class PopularItemRecommenderTest {
         assertThat(results, contains(1L, 2L));
     }
 
+    @Test
+    public void testRecommendBatch() {
+        Map<Long, List<Long>> results = recommender.recommendBatch(ImmutableList.of(39L, 17L, 42L), -1);
+        assertThat(results.keySet(), contains(39L, 17L, 42L));
+        assertThat(results.get(39L), contains(2L));
+        assertThat(results.get(17L), contains(1L, 2L));
+        assertThat(results.get(42L), hasSize(0));
+
+        Map<Long, ResultList> details = recommender.recommendBatchWithDetails(ImmutableList.of(17L), 1);
+        assertThat(details.get(17L).idList(), contains(1L));
+        assertThat(details.get(17L).get(0).getScore(), equalTo(2.0));
+    }
+
     @Test
     public void testRecommendRelatedItems() {
         List<Long> results = recommender.recommendRelatedItems(1);
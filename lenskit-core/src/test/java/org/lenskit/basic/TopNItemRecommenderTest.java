@@ -25,18 +25,28 @@
 package org.lenskit.basic;
 
 import com.google.common.collect.ImmutableList;
+import it.unimi.dsi.fastutil.longs.LongSet;
 import it.unimi.dsi.fastutil.longs.LongSets;
 import org.junit.Test;
 import org.lenskit.api.ItemRecommender;
 import org.lenskit.api.ItemScorer;
+import org.lenskit.api.Result;
 import org.lenskit.api.ResultList;
+import org.lenskit.api.ResultMap;
 import org.lenskit.data.dao.DataAccessObject;
 import org.lenskit.data.dao.file.StaticDataSource;
 import org.lenskit.data.entities.CommonTypes;
 import org.lenskit.data.entities.Entities;
 import org.lenskit.results.Results;
+import org.lenskit.util.collections.Long2DoubleAccumulator;
+import org.lenskit.util.keys.SortedKeyIndex;
 
+import javax.annotation.Nonnull;
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.Collection;
 import java.util.List;
+import java.util.Map;
 
 import static org.hamcrest.Matchers.*;
 import static org.junit.Assert.assertThat;
@@ -116,4 +126,83 @@ public class TopNItemRecommenderTest {
         assertThat(details, hasSize(2));
         assertThat(details.idList(), contains(3L, 2L));
     }
+
+    @Test
+    public void testCatalogScorer() {
+        StaticDataSource source = new StaticDataSource();
+        source.addSource(ImmutableList.of(Entities.create(CommonTypes.ITEM, 3)));
+        DataAccessObject dao = source.get();
+        // the scorer knows items the DAO does not, so these are only found by scoring the catalog
+        ItemScorer scorer = new CatalogScorer(SortedKeyIndex.create(2, 3, 5, 7, 9));
+        ItemRecommender rec = new TopNItemRecommender(dao, scorer);
+
+        List<Long> recs = rec.recommend(42, 3, null, null);
+        assertThat(recs, contains(9L, 7L, 5L));
+
+        recs = rec.recommend(42, -1, null, LongSets.singleton(7L));
+        assertThat(recs, contains(9L, 5L, 3L, 2L));
+
+        ResultList details = rec.recommendWithDetails(42, 2, null, LongSets.singleton(9L));
+        assertThat(details.idList(), contains(7L, 5L));
+        assertThat(details.get(0).getScore(), equalTo(7.0));
+
+        // explicit candidates still go through the candidate path
+        recs = rec.recommend(42, -1, LongSets.singleton(5L), null);
+        assertThat(recs, contains(5L));
+    }
+
+    @Test
+    public void testBatch() {
+        StaticDataSource source = new StaticDataSource();
+        source.addSource(ImmutableList.of(Entities.create(CommonTypes.ITEM, 3)));
+        DataAccessObject dao = source.get();
+        ItemScorer scorer = new CatalogScorer(SortedKeyIndex.create(2, 3, 5, 7, 9));
+        TopNItemRecommender rec = new TopNItemRecommender(dao, scorer);
+
+        List<Long> users = new ArrayList<>();
+        for (long u = 1; u <= TopNItemRecommender.BATCH_BLOCK_SIZE * 2 + 5; u++) {
+            users.add(u);
+        }
+        Map<Long, List<Long>> recs = rec.recommendBatch(users, 2);
+        assertThat(recs.keySet(), contains(users.toArray()));
+        for (List<Long> list: recs.values()) {
+            assertThat(list, contains(9L, 7L));
+        }
+
+        Map<Long, ResultList> details = rec.recommendBatchWithDetails(users.subList(0, 3), 2);
+        assertThat(details.keySet(), contains(1L, 2L, 3L));
+        assertThat(details.get(2L).idList(), contains(9L, 7L));
+        assertThat(details.get(2L).get(1).getScore(), equalTo(7.0));
+    }
+
+    /**
+     * Scorer that scores each item in its catalog with the item ID.
+     */
+    private static class CatalogScorer extends AbstractItemScorer implements CatalogItemScorer {
+        private final SortedKeyIndex items;
+
+        CatalogScorer(SortedKeyIndex items) {
+            this.items = items;
+        }
+
+        @Nonnull
+        @Override
+        public ResultMap scoreWithDetails(long user, @Nonnull Collection<Long> ids) {
+            List<Result> results = new ArrayList<>();
+            for (long item: ids) {
+                if (items.containsKey(item)) {
+                    results.add(Results.create(item, item));
+                }
+            }
+            return Results.newResultMap(results);
+        }
+
+        @Override
+        public void scoreCatalog(long user, @Nonnull LongSet exclude, @Nonnull Long2DoubleAccumulator output) {
+            BitSet excluded = items.getIndexMask(exclude);
+            for (int i = excluded.nextClearBit(0); i < items.getUpperBound(); i = excluded.nextClearBit(i + 1)) {
+                output.put(items.getKey(i), items.getKey(i));
+            }
+        }
+    }
 }
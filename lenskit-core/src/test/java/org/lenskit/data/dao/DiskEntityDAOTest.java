@@ -0,0 +1,181 @@
+/*
+ * LensKit, an open-source toolkit for recommender systems.
+ * Copyright 2014-2017 LensKit contributors (see CONTRIBUTORS.md)
+ * Copyright 2010-2014 Regents of the University of Minnesota
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining
+ * a copy of this software and associated documentation files (the
+ * "Software"), to deal in the Software without restriction, including
+ * without limitation the rights to use, copy, modify, merge, publish,
+ * distribute, sublicense, and/or sell copies of the Software, and to
+ * permit persons to whom the Software is furnished to do so, subject to
+ * the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be
+ * included in all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+ * EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF
+ * MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT.
+ * IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY
+ * CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT,
+ * TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION WITH THE
+ * SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ */
+package org.lenskit.data.dao;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.lenskit.data.entities.CommonAttributes;
+import org.lenskit.data.entities.CommonTypes;
+import org.lenskit.data.entities.Entities;
+import org.lenskit.data.entities.Entity;
+import org.lenskit.data.ratings.Rating;
+import org.lenskit.data.ratings.RatingBuilder;
+import org.lenskit.data.ratings.Ratings;
+import org.lenskit.util.IdBox;
+import org.lenskit.util.io.ObjectStreams;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.stream.Collectors;
+
+import static net.java.quickcheck.generator.CombinedGeneratorsIterables.someLists;
+import static net.java.quickcheck.generator.PrimitiveGenerators.integers;
+import static net.java.quickcheck.generator.PrimitiveGeneratorsIterables.someFixedValues;
+import static org.hamcrest.Matchers.*;
+import static org.junit.Assert.assertThat;
+import static org.lenskit.util.test.LenskitGenerators.ratings;
+
+public class DiskEntityDAOTest {
+    @Rule
+    public TemporaryFolder tmpdir = new TemporaryFolder();
+
+    @Test
+    public void testEmptyDAO() throws IOException {
+        try (DiskEntityDAO dao = DiskEntityDAO.newBuilder(tmpdir.getRoot().toPath()).build()) {
+            assertThat(dao.getEntityTypes(), hasSize(0));
+            assertThat(dao.getEntityIds(CommonTypes.RATING), hasSize(0));
+            assertThat(dao.query(Rating.class).get(), hasSize(0));
+            assertThat(dao.query(Rating.class).groupBy(CommonAttributes.USER_ID).get(), hasSize(0));
+        }
+    }
+
+    @Test
+    public void testDerivedEntities() throws IOException {
+        Rating r = Rating.newBuilder()
+                         .setId(42)
+                         .setUserId(100)
+                         .setItemId(50)
+                         .setRating(3.5)
+                         .build();
+        DiskEntityDAOBuilder b = DiskEntityDAO.newBuilder(tmpdir.getRoot().toPath());
+        b.addDefaultIndex(CommonAttributes.USER_ID);
+        b.addEntity(r);
+        b.addEntity(Entities.create(CommonTypes.ITEM, 20));
+        b.deriveEntities(CommonTypes.USER, CommonTypes.RATING, CommonAttributes.USER_ID);
+        b.deriveEntities(CommonTypes.ITEM, CommonTypes.RATING, CommonAttributes.ITEM_ID);
+        try (DiskEntityDAO dao = b.build()) {
+            assertThat(dao.getEntityTypes(),
+                       containsInAnyOrder(CommonTypes.RATING, CommonTypes.USER, CommonTypes.ITEM));
+            assertThat(dao.getEntityIds(CommonTypes.USER), contains(100L));
+            assertThat(dao.getEntityIds(CommonTypes.ITEM), contains(20L, 50L));
+            assertThat(dao.lookupEntity(CommonTypes.ITEM, 50),
+                       equalTo(Entities.create(CommonTypes.ITEM, 50)));
+            assertThat(dao.lookupEntity(CommonTypes.ITEM, 20),
+                       equalTo(Entities.create(CommonTypes.ITEM, 20)));
+            assertThat(dao.lookupEntity(CommonTypes.RATING, 42, Rating.class),
+                       equalTo(r));
+            assertThat(dao.lookupEntity(CommonTypes.RATING, 43), nullValue());
+        }
+    }
+
+    @Test
+    public void testMultiPassMerge() throws IOException {
+        DiskEntityDAOBuilder b = DiskEntityDAO.newBuilder(tmpdir.getRoot().toPath());
+        // 100 runs, merged 3 at a time
+        b.setBufferSize(10);
+        b.setMergeFanIn(3);
+        b.addEntityLayout(Rating.ENTITY_TYPE, Rating.ATTRIBUTES, RatingBuilder.class);
+        b.addDefaultIndex(CommonAttributes.USER_ID);
+        List<Rating> ratings = new ArrayList<>();
+        for (int i = 0; i < 1000; i++) {
+            ratings.add(Rating.newBuilder()
+                              .setId(i)
+                              .setUserId(i % 37)
+                              .setItemId(i % 101)
+                              .setRating((i % 5) + 1)
+                              .build());
+        }
+        ratings.forEach(b::addEntity);
+
+        try (DiskEntityDAO dao = b.build()) {
+            List<Rating> built = dao.query(Rating.class)
+                                    .orderBy(CommonAttributes.ENTITY_ID)
+                                    .get();
+            assertThat(built, equalTo(Entities.idOrdering().sortedCopy(ratings)));
+            assertThat(dao.getEntityIds(CommonTypes.RATING), hasSize(1000));
+            // the ID set is read from disk again, not retained
+            assertThat(dao.getEntityIds(CommonTypes.RATING),
+                       equalTo(dao.getEntityIds(CommonTypes.RATING)));
+            assertThat(dao.query(Rating.class).withAttribute(CommonAttributes.USER_ID, 5L).get(),
+                       hasSize(27));
+        }
+    }
+
+    @Test
+    public void testStoreABunchOfRatings() throws IOException {
+        for (List<Rating> ratings: someLists(ratings(), integers(100, 5000))) {
+            DiskEntityDAOBuilder b = DiskEntityDAO.newBuilder(tmpdir.getRoot().toPath());
+            b.setBufferSize(500);
+            b.addEntityLayout(Rating.ENTITY_TYPE, Rating.ATTRIBUTES, RatingBuilder.class);
+            b.addDefaultIndex(CommonAttributes.USER_ID);
+            b.addDefaultIndex(CommonAttributes.ITEM_ID);
+            ratings.forEach(b::addEntity);
+            b.deriveEntities(CommonTypes.USER, CommonTypes.RATING, CommonAttributes.USER_ID);
+            b.deriveEntities(CommonTypes.ITEM, CommonTypes.RATING, CommonAttributes.ITEM_ID);
+
+            try (DiskEntityDAO dao = b.build()) {
+                List<Rating> sorted = Entities.idOrdering().sortedCopy(ratings);
+                List<Rating> built = dao.query(Rating.class)
+                                        .orderBy(CommonAttributes.ENTITY_ID)
+                                        .get();
+                assertThat(built, equalTo(sorted));
+
+                Set<Long> userIds = ratings.stream().map(Rating::getUserId).collect(Collectors.toSet());
+                Set<Long> itemIds = ratings.stream().map(Rating::getItemId).collect(Collectors.toSet());
+                assertThat(dao.getEntityIds(CommonTypes.USER),
+                           equalTo(userIds));
+                assertThat(dao.getEntityIds(CommonTypes.ITEM),
+                           equalTo(itemIds));
+
+                for (long user: someFixedValues(userIds)) {
+                    List<Rating> fromData = ratings.stream()
+                                                   .filter(r -> r.getUserId() == user)
+                                                   .sorted(Ratings.TIMESTAMP_COMPARATOR)
+                                                   .collect(Collectors.toList());
+                    List<Rating> fromDAO = dao.query(Rating.class)
+                                              .withAttribute(CommonAttributes.USER_ID, user)
+                                              .orderBy(CommonAttributes.TIMESTAMP)
+                                              .get();
+                    assertThat(fromDAO, equalTo(fromData));
+                }
+
+                Map<Long, List<Rating>> byItem = ratings.stream()
+                                                        .collect(Collectors.groupingBy(Rating::getItemId));
+                List<IdBox<List<Rating>>> groups = dao.query(Rating.class)
+                                                      .groupBy(CommonAttributes.ITEM_ID)
+                                                      .get();
+                assertThat(groups, hasSize(byItem.size()));
+                for (IdBox<List<Rating>> group: groups) {
+                    assertThat(group.getValue(),
+                               containsInAnyOrder(byItem.get(group.getId()).toArray()));
+                }
+            }
+        }
+    }
+}
@@ -374,6 +374,14 @@ public class EntityCollectionDAOTest {
                                           .orderBy(CommonAttributes.TIMESTAMP)
                                           .get();
                 assertThat(fromDAO, equalTo(fromData));
+                assertThat(dao.query(Rating.class)
+                              .withAttribute(CommonAttributes.USER_ID, user)
+                              .count(),
+                           equalTo(fromData.size()));
+                assertThat(dao.query(Rating.class)
+                              .withAttribute(CommonAttributes.USER_ID, user)
+                              .valueSet(CommonAttributes.ITEM_ID),
+                           equalTo(fromData.stream().map(Rating::getItemId).collect(Collectors.toSet())));
             }
 
             for (long item: someFixedValues(itemIds)) {
@@ -428,6 +436,14 @@ public class EntityCollectionDAOTest {
                                            .orderBy(CommonAttributes.TIMESTAMP)
                                            .get();
                  assertThat(fromDAO, equalTo(fromData));
+                 assertThat(dao.query(Rating.class)
+                               .withAttribute(CommonAttributes.USER_ID, user)
+                               .count(),
+                            equalTo(fromData.size()));
+                 assertThat(dao.query(Rating.class)
+                               .withAttribute(CommonAttributes.USER_ID, user)
+                               .valueSet(CommonAttributes.ITEM_ID),
+                            equalTo(fromData.stream().map(Rating::getItemId).collect(Collectors.toSet())));
             }
 
             for (long item: someFixedValues(itemIds)) {
@@ -31,8 +31,11 @@ import com.google.common.collect.Lists;
 import it.unimi.dsi.fastutil.longs.LongSet;
 import org.apache.commons.lang3.reflect.FieldUtils;
 import org.hamcrest.Matcher;
+import org.junit.Rule;
 import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
 import org.lenskit.data.dao.DataAccessObject;
+import org.lenskit.data.dao.DiskEntityDAO;
 import org.lenskit.data.dao.EntityCollectionDAO;
 import org.lenskit.data.entities.*;
 import org.lenskit.data.ratings.Rating;
@@ -42,6 +45,9 @@ import java.io.IOException;
 import java.lang.reflect.Field;
 import java.net.URI;
 import java.net.URISyntaxException;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
 import java.util.List;
 import java.util.Map;
 
@@ -53,6 +59,32 @@ public class StaticDataSourceTest {
     private EntityFactory factory = new EntityFactory();
     private ObjectReader reader = new ObjectMapper().reader();
 
+    @Rule
+    public TemporaryFolder tmpdir = new TemporaryFolder();
+
+    @Test
+    public void testDiskStorageKeepsAndReleasesDAO() throws IOException {
+        StaticDataSource layout = new StaticDataSource();
+        layout.addSource(Lists.<Entity>newArrayList(factory.rating(1L, 20L, 3.5),
+                                                    factory.rating(1L, 21L, 4.5)));
+        Path dir = tmpdir.newFolder("disk").toPath();
+        layout.setDiskStorage(dir);
+
+        DataAccessObject dao = layout.get();
+        assertThat(dao, instanceOf(DiskEntityDAO.class));
+        assertThat(layout.get(), sameInstance(dao));
+        try (DirectoryStream<Path> files = Files.newDirectoryStream(dir)) {
+            assertThat(Lists.newArrayList(files), hasSize(1));
+        }
+
+        // switching back to memory closes the disk DAO and deletes its files
+        layout.setDiskStorage(null);
+        try (DirectoryStream<Path> files = Files.newDirectoryStream(dir)) {
+            assertThat(Lists.newArrayList(files), hasSize(0));
+        }
+        assertThat(layout.get(), instanceOf(EntityCollectionDAO.class));
+    }
+
     @Test
     public void testSomeEvents() {
         StaticDataSource layout = new StaticDataSource();
@@ -0,0 +1,102 @@
+/*
+ * LensKit, an open-source toolkit for recommender systems.
+ * Copyright 2014-2017 LensKit contributors (see CONTRIBUTORS.md)
+ * Copyright 2010-2014 Regents of the University of Minnesota
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining
+ * a copy of this software and associated documentation files (the
+ * "Software"), to deal in the Software without restriction, including
+ * without limitation the rights to use, copy, modify, merge, publish,
+ * distribute, sublicense, and/or sell copies of the Software, and to
+ * permit persons to whom the Software is furnished to do so, subject to
+ * the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be
+ * included in all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+ * EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF
+ * MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT.
+ * IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY
+ * CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT,
+ * TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION WITH THE
+ * SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ */
+package org.lenskit.data.ratings;
+
+import it.unimi.dsi.fastutil.longs.Long2DoubleMap;
+import org.junit.Test;
+import org.lenskit.data.dao.DataAccessObject;
+import org.lenskit.data.dao.EntityCollectionDAO;
+import org.lenskit.data.entities.EntityFactory;
+import org.lenskit.util.IdBox;
+import org.lenskit.util.io.ObjectStreams;
+
+import java.util.List;
+import java.util.Random;
+
+import static org.hamcrest.Matchers.*;
+import static org.junit.Assert.*;
+
+public class CachingRatingVectorPDAOTest {
+    EntityFactory factory = new EntityFactory();
+
+    private static RatingMatrix snapshot(DataAccessObject dao) {
+        return new PackedRatingMatrixProvider(new StandardRatingVectorPDAO(dao), new Random()).get();
+    }
+
+    @Test
+    public void testNoUser() {
+        EntityCollectionDAO dao = EntityCollectionDAO.create();
+        CachingRatingVectorPDAO source = new CachingRatingVectorPDAO(snapshot(dao), 10);
+
+        assertThat(source.userRatingVector(42).entrySet(),
+                   hasSize(0));
+    }
+
+    @Test
+    public void testCachesVector() {
+        EntityCollectionDAO dao = EntityCollectionDAO.create(factory.rating(42, 39, 2.5),
+                                                             factory.rating(42, 20, 3.5),
+                                                             factory.rating(17, 39, 1.5));
+        CachingRatingVectorPDAO source = new CachingRatingVectorPDAO(snapshot(dao), 10);
+
+        Long2DoubleMap vec = source.userRatingVector(42);
+        assertThat(vec.entrySet(), hasSize(2));
+        assertThat(vec, hasEntry(39L, 2.5));
+        assertThat(vec, hasEntry(20L, 3.5));
+        assertThat(source.getStats().missCount(), equalTo(1L));
+
+        assertThat(source.userRatingVector(42), sameInstance(vec));
+        assertThat(source.getStats().hitCount(), equalTo(1L));
+
+        assertThat(source.userRatingVector(17), hasEntry(39L, 1.5));
+        assertThat(source.getStats().missCount(), equalTo(2L));
+    }
+
+    @Test
+    public void testEvictsVectors() {
+        EntityCollectionDAO dao = EntityCollectionDAO.create(factory.rating(42, 39, 2.5),
+                                                             factory.rating(17, 39, 1.5));
+        CachingRatingVectorPDAO source = new CachingRatingVectorPDAO(snapshot(dao), 1);
+
+        source.userRatingVector(42);
+        source.userRatingVector(17);
+        assertThat(source.userRatingVector(42), hasEntry(39L, 2.5));
+        assertThat(source.getStats().missCount(), equalTo(3L));
+        assertThat(source.getStats().evictionCount(), greaterThanOrEqualTo(1L));
+    }
+
+    @Test
+    public void testStreamUsers() {
+        EntityCollectionDAO dao = EntityCollectionDAO.create(factory.rating(42, 39, 2.5),
+                                                             factory.rating(17, 39, 1.5));
+        CachingRatingVectorPDAO source = new CachingRatingVectorPDAO(snapshot(dao), 10);
+
+        List<IdBox<Long2DoubleMap>> users = ObjectStreams.makeList(source.streamUsers());
+        assertThat(users, hasSize(2));
+        for (IdBox<Long2DoubleMap> user: users) {
+            assertThat(user.getValue(), equalTo(source.userRatingVector(user.getId())));
+        }
+    }
+}
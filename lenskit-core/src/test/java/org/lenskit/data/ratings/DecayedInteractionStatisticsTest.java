@@ -0,0 +1,78 @@
+/*
+ * LensKit, an open-source toolkit for recommender systems.
+ * Copyright 2014-2017 LensKit contributors (see CONTRIBUTORS.md)
+ * Copyright 2010-2014 Regents of the University of Minnesota
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining
+ * a copy of this software and associated documentation files (the
+ * "Software"), to deal in the Software without restriction, including
+ * without limitation the rights to use, copy, modify, merge, publish,
+ * distribute, sublicense, and/or sell copies of the Software, and to
+ * permit persons to whom the Software is furnished to do so, subject to
+ * the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be
+ * included in all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+ * EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF
+ * MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT.
+ * IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY
+ * CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT,
+ * TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION WITH THE
+ * SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ */
+package org.lenskit.data.ratings;
+
+import com.google.common.collect.ImmutableList;
+import org.junit.Before;
+import org.junit.Test;
+import org.lenskit.data.dao.file.StaticDataSource;
+import org.lenskit.data.entities.CommonTypes;
+
+import static org.hamcrest.Matchers.*;
+import static org.junit.Assert.assertThat;
+
+public class DecayedInteractionStatisticsTest {
+    private DecayedInteractionStatistics stats;
+
+    @Before
+    public void setUp() {
+        StaticDataSource source = StaticDataSource.fromList(ImmutableList.of(Rating.create(1, 10, 3.0, 0),
+                                                                             Rating.create(2, 10, 4.0, 0),
+                                                                             Rating.create(1, 20, 2.5, 20),
+                                                                             Rating.create(3, 30, 5.0, 15)));
+        stats = DecayedInteractionStatistics.create(source.get(), CommonTypes.RATING, 10);
+    }
+
+    @Test
+    public void testDecayedWeights() {
+        assertThat(stats.getReferenceTime(), equalTo(20L));
+        assertThat(stats.getPopularity(10), closeTo(0.5, 1.0e-6));
+        assertThat(stats.getPopularity(20), closeTo(1.0, 1.0e-6));
+        assertThat(stats.getPopularity(30), closeTo(Math.sqrt(0.5), 1.0e-6));
+        assertThat(stats.getPopularity(40), equalTo(0.0));
+        assertThat(stats.getItemsByPopularity(), contains(20L, 30L, 10L));
+        assertThat(stats.getItemIndexesByPopularity().getInt(0),
+                   equalTo(stats.getItemIndex().getIndex(20)));
+    }
+
+    @Test
+    public void testUpdate() {
+        DecayedInteractionStatistics updated = stats.update(ImmutableList.of(Rating.create(4, 10, 1.0, 30)));
+        assertThat(updated.getReferenceTime(), equalTo(30L));
+        assertThat(updated.getPopularity(10), closeTo(1.25, 1.0e-6));
+        assertThat(updated.getPopularity(20), closeTo(0.5, 1.0e-6));
+        assertThat(updated.getItemsByPopularity(), contains(10L, 20L, 30L));
+        // the original statistics are unchanged
+        assertThat(stats.getItemsByPopularity(), contains(20L, 30L, 10L));
+    }
+
+    @Test
+    public void testLongTimeSpan() {
+        DecayedInteractionStatistics updated = stats.update(ImmutableList.of(Rating.create(4, 40, 1.0, 100000)));
+        assertThat(updated.getPopularity(40), closeTo(1.0, 1.0e-6));
+        assertThat(updated.getPopularity(20), allOf(greaterThanOrEqualTo(0.0), lessThan(1.0e-6)));
+        assertThat(updated.getItemsByPopularity().getLong(0), equalTo(40L));
+    }
+}
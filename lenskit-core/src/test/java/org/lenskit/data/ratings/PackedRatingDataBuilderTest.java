@@ -104,4 +104,53 @@ public class PackedRatingDataBuilderTest {
                        equalTo(data.getItemIndex().getIndex(prefs[i].getItemId())));
         }
     }
+
+    @Test
+    public void testBuildCompressed() {
+        Random rnd = new Random();
+        Preference[] prefs = new Preference[10000];
+        for (int i = 0; i < 10000; i++) {
+            Preference p = prefs[i] = Rating.create(
+                    rnd.nextInt(500),
+                    rnd.nextInt(1000),
+                    (rnd.nextInt(10) + 1) * 0.5);
+            bld.add(p.getUserId(), p.getItemId(), p.getValue());
+        }
+        PackedRatingData data = bld.buildCompressed(new PreferenceDomain(0.5, 5.0, 0.5));
+        assertThat(data.size(), equalTo(10000));
+        assertTrue(data.isUserSorted());
+        assertTrue(data.isValueCoded());
+
+        // entries are grouped by user, keeping each user's original order
+        int[] next = new int[data.getUserIndex().size()];
+        for (int u = 0; u < next.length; u++) {
+            next[u] = data.getUserEntries(u).getInt(0);
+        }
+        for (Preference p: prefs) {
+            int uidx = data.getUserIndex().getIndex(p.getUserId());
+            PackedRatingData.IndirectEntry ip = data.getEntry(next[uidx]++);
+            assertThat(ip.getUserIndex(), equalTo(uidx));
+            assertThat(ip, samePreferenceAs(p));
+        }
+    }
+
+    @Test
+    public void testBuildCompressedUncodedValues() {
+        Random rnd = new Random();
+        for (int i = 0; i < 1000; i++) {
+            bld.add(rnd.nextInt(50), rnd.nextInt(100), rnd.nextGaussian());
+        }
+        PackedRatingData data = bld.buildCompressed(null);
+        assertThat(data.size(), equalTo(1000));
+        assertTrue(data.isUserSorted());
+        assertThat(data.isValueCoded(), equalTo(false));
+        PackedRatingData.IndirectEntry ip = data.getEntry(-1);
+        int nusers = data.getUserIndex().size();
+        for (int u = 0; u < nusers; u++) {
+            for (int i: data.getUserEntries(u)) {
+                ip.setIndex(i);
+                assertThat(ip.getUserIndex(), equalTo(u));
+            }
+        }
+    }
 }
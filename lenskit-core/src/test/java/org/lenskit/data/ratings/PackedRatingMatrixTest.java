@@ -38,8 +38,10 @@ import org.lenskit.util.keys.KeyIndex;
 
 import java.util.ArrayList;
 import java.util.Collection;
+import java.util.HashSet;
 import java.util.List;
 import java.util.Random;
+import java.util.Set;
 
 import static org.hamcrest.Matchers.*;
 import static org.junit.Assert.*;
@@ -48,6 +50,7 @@ public class PackedRatingMatrixTest {
     private static final double EPSILON = 1.0e-6;
 
     private PackedRatingMatrix snap;
+    private PackedRatingMatrix compressedSnap;
     private List<Rating> ratingList;
 
     private static Rating rating(long uid, long iid, double value, long ts) {
@@ -87,6 +90,8 @@ public class PackedRatingMatrixTest {
         RatingVectorPDAO pdao = new StandardRatingVectorPDAO(dao);
 
         snap = new PackedRatingMatrixProvider(pdao, new Random()).get();
+        compressedSnap = new PackedRatingMatrixProvider(pdao, new Random(), true,
+                                                        new PreferenceDomain(1, 5, 1)).get();
         ratingList = rs;
     }
 
@@ -256,4 +261,41 @@ public class PackedRatingMatrixTest {
         assertEquals(3, ratings.get(9), EPSILON);
         assertEquals(4, ratings.get(10), EPSILON);
     }
+
+    @Test
+    public void testCompressedMatchesStandard() {
+        assertThat(compressedSnap.getRatings(), hasSize(20));
+        assertThat(compressedSnap.getUserIds(), equalTo(snap.getUserIds()));
+        for (long user: snap.getUserIds()) {
+            assertThat(compressedSnap.getUserRatingVector(user),
+                       equalTo(snap.getUserRatingVector(user)));
+            assertThat(compressedSnap.getUserRatings(user), hasSize(snap.getUserRatings(user).size()));
+        }
+        for (RatingMatrixEntry e: compressedSnap.getRatings()) {
+            assertThat(e.getUserId(), equalTo(compressedSnap.userIndex().getKey(e.getUserIndex())));
+            assertThat(snap.getUserRatingVector(e.getUserId()).get(e.getItemId()),
+                       closeTo(e.getValue(), EPSILON));
+        }
+    }
+
+    @Test
+    public void testCompressedOrderKeepsUserBlocks() {
+        List<RatingMatrixEntry> ratings = compressedSnap.getRatings();
+        Set<Integer> indexes = new HashSet<>();
+        Set<Long> finished = new HashSet<>();
+        long current = -1;
+        int i = 0;
+        for (RatingMatrixEntry e: ratings) {
+            assertThat(indexes.add(e.getIndex()), equalTo(true));
+            assertThat(ratings.get(i).getIndex(), equalTo(e.getIndex()));
+            if (e.getUserId() != current) {
+                // each user's entries are listed together
+                assertThat(finished.add(e.getUserId()), equalTo(true));
+                current = e.getUserId();
+            }
+            i += 1;
+        }
+        assertThat(indexes, hasSize(20));
+        assertThat(finished, hasSize(compressedSnap.getUserIds().size()));
+    }
 }
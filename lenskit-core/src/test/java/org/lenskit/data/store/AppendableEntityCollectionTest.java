@@ -0,0 +1,148 @@
+/*
+ * LensKit, an open-source toolkit for recommender systems.
+ * Copyright 2014-2017 LensKit contributors (see CONTRIBUTORS.md)
+ * Copyright 2010-2014 Regents of the University of Minnesota
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining
+ * a copy of this software and associated documentation files (the
+ * "Software"), to deal in the Software without restriction, including
+ * without limitation the rights to use, copy, modify, merge, publish,
+ * distribute, sublicense, and/or sell copies of the Software, and to
+ * permit persons to whom the Software is furnished to do so, subject to
+ * the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be
+ * included in all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+ * EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF
+ * MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT.
+ * IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY
+ * CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT,
+ * TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION WITH THE
+ * SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ */
+package org.lenskit.data.store;
+
+import com.google.common.collect.Lists;
+import org.junit.Before;
+import org.junit.Test;
+import org.lenskit.data.dao.EntityCollectionDAO;
+import org.lenskit.data.entities.*;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+import static org.hamcrest.Matchers.*;
+import static org.junit.Assert.*;
+
+public class AppendableEntityCollectionTest {
+    private static final AttributeSet RATING_ATTRS =
+            AttributeSet.create(CommonAttributes.ENTITY_ID,
+                                CommonAttributes.USER_ID,
+                                CommonAttributes.ITEM_ID,
+                                CommonAttributes.RATING);
+    private AppendableEntityCollection store;
+
+    private static Entity rating(long id, long user, long item, double value) {
+        return Entities.newBuilder(CommonTypes.RATING)
+                       .setId(id)
+                       .setAttribute(CommonAttributes.USER_ID, user)
+                       .setAttribute(CommonAttributes.ITEM_ID, item)
+                       .setAttribute(CommonAttributes.RATING, value)
+                       .build();
+    }
+
+    @Before
+    public void createStore() {
+        store = EntityCollection.newAppendable(CommonTypes.RATING, RATING_ATTRS, null);
+        store.addIndex(CommonAttributes.USER_ID);
+    }
+
+    @Test
+    public void testEmpty() {
+        EntityCollection snap = store.snapshot();
+        assertThat(snap.size(), equalTo(0));
+        assertThat(snap.getType(), equalTo(CommonTypes.RATING));
+        assertThat(snap.idSet(), hasSize(0));
+        assertThat(snap.lookup(42), nullValue());
+        assertThat(snap, emptyIterable());
+    }
+
+    @Test
+    public void testSnapshotIsolation() {
+        Entity r1 = rating(1, 10, 100, 3.5);
+        Entity r2 = rating(2, 10, 101, 4.0);
+        store.add(r1);
+        EntityCollection first = store.snapshot();
+        store.add(r2);
+
+        assertThat(first.size(), equalTo(1));
+        assertThat(first.lookup(2), nullValue());
+        assertThat(first.find(CommonAttributes.USER_ID, 10L), contains(r1));
+
+        EntityCollection second = store.snapshot();
+        assertThat(second.size(), equalTo(2));
+        assertThat(second.lookup(2), equalTo(r2));
+        assertThat(second.find(CommonAttributes.USER_ID, 10L),
+                   containsInAnyOrder(r1, r2));
+        assertThat(second.idSet(), containsInAnyOrder(1L, 2L));
+
+        // no new entities, same snapshot
+        assertThat(store.snapshot(), sameInstance(second));
+    }
+
+    @Test
+    public void testDuplicateId() {
+        store.add(rating(1, 10, 100, 3.5));
+        try {
+            store.add(rating(1, 11, 100, 3.5));
+            fail("adding duplicate ID should fail");
+        } catch (IllegalArgumentException e) {
+            /* expected */
+        }
+        assertThat(store.size(), equalTo(1));
+    }
+
+    @Test
+    public void testManySnapshots() {
+        List<Entity> all = new ArrayList<>();
+        for (int i = 0; i < 500; i++) {
+            Entity r = rating(i, i % 17, i % 31, (i % 5) + 1);
+            all.add(r);
+            store.add(r);
+            if (i % 7 == 0) {
+                store.snapshot();
+            }
+        }
+
+        EntityCollection snap = store.snapshot();
+        assertThat(snap.size(), equalTo(500));
+        // segments are merged, so there should be far fewer than one per snapshot
+        assertThat(((SegmentedEntityCollection) snap).getSegments().size(),
+                   lessThanOrEqualTo(10));
+        assertThat(Lists.newArrayList(snap), containsInAnyOrder(all.toArray()));
+        for (Entity r: all) {
+            assertThat(snap.lookup(r.getId()), equalTo(r));
+        }
+
+        List<Entity> u3 = snap.find(CommonAttributes.USER_ID, 3L);
+        assertThat(u3, hasSize((int) all.stream().filter(e -> e.getLong(CommonAttributes.USER_ID) == 3).count()));
+        assertThat(snap.grouped(CommonAttributes.USER_ID).keySet(), hasSize(17));
+        assertThat(snap.count(Collections.<Attribute<?>>singletonList(Attribute.create(CommonAttributes.USER_ID, 3L))),
+                   equalTo(u3.size()));
+        assertThat(snap.valueSet(CommonAttributes.ITEM_ID, Collections.emptyList()),
+                   hasSize(31));
+    }
+
+    @Test
+    public void testSnapshotDAO() {
+        Entity r1 = rating(1, 10, 100, 3.5);
+        store.add(r1);
+        EntityCollectionDAO dao = EntityCollectionDAO.fromCollections(Collections.singletonList(store.snapshot()));
+        assertThat(dao.lookupEntity(CommonTypes.RATING, 1), equalTo(r1));
+        store.add(rating(2, 10, 101, 4.0));
+        assertThat(dao.getEntityIds(CommonTypes.RATING), contains(1L));
+    }
+}
@@ -24,6 +24,7 @@
  */
 package org.lenskit.data.store;
 
+import com.google.common.collect.ImmutableList;
 import com.google.common.collect.Lists;
 import org.junit.Test;
 import org.lenskit.data.entities.*;
@@ -194,4 +195,43 @@ public class PackedEntityCollectionTest {
                                               .build();
         assertThat(ec, contains(r));
     }
+
+    @Test
+    public void testCountAndValueSet() {
+        EntityFactory efac = new EntityFactory();
+        Rating r1 = efac.rating(100, 200, 3.5);
+        Rating r2 = efac.rating(100, 201, 4.0);
+        Rating r3 = efac.rating(101, 200, 2.0);
+        EntityCollection ec = EntityCollection.newBuilder(CommonTypes.RATING,
+                                                          AttributeSet.create(CommonAttributes.ENTITY_ID,
+                                                                              CommonAttributes.USER_ID,
+                                                                              CommonAttributes.ITEM_ID,
+                                                                              CommonAttributes.RATING))
+                                              .add(r1)
+                                              .add(r2)
+                                              .add(r3)
+                                              .addIndex(CommonAttributes.USER_ID)
+                                              .build();
+
+        List<Attribute<?>> none = ImmutableList.of();
+        List<Attribute<?>> user = ImmutableList.of(Attribute.create(CommonAttributes.USER_ID, 100L));
+        List<Attribute<?>> item = ImmutableList.of(Attribute.create(CommonAttributes.ITEM_ID, 200L));
+        List<Attribute<?>> both = ImmutableList.of(Attribute.create(CommonAttributes.ITEM_ID, 200L),
+                                                   Attribute.create(CommonAttributes.USER_ID, 101L));
+        List<Attribute<?>> byId = ImmutableList.of(Attribute.create(CommonAttributes.ENTITY_ID, r2.getId()));
+
+        assertThat(ec.count(none), equalTo(3));
+        assertThat(ec.count(user), equalTo(2));
+        assertThat(ec.count(item), equalTo(2));
+        assertThat(ec.count(both), equalTo(1));
+        assertThat(ec.count(byId), equalTo(1));
+
+        assertThat(ec.valueSet(CommonAttributes.ITEM_ID, none), containsInAnyOrder(200L, 201L));
+        assertThat(ec.valueSet(CommonAttributes.USER_ID, none), containsInAnyOrder(100L, 101L));
+        assertThat(ec.valueSet(CommonAttributes.ITEM_ID, user), containsInAnyOrder(200L, 201L));
+        assertThat(ec.valueSet(CommonAttributes.USER_ID, item), containsInAnyOrder(100L, 101L));
+        assertThat(ec.valueSet(CommonAttributes.USER_ID, both), contains(101L));
+        assertThat(ec.valueSet(CommonAttributes.ITEM_ID, byId), contains(201L));
+        assertThat(ec.valueSet(CommonAttributes.TIMESTAMP, none), hasSize(0));
+    }
 }
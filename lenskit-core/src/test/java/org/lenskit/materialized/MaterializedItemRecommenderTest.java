@@ -0,0 +1,190 @@
+/*
+ * LensKit, an open-source toolkit for recommender systems.
+ * Copyright 2014-2017 LensKit contributors (see CONTRIBUTORS.md)
+ * Copyright 2010-2014 Regents of the University of Minnesota
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining
+ * a copy of this software and associated documentation files (the
+ * "Software"), to deal in the Software without restriction, including
+ * without limitation the rights to use, copy, modify, merge, publish,
+ * distribute, sublicense, and/or sell copies of the Software, and to
+ * permit persons to whom the Software is furnished to do so, subject to
+ * the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be
+ * included in all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+ * EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF
+ * MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT.
+ * IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY
+ * CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT,
+ * TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION WITH THE
+ * SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ */
+package org.lenskit.materialized;
+
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableSet;
+import org.apache.commons.lang3.SerializationUtils;
+import org.junit.Before;
+import org.junit.Test;
+import org.lenskit.api.ItemRecommender;
+import org.lenskit.api.ResultList;
+import org.lenskit.basic.PopularItemRecommender;
+import org.lenskit.data.dao.DataAccessObject;
+import org.lenskit.data.dao.file.StaticDataSource;
+import org.lenskit.data.ratings.InteractionStatistics;
+import org.lenskit.data.ratings.Rating;
+import org.lenskit.data.ratings.RatingVectorPDAO;
+import org.lenskit.data.ratings.StandardRatingVectorPDAO;
+
+import java.io.IOException;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.*;
+
+import static org.hamcrest.Matchers.*;
+import static org.junit.Assert.assertThat;
+import static org.junit.Assert.fail;
+
+public class MaterializedItemRecommenderTest {
+    private List<Rating> ratings;
+    private ItemRecommender source;
+    private RatingVectorPDAO rvDAO;
+    private MaterializedRecommendations store;
+    private MaterializedItemRecommender recommender;
+
+    @Before
+    public void setUp() {
+        ratings = ImmutableList.of(Rating.create(42, 1, 3.5),
+                                   Rating.create(42, 2, 4.0),
+                                   Rating.create(39, 1, 2.5),
+                                   Rating.create(40, 1, 3.0),
+                                   Rating.create(40, 3, 4.5),
+                                   Rating.create(41, 2, 5.0));
+        DataAccessObject dao = StaticDataSource.fromList(ratings).get();
+        source = new PopularItemRecommender(InteractionStatistics.create(dao), dao);
+        rvDAO = new StandardRatingVectorPDAO(dao);
+        store = MaterializedRecommendations.materialize(source, rvDAO, 1);
+        recommender = new MaterializedItemRecommender(store, source, rvDAO);
+    }
+
+    @Test
+    public void testStore() {
+        assertThat(store.getListSize(), equalTo(1));
+        assertThat(store.getUsers(), contains(39L, 40L, 41L, 42L));
+        assertThat(store.getRecommendations(39).idList(), contains(2L));
+        assertThat(store.getRecommendations(41).idList(), contains(1L));
+        assertThat(store.getRecommendations(42).idList(), contains(3L));
+        assertThat(store.getRecommendations(17), nullValue());
+        assertThat(store.isCurrent(39, rvDAO.userRatingVector(39)), equalTo(true));
+    }
+
+    @Test
+    public void testServeFromStore() {
+        assertThat(recommender.recommend(39, 1), contains(2L));
+        assertThat(recommender.recommendWithDetails(40, 1, null, null).get(0).getScore(),
+                   equalTo(2.0));
+        assertThat(recommender.recommend(41, 1, ImmutableSet.of(1L, 3L), null), contains(1L));
+        assertThat(recommender.recommend(41, 1, null, ImmutableSet.of(2L, 5L)), contains(1L));
+    }
+
+    @Test
+    public void testFallBackToSource() {
+        // longer than the stored list
+        assertThat(recommender.recommend(39, 2), contains(2L, 3L));
+        assertThat(recommender.recommend(39), contains(2L, 3L));
+        // filters empty the stored list
+        assertThat(recommender.recommend(41, 1, ImmutableSet.of(3L), null), contains(3L));
+        // excludes do not cover the profile
+        assertThat(recommender.recommend(42, 1, null, ImmutableSet.of(3L)), contains(1L));
+        // unknown user
+        assertThat(recommender.recommend(17, 1), contains(1L));
+    }
+
+    @Test
+    public void testRefresh() throws IOException {
+        List<Rating> updated = new ArrayList<>(ratings);
+        updated.add(Rating.create(39, 2, 4.0));
+        updated.add(Rating.create(17, 2, 1.0));
+        DataAccessObject dao = StaticDataSource.fromList(updated).get();
+        RatingVectorPDAO newDAO = new StandardRatingVectorPDAO(dao);
+        ItemRecommender newSource = new PopularItemRecommender(InteractionStatistics.create(dao), dao);
+
+        // the old store is out of date for the changed user
+        assertThat(store.isCurrent(39, newDAO.userRatingVector(39)), equalTo(false));
+        MaterializedItemRecommender stale = new MaterializedItemRecommender(store, newSource, newDAO);
+        assertThat(stale.recommend(39, 1), contains(3L));
+
+        MaterializedRecommendations refreshed = store.refresh(newSource, newDAO);
+        assertThat(refreshed.getUsers(), contains(17L, 39L, 40L, 41L, 42L));
+        assertThat(refreshed.getRecommendations(39).idList(), contains(3L));
+        assertThat(refreshed.getRecommendations(17).idList(), contains(1L));
+        // unchanged users are copied
+        assertThat(refreshed.getRecommendations(42).idList(), contains(3L));
+        for (long user: refreshed.getUsers()) {
+            assertThat(refreshed.isCurrent(user, newDAO.userRatingVector(user)), equalTo(true));
+        }
+
+        // the replaced store can be released without affecting the new one
+        store.close();
+        assertThat(Files.exists(store.getFile()), equalTo(false));
+        assertThat(refreshed.getRecommendations(42).idList(), contains(3L));
+    }
+
+    @Test(expected = IllegalStateException.class)
+    public void testCloseDeletesFile() throws IOException {
+        Path file = store.getFile();
+        assertThat(Files.exists(file), equalTo(true));
+        store.close();
+        assertThat(Files.exists(file), equalTo(false));
+        // closing again is harmless
+        store.close();
+        store.getRecommendations(42);
+    }
+
+    @Test
+    public void testSerialize() {
+        MaterializedRecommendations copy = SerializationUtils.clone(store);
+        assertThat(copy.getListSize(), equalTo(1));
+        assertThat(copy.getUsers(), contains(39L, 40L, 41L, 42L));
+        for (long user: store.getUsers()) {
+            assertThat(copy.getRecommendations(user).idList(),
+                       equalTo(store.getRecommendations(user).idList()));
+            assertThat(copy.isCurrent(user, rvDAO.userRatingVector(user)), equalTo(true));
+        }
+    }
+
+    @Test
+    public void testFailedMaterializeDeletesFile() throws IOException {
+        DataAccessObject dao = StaticDataSource.fromList(ratings).get();
+        ItemRecommender failing = new PopularItemRecommender(InteractionStatistics.create(dao), dao) {
+            @Override
+            public Map<Long, ResultList> recommendBatchWithDetails(Collection<Long> users, int n) {
+                throw new UnsupportedOperationException("cannot recommend");
+            }
+        };
+        Set<Path> before = listRecFiles();
+        try {
+            MaterializedRecommendations.materialize(failing, rvDAO, 1);
+            fail("materializing with a failing recommender should fail");
+        } catch (UnsupportedOperationException e) {
+            /* expected */
+        }
+        assertThat(listRecFiles(), equalTo(before));
+    }
+
+    private static Set<Path> listRecFiles() throws IOException {
+        Path tmp = Paths.get(System.getProperty("java.io.tmpdir"));
+        Set<Path> files = new HashSet<>();
+        try (DirectoryStream<Path> stream = Files.newDirectoryStream(tmp, "lenskit-recs*.bin")) {
+            for (Path file: stream) {
+                files.add(file);
+            }
+        }
+        return files;
+    }
+}
@@ -26,6 +26,7 @@ package org.lenskit.results;
 
 import org.junit.Test;
 import org.lenskit.api.ResultList;
+import org.lenskit.api.ResultMap;
 
 import static org.hamcrest.Matchers.*;
 import static org.junit.Assert.*;
@@ -111,4 +112,26 @@ public class ResultAccumulatorTest {
         assertThat(Results.basicCopy(res.get(2)),
                    equalTo(Results.create(2, 2.0)));
     }
+
+    @Test
+    public void testLimitedMixedResults() {
+        ResultAccumulator acc = ResultAccumulator.create(2);
+        acc.add(1, 3.0);
+        acc.add(Results.rescore(Results.create(2, 1.0), 4.0));
+        acc.add(3, 5.0);
+        ResultList res = acc.finish();
+        assertThat(res.idList(), contains(3L, 2L));
+        assertThat(res.get(1), instanceOf(RescoredResult.class));
+    }
+
+    @Test
+    public void testLimitedFinishMap() {
+        ResultAccumulator acc = ResultAccumulator.create(2);
+        acc.add(1, 3.0);
+        acc.add(2, 2.0);
+        acc.add(3, 5.0);
+        ResultMap res = acc.finishMap();
+        assertThat(res.keySet(), containsInAnyOrder(1L, 3L));
+        assertThat(res.getScore(3), equalTo(5.0));
+    }
 }
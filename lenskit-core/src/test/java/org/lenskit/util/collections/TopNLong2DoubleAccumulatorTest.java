@@ -83,4 +83,67 @@ public class TopNLong2DoubleAccumulatorTest {
         LongList out = accum.finishList();
         assertThat(out, contains(2L, 5L, 3L));
     }
+
+    @Test
+    public void testDrainTo() {
+        TopNLong2DoubleAccumulator acc = new TopNLong2DoubleAccumulator(3);
+        acc.put(7, 1.0);
+        acc.put(5, 4.2);
+        acc.put(3, 2.9);
+        acc.put(2, 9.8);
+        acc.put(8, 2.1);
+        long[] items = new long[5];
+        double[] scores = new double[5];
+        assertThat(acc.drainTo(items, scores), equalTo(3));
+        assertThat(items[0], equalTo(2L));
+        assertThat(items[1], equalTo(5L));
+        assertThat(items[2], equalTo(3L));
+        assertThat(scores[0], equalTo(9.8));
+        assertThat(scores[2], equalTo(2.9));
+        assertTrue(acc.isEmpty());
+    }
+
+    @Test
+    public void testReuse() {
+        TopNLong2DoubleAccumulator acc = new TopNLong2DoubleAccumulator(2);
+        acc.put(1, 1.0);
+        acc.put(2, 2.0);
+        acc.put(3, 3.0);
+        assertThat(acc.finishList(), contains(3L, 2L));
+
+        acc.put(4, 0.5);
+        assertThat(acc.finishList(), contains(4L));
+
+        acc.reset(40);
+        for (int i = 0; i < 100; i++) {
+            acc.put(i, (i * 37) % 101);
+        }
+        LongList out = acc.finishList();
+        assertThat(out, hasSize(40));
+        for (int i = 1; i < out.size(); i++) {
+            assertThat((out.getLong(i - 1) * 37) % 101,
+                       greaterThan((out.getLong(i) * 37) % 101));
+        }
+    }
+
+    @Test
+    public void testForThread() {
+        TopNLong2DoubleAccumulator acc = TopNLong2DoubleAccumulator.forThread(2);
+        acc.put(1, 1.0);
+        acc.put(2, 2.0);
+        acc.put(3, 3.0);
+        assertThat(acc.finishList(), contains(3L, 2L));
+        TopNLong2DoubleAccumulator acc2 = TopNLong2DoubleAccumulator.forThread(5);
+        assertThat(acc2, sameInstance(acc));
+        assertThat(acc2.getTargetCount(), equalTo(5));
+        assertTrue(acc2.isEmpty());
+    }
+
+    @Test
+    public void testZeroSize() {
+        TopNLong2DoubleAccumulator acc = new TopNLong2DoubleAccumulator(0);
+        acc.put(1, 1.0);
+        assertTrue(acc.isEmpty());
+        assertThat(acc.finishMap().size(), equalTo(0));
+    }
 }
@@ -0,0 +1,148 @@
+/*
+ * LensKit, an open-source toolkit for recommender systems.
+ * Copyright 2014-2017 LensKit contributors (see CONTRIBUTORS.md)
+ * Copyright 2010-2014 Regents of the University of Minnesota
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining
+ * a copy of this software and associated documentation files (the
+ * "Software"), to deal in the Software without restriction, including
+ * without limitation the rights to use, copy, modify, merge, publish,
+ * distribute, sublicense, and/or sell copies of the Software, and to
+ * permit persons to whom the Software is furnished to do so, subject to
+ * the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be
+ * included in all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+ * EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF
+ * MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT.
+ * IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY
+ * CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT,
+ * TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION WITH THE
+ * SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ */
+package org.lenskit.util.keys;
+
+import org.junit.Test;
+
+import java.util.Random;
+
+import static org.hamcrest.Matchers.*;
+import static org.junit.Assert.*;
+
+public class EliasFanoSortedKeyIndexTest {
+    private static long[] randomKeys(Random rng, int n, long start, int maxGap) {
+        long[] keys = new long[n];
+        long k = start;
+        for (int i = 0; i < n; i++) {
+            k += 1 + rng.nextInt(maxGap);
+            keys[i] = k;
+        }
+        return keys;
+    }
+
+    private static void assertSameIndex(SortedKeyIndex expected, SortedKeyIndex actual, long[] probes) {
+        assertThat(actual.getLowerBound(), equalTo(expected.getLowerBound()));
+        assertThat(actual.getUpperBound(), equalTo(expected.getUpperBound()));
+        for (int i = expected.getLowerBound(); i < expected.getUpperBound(); i++) {
+            assertThat(actual.getKey(i), equalTo(expected.getKey(i)));
+        }
+        for (long k: probes) {
+            assertThat("index of " + k, actual.tryGetIndex(k), equalTo(expected.tryGetIndex(k)));
+            assertThat(actual.findLowerBound(k), equalTo(expected.findLowerBound(k)));
+            assertThat(actual.findUpperBound(k), equalTo(expected.findUpperBound(k)));
+        }
+    }
+
+    private static long[] probes(long[] keys) {
+        long[] probes = new long[keys.length * 3 + 4];
+        for (int i = 0; i < keys.length; i++) {
+            probes[3*i] = keys[i] - 1;
+            probes[3*i + 1] = keys[i];
+            probes[3*i + 2] = keys[i] + 1;
+        }
+        probes[keys.length * 3] = Long.MIN_VALUE;
+        probes[keys.length * 3 + 1] = Long.MAX_VALUE;
+        probes[keys.length * 3 + 2] = 0;
+        probes[keys.length * 3 + 3] = -1;
+        return probes;
+    }
+
+    @Test
+    public void testEmpty() {
+        EliasFanoSortedKeyIndex idx = EliasFanoSortedKeyIndex.encode(SortedKeyIndex.empty());
+        assertThat(idx, notNullValue());
+        assertThat(idx.size(), equalTo(0));
+        assertThat(idx.tryGetIndex(42), equalTo(-1));
+        assertThat(idx.keySet(), hasSize(0));
+    }
+
+    @Test
+    public void testSomeKeys() {
+        long[] keys = {-5, 3, 4, 10, 1000, 1001, 50000};
+        SortedKeyIndex plain = SortedKeyIndex.wrap(keys, keys.length);
+        EliasFanoSortedKeyIndex idx = EliasFanoSortedKeyIndex.encode(plain);
+        assertThat(idx, notNullValue());
+        assertSameIndex(plain, idx, probes(keys));
+        assertThat(idx.getKeyList(), contains(-5L, 3L, 4L, 10L, 1000L, 1001L, 50000L));
+    }
+
+    @Test
+    public void testRandomDense() {
+        Random rng = new Random(42);
+        long[] keys = randomKeys(rng, 5000, 100, 3);
+        SortedKeyIndex plain = SortedKeyIndex.wrap(keys, keys.length);
+        assertSameIndex(plain, EliasFanoSortedKeyIndex.encode(plain), probes(keys));
+    }
+
+    @Test
+    public void testRandomSparseLargeKeys() {
+        Random rng = new Random(42);
+        long[] keys = randomKeys(rng, 5000, 1L << 40, 1000000);
+        SortedKeyIndex plain = SortedKeyIndex.wrap(keys, keys.length);
+        assertSameIndex(plain, EliasFanoSortedKeyIndex.encode(plain), probes(keys));
+    }
+
+    @Test
+    public void testSubIndex() {
+        Random rng = new Random(42);
+        long[] keys = randomKeys(rng, 1000, 0, 20);
+        SortedKeyIndex plain = SortedKeyIndex.wrap(keys, keys.length);
+        EliasFanoSortedKeyIndex idx = EliasFanoSortedKeyIndex.encode(plain);
+        assertSameIndex(plain.subIndex(100, 700), idx.subIndex(100, 700), probes(keys));
+        // encoding a sub-index keeps its absolute indexes
+        assertSameIndex(plain.subIndex(300, 400),
+                        EliasFanoSortedKeyIndex.encode(plain.subIndex(300, 400)),
+                        probes(keys));
+    }
+
+    @Test
+    public void testCompress() {
+        Random rng = new Random(42);
+        long[] keys = randomKeys(rng, 10000, 0, 10);
+        SortedKeyIndex plain = SortedKeyIndex.wrap(keys, keys.length);
+        SortedKeyIndex compressed = SortedKeyIndex.compress(plain);
+        assertThat(compressed, instanceOf(EliasFanoSortedKeyIndex.class));
+        assertThat(compressed, equalTo(plain));
+        assertThat(compressed.hashCode(), equalTo(plain.hashCode()));
+        assertThat(SortedKeyIndex.compress(compressed), sameInstance(compressed));
+    }
+
+    @Test
+    public void testCompressTooSparse() {
+        SortedKeyIndex plain = SortedKeyIndex.create(Long.MIN_VALUE, 0, Long.MAX_VALUE);
+        assertThat(SortedKeyIndex.compress(plain), sameInstance(plain));
+    }
+
+    @Test
+    public void testIntern() {
+        SortedKeyIndex a = SortedKeyIndex.create(1, 5, 7, 42);
+        SortedKeyIndex b = SortedKeyIndex.create(1, 5, 7, 42);
+        assertThat(b, not(sameInstance(a)));
+        assertThat(b, equalTo(a));
+        assertThat(SortedKeyIndex.intern(b), sameInstance(SortedKeyIndex.intern(a)));
+        assertThat(SortedKeyIndex.intern(a.subIndex(1, 3)),
+                   not(sameInstance(SortedKeyIndex.intern(a))));
+    }
+}
@@ -0,0 +1,152 @@
+/*
+ * LensKit, an open-source toolkit for recommender systems.
+ * Copyright 2014-2017 LensKit contributors (see CONTRIBUTORS.md)
+ * Copyright 2010-2014 Regents of the University of Minnesota
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining
+ * a copy of this software and associated documentation files (the
+ * "Software"), to deal in the Software without restriction, including
+ * without limitation the rights to use, copy, modify, merge, publish,
+ * distribute, sublicense, and/or sell copies of the Software, and to
+ * permit persons to whom the Software is furnished to do so, subject to
+ * the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be
+ * included in all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+ * EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF
+ * MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT.
+ * IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY
+ * CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT,
+ * TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION WITH THE
+ * SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ */
+package org.lenskit.util.keys;
+
+import it.unimi.dsi.fastutil.longs.Long2DoubleMap;
+import it.unimi.dsi.fastutil.longs.Long2DoubleOpenHashMap;
+import it.unimi.dsi.fastutil.longs.LongOpenHashSet;
+import it.unimi.dsi.fastutil.longs.LongSet;
+import org.junit.Test;
+
+import java.util.Random;
+
+import static org.hamcrest.Matchers.closeTo;
+import static org.hamcrest.Matchers.equalTo;
+import static org.junit.Assert.assertThat;
+
+public class SortedIntersectionsTest {
+    private final Random rng = new Random();
+
+    private SortedKeyIndex randomIndex(int n, int range) {
+        LongSet keys = new LongOpenHashSet();
+        while (keys.size() < n) {
+            keys.add(rng.nextInt(range));
+        }
+        return SortedKeyIndex.fromCollection(keys);
+    }
+
+    private static int naiveCount(SortedKeyIndex a, SortedKeyIndex b) {
+        int n = 0;
+        for (int i = a.getLowerBound(); i < a.getUpperBound(); i++) {
+            if (b.containsKey(a.getKey(i))) {
+                n += 1;
+            }
+        }
+        return n;
+    }
+
+    private void checkIntersection(SortedKeyIndex a, SortedKeyIndex b) {
+        int expected = naiveCount(a, b);
+        assertThat(SortedIntersections.countCommon(a, b, -1), equalTo(expected));
+        assertThat(SortedIntersections.countCommon(b, a, -1), equalTo(expected));
+        if (expected > 0) {
+            assertThat(SortedIntersections.countCommon(a, b, 1), equalTo(1));
+        }
+
+        int[] pa = new int[Math.min(a.size(), b.size())];
+        int[] pb = new int[pa.length];
+        int n = SortedIntersections.findCommon(a, b, pa, pb);
+        assertThat(n, equalTo(expected));
+        for (int i = 0; i < n; i++) {
+            assertThat(a.getKey(a.getLowerBound() + pa[i]),
+                       equalTo(b.getKey(b.getLowerBound() + pb[i])));
+            if (i > 0) {
+                assertThat(pa[i] > pa[i-1], equalTo(true));
+            }
+        }
+
+        SortedIntersections.Cursor cur = SortedIntersections.cursor(a, b);
+        for (int pass = 0; pass < 2; pass++) {
+            int m = 0;
+            while (cur.next()) {
+                assertThat(cur.getPositionA(), equalTo(pa[m]));
+                assertThat(cur.getPositionB(), equalTo(pb[m]));
+                m += 1;
+            }
+            assertThat(m, equalTo(expected));
+            cur.reset();
+        }
+    }
+
+    @Test
+    public void testEmpty() {
+        SortedKeyIndex a = SortedKeyIndex.create();
+        SortedKeyIndex b = SortedKeyIndex.create(1, 2, 3);
+        assertThat(SortedIntersections.countCommon(a, b, -1), equalTo(0));
+        assertThat(SortedIntersections.countCommon(b, a, -1), equalTo(0));
+    }
+
+    @Test
+    public void testBalanced() {
+        for (int i = 0; i < 20; i++) {
+            checkIntersection(randomIndex(500, 2000), randomIndex(700, 2000));
+        }
+    }
+
+    @Test
+    public void testSkewed() {
+        for (int i = 0; i < 20; i++) {
+            checkIntersection(randomIndex(5, 20000), randomIndex(10000, 20000));
+        }
+    }
+
+    @Test
+    public void testSkewedEnds() {
+        // keys at the very beginning and end of the large index
+        SortedKeyIndex small = SortedKeyIndex.create(0, 5000, 9999, 20000);
+        SortedKeyIndex large = randomIndex(5000, 10000);
+        checkIntersection(small, large);
+    }
+
+    @Test
+    public void testSubIndex() {
+        SortedKeyIndex large = randomIndex(5000, 10000);
+        SortedKeyIndex sub = large.subIndex(large.getLowerBound() + 1000, large.getLowerBound() + 3000);
+        checkIntersection(randomIndex(20, 10000), sub);
+        checkIntersection(randomIndex(1000, 10000), sub);
+    }
+
+    @Test
+    public void testDotProduct() {
+        for (int size: new int[]{5, 500, 5000}) {
+            Long2DoubleMap m1 = new Long2DoubleOpenHashMap();
+            Long2DoubleMap m2 = new Long2DoubleOpenHashMap();
+            for (int i = 0; i < size; i++) {
+                m1.put(rng.nextInt(10000), rng.nextGaussian());
+            }
+            for (int i = 0; i < 5000; i++) {
+                m2.put(rng.nextInt(10000), rng.nextGaussian());
+            }
+            double expected = 0;
+            for (Long2DoubleMap.Entry e: m1.long2DoubleEntrySet()) {
+                expected += e.getDoubleValue() * m2.get(e.getLongKey());
+            }
+            Long2DoubleSortedArrayMap v1 = Long2DoubleSortedArrayMap.create(m1);
+            Long2DoubleSortedArrayMap v2 = Long2DoubleSortedArrayMap.create(m2);
+            assertThat(SortedIntersections.dotProduct(v1, v2), closeTo(expected, 1.0e-6));
+            assertThat(SortedIntersections.dotProduct(v2, v1), closeTo(expected, 1.0e-6));
+        }
+    }
+}
@@ -0,0 +1,106 @@
+/*
+ * LensKit, an open-source toolkit for recommender systems.
+ * Copyright 2014-2017 LensKit contributors (see CONTRIBUTORS.md)
+ * Copyright 2010-2014 Regents of the University of Minnesota
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining
+ * a copy of this software and associated documentation files (the
+ * "Software"), to deal in the Software without restriction, including
+ * without limitation the rights to use, copy, modify, merge, publish,
+ * distribute, sublicense, and/or sell copies of the Software, and to
+ * permit persons to whom the Software is furnished to do so, subject to
+ * the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be
+ * included in all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+ * EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF
+ * MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT.
+ * IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY
+ * CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT,
+ * TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION WITH THE
+ * SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ */
+package org.lenskit.util.math;
+
+import it.unimi.dsi.fastutil.longs.Long2DoubleMap;
+import it.unimi.dsi.fastutil.longs.Long2DoubleOpenHashMap;
+import org.junit.Test;
+import org.lenskit.util.keys.Long2DoubleSortedArrayMap;
+
+import java.util.Random;
+
+import static org.hamcrest.Matchers.*;
+import static org.junit.Assert.assertThat;
+
+public class CommonValueCursorTest {
+    private final Random rng = new Random();
+
+    private Long2DoubleMap randomMap(int n, int range) {
+        Long2DoubleMap map = new Long2DoubleOpenHashMap();
+        while (map.size() < n) {
+            map.put(rng.nextInt(range), rng.nextGaussian());
+        }
+        return map;
+    }
+
+    /**
+     * Check a cursor against the sum of products of the common values.
+     */
+    private void checkCursor(Long2DoubleMap v1, Long2DoubleMap v2) {
+        int expectedCount = 0;
+        double expectedSum = 0;
+        for (Long2DoubleMap.Entry e: v1.long2DoubleEntrySet()) {
+            if (v2.containsKey(e.getLongKey())) {
+                expectedCount += 1;
+                expectedSum += e.getDoubleValue() * (1 + v2.get(e.getLongKey()));
+            }
+        }
+
+        CommonValueCursor cur = CommonValueCursor.create(v1, v2);
+        for (int pass = 0; pass < 2; pass++) {
+            int count = 0;
+            double sum = 0;
+            while (cur.next()) {
+                count += 1;
+                sum += cur.getLeftValue() * (1 + cur.getRightValue());
+            }
+            assertThat(count, equalTo(expectedCount));
+            assertThat(sum, closeTo(expectedSum, 1.0e-6));
+            cur.reset();
+        }
+    }
+
+    @Test
+    public void testEmpty() {
+        CommonValueCursor cur = CommonValueCursor.create(new Long2DoubleOpenHashMap(), randomMap(10, 100));
+        assertThat(cur.next(), equalTo(false));
+    }
+
+    @Test
+    public void testHashMaps() {
+        for (int i = 0; i < 10; i++) {
+            checkCursor(randomMap(50, 200), randomMap(100, 200));
+            checkCursor(randomMap(100, 200), randomMap(50, 200));
+        }
+    }
+
+    @Test
+    public void testSortedMaps() {
+        for (int i = 0; i < 10; i++) {
+            Long2DoubleMap small = Long2DoubleSortedArrayMap.create(randomMap(20, 5000));
+            Long2DoubleMap large = Long2DoubleSortedArrayMap.create(randomMap(2000, 5000));
+            checkCursor(small, large);
+            checkCursor(large, small);
+        }
+    }
+
+    @Test
+    public void testMixedMaps() {
+        Long2DoubleMap sorted = Long2DoubleSortedArrayMap.create(randomMap(100, 300));
+        Long2DoubleMap hashed = randomMap(100, 300);
+        checkCursor(sorted, hashed);
+        checkCursor(hashed, sorted);
+    }
+}
@@ -0,0 +1,174 @@
+/*
+ * LensKit, an open-source toolkit for recommender systems.
+ * Copyright 2014-2017 LensKit contributors (see CONTRIBUTORS.md)
+ * Copyright 2010-2014 Regents of the University of Minnesota
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining
+ * a copy of this software and associated documentation files (the
+ * "Software"), to deal in the Software without restriction, including
+ * without limitation the rights to use, copy, modify, merge, publish,
+ * distribute, sublicense, and/or sell copies of the Software, and to
+ * permit persons to whom the Software is furnished to do so, subject to
+ * the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be
+ * included in all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+ * EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF
+ * MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT.
+ * IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY
+ * CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT,
+ * TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION WITH THE
+ * SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ */
+package org.lenskit.eval.traintest;
+
+import java.io.DataInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.util.ArrayDeque;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.Executor;
+import java.util.zip.DataFormatException;
+import java.util.zip.Inflater;
+
+/**
+ * Input stream that reads data written by {@link BlockCompressedOutputStream}, decompressing upcoming blocks in
+ * parallel ahead of the reader.
+ */
+class BlockCompressedInputStream extends InputStream {
+    private final DataInputStream input;
+    private final Executor executor;
+    private final int readAhead;
+    private final ArrayDeque<CompletableFuture<byte[]>> pending = new ArrayDeque<>();
+    private boolean inputDone;
+    private byte[] block;
+    private int position;
+
+    /**
+     * Create a new block-compressed input stream.
+     * @param in The underlying input stream.
+     * @param exec The executor to decompress blocks with.
+     * @throws IOException if there is an error reading the stream header.
+     */
+    BlockCompressedInputStream(InputStream in, Executor exec) throws IOException {
+        input = new DataInputStream(in);
+        executor = exec;
+        readAhead = Runtime.getRuntime().availableProcessors();
+        int magic = input.readInt();
+        if (magic != BlockCompressedOutputStream.MAGIC) {
+            throw new IOException("invalid block-compressed stream header");
+        }
+    }
+
+    /**
+     * Read block headers and data from the underlying stream, queueing them for decompression.
+     */
+    private void fill() throws IOException {
+        while (!inputDone && pending.size() < readAhead) {
+            final int rawLength = input.readInt();
+            if (rawLength == 0) {
+                inputDone = true;
+                return;
+            }
+            final int storedLength = input.readInt();
+            if (rawLength < 0 || rawLength > BlockCompressedOutputStream.BLOCK_SIZE
+                    || storedLength < 0 || storedLength > rawLength) {
+                throw new IOException("invalid block header");
+            }
+            final byte[] stored = new byte[storedLength];
+            input.readFully(stored);
+            if (storedLength == rawLength) {
+                pending.addLast(CompletableFuture.completedFuture(stored));
+            } else {
+                pending.addLast(CompletableFuture.supplyAsync(() -> inflate(stored, rawLength), executor));
+            }
+        }
+    }
+
+    private static byte[] inflate(byte[] stored, int rawLength) {
+        Inflater inflater = new Inflater(true);
+        try {
+            inflater.setInput(stored);
+            byte[] out = new byte[rawLength];
+            int n = 0;
+            while (n < rawLength) {
+                int k = inflater.inflate(out, n, rawLength - n);
+                if (k == 0 && (inflater.finished() || inflater.needsInput() || inflater.needsDictionary())) {
+                    throw new CompletionException(new IOException("truncated compressed block"));
+                }
+                n += k;
+            }
+            return out;
+        } catch (DataFormatException e) {
+            throw new CompletionException(new IOException("corrupt compressed block", e));
+        } finally {
+            inflater.end();
+        }
+    }
+
+    /**
+     * Make sure there is a current block with unread data.
+     * @return {@code false} if the end of the stream has been reached.
+     */
+    private boolean ensureBlock() throws IOException {
+        while (block == null || position >= block.length) {
+            fill();
+            if (pending.isEmpty()) {
+                return false;
+            }
+            try {
+                block = pending.removeFirst().join();
+            } catch (CompletionException e) {
+                Throwable cause = e.getCause();
+                if (cause instanceof IOException) {
+                    throw (IOException) cause;
+                } else if (cause instanceof InterruptedException) {
+                    throw new InterruptedIOException("block decompression interrupted");
+                }
+                throw new IOException("error decompressing block", cause);
+            }
+            position = 0;
+            // start decompressing the next blocks while this one is consumed
+            fill();
+        }
+        return true;
+    }
+
+    @Override
+    public int read() throws IOException {
+        if (!ensureBlock()) {
+            return -1;
+        }
+        return block[position++] & 0xFF;
+    }
+
+    @Override
+    public int read(byte[] b, int off, int len) throws IOException {
+        if (len == 0) {
+            return 0;
+        }
+        if (!ensureBlock()) {
+            return -1;
+        }
+        int n = Math.min(len, block.length - position);
+        System.arraycopy(block, position, b, off, n);
+        position += n;
+        return n;
+    }
+
+    @Override
+    public int available() {
+        return block == null ? 0 : block.length - position;
+    }
+
+    @Override
+    public void close() throws IOException {
+        block = null;
+        pending.clear();
+        input.close();
+    }
+}
@@ -0,0 +1,190 @@
+/*
+ * LensKit, an open-source toolkit for recommender systems.
+ * Copyright 2014-2017 LensKit contributors (see CONTRIBUTORS.md)
+ * Copyright 2010-2014 Regents of the University of Minnesota
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining
+ * a copy of this software and associated documentation files (the
+ * "Software"), to deal in the Software without restriction, including
+ * without limitation the rights to use, copy, modify, merge, publish,
+ * distribute, sublicense, and/or sell copies of the Software, and to
+ * permit persons to whom the Software is furnished to do so, subject to
+ * the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be
+ * included in all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+ * EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF
+ * MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT.
+ * IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY
+ * CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT,
+ * TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION WITH THE
+ * SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ */
+package org.lenskit.eval.traintest;
+
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.io.OutputStream;
+import java.util.ArrayDeque;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.Executor;
+import java.util.zip.Deflater;
+
+/**
+ * Output stream that compresses its data in independent blocks, in parallel.  The stream starts with a
+ * {@linkplain #MAGIC magic number}; each block is then written as its uncompressed length, its stored length, and the
+ * stored bytes (raw Deflate data, or the uncompressed bytes if the stored length equals the uncompressed length).
+ * A zero length marks the end of the stream.
+ *
+ * @see BlockCompressedInputStream
+ */
+class BlockCompressedOutputStream extends OutputStream {
+    static final int MAGIC = 0x4C4B4231; // "LKB1"
+    static final int BLOCK_SIZE = 1 << 20;
+
+    private final DataOutputStream output;
+    private final Executor executor;
+    private final int maxPending;
+    private final ArrayDeque<CompletableFuture<Block>> pending = new ArrayDeque<>();
+    private byte[] buffer = new byte[BLOCK_SIZE];
+    private int count;
+    private boolean closed;
+
+    /**
+     * Create a new block-compressed output stream.
+     * @param out The underlying output stream.
+     * @param exec The executor to compress blocks with.
+     */
+    BlockCompressedOutputStream(OutputStream out, Executor exec) throws IOException {
+        output = new DataOutputStream(out);
+        executor = exec;
+        maxPending = Runtime.getRuntime().availableProcessors() * 2;
+        output.writeInt(MAGIC);
+    }
+
+    @Override
+    public void write(int b) throws IOException {
+        if (count == BLOCK_SIZE) {
+            submitBlock();
+        }
+        buffer[count++] = (byte) b;
+    }
+
+    @Override
+    public void write(byte[] b, int off, int len) throws IOException {
+        while (len > 0) {
+            if (count == BLOCK_SIZE) {
+                submitBlock();
+            }
+            int n = Math.min(len, BLOCK_SIZE - count);
+            System.arraycopy(b, off, buffer, count, n);
+            count += n;
+            off += n;
+            len -= n;
+        }
+    }
+
+    /**
+     * Queue the current buffer for compression, writing finished blocks if too many are pending.
+     */
+    private void submitBlock() throws IOException {
+        if (count == 0) {
+            return;
+        }
+        final byte[] data = buffer;
+        final int length = count;
+        pending.addLast(CompletableFuture.supplyAsync(() -> Block.compress(data, length), executor));
+        buffer = new byte[BLOCK_SIZE];
+        count = 0;
+        while (pending.size() > maxPending) {
+            writeBlock(pending.removeFirst());
+        }
+    }
+
+    private void writeBlock(CompletableFuture<Block> future) throws IOException {
+        Block block;
+        try {
+            block = future.join();
+        } catch (CompletionException e) {
+            Throwable cause = e.getCause();
+            if (cause instanceof InterruptedException) {
+                throw new InterruptedIOException("block compression interrupted");
+            }
+            throw new IOException("error compressing block", cause);
+        }
+        output.writeInt(block.rawLength);
+        output.writeInt(block.storedLength);
+        output.write(block.data, 0, block.storedLength);
+    }
+
+    /**
+     * Flush the stream.  The buffered data is written as a (possibly short) block, and the stream waits for every
+     * pending block to be compressed and written before flushing the underlying stream, so everything written so
+     * far can be read back.
+     */
+    @Override
+    public void flush() throws IOException {
+        submitBlock();
+        while (!pending.isEmpty()) {
+            writeBlock(pending.removeFirst());
+        }
+        output.flush();
+    }
+
+    @Override
+    public void close() throws IOException {
+        if (closed) {
+            return;
+        }
+        closed = true;
+        try {
+            submitBlock();
+            while (!pending.isEmpty()) {
+                writeBlock(pending.removeFirst());
+            }
+            output.writeInt(0);
+        } finally {
+            output.close();
+        }
+    }
+
+    /**
+     * A compressed block.
+     */
+    private static class Block {
+        final int rawLength;
+        final int storedLength;
+        final byte[] data;
+
+        Block(int raw, byte[] bytes, int stored) {
+            rawLength = raw;
+            data = bytes;
+            storedLength = stored;
+        }
+
+        static Block compress(byte[] data, int length) {
+            Deflater deflater = new Deflater(Deflater.BEST_SPEED, true);
+            try {
+                deflater.setInput(data, 0, length);
+                deflater.finish();
+                byte[] out = new byte[length];
+                int n = 0;
+                while (!deflater.finished() && n < length) {
+                    n += deflater.deflate(out, n, length - n);
+                }
+                if (deflater.finished() && n < length) {
+                    return new Block(length, out, n);
+                } else {
+                    // incompressible block, store it as-is
+                    return new Block(length, data, length);
+                }
+            } finally {
+                deflater.end();
+            }
+        }
+    }
+}
@@ -0,0 +1,137 @@
+/*
+ * LensKit, an open-source toolkit for recommender systems.
+ * Copyright 2014-2017 LensKit contributors (see CONTRIBUTORS.md)
+ * Copyright 2010-2014 Regents of the University of Minnesota
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining
+ * a copy of this software and associated documentation files (the
+ * "Software"), to deal in the Software without restriction, including
+ * without limitation the rights to use, copy, modify, merge, publish,
+ * distribute, sublicense, and/or sell copies of the Software, and to
+ * permit persons to whom the Software is furnished to do so, subject to
+ * the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be
+ * included in all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+ * EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF
+ * MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT.
+ * IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY
+ * CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT,
+ * TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION WITH THE
+ * SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ */
+package org.lenskit.eval.traintest;
+
+import java.io.*;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.Locale;
+import java.util.concurrent.ForkJoinPool;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.GZIPOutputStream;
+
+/**
+ * On-disk formats for the component cache.  Components are always stored with Java serialization; the format
+ * controls how the serialized bytes are compressed and read back.
+ *
+ * @since 3.0
+ * @see TrainTestExperiment#setCacheFormat(CacheFormat)
+ */
+public enum CacheFormat {
+    /**
+     * GZip-compressed files.  This is the most compact format, but compression and decompression are single-threaded
+     * and can make large models slower to reload than to rebuild.
+     */
+    GZIP(".dat.gz") {
+        @Override
+        OutputStream wrapOutput(OutputStream out) throws IOException {
+            return new GZIPOutputStream(out, BUFFER_SIZE);
+        }
+
+        @Override
+        InputStream openInput(Path file) throws IOException {
+            return new GZIPInputStream(Files.newInputStream(file, StandardOpenOption.READ), BUFFER_SIZE);
+        }
+    },
+
+    /**
+     * Uncompressed files, read through memory mapping.  This is the fastest format to reload, particularly for
+     * models made up of large arrays, at the cost of disk space.
+     */
+    RAW(".dat") {
+        @Override
+        OutputStream wrapOutput(OutputStream out) throws IOException {
+            return new BufferedOutputStream(out, BUFFER_SIZE);
+        }
+
+        @Override
+        InputStream openInput(Path file) throws IOException {
+            return new MappedFileInputStream(file);
+        }
+    },
+
+    /**
+     * Files compressed in independent blocks with fast Deflate compression.  Blocks are compressed and decompressed
+     * in parallel, and blocks that do not compress (such as dense floating-point data) are stored as-is.
+     */
+    BLOCK(".dat.blk") {
+        @Override
+        OutputStream wrapOutput(OutputStream out) throws IOException {
+            return new BlockCompressedOutputStream(out, ForkJoinPool.commonPool());
+        }
+
+        @Override
+        InputStream openInput(Path file) throws IOException {
+            return new BlockCompressedInputStream(new MappedFileInputStream(file), ForkJoinPool.commonPool());
+        }
+    };
+
+    private static final int BUFFER_SIZE = 64 * 1024;
+
+    private final String extension;
+
+    CacheFormat(String ext) {
+        extension = ext;
+    }
+
+    /**
+     * Get the file name extension used by this format.
+     * @return The extension (including the leading `.`).
+     */
+    public String getExtension() {
+        return extension;
+    }
+
+    /**
+     * Wrap an output stream to write data in this format.
+     * @param out The output stream, which will be closed when the returned stream is closed.
+     * @return The wrapping stream.
+     * @throws IOException if there is an error setting up the stream.
+     */
+    abstract OutputStream wrapOutput(OutputStream out) throws IOException;
+
+    /**
+     * Open a file in this format for reading.
+     * @param file The file to read.
+     * @return An input stream of the (uncompressed) file contents.
+     * @throws IOException if there is an error opening the file.
+     */
+    abstract InputStream openInput(Path file) throws IOException;
+
+    /**
+     * Look up a format by name.
+     * @param name The format name (case-insensitive).
+     * @return The format.
+     * @throws IllegalArgumentException if the name is not a valid format.
+     */
+    public static CacheFormat fromString(String name) {
+        try {
+            return valueOf(name.trim().toUpperCase(Locale.ROOT));
+        } catch (IllegalArgumentException e) {
+            throw new IllegalArgumentException("invalid cache format " + name, e);
+        }
+    }
+}
@@ -25,7 +25,9 @@
 package org.lenskit.eval.traintest;
 
 import com.google.common.base.Optional;
+import com.google.common.collect.MapMaker;
 import com.google.common.util.concurrent.Monitor;
+import net.jcip.annotations.GuardedBy;
 import net.jcip.annotations.ThreadSafe;
 import org.grouplens.grapht.Component;
 import org.grouplens.grapht.Dependency;
@@ -36,9 +38,11 @@ import org.grouplens.grapht.graph.DAGNodeBuilder;
 import org.grouplens.grapht.reflect.Satisfaction;
 import org.grouplens.grapht.reflect.SatisfactionVisitor;
 import org.grouplens.grapht.reflect.Satisfactions;
+import org.grouplens.grapht.reflect.internal.InstanceSatisfaction;
 import org.lenskit.inject.GraphtUtils;
 import org.lenskit.inject.NodeInstantiator;
 import org.lenskit.inject.NodeProcessor;
+import org.lenskit.util.ObjectSizeEstimator;
 import org.lenskit.util.describe.*;
 import org.lenskit.util.io.CustomClassLoaderObjectInputStream;
 import org.lenskit.util.io.StagedWrite;
@@ -50,27 +54,32 @@ import javax.annotation.Nonnull;
 import javax.annotation.Nullable;
 import javax.inject.Provider;
 import java.io.*;
-import java.lang.ref.SoftReference;
 import java.nio.channels.ClosedByInterruptException;
 import java.nio.file.Files;
 import java.nio.file.Path;
-import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashSet;
 import java.util.List;
+import java.util.Set;
 import java.util.concurrent.ConcurrentHashMap;
 import java.util.stream.Collectors;
-import java.util.zip.GZIPInputStream;
-import java.util.zip.GZIPOutputStream;
 
 /**
  * Shared cache for components in merged compilations.  This cache implements two kinds of caching for shareable nodes:
  *
- * -   Soft references to allow instances to be opportunistically reused between invocations
- * -   Optional disk-based caching to allow shareable components to be shared between all uses, even if their soft
- *     references might be flushed out of memory, as well as reused by subsequent evaluator invocations.
+ * -   A memory cache with a fixed budget, so instances can be reused between invocations.  Each instance's retained
+ *     size is estimated when it enters the cache; when the budget is exceeded, entries are evicted by the
+ *     GreedyDual-Size policy, which favors keeping recently-used components that are expensive to rebuild relative
+ *     to their size.
+ * -   Optional disk-based caching to allow shareable components to be shared between all uses, even after they
+ *     have been evicted from memory, as well as reused by subsequent evaluator invocations.  Components are written
+ *     to disk when they are built, so evicted entries are reloaded from disk rather than rebuilt.
  */
 @ThreadSafe
 class ComponentCache implements NodeProcessor {
     private static final Logger logger = LoggerFactory.getLogger(ComponentCache.class);
+    private static final long MAX_SIZE_OBJECTS = 50000000;
 
     @Nullable
     private final Path cacheDir;
@@ -85,24 +94,123 @@ class ComponentCache implements NodeProcessor {
      */
     private final ConcurrentHashMap<DAGNode<Component,Dependency>,CacheEntry> cache;
 
+    private final CacheFormat format;
+    private final long memoryBudget;
+    private final Object budgetLock = new Object();
     /**
-     * Construct a new component cache.
+     * Entries currently held in memory, in order of last use.
+     */
+    @GuardedBy("budgetLock")
+    private final LinkedHashSet<CacheEntry> resident = new LinkedHashSet<>();
+    @GuardedBy("budgetLock")
+    private long memoryUsed;
+    /**
+     * The GreedyDual-Size inflation value: the priority of the most recently evicted entry.
+     */
+    @GuardedBy("budgetLock")
+    private double inflation;
+    /**
+     * Instances already charged to a job's memory estimate.  Weak, so measuring does not keep released components.
+     */
+    private final Set<Object> measured = Collections.newSetFromMap(new MapMaker().weakKeys().makeMap());
+
+    /**
+     * Construct a new component cache with the default memory budget.
      *
      * @param dir The cache directory (or {@code null} to disable disk-based caching).
      * @param loader The class loader to be used when loading components from disk (or {@code null} if not needed).
+     * @see #defaultMemoryBudget()
      */
     public ComponentCache(@Nullable Path dir, @Nullable ClassLoader loader) {
+        this(dir, loader, defaultMemoryBudget(), CacheFormat.GZIP);
+    }
+
+    /**
+     * Construct a new component cache.
+     *
+     * @param dir The cache directory (or {@code null} to disable disk-based caching).
+     * @param loader The class loader to be used when loading components from disk (or {@code null} if not needed).
+     * @param budget The number of bytes of components to keep in memory.
+     * @param fmt The format for writing components to disk.
+     */
+    public ComponentCache(@Nullable Path dir, @Nullable ClassLoader loader, long budget, CacheFormat fmt) {
         cacheDir = dir;
         classLoader = loader;
+        memoryBudget = budget;
+        format = fmt;
         instantiator = NodeInstantiator.create();
         cache = new ConcurrentHashMap<>();
     }
 
+    /**
+     * Get the default memory budget, half of the maximum heap size.
+     * @return The default memory budget, in bytes.
+     */
+    static long defaultMemoryBudget() {
+        return Runtime.getRuntime().maxMemory() / 2;
+    }
+
     @Nullable
     public Path getCacheDir() {
         return cacheDir;
     }
 
+    /**
+     * Get the format used to write components to disk.
+     * @return The cache format.
+     */
+    public CacheFormat getFormat() {
+        return format;
+    }
+
+    /**
+     * Get the memory budget.
+     * @return The number of bytes of components the cache will keep in memory.
+     */
+    public long getMemoryBudget() {
+        return memoryBudget;
+    }
+
+    /**
+     * Get the memory currently used by cached components.
+     * @return The estimated size, in bytes, of the components currently held in memory.
+     */
+    public long getMemoryUsed() {
+        synchronized (budgetLock) {
+            return memoryUsed;
+        }
+    }
+
+    /**
+     * Release a node that no remaining job needs.  Its instance is dropped from memory (it stays on disk, if disk
+     * caching is enabled), freeing budget for other components.
+     *
+     * @param node The node, as passed to {@link #processNode(DAGNode, DAGNode)} as the original node.
+     */
+    void release(DAGNode<Component, Dependency> node) {
+        CacheEntry entry = cache.remove(node);
+        if (entry != null) {
+            synchronized (budgetLock) {
+                if (resident.remove(entry)) {
+                    memoryUsed -= entry.size;
+                    logger.debug("released {} ({} bytes) from memory", entry.key, entry.size);
+                }
+                entry.cachedObject = null;
+            }
+        }
+    }
+
+    /**
+     * Claim a shared instance for a job's memory estimate.  A cached component is shared by all the jobs on its data
+     * set, so only the first job to measure it is charged for it.
+     *
+     * @param obj The component instance.
+     * @return `true` if this is the first claim on the instance, so the caller should count it.
+     */
+    boolean claimMeasurement(Object obj) {
+        return measured.add(obj);
+    }
+
     Object instantiate(@Nonnull DAGNode<Component, Dependency> node) throws InjectionException {
         DAGNode<Component,Dependency> n2 = processNode(node, node);
         return instantiator.instantiate(n2);
@@ -164,15 +272,42 @@ class ComponentCache implements NodeProcessor {
         return bld.build();
     }
 
+    /**
+     * Estimate the memory retained by a component.  Instances the node depends on (the data access object and other
+     * cached components) are excluded, since they are shared with other components.
+     *
+     * @param obj The component instance.
+     * @param node The node it was created from.
+     * @return The estimated size, in bytes.
+     */
+    private static long estimateSize(Object obj, DAGNode<Component, Dependency> node) {
+        List<Object> bounds = new ArrayList<>();
+        for (DAGNode<Component, Dependency> dep: node.getReachableNodes()) {
+            Satisfaction sat = dep.getLabel().getSatisfaction();
+            if (dep != node && sat instanceof InstanceSatisfaction) {
+                bounds.add(((InstanceSatisfaction) sat).getInstance());
+            }
+        }
+        return ObjectSizeEstimator.create(bounds, MAX_SIZE_OBJECTS).estimateSize(obj);
+    }
+
     /**
      * Class with the cache entry logic.
      */
     private class CacheEntry {
         private final String key;
         private final Monitor monitor = new Monitor();
-        // reference *inside* optional so we don't GC the optional while keeping the object
-        // this is null for uncached, empty for cached null
-        private Optional<SoftReference<Object>> cachedObject;
+        // this is null for objects not in memory, empty for cached null
+        private volatile Optional<Object> cachedObject;
+        @GuardedBy("budgetLock")
+        private long size;
+        /**
+         * The time (in nanoseconds) it took to obtain the object, by building it or reading it from disk.
+         */
+        @GuardedBy("budgetLock")
+        private long cost;
+        @GuardedBy("budgetLock")
+        private double priority;
 
         /**
          * Createa a cache entry.
@@ -183,11 +318,11 @@ class ComponentCache implements NodeProcessor {
         }
 
         @Nullable
-        private Path getCacheFile() {
+        private Path getCacheFile(CacheFormat fmt) {
             if (cacheDir == null) {
                 return null;
             } else {
-                return cacheDir.resolve(key + ".dat.gz");
+                return cacheDir.resolve(key + fmt.getExtension());
             }
         }
 
@@ -202,39 +337,85 @@ class ComponentCache implements NodeProcessor {
         public Object getObject(DAGNode<Component, Dependency> node) throws IOException, InjectionException, InterruptedException {
             Blockers.enterMonitor(monitor);
             try {
-                // check soft-reference cache
-                Optional<Object> cached = getMemoryCachedObject();
+                // check memory cache
+                Optional<Object> cached = cachedObject;
                 if (cached != null) {
                     logger.debug("reusing {} from memory", cached);
+                    touch();
                     return cached.orNull();
                 }
 
-                // Either we have not cached the object, or the cache has left memory
-                Path cacheFile = getCacheFile();
-                cached = getDiskCachedObject(cacheFile, node);
+                // Either we have not cached the object, or it has been evicted from memory
+                long start = System.nanoTime();
+                cached = getDiskCachedObject(node);
                 if (cached != null) {
+                    admit(cached.orNull(), node, System.nanoTime() - start);
                     return cached.orNull();
                 }
 
                 // No object from the serialization stream, let's try to make one
                 logger.debug("instantiating object for {}", node.getLabel().getSatisfaction());
                 Object result = instantiator.instantiate(node);
-                if (result == null) {
-                    // cache the result
-                    cachedObject = Optional.absent();
-                } else {
-                    cachedObject = Optional.of(new SoftReference<>(result));
-                }
+                long elapsed = System.nanoTime() - start;
 
                 // now save it to disk, if possible and non-null
-                writeDiskCache(result, cacheFile, node);
+                writeDiskCache(result, getCacheFile(format), node);
 
+                admit(result, node, elapsed);
                 return result;
             } finally {
                 monitor.leave();
             }
         }
 
+        /**
+         * Mark this entry as recently used.
+         */
+        private void touch() {
+            synchronized (budgetLock) {
+                if (resident.remove(this)) {
+                    priority = inflation + (double) cost / Math.max(size, 1);
+                    resident.add(this);
+                }
+            }
+        }
+
+        /**
+         * Put an object in the memory cache, evicting other entries as needed to stay within the budget.
+         * @param obj The object.
+         * @param node The node it was obtained for.
+         * @param nanos The time it took to obtain the object.
+         */
+        private void admit(Object obj, DAGNode<Component, Dependency> node, long nanos) {
+            if (obj == null) {
+                // cached nulls take no space
+                cachedObject = Optional.absent();
+                return;
+            }
+
+            long sz = estimateSize(obj, node);
+            synchronized (budgetLock) {
+                if (resident.remove(this)) {
+                    memoryUsed -= size;
+                }
+                size = sz;
+                cost = nanos;
+                if (sz > memoryBudget) {
+                    logger.info("{} ({} bytes) exceeds cache memory budget, not keeping in memory", obj, sz);
+                    cachedObject = null;
+                    return;
+                }
+                while (memoryUsed + sz > memoryBudget) {
+                    evictOne();
+                }
+                priority = inflation + (double) cost / Math.max(size, 1);
+                resident.add(this);
+                memoryUsed += sz;
+                cachedObject = Optional.of(obj);
+                logger.debug("cached {} ({} bytes), using {} of {} bytes",
+                             obj, sz, memoryUsed, memoryBudget);
+            }
+        }
 
         /**
          * Get the cached object.
@@ -243,33 +424,26 @@ class ComponentCache implements NodeProcessor {
          * indicates a cached null.
          */
         @Nullable
-        private Optional<Object> getMemoryCachedObject() {
-            Optional<Object> result = null;
-            if (cachedObject != null) {
-                if (cachedObject.isPresent()) {
-                    Object obj = cachedObject.get().get();
-                    if (obj != null) {
-                        result = Optional.of(obj);
-                    }
-                } else {
-                    result = Optional.absent();
+        private Optional<Object> getDiskCachedObject(DAGNode<Component,Dependency> node) {
+            // prefer the configured format, but use files written in other formats if they are there
+            List<CacheFormat> formats = new ArrayList<>();
+            formats.add(format);
+            for (CacheFormat fmt: CacheFormat.values()) {
+                if (fmt != format) {
+                    formats.add(fmt);
                 }
             }
-
-            return result;
-        }
-
-        @Nullable
-        private Optional<Object> getDiskCachedObject(Path file, DAGNode<Component,Dependency> node) {
-            if (file != null && Files.exists(file)) {
-                logger.debug("reading object for {} from cache (key {})",
-                             node.getLabel().getSatisfaction(), key);
-                Object obj = readCompressedObject(file, node.getLabel().getSatisfaction().getErasedType());
-                logger.debug("read object {} from key {}", obj, key);
-                return Optional.fromNullable(obj);
-            } else {
-                return null;
+            for (CacheFormat fmt: formats) {
+                Path file = getCacheFile(fmt);
+                if (file != null && Files.exists(file)) {
+                    logger.debug("reading object for {} from cache (key {}, format {})",
+                                 node.getLabel().getSatisfaction(), key, fmt);
+                    Object obj = readCompressedObject(file, fmt, node.getLabel().getSatisfaction().getErasedType());
+                    logger.debug("read object {} from key {}", obj, key);
+                    return Optional.fromNullable(obj);
+                }
             }
+            return null;
         }
 
         private void writeDiskCache(Object obj, Path file, DAGNode<Component, Dependency> node) throws IOException {
@@ -298,8 +472,8 @@ class ComponentCache implements NodeProcessor {
             Files.createDirectories(cacheDir);
             try (StagedWrite stage = StagedWrite.begin(cacheFile)) {
                 try (OutputStream out = stage.openOutputStream();
-                     OutputStream gzOut = new GZIPOutputStream(out);
-                     ObjectOutputStream objOut = new ObjectOutputStream(gzOut)) {
+                     OutputStream fmtOut = format.wrapOutput(out);
+                     ObjectOutputStream objOut = new ObjectOutputStream(fmtOut)) {
                     objOut.writeObject(obj);
                 }
                 // now we commit, after closing the output files
@@ -307,11 +481,10 @@ class ComponentCache implements NodeProcessor {
             }
         }
 
-        private Object readCompressedObject(Path cacheFile, Class<?> type) {
+        private Object readCompressedObject(Path cacheFile, CacheFormat fmt, Class<?> type) {
             // The file is there, load it
-            try (InputStream in = Files.newInputStream(cacheFile, StandardOpenOption.READ);
-                 InputStream gzin = new GZIPInputStream(in);
-                 ObjectInputStream oin = new CustomClassLoaderObjectInputStream(gzin, classLoader)) {
+            try (InputStream in = fmt.openInput(cacheFile);
+                 ObjectInputStream oin = new CustomClassLoaderObjectInputStream(in, classLoader)) {
 
                 return type.cast(oin.readObject());
             } catch (ClosedByInterruptException | InterruptedIOException ex) {
@@ -332,6 +505,26 @@ class ComponentCache implements NodeProcessor {
         }
     }
 
+
+    /**
+     * Evict the entry with the lowest priority (breaking ties in favor of the least recently used).
+     */
+    @GuardedBy("budgetLock")
+    private void evictOne() {
+        CacheEntry victim = null;
+        for (CacheEntry e: resident) {
+            if (victim == null || e.priority < victim.priority) {
+                victim = e;
+            }
+        }
+        assert victim != null;
+        resident.remove(victim);
+        memoryUsed -= victim.size;
+        inflation = victim.priority;
+        victim.cachedObject = null;
+        logger.debug("evicted {} ({} bytes) from memory", victim.key, victim.size);
+    }
+
     //region Node key generation
 
     static String makeNodeKey(DAGNode<Component, Dependency> node) {
@@ -0,0 +1,238 @@
+/*
+ * LensKit, an open-source toolkit for recommender systems.
+ * Copyright 2014-2017 LensKit contributors (see CONTRIBUTORS.md)
+ * Copyright 2010-2014 Regents of the University of Minnesota
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining
+ * a copy of this software and associated documentation files (the
+ * "Software"), to deal in the Software without restriction, including
+ * without limitation the rights to use, copy, modify, merge, publish,
+ * distribute, sublicense, and/or sell copies of the Software, and to
+ * permit persons to whom the Software is furnished to do so, subject to
+ * the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be
+ * included in all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+ * EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF
+ * MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT.
+ * IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY
+ * CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT,
+ * TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION WITH THE
+ * SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ */
+package org.lenskit.eval.traintest;
+
+import com.google.common.base.Throwables;
+import com.google.common.util.concurrent.UncheckedExecutionException;
+import org.grouplens.grapht.Component;
+import org.grouplens.grapht.Dependency;
+import org.grouplens.grapht.graph.DAGNode;
+import org.lenskit.data.dao.DataAccessObject;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.*;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ForkJoinTask;
+import java.util.concurrent.RecursiveAction;
+
+/**
+ * Runs the jobs for a single data set in an order that keeps cached components hot.  Before running, it resolves
+ * each job's configuration graph to find the shared components it will use, and orders the jobs so that jobs
+ * reusing already-built components run next to each other (back-to-back, or concurrently on different threads).
+ * Each component is released from the {@link ComponentCache} as soon as no remaining job needs it, so the cache only
+ * holds components that still have work to do.
+ *
+ * The training data is loaded once and held for the duration of the group, so all of its jobs share it.
+ */
+class DataSetJobGroup extends RecursiveAction {
+    private static final long serialVersionUID = 1L;
+    private static final Logger logger = LoggerFactory.getLogger(DataSetJobGroup.class);
+
+    private final DataSet dataSet;
+    private final ComponentCache cache;
+    private final int parallelism;
+    private final List<ExperimentJob> jobs = new ArrayList<>();
+    private boolean continueAfterError = false;
+    /**
+     * The training data, held while the jobs run so it is not reloaded.
+     */
+    private DataAccessObject trainingData;
+
+    private final Map<DAGNode<Component, Dependency>, Integer> remainingUses = new HashMap<>();
+    private final Map<ExperimentJob, Set<DAGNode<Component, Dependency>>> jobNodes = new HashMap<>();
+
+    /**
+     * Create a new job group.
+     * @param ds The data set.
+     * @param cache The component cache the jobs use.
+     * @param par The maximum number of jobs to run concurrently.
+     */
+    DataSetJobGroup(DataSet ds, ComponentCache cache, int par) {
+        dataSet = ds;
+        this.cache = cache;
+        parallelism = Math.max(par, 1);
+    }
+
+    void setContinueAfterError(boolean c) {
+        continueAfterError = c;
+    }
+
+    /**
+     * Add a job to the group.
+     * @param job The job, which must evaluate on this group's data set.
+     */
+    void addJob(ExperimentJob job) {
+        assert job.getDataSet() == dataSet;
+        jobs.add(job);
+    }
+
+    @Override
+    protected void compute() {
+        logger.info("planning {} jobs on {}", jobs.size(), dataSet);
+        DataAccessObject train = dataSet.getTrainingData().get();
+        trainingData = train;
+        for (ExperimentJob job: jobs) {
+            Set<DAGNode<Component, Dependency>> nodes;
+            try {
+                nodes = job.planCachedNodes(train);
+            } catch (RuntimeException e) {
+                // the job will fail (and report the failure) when it runs
+                logger.debug("could not plan job " + job, e);
+                nodes = Collections.emptySet();
+            }
+            jobNodes.put(job, nodes);
+            for (DAGNode<Component, Dependency> node: nodes) {
+                remainingUses.merge(node, 1, Integer::sum);
+            }
+        }
+
+        Queue<ExperimentJob> queue = new ConcurrentLinkedQueue<>(orderJobs());
+        JobFailures failures = new JobFailures();
+        int nworkers = Math.min(parallelism, jobs.size());
+        if (nworkers > 1 && inForkJoinPool()) {
+            logger.debug("running {} jobs with {} workers", jobs.size(), nworkers);
+            List<ForkJoinTask<?>> workers = new ArrayList<>();
+            for (int i = 0; i < nworkers; i++) {
+                workers.add(ForkJoinTask.adapt(() -> runJobs(queue, failures)));
+            }
+            invokeAll(workers);
+        } else {
+            logger.debug("running {} jobs in sequence", jobs.size());
+            runJobs(queue, failures);
+        }
+
+        trainingData = null;
+        failures.rethrow();
+    }
+
+    /**
+     * Order the jobs for cache locality.  Jobs are picked greedily: the next job is the one that uses the most
+     * components already built by earlier jobs (and still needed), breaking ties in favor of jobs whose components
+     * are shared with the most other remaining jobs, and then by configuration order.
+     */
+    private List<ExperimentJob> orderJobs() {
+        Map<DAGNode<Component, Dependency>, Integer> uses = new HashMap<>(remainingUses);
+        Set<DAGNode<Component, Dependency>> live = new HashSet<>();
+        List<ExperimentJob> remaining = new ArrayList<>(jobs);
+        List<ExperimentJob> order = new ArrayList<>(jobs.size());
+
+        while (!remaining.isEmpty()) {
+            ExperimentJob best = null;
+            int bestLive = -1;
+            int bestShared = -1;
+            for (ExperimentJob job: remaining) {
+                int nlive = 0;
+                int nshared = 0;
+                for (DAGNode<Component, Dependency> node: jobNodes.get(job)) {
+                    if (live.contains(node)) {
+                        nlive += 1;
+                    }
+                    nshared += uses.get(node) - 1;
+                }
+                if (nlive > bestLive || (nlive == bestLive && nshared > bestShared)) {
+                    best = job;
+                    bestLive = nlive;
+                    bestShared = nshared;
+                }
+            }
+            assert best != null;
+            remaining.remove(best);
+            order.add(best);
+            for (DAGNode<Component, Dependency> node: jobNodes.get(best)) {
+                int n = uses.merge(node, -1, Integer::sum);
+                if (n > 0) {
+                    live.add(node);
+                } else {
+                    live.remove(node);
+                }
+            }
+        }
+
+        return order;
+    }
+
+    /**
+     * Worker loop: run jobs from the queue until it is empty.
+     */
+    private void runJobs(Queue<ExperimentJob> queue, JobFailures failures) {
+        ExperimentJob job;
+        while (!failures.shouldStop() && (job = queue.poll()) != null) {
+            try {
+                job.invoke();
+            } catch (Throwable th) {
+                failures.add(job, th);
+            } finally {
+                finished(job);
+            }
+        }
+    }
+
+    /**
+     * Record that a job has finished, releasing components no other job needs.
+     */
+    private void finished(ExperimentJob job) {
+        for (DAGNode<Component, Dependency> node: jobNodes.get(job)) {
+            boolean release;
+            synchronized (remainingUses) {
+                int n = remainingUses.merge(node, -1, Integer::sum);
+                release = n <= 0;
+                if (release) {
+                    remainingUses.remove(node);
+                }
+            }
+            if (release) {
+                cache.release(node);
+            }
+        }
+    }
+
+    /**
+     * Failures collected from jobs in this group.
+     */
+    private class JobFailures {
+        private Throwable failure;
+
+        synchronized void add(ExperimentJob job, Throwable th) {
+            logger.error("job " + job + " failed with exception", th);
+            if (failure == null) {
+                failure = th;
+            } else {
+                failure.addSuppressed(th);
+            }
+        }
+
+        synchronized boolean shouldStop() {
+            return failure != null && !continueAfterError;
+        }
+
+        synchronized void rethrow() {
+            if (failure != null) {
+                Throwables.throwIfUnchecked(failure);
+                throw new UncheckedExecutionException(failure);
+            }
+        }
+    }
+}
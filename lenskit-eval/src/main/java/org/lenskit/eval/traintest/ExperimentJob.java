@@ -32,6 +32,8 @@ import org.grouplens.grapht.Dependency;
 import org.grouplens.grapht.InjectionException;
 import org.grouplens.grapht.graph.DAGNode;
 import org.grouplens.grapht.graph.MergePool;
+import org.grouplens.grapht.reflect.Satisfaction;
+import org.grouplens.grapht.reflect.internal.InstanceSatisfaction;
 import org.lenskit.LenskitConfiguration;
 import org.lenskit.LenskitRecommender;
 import org.lenskit.LenskitRecommenderEngine;
@@ -43,12 +45,16 @@ import org.lenskit.data.entities.CommonAttributes;
 import org.lenskit.data.entities.CommonTypes;
 import org.lenskit.data.entities.Entity;
 import org.lenskit.data.entities.EntityType;
+import org.lenskit.inject.BuildProfile;
 import org.lenskit.inject.GraphtUtils;
 import org.lenskit.inject.NodeProcessors;
+import org.lenskit.util.ObjectSizeEstimator;
 import org.lenskit.util.ProgressLogger;
 import org.lenskit.util.monitor.TrackedJob;
 import org.lenskit.util.parallel.Blockers;
 import org.lenskit.util.table.RowBuilder;
+import org.lenskit.util.table.TableBuilder;
+import org.lenskit.util.table.writer.MultiplexedTableWriter;
 import org.lenskit.util.table.writer.TableWriter;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
@@ -60,6 +66,7 @@ import java.io.IOException;
 import java.io.ObjectOutputStream;
 import java.text.NumberFormat;
 import java.util.ArrayList;
+import java.util.LinkedHashSet;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
@@ -82,6 +89,7 @@ class ExperimentJob extends RecursiveAction {
     public static final String SETUP_JOB_TYPE = "tt-setup";
     public static final String TRAIN_JOB_TYPE = "tt-train";
     public static final String TEST_JOB_TYPE = "tt-test";
+    private static final long MAX_SIZE_OBJECTS = 50000000;
 
     private final TrainTestExperiment experiment;
     private final AlgorithmInstance algorithm;
@@ -93,6 +101,9 @@ class ExperimentJob extends RecursiveAction {
     private final MergePool<Component, Dependency> mergePool;
     private final TrackedJob tracker;
     private final Semaphore limitSemaphore;
+    @Nullable
+    private final MemoryAdmission admission;
+    private volatile DAGNode<Component, Dependency> plannedGraph;
 
     ExperimentJob(TrainTestExperiment exp,
                   @Nonnull AlgorithmInstance algo,
@@ -100,7 +111,8 @@ class ExperimentJob extends RecursiveAction {
                   LenskitConfiguration shared,
                   @Nullable ComponentCache cache,
                   @Nullable MergePool<Component, Dependency> pool,
-                  TrackedJob tj, @Nullable Semaphore limit) {
+                  TrackedJob tj, @Nullable Semaphore limit,
+                  @Nullable MemoryAdmission admit) {
         experiment = exp;
         algorithm = algo;
         dataSet = ds;
@@ -109,6 +121,7 @@ class ExperimentJob extends RecursiveAction {
         mergePool = pool;
         tracker = tj;
         limitSemaphore = limit;
+        admission = admit;
     }
 
     @Override
@@ -121,6 +134,20 @@ class ExperimentJob extends RecursiveAction {
                 throw new EvaluationException("Evaluation interrupted", e);
             }
         }
+        long memEstimate = 0;
+        if (admission != null) {
+            memEstimate = experiment.estimateJobMemory(algorithm);
+            logger.debug("waiting for {} bytes to evaluate {} on {}", memEstimate, algorithm, dataSet);
+            try {
+                admission.acquire(memEstimate);
+            } catch (InterruptedException e) {
+                if (limitSemaphore != null) {
+                    limitSemaphore.release();
+                }
+                Thread.currentThread().interrupt();
+                throw new EvaluationException("Evaluation interrupted", e);
+            }
+        }
         try {
             tracker.start();
             doEvaluate();
@@ -141,12 +168,51 @@ class ExperimentJob extends RecursiveAction {
                 throw new EvaluationException("Error running evaluation", th);
             }
         } finally {
+            if (admission != null) {
+                admission.release(memEstimate);
+            }
             if (limitSemaphore != null) {
                 limitSemaphore.release();
             }
         }
     }
 
+    /**
+     * Get the algorithm this job evaluates.
+     * @return The algorithm.
+     */
+    AlgorithmInstance getAlgorithm() {
+        return algorithm;
+    }
+
+    /**
+     * Get the data set this job evaluates on.
+     * @return The data set.
+     */
+    DataSet getDataSet() {
+        return dataSet;
+    }
+
+    /**
+     * Resolve this job's configuration graph ahead of time, so the scheduler can see which cached components it
+     * will use.  The job will build from the planned graph instead of resolving it again.
+     *
+     * @param train The training data, which must be the same DAO the job will obtain from its data set.
+     * @return The nodes of the graph that the component cache will instantiate.
+     * @throws RecommenderBuildException if the configuration graph cannot be resolved.
+     */
+    Set<DAGNode<Component, Dependency>> planCachedNodes(DataAccessObject train) throws RecommenderBuildException {
+        DAGNode<Component, Dependency> graph = makeEngineBuilder().buildRecommenderGraph(train);
+        plannedGraph = graph;
+        Set<DAGNode<Component, Dependency>> nodes = new LinkedHashSet<>();
+        for (DAGNode<Component, Dependency> node: GraphtUtils.getShareableNodes(graph)) {
+            if (!node.getLabel().getSatisfaction().hasInstance()) {
+                nodes.add(node);
+            }
+        }
+        return nodes;
+    }
+
     /**
      * Inner helper to control the evaluation.
      */
@@ -157,10 +223,21 @@ class ExperimentJob extends RecursiveAction {
 
         setup.start();
         ExperimentOutputLayout layout = experiment.getOutputLayout();
-        TableWriter globalOutput = layout.prefixTable(experiment.getGlobalOutput(),
-                                                      dataSet, algorithm);
-        TableWriter userOutput = layout.prefixTable(experiment.getUserOutput(),
-                                                    dataSet, algorithm);
+        TableWriter baseGlobal = experiment.getGlobalOutput();
+        TableWriter baseUser = experiment.getUserOutput();
+        JobCheckpoints checkpoints = experiment.getCheckpoints();
+        TableBuilder savedGlobal = null, savedUser = null;
+        if (checkpoints != null) {
+            // keep a copy of this job's rows for its completion record
+            savedGlobal = new TableBuilder(baseGlobal.getLayout());
+            baseGlobal = new MultiplexedTableWriter(baseGlobal.getLayout(), baseGlobal, savedGlobal);
+            if (experiment.getUserOutputFile() != null) {
+                savedUser = new TableBuilder(baseUser.getLayout());
+                baseUser = new MultiplexedTableWriter(baseUser.getLayout(), baseUser, savedUser);
+            }
+        }
+        TableWriter globalOutput = layout.prefixTable(baseGlobal, dataSet, algorithm);
+        TableWriter userOutput = layout.prefixTable(baseUser, dataSet, algorithm);
         RowBuilder outputRow = globalOutput.getLayout().newRowBuilder();
 
         logger.info("fetching training data");
@@ -189,6 +266,31 @@ class ExperimentJob extends RecursiveAction {
         train.finish();
         logger.info("Built {} in {}", algorithm.getName(), buildTimer);
         outputRow.add("BuildTime", buildTimer.elapsed(TimeUnit.MILLISECONDS) * 0.001);
+        if (experiment.isJobMemoryMeasured()) {
+            List<Object> bounds = new ArrayList<>();
+            bounds.add(trainData);
+            if (runtimeData != null) {
+                bounds.add(runtimeData);
+            }
+            List<Object> owned = new ArrayList<>();
+            List<Object> charged = new ArrayList<>();
+            collectModelComponents(engine, owned, charged);
+
+            List<Object> all = new ArrayList<>(owned);
+            all.addAll(charged);
+            long modelMemory = estimateSize(all, bounds);
+            logger.info("{} on {} retains about {} bytes", algorithm.getName(), dataSet.getName(), modelMemory);
+            outputRow.add("ModelMemory", modelMemory);
+
+            long jobMemory = modelMemory;
+            if (!charged.isEmpty()) {
+                bounds.addAll(charged);
+                jobMemory = estimateSize(owned, bounds);
+                logger.debug("{} on {} adds about {} bytes to shared components",
+                             algorithm.getName(), dataSet.getName(), jobMemory);
+            }
+            experiment.recordJobMemory(algorithm, jobMemory);
+        }
         logger.info("Measuring {} on {}", algorithm.getName(), dataSet.getName());
 
         List<ConditionEvaluator> accumulators = Lists.newArrayList();
@@ -261,12 +363,51 @@ class ExperimentJob extends RecursiveAction {
         } catch (IOException e) {
             throw new EvaluationException("error writing output row", e);
         }
+        if (checkpoints != null) {
+            checkpoints.save(algorithm, dataSet, savedGlobal.build(),
+                             savedUser != null ? savedUser.build() : null);
+        }
     }
 
     private LenskitRecommenderEngine buildRecommenderEngine(DataAccessObject train) throws RecommenderBuildException {
         logger.debug("Starting recommender build");
 
-        LenskitRecommenderEngineBuilder builder = new EvalEngineBuilder();
+        return makeEngineBuilder().build(train);
+    }
+
+    /**
+     * Collect the instantiated components of a built model.  With a component cache, shareable components are shared
+     * by every job on the data set, so each is only charged to the admission estimate of the first job that measures
+     * it; the components already charged to an earlier job are collected separately.
+     *
+     * @param engine The built model.
+     * @param owned Receives the components charged to this job.
+     * @param charged Receives the shared components already charged to an earlier job.
+     */
+    private void collectModelComponents(LenskitRecommenderEngine engine, List<Object> owned, List<Object> charged) {
+        for (DAGNode<Component, Dependency> node: engine.getGraph().getReachableNodes()) {
+            Satisfaction sat = node.getLabel().getSatisfaction();
+            if (sat instanceof InstanceSatisfaction) {
+                Object instance = ((InstanceSatisfaction) sat).getInstance();
+                if (cache != null && GraphtUtils.isShareable(node) && !cache.claimMeasurement(instance)) {
+                    charged.add(instance);
+                } else {
+                    owned.add(instance);
+                }
+            }
+        }
+    }
+
+    /**
+     * Estimate the memory retained by model components, excluding the data they were built from (which is shared by
+     * all jobs on the data set) and any other bounding objects.
+     */
+    private static long estimateSize(List<Object> components, List<Object> bounds) {
+        return ObjectSizeEstimator.create(bounds, MAX_SIZE_OBJECTS).estimateSize(components);
+    }
+
+    private EvalEngineBuilder makeEngineBuilder() {
+        EvalEngineBuilder builder = new EvalEngineBuilder();
         builder.addConfiguration(sharedConfig);
         builder.addConfiguration(dataSet.getExtraConfiguration());
 
@@ -274,7 +415,7 @@ class ExperimentJob extends RecursiveAction {
             builder.addConfiguration(cfg);
         }
 
-        return builder.build(train);
+        return builder;
     }
 
     private LenskitRecommender buildRecommender(LenskitRecommenderEngine engine,
@@ -303,6 +444,13 @@ class ExperimentJob extends RecursiveAction {
     private class EvalEngineBuilder extends LenskitRecommenderEngineBuilder {
         @Override
         protected DAGNode<Component, Dependency> buildRecommenderGraph(DataAccessObject dao) {
+            DAGNode<Component, Dependency> planned = plannedGraph;
+            if (planned != null) {
+                logger.debug("using planned configuration graph");
+                plannedGraph = null;
+                return planned;
+            }
+
             DAGNode<Component, Dependency> graph = super.buildRecommenderGraph(dao);
 
             if (mergePool != null) {
@@ -316,10 +464,11 @@ class ExperimentJob extends RecursiveAction {
         }
 
         @Override
-        protected DAGNode<Component, Dependency> instantiateGraph(DAGNode<Component, Dependency> graph) {
+        protected DAGNode<Component, Dependency> instantiateGraph(DAGNode<Component, Dependency> graph,
+                                                                  @Nullable BuildProfile profile) {
             if (cache == null) {
                 logger.debug("Building directly without a cache");
-                return super.instantiateGraph(graph);
+                return super.instantiateGraph(graph, profile);
             } else {
                 logger.debug("Instantiating graph with a cache");
                 try {
@@ -0,0 +1,193 @@
+/*
+ * LensKit, an open-source toolkit for recommender systems.
+ * Copyright 2014-2017 LensKit contributors (see CONTRIBUTORS.md)
+ * Copyright 2010-2014 Regents of the University of Minnesota
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining
+ * a copy of this software and associated documentation files (the
+ * "Software"), to deal in the Software without restriction, including
+ * without limitation the rights to use, copy, modify, merge, publish,
+ * distribute, sublicense, and/or sell copies of the Software, and to
+ * permit persons to whom the Software is furnished to do so, subject to
+ * the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be
+ * included in all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+ * EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF
+ * MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT.
+ * IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY
+ * CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT,
+ * TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION WITH THE
+ * SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ */
+package org.lenskit.eval.traintest;
+
+import org.lenskit.util.table.Row;
+import org.lenskit.util.table.Table;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import javax.annotation.Nullable;
+import java.io.*;
+import java.net.InetAddress;
+import java.net.Socket;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Entry point for a worker process in a multi-process train-test experiment.  The worker loads the experiment from
+ * its spec file, connects back to the {@linkplain WorkerCoordinator coordinator} on a loopback socket, and runs the
+ * jobs it is sent one at a time, sending back each job's output rows.
+ *
+ * Usage: `ExperimentWorker PORT TOKEN SPEC-FILE THREADS`
+ *
+ * @see TrainTestExperiment#setWorkerCount(int)
+ */
+public final class ExperimentWorker {
+    private static final Logger logger = LoggerFactory.getLogger(ExperimentWorker.class);
+
+    private ExperimentWorker() {}
+
+    public static void main(String[] args) throws IOException {
+        if (args.length != 4) {
+            System.err.println("usage: ExperimentWorker PORT TOKEN SPEC-FILE THREADS");
+            System.exit(2);
+        }
+        int port = Integer.parseInt(args[0]);
+        String token = args[1];
+        Path spec = Paths.get(args[2]);
+        int threads = Integer.parseInt(args[3]);
+
+        TrainTestExperiment exp = TrainTestExperiment.load(spec);
+        exp.setThreadCount(threads);
+
+        try (Socket socket = new Socket(InetAddress.getLoopbackAddress(), port)) {
+            OutputStream rawOut = new BufferedOutputStream(socket.getOutputStream());
+            // identify ourselves before anything else
+            rawOut.write(token.getBytes(StandardCharsets.US_ASCII));
+            rawOut.write('\n');
+            ObjectOutputStream out = new ObjectOutputStream(rawOut);
+            out.flush();
+            ObjectInputStream in = new ObjectInputStream(new BufferedInputStream(socket.getInputStream()));
+
+            exp.startWorker();
+            try {
+                Job job;
+                while ((job = (Job) in.readObject()) != null) {
+                    logger.info("running job {}", job);
+                    Result result = exp.runWorkerJob(job.getDataSetIndex(), job.getAlgorithmIndex());
+                    out.writeObject(result);
+                    out.reset();
+                    out.flush();
+                }
+            } finally {
+                exp.finishWorker();
+            }
+        } catch (ClassNotFoundException e) {
+            throw new IOException("invalid message from coordinator", e);
+        }
+        logger.info("worker finished");
+    }
+
+    /**
+     * A job for a worker to run, identified by the positions of its data set and algorithm in the experiment.
+     */
+    static final class Job implements Serializable {
+        private static final long serialVersionUID = 1L;
+
+        private final int dataSetIndex;
+        private final int algorithmIndex;
+
+        Job(int ds, int algo) {
+            dataSetIndex = ds;
+            algorithmIndex = algo;
+        }
+
+        int getDataSetIndex() {
+            return dataSetIndex;
+        }
+
+        int getAlgorithmIndex() {
+            return algorithmIndex;
+        }
+
+        @Override
+        public String toString() {
+            return "job (data set " + dataSetIndex + ", algorithm " + algorithmIndex + ")";
+        }
+    }
+
+    /**
+     * The output of a job run by a worker.  Rows are full rows of the experiment's global and per-user output tables.
+     * The result also carries the worker's memory estimate for the job's algorithm, so the coordinator can save it.
+     */
+    static final class Result implements Serializable {
+        private static final long serialVersionUID = 1L;
+
+        private final List<List<Object>> globalRows;
+        private final List<List<Object>> userRows;
+        private final long jobMemory;
+        private final String error;
+
+        Result(Table global, Table user, long memory, @Nullable String error) {
+            globalRows = copyRows(global);
+            userRows = copyRows(user);
+            jobMemory = memory;
+            this.error = error;
+        }
+
+        List<List<Object>> getGlobalRows() {
+            return globalRows;
+        }
+
+        List<List<Object>> getUserRows() {
+            return userRows;
+        }
+
+        /**
+         * Get the memory estimate the worker has learned for the job's algorithm.
+         * @return The estimated memory use, in bytes, or 0 if the worker has not measured it.
+         */
+        long getJobMemory() {
+            return jobMemory;
+        }
+
+        /**
+         * Get the job's error.
+         * @return A description of the error that failed the job, or `null` if it succeeded.
+         */
+        @Nullable
+        String getError() {
+            return error;
+        }
+
+    }
+
+    /**
+     * Copy a table's rows into plain lists that can be serialized or written as JSON.
+     * @param table The table.
+     * @return The table's rows.
+     */
+    static List<List<Object>> copyRows(Table table) {
+        List<List<Object>> rows = new ArrayList<>(table.size());
+        for (Row row: table) {
+            List<Object> values = new ArrayList<>(row.length());
+            for (Object v: row) {
+                // attribute values are usually strings or numbers; keep anything else as its string form
+                if (v == null || v instanceof Number || v instanceof String || v instanceof Boolean) {
+                    values.add(v);
+                } else {
+                    values.add(v.toString());
+                }
+            }
+            rows.add(values);
+        }
+        return Collections.unmodifiableList(rows);
+    }
+}
@@ -0,0 +1,221 @@
+/*
+ * LensKit, an open-source toolkit for recommender systems.
+ * Copyright 2014-2017 LensKit contributors (see CONTRIBUTORS.md)
+ * Copyright 2010-2014 Regents of the University of Minnesota
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining
+ * a copy of this software and associated documentation files (the
+ * "Software"), to deal in the Software without restriction, including
+ * without limitation the rights to use, copy, modify, merge, publish,
+ * distribute, sublicense, and/or sell copies of the Software, and to
+ * permit persons to whom the Software is furnished to do so, subject to
+ * the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be
+ * included in all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+ * EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF
+ * MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT.
+ * IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY
+ * CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT,
+ * TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION WITH THE
+ * SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ */
+package org.lenskit.eval.traintest;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import net.jcip.annotations.ThreadSafe;
+import org.lenskit.util.describe.Descriptions;
+import org.lenskit.util.describe.HashDescriptionWriter;
+import org.lenskit.util.io.StagedWrite;
+import org.lenskit.util.table.Table;
+import org.lenskit.util.table.TableLayout;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import javax.annotation.Nullable;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.*;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.GZIPOutputStream;
+
+/**
+ * Stores completion records for experiment jobs, so an interrupted experiment can be resumed without re-running the
+ * jobs that already finished.  Each successful job writes a record containing its global and per-user output rows;
+ * the record is keyed by a hash of the job's algorithm and data set descriptions and the experiment's output
+ * columns, so changing the algorithm's attributes, the data, or the set of metrics invalidates it.  Per-user rows
+ * are only saved when per-user output is enabled; the record notes whether it has them, and records without them
+ * are not replayed into an experiment that writes per-user output.
+ *
+ * The key does not include the algorithm's configuration or the code being evaluated; clear the checkpoint directory
+ * after changing either.
+ */
+@ThreadSafe
+class JobCheckpoints {
+    private static final Logger logger = LoggerFactory.getLogger(JobCheckpoints.class);
+    private static final String EXTENSION = ".json.gz";
+
+    private final Path directory;
+    private final TableLayout globalLayout;
+    private final TableLayout userLayout;
+    private final boolean userOutput;
+    private final ObjectMapper mapper = new ObjectMapper();
+
+    /**
+     * Create a checkpoint store.
+     * @param dir The directory for completion records.
+     * @param global The layout of the experiment's global output.
+     * @param user The layout of the experiment's per-user output.
+     * @param userOut Whether the experiment writes per-user output, so replayed records need per-user rows.
+     */
+    JobCheckpoints(Path dir, TableLayout global, TableLayout user, boolean userOut) {
+        directory = dir;
+        globalLayout = global;
+        userLayout = user;
+        userOutput = userOut;
+    }
+
+    Path getDirectory() {
+        return directory;
+    }
+
+    /**
+     * Compute the key identifying a job's completion record.
+     * @param algo The job's algorithm.
+     * @param ds The job's data set.
+     * @return The key, as a hex string.
+     */
+    String makeKey(AlgorithmInstance algo, DataSet ds) {
+        HashDescriptionWriter descr = Descriptions.sha1Writer();
+        descr.putField("algorithm", algo.getName());
+        descr.putField("algorithmAttributes", new TreeMap<>(algo.getAttributes()).toString());
+        descr.putField("dataSet", ds.getName());
+        descr.putField("dataSetAttributes", new TreeMap<>(ds.getAttributes()).toString());
+        descr.putField("train", ds.getTrainingData());
+        descr.putField("test", ds.getTestData());
+        if (ds.getRuntimeData() != null) {
+            descr.putField("runtime", ds.getRuntimeData());
+        }
+        descr.putList("globalColumns", globalLayout.getColumns());
+        descr.putList("userColumns", userLayout.getColumns());
+        return descr.finish().toString();
+    }
+
+    private Path getRecordFile(AlgorithmInstance algo, DataSet ds) {
+        return directory.resolve(makeKey(algo, ds) + EXTENSION);
+    }
+
+    /**
+     * Save the completion record for a job.  Errors are logged, not thrown, since a missing record only means the
+     * job will be re-run.
+     *
+     * @param algo The job's algorithm.
+     * @param ds The job's data set.
+     * @param global The job's global output rows.
+     * @param user The job's per-user output rows, or `null` if per-user output is disabled.
+     */
+    void save(AlgorithmInstance algo, DataSet ds, Table global, @Nullable Table user) {
+        Path file = getRecordFile(algo, ds);
+        Map<String, Object> record = new LinkedHashMap<>();
+        record.put("algorithm", algo.toString());
+        record.put("data_set", ds.toString());
+        record.put("has_user_rows", user != null);
+        record.put("global_rows", ExperimentWorker.copyRows(global));
+        record.put("user_rows", user != null ? ExperimentWorker.copyRows(user) : Collections.emptyList());
+        try {
+            Files.createDirectories(directory);
+            try (StagedWrite stage = StagedWrite.begin(file)) {
+                try (OutputStream out = new GZIPOutputStream(stage.openOutputStream())) {
+                    mapper.writeValue(out, record);
+                }
+                stage.commit();
+            }
+            logger.debug("saved completion record for {} on {} to {}", algo, ds, file);
+        } catch (IOException e) {
+            logger.warn("cannot save completion record for {} on {}: {}", algo, ds, e.toString());
+        }
+    }
+
+    /**
+     * Load the completion record for a job.
+     * @param algo The job's algorithm.
+     * @param ds The job's data set.
+     * @return The job's saved output, or `null` if it has no (readable) completion record, or if per-user output is
+     *         enabled and the record was saved without per-user rows.
+     */
+    @Nullable
+    Record load(AlgorithmInstance algo, DataSet ds) {
+        Path file = getRecordFile(algo, ds);
+        if (!Files.exists(file)) {
+            return null;
+        }
+        try (InputStream in = new GZIPInputStream(Files.newInputStream(file))) {
+            JsonNode json = mapper.readTree(in);
+            if (userOutput && !json.path("has_user_rows").asBoolean(false)) {
+                logger.info("completion record {} has no per-user rows, job will be re-run", file);
+                return null;
+            }
+            return new Record(readRows(json.path("global_rows"), globalLayout),
+                              readRows(json.path("user_rows"), userLayout));
+        } catch (IOException | IllegalArgumentException e) {
+            logger.warn("cannot read completion record {}, job will be re-run: {}", file, e.toString());
+            return null;
+        }
+    }
+
+    private List<List<Object>> readRows(JsonNode json, TableLayout layout) {
+        if (!json.isArray()) {
+            throw new IllegalArgumentException("missing rows");
+        }
+        List<List<Object>> rows = new ArrayList<>(json.size());
+        for (JsonNode rjs: json) {
+            if (rjs.size() != layout.getColumnCount()) {
+                throw new IllegalArgumentException("row has " + rjs.size() + " columns, expected "
+                                                           + layout.getColumnCount());
+            }
+            List<Object> row = new ArrayList<>(rjs.size());
+            for (JsonNode v: rjs) {
+                if (v.isNull()) {
+                    row.add(null);
+                } else if (v.isBoolean()) {
+                    row.add(v.asBoolean());
+                } else if (v.isIntegralNumber()) {
+                    row.add(v.asLong());
+                } else if (v.isNumber()) {
+                    row.add(v.asDouble());
+                } else {
+                    row.add(v.asText());
+                }
+            }
+            rows.add(row);
+        }
+        return rows;
+    }
+
+    /**
+     * A job's saved output.
+     */
+    static class Record {
+        private final List<List<Object>> globalRows;
+        private final List<List<Object>> userRows;
+
+        Record(List<List<Object>> global, List<List<Object>> user) {
+            globalRows = global;
+            userRows = user;
+        }
+
+        List<List<Object>> getGlobalRows() {
+            return globalRows;
+        }
+
+        List<List<Object>> getUserRows() {
+            return userRows;
+        }
+    }
+}
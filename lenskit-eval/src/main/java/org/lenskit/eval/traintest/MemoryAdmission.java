@@ -0,0 +1,109 @@
+/*
+ * LensKit, an open-source toolkit for recommender systems.
+ * Copyright 2014-2017 LensKit contributors (see CONTRIBUTORS.md)
+ * Copyright 2010-2014 Regents of the University of Minnesota
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining
+ * a copy of this software and associated documentation files (the
+ * "Software"), to deal in the Software without restriction, including
+ * without limitation the rights to use, copy, modify, merge, publish,
+ * distribute, sublicense, and/or sell copies of the Software, and to
+ * permit persons to whom the Software is furnished to do so, subject to
+ * the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be
+ * included in all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+ * EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF
+ * MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT.
+ * IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY
+ * CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT,
+ * TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION WITH THE
+ * SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ */
+package org.lenskit.eval.traintest;
+
+import net.jcip.annotations.ThreadSafe;
+
+import java.util.concurrent.ForkJoinPool;
+
+/**
+ * Admits experiment jobs based on their estimated memory use.  A job is admitted if its estimate fits in the
+ * remaining budget; a job is always admitted when nothing else is running, so jobs larger than the whole budget still
+ * run (alone).  Waiting jobs coordinate with the fork-join pool so its threads can pick up other work.
+ */
+@ThreadSafe
+class MemoryAdmission {
+    private final long budget;
+    private long admitted;
+    private int running;
+
+    /**
+     * Create a new admission controller.
+     * @param budget The memory budget, in bytes.
+     */
+    MemoryAdmission(long budget) {
+        this.budget = budget;
+    }
+
+    long getBudget() {
+        return budget;
+    }
+
+    /**
+     * Wait until a job can be admitted.
+     * @param bytes The job's estimated memory use.
+     * @throws InterruptedException if the thread is interrupted while waiting.
+     */
+    void acquire(long bytes) throws InterruptedException {
+        if (!tryAcquire(bytes)) {
+            ForkJoinPool.managedBlock(new ForkJoinPool.ManagedBlocker() {
+                private boolean acquired;
+
+                @Override
+                public boolean block() throws InterruptedException {
+                    synchronized (MemoryAdmission.this) {
+                        while (!acquired) {
+                            acquired = tryAcquire(bytes);
+                            if (!acquired) {
+                                MemoryAdmission.this.wait();
+                            }
+                        }
+                    }
+                    return true;
+                }
+
+                @Override
+                public boolean isReleasable() {
+                    return acquired || (acquired = tryAcquire(bytes));
+                }
+            });
+        }
+    }
+
+    /**
+     * Admit a job if it fits.
+     * @param bytes The job's estimated memory use.
+     * @return {@code true} if the job was admitted.
+     */
+    synchronized boolean tryAcquire(long bytes) {
+        if (running == 0 || admitted + bytes <= budget) {
+            admitted += bytes;
+            running += 1;
+            return true;
+        } else {
+            return false;
+        }
+    }
+
+    /**
+     * Release a job's memory once it has finished.
+     * @param bytes The estimate the job was admitted with.
+     */
+    synchronized void release(long bytes) {
+        admitted -= bytes;
+        running -= 1;
+        notifyAll();
+    }
+}
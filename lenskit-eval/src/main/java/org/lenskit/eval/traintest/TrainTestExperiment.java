@@ -44,6 +44,7 @@ import org.lenskit.eval.traintest.predict.PredictEvalTask;
 import org.lenskit.eval.traintest.recommend.RecommendEvalTask;
 import org.lenskit.util.io.CompressionMode;
 import org.lenskit.util.io.LKFileUtils;
+import org.lenskit.util.io.StagedWrite;
 import org.lenskit.util.monitor.TrackedJob;
 import org.lenskit.util.parallel.TaskGroup;
 import org.lenskit.util.table.Table;
@@ -58,11 +59,15 @@ import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import javax.annotation.Nonnull;
+import javax.annotation.Nullable;
 import java.io.IOException;
+import java.io.OutputStream;
 import java.net.URI;
+import java.nio.file.Files;
 import java.nio.file.Path;
 import java.nio.file.Paths;
 import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.ForkJoinPool;
 import java.util.concurrent.Semaphore;
 
@@ -89,10 +94,25 @@ public class TrainTestExperiment {
      * @see TrackedJob#getType()
      */
     public static final String JOB_TYPE = "train-test";
+    /**
+     * The algorithm attribute declaring an algorithm's estimated memory use, in bytes or with a `K`, `M` or `G`
+     * suffix.
+     * @see #setJobMemoryBudget(long)
+     */
+    public static final String MEMORY_ESTIMATE_ATTRIBUTE = "MemoryEstimate";
+    private static final String MEMORY_ESTIMATE_FILE = "memory-estimates.json";
 
     private Path outputFile;
     private Path userOutputFile;
     private Path cacheDir;
+    private Path checkpointDir;
+    private long cacheMemoryBudget = 0;
+    private CacheFormat cacheFormat = CacheFormat.GZIP;
+    private long jobMemoryBudget = 0;
+    private int workerCount = 0;
+    private String workerHeap;
+    private Path specFile;
+    private final Map<String, Long> learnedMemory = new ConcurrentHashMap<>();
     private boolean shareModelComponents = true;
     private int threadCount = 0;
     private int parallelTasks = 0;
@@ -110,6 +130,13 @@ public class TrainTestExperiment {
     private ExperimentOutputLayout outputLayout;
     private List<ExperimentJob> allJobs;
     private TaskGroup rootJob;
+    private JobCheckpoints checkpoints;
+
+    // state for running jobs in a worker process
+    private LenskitConfiguration workerConfig;
+    private ComponentCache workerCache;
+    private Map<DataSet, MergePool<Component, Dependency>> workerPools;
+    private ForkJoinPool workerThreads;
 
     /**
      * Set the primary output file.
@@ -234,6 +261,9 @@ public class TrainTestExperiment {
      * Control whether model components will be shared.  If {@link #setCacheDirectory(Path)} is also set,
      * components will be cached on disk; otherwise, they will be opportunistically shared in memory.
      *
+     * When components are shared, the jobs for each data set are scheduled so that jobs reusing the same components
+     * run together, and components are released from memory once no remaining job needs them.
+     *
      * Cached output improves throughput and memory use, but makes build times effectively meaningless.  It
      * is turned on by default, but turn it off if you want to measure recommender build times.
      *
@@ -259,6 +289,231 @@ public class TrainTestExperiment {
         cacheDir = dir;
     }
 
+    /**
+     * Get the checkpoint directory for completed jobs.
+     * @return The directory where job completion records are stored, or `null` if checkpointing is disabled.
+     */
+    public Path getCheckpointDirectory() {
+        return checkpointDir;
+    }
+
+    /**
+     * Set the checkpoint directory for completed jobs.  When set, each job that succeeds saves its output rows to
+     * this directory, and when the experiment is run again, jobs with a saved record are not re-run; their saved rows
+     * are merged into the output instead.  This makes long experiments restartable: after a crash, re-running the
+     * experiment only runs the jobs that did not finish.  Combine with {@link #setCacheDirectory(Path)} to also reuse
+     * the model components built by unfinished jobs.
+     *
+     * Records are keyed by the algorithm's name and attributes, the data set's name, attributes, and data sources,
+     * and the output columns.  They are not invalidated by changes to algorithm configurations or code; clear the
+     * directory after making such changes.
+     *
+     * @param dir The directory for job completion records, or `null` (the default) to disable checkpointing.
+     */
+    public void setCheckpointDirectory(Path dir) {
+        checkpointDir = dir;
+    }
+
+    /**
+     * Get the checkpoint store for the running experiment.
+     * @return The checkpoint store, or `null` if checkpointing is disabled.
+     */
+    @Nullable
+    JobCheckpoints getCheckpoints() {
+        return checkpoints;
+    }
+
+    /**
+     * Merge the saved output of a job completed in a previous run, if there is one.
+     * @param ai The job's algorithm.
+     * @param ds The job's data set.
+     * @return `true` if the job was completed in a previous run and its output was merged.
+     */
+    boolean replayCompletedJob(AlgorithmInstance ai, DataSet ds) throws IOException {
+        if (checkpoints == null) {
+            return false;
+        }
+        JobCheckpoints.Record record = checkpoints.load(ai, ds);
+        if (record == null) {
+            return false;
+        }
+        logger.info("{} on {} completed in a previous run", ai, ds);
+        for (List<Object> row: record.getUserRows()) {
+            userOutput.writeRow(row);
+        }
+        for (List<Object> row: record.getGlobalRows()) {
+            globalOutput.writeRow(row);
+        }
+        return true;
+    }
+
+    /**
+     * Get the format for model components cached on disk.
+     * @return The cache format.
+     */
+    public CacheFormat getCacheFormat() {
+        return cacheFormat;
+    }
+
+    /**
+     * Set the format for model components cached on disk.  The default, {@link CacheFormat#GZIP}, is the most
+     * compact; {@link CacheFormat#RAW} and {@link CacheFormat#BLOCK} are much faster to write and reload.  Components
+     * cached in other formats are still read.
+     *
+     * @param fmt The cache format.
+     */
+    public void setCacheFormat(CacheFormat fmt) {
+        Preconditions.checkNotNull(fmt, "cache format");
+        cacheFormat = fmt;
+    }
+
+    /**
+     * Get the memory budget for shared model components.
+     * @return The number of bytes of shared model components to keep in memory.
+     * @see #setCacheMemoryBudget(long)
+     */
+    public long getCacheMemoryBudget() {
+        long budget = cacheMemoryBudget;
+        if (budget <= 0) {
+            String prop = System.getProperty("lenskit.eval.cacheMemoryBudget");
+            if (prop != null) {
+                budget = parseMemorySize(prop);
+            }
+        }
+        if (budget <= 0) {
+            budget = ComponentCache.defaultMemoryBudget();
+        }
+        return budget;
+    }
+
+    /**
+     * Set the memory budget for shared model components.  Once the estimated size of the components shared in
+     * memory exceeds this budget, components are evicted; if {@link #setCacheDirectory(Path)} is set, they are
+     * reloaded from disk when next needed, and otherwise they are rebuilt.
+     *
+     * @param bytes The number of bytes of shared components to keep in memory.  If 0 (the default), consults the
+     *              property `lenskit.eval.cacheMemoryBudget`, and if that is unset, uses half the maximum heap size.
+     */
+    public void setCacheMemoryBudget(long bytes) {
+        cacheMemoryBudget = bytes;
+    }
+
+    /**
+     * Get the memory budget for running evaluation jobs.
+     * @return The total estimated memory of the jobs that may run at the same time.
+     * @see #setJobMemoryBudget(long)
+     */
+    public long getJobMemoryBudget() {
+        long budget = jobMemoryBudget;
+        if (budget <= 0) {
+            String prop = System.getProperty("lenskit.eval.jobMemoryBudget");
+            if (prop != null) {
+                budget = parseMemorySize(prop);
+            }
+        }
+        if (budget <= 0) {
+            budget = Runtime.getRuntime().maxMemory();
+        }
+        return budget;
+    }
+
+    /**
+     * Set the memory budget for running evaluation jobs.  A job is only started if its estimated memory use fits in
+     * the budget alongside the jobs already running (a job is always started if no other job is running).  A job's
+     * estimate comes from its algorithm's {@value #MEMORY_ESTIMATE_ATTRIBUTE} attribute if it has one, and otherwise
+     * from the largest model the algorithm has built so far.  The `ModelMemory` output column reports each model's full
+     * retained size; the estimate leaves out shareable components already charged to an earlier job on the same data
+     * set, since they stay in the component cache whichever job runs next.  If a cache directory is set, these
+     * measurements are saved there and reused by later runs; in worker mode, the workers send their measurements
+     * back to this process to be saved.  Algorithms with no estimate are not limited.  Models are only measured if
+     * a budget is set here or in the property, or if a cache directory is set.
+     *
+     * This works alongside {@link #setParallelTasks(int)}, which limits the number of jobs regardless of their size.
+     *
+     * @param bytes The memory budget.  If 0 (the default), consults the property `lenskit.eval.jobMemoryBudget`, and
+     *              if that is unset, uses the maximum heap size.
+     */
+    public void setJobMemoryBudget(long bytes) {
+        jobMemoryBudget = bytes;
+    }
+
+    /**
+     * Query whether jobs should measure the memory their models retain.  Measuring walks the whole model, so it is
+     * only done when the measurements are used: to admit jobs under a configured memory budget, or to save them in
+     * the cache directory for later runs.
+     * @return `true` if jobs should measure their models.
+     */
+    boolean isJobMemoryMeasured() {
+        return jobMemoryBudget > 0 || System.getProperty("lenskit.eval.jobMemoryBudget") != null || cacheDir != null;
+    }
+
+    /**
+     * Estimate the memory a job will need.
+     * @param algo The job's algorithm.
+     * @return The estimated memory use, in bytes, or 0 if there is no estimate.
+     */
+    long estimateJobMemory(AlgorithmInstance algo) {
+        Object declared = algo.getAttributes().get(MEMORY_ESTIMATE_ATTRIBUTE);
+        if (declared instanceof Number) {
+            return ((Number) declared).longValue();
+        } else if (declared != null) {
+            return parseMemorySize(declared.toString());
+        }
+        Long learned = learnedMemory.get(algo.toString());
+        return learned != null ? learned : 0;
+    }
+
+    /**
+     * Record the memory used by a job, to estimate the needs of later jobs with the same algorithm.
+     * @param algo The job's algorithm.
+     * @param bytes The measured memory use.
+     */
+    void recordJobMemory(AlgorithmInstance algo, long bytes) {
+        recordJobMemory(algo.toString(), bytes);
+    }
+
+    private void loadMemoryEstimates() {
+        if (cacheDir == null) {
+            return;
+        }
+        Path file = cacheDir.resolve(MEMORY_ESTIMATE_FILE);
+        if (Files.exists(file)) {
+            try {
+                JsonNode json = new ObjectMapper().readTree(file.toFile());
+                Iterator<Map.Entry<String, JsonNode>> fields = json.fields();
+                while (fields.hasNext()) {
+                    Map.Entry<String, JsonNode> field = fields.next();
+                    recordJobMemory(field.getKey(), field.getValue().asLong());
+                }
+                logger.debug("loaded {} memory estimates from {}", learnedMemory.size(), file);
+            } catch (IOException e) {
+                logger.warn("cannot read memory estimates from {}: {}", file, e.toString());
+            }
+        }
+    }
+
+    private void recordJobMemory(String key, long bytes) {
+        learnedMemory.merge(key, bytes, Math::max);
+    }
+
+    private void saveMemoryEstimates() {
+        if (cacheDir == null || learnedMemory.isEmpty()) {
+            return;
+        }
+        Path file = cacheDir.resolve(MEMORY_ESTIMATE_FILE);
+        try {
+            Files.createDirectories(cacheDir);
+            try (StagedWrite stage = StagedWrite.begin(file)) {
+                try (OutputStream out = stage.openOutputStream()) {
+                    new ObjectMapper().writeValue(out, new TreeMap<>(learnedMemory));
+                }
+                stage.commit();
+            }
+        } catch (IOException e) {
+            logger.warn("cannot save memory estimates to {}: {}", file, e.toString());
+        }
+    }
+
     /**
      * Get the number of threads that the experiment may use.
      *
@@ -289,6 +544,58 @@ public class TrainTestExperiment {
         threadCount = tc;
     }
 
+    /**
+     * Get the number of worker processes to run jobs in.
+     * @return The number of worker processes, or 0 to run jobs in this process.
+     */
+    public int getWorkerCount() {
+        return workerCount;
+    }
+
+    /**
+     * Set the number of worker processes to run jobs in.  With worker processes, this process coordinates the
+     * experiment: it starts worker JVMs on the local machine, sends each of them jobs to run, and merges the rows they
+     * produce into the experiment's output files.  Each worker has its own heap, so garbage collection in one worker
+     * does not stall the others, and a worker that crashes only fails the job it was running (it is replaced for the
+     * remaining jobs).  The thread count is divided between the workers; if a cache directory is set, the workers
+     * share it.
+     *
+     * Worker processes re-load the experiment from its spec file, so they are only available for experiments loaded
+     * with {@link #load(Path)}.  Per-task output files (such as prediction or recommendation outputs) cannot be written
+     * in worker mode; an experiment that configures them fails before starting any workers.
+     *
+     * @param n The number of worker processes, or 0 (the default) to run jobs in this process.
+     */
+    public void setWorkerCount(int n) {
+        workerCount = n;
+    }
+
+    /**
+     * Get the maximum heap size for worker processes.
+     * @return The heap size, as passed to the JVM's `-Xmx` option, or `null` to use the JVM default.
+     */
+    public String getWorkerHeap() {
+        return workerHeap;
+    }
+
+    /**
+     * Set the maximum heap size for worker processes.
+     * @param heap The heap size, in the format of the JVM's `-Xmx` option (such as `8g`), or `null` to use the JVM
+     *             default.
+     * @see #setWorkerCount(int)
+     */
+    public void setWorkerHeap(String heap) {
+        workerHeap = heap;
+    }
+
+    /**
+     * Get the file this experiment was loaded from.
+     * @return The spec file, or `null` if the experiment was configured programmatically.
+     */
+    Path getSpecFile() {
+        return specFile;
+    }
+
     /**
      * Get the number of evaluation tasks to permit to run in parallel.  Reducing this can be useful for reducing
      * the memory use of LensKit.
@@ -411,19 +718,30 @@ public class TrainTestExperiment {
                 logger.debug("setting up output");
                 ExperimentOutputLayout layout = makeExperimentOutputLayout();
                 openOutputs(layout);
-                for (EvalTask task: tasks) {
-                    task.start(layout);
-                }
+                loadMemoryEstimates();
 
-                logger.debug("gathering jobs");
-                buildJobGraph();
-                int nthreads = getThreadCount();
-                if (nthreads > 1) {
-                    logger.info("running with {} threads", nthreads);
-                    runJobGraph(nthreads);
+                if (workerCount > 0 && specFile == null) {
+                    logger.warn("worker processes require an experiment loaded from a file, running jobs in-process");
+                }
+                if (workerCount > 0 && specFile != null) {
+                    checkWorkerOutputFiles();
+                    logger.info("running with {} worker processes", workerCount);
+                    new WorkerCoordinator(this).run();
                 } else {
-                    logger.info("running in a single thread");
-                    runJobList();
+                    for (EvalTask task: tasks) {
+                        task.start(layout);
+                    }
+
+                    logger.debug("gathering jobs");
+                    buildJobGraph();
+                    int nthreads = getThreadCount();
+                    if (nthreads > 1) {
+                        logger.info("running with {} threads", nthreads);
+                        runJobGraph(nthreads);
+                    } else {
+                        logger.info("running in a single thread");
+                        runJobList();
+                    }
                 }
 
                 logger.info("train-test evaluation complete");
@@ -432,7 +750,9 @@ public class TrainTestExperiment {
             } catch (Throwable th) { //NOSONAR using closer
                 throw resultCloser.rethrow(th);
             } finally {
+                saveMemoryEstimates();
                 outputLayout = null;
+                checkpoints = null;
                 // FIXME Handle exceptions in task shutdown cleanly
                 for (EvalTask task: tasks) {
                     task.finish();
@@ -445,6 +765,108 @@ public class TrainTestExperiment {
         }
     }
 
+    /**
+     * Make sure no task has output files, since worker processes cannot write them.
+     * @throws EvaluationException if a task has an output file configured.
+     */
+    private void checkWorkerOutputFiles() {
+        for (EvalTask task: tasks) {
+            Path file = null;
+            if (task instanceof PredictEvalTask) {
+                file = ((PredictEvalTask) task).getOutputFile();
+            } else if (task instanceof RecommendEvalTask) {
+                file = ((RecommendEvalTask) task).getOutputFile();
+                if (file == null) {
+                    file = ((RecommendEvalTask) task).getItemOutputFile();
+                }
+            }
+            if (file != null) {
+                throw new EvaluationException("task output file " + file + " cannot be written by worker processes;"
+                                                      + " remove it or run without workers");
+            }
+        }
+    }
+
+    /**
+     * Prepare this experiment to run jobs in a worker process.  Per-task output files are disabled, and each job's
+     * output is collected by {@link #runWorkerJob(int, int)} instead of being written to the output files.
+     */
+    void startWorker() {
+        for (EvalTask task: tasks) {
+            if (task instanceof PredictEvalTask) {
+                ((PredictEvalTask) task).setOutputFile(null);
+            } else if (task instanceof RecommendEvalTask) {
+                ((RecommendEvalTask) task).setOutputFile(null);
+                ((RecommendEvalTask) task).setItemOutputFile(null);
+            }
+        }
+        outputLayout = makeExperimentOutputLayout();
+        openCheckpoints(outputLayout);
+        for (EvalTask task: tasks) {
+            task.start(outputLayout);
+        }
+        workerConfig = makeRootConfiguration();
+        if (shareModelComponents) {
+            workerCache = new ComponentCache(cacheDir, classLoader, getCacheMemoryBudget(), cacheFormat);
+        }
+        workerPools = new HashMap<>();
+        workerThreads = new ForkJoinPool(getThreadCount());
+    }
+
+    /**
+     * Run a single job in a worker process.
+     * @param dsIndex The index of the job's data set in {@link #getDataSets()}.
+     * @param algoIndex The index of the job's algorithm in {@link #getAlgorithms()}.
+     * @return The job's global and per-user output.
+     */
+    ExperimentWorker.Result runWorkerJob(int dsIndex, int algoIndex) {
+        Preconditions.checkState(workerThreads != null, "worker not started");
+        DataSet ds = dataSets.get(dsIndex);
+        AlgorithmInstance ai = algorithms.get(algoIndex);
+        TableBuilder global = new TableBuilder(makeGlobalResultLayout(outputLayout));
+        TableBuilder user = new TableBuilder(makeUserResultLayout(outputLayout));
+        resultBuilder = global;
+        globalOutput = global;
+        userOutput = user;
+        MergePool<Component, Dependency> pool = null;
+        if (workerCache != null) {
+            pool = workerPools.computeIfAbsent(ds, d -> MergePool.create());
+        }
+        TrackedJob tracker = new TrackedJob(JOB_TYPE).makeChild(ExperimentJob.JOB_TYPE,
+                                                                "evaluate " + ai + " on " + ds);
+        ExperimentJob job = new ExperimentJob(this, ai, ds, workerConfig, workerCache, pool, tracker, null, null);
+        String error = null;
+        try {
+            workerThreads.invoke(job);
+        } catch (Throwable th) {
+            logger.error("job " + job + " failed", th);
+            error = th.toString();
+        } finally {
+            resultBuilder = null;
+        }
+        Long memory = learnedMemory.get(ai.toString());
+        return new ExperimentWorker.Result(global.build(), user.build(), memory != null ? memory : 0, error);
+    }
+
+    /**
+     * Finish running jobs in a worker process.
+     */
+    void finishWorker() {
+        for (EvalTask task: tasks) {
+            task.finish();
+        }
+        if (workerThreads != null) {
+            workerThreads.shutdown();
+        }
+        outputLayout = null;
+        globalOutput = null;
+        userOutput = null;
+        checkpoints = null;
+        workerCache = null;
+        workerPools = null;
+        workerThreads = null;
+    }
+
     public ExperimentOutputLayout getOutputLayout() {
         Preconditions.checkState(outputLayout != null, "experiment is not started");
         return outputLayout;
@@ -479,13 +901,24 @@ public class TrainTestExperiment {
             userOutput = TableWriters.noop(ul);
         }
         outputLayout = eol;
+        openCheckpoints(eol);
+    }
+
+    private void openCheckpoints(ExperimentOutputLayout eol) {
+        if (checkpointDir != null) {
+            checkpoints = new JobCheckpoints(checkpointDir, makeGlobalResultLayout(eol), makeUserResultLayout(eol),
+                                             getUserOutputFile() != null);
+        } else {
+            checkpoints = null;
+        }
     }
 
     private TableLayout makeGlobalResultLayout(ExperimentOutputLayout eol) {
         TableLayoutBuilder tlb = TableLayoutBuilder.copy(eol.getConditionLayout());
         tlb.addColumn("Succeeded")
            .addColumn("BuildTime")
-           .addColumn("TestTime");
+           .addColumn("TestTime")
+           .addColumn("ModelMemory");
         for (EvalTask task: tasks) {
             tlb.addColumns(task.getGlobalColumns());
         }
@@ -508,30 +941,39 @@ public class TrainTestExperiment {
      * Create the tree of jobs to run in this experiment.
      */
     @Nonnull
-    private void buildJobGraph() {
+    private void buildJobGraph() throws IOException {
         allJobs = new ArrayList<>();
+        int completed = 0;
         TrackedJob tracker = new TrackedJob(JOB_TYPE);
         tracker.getEventBus().register(new StatusLogger(logger));
         ComponentCache cache = null;
         if (shareModelComponents) {
-            cache = new ComponentCache(cacheDir, classLoader);
+            cache = new ComponentCache(cacheDir, classLoader, getCacheMemoryBudget(), cacheFormat);
         }
         Map<UUID,TaskGroup> groups = new HashMap<>();
         Semaphore limit = null;
         if (parallelTasks > 0) {
             limit = new Semaphore(parallelTasks);
         }
+        MemoryAdmission admission = new MemoryAdmission(getJobMemoryBudget());
 
         // set up the roots
-        LenskitConfiguration config = new LenskitConfiguration();
-        for (EvalTask task: tasks) {
-            for (Class<?> cls: task.getRequiredRoots()) {
-                config.addRoot(cls);
-            }
-        }
+        LenskitConfiguration config = makeRootConfiguration();
 
         // make tasks
         for (DataSet ds: getDataSets()) {
+            List<AlgorithmInstance> pending = new ArrayList<>();
+            for (AlgorithmInstance ai: getAlgorithms()) {
+                if (replayCompletedJob(ai, ds)) {
+                    completed += 1;
+                } else {
+                    pending.add(ai);
+                }
+            }
+            if (pending.isEmpty()) {
+                continue;
+            }
+
             // TODO support global isolation
             UUID gid = ds.getIsolationGroup();
             TaskGroup group = groups.get(gid);
@@ -541,14 +983,24 @@ public class TrainTestExperiment {
                 group.setContinueAterError(continueAfterError);
             }
             MergePool<Component,Dependency> pool = null;
+            DataSetJobGroup dsGroup = null;
             if (cache != null) {
                 pool = MergePool.create();
+                // schedule the data set's jobs together so they can reuse shared components
+                int par = parallelTasks > 0 ? Math.min(parallelTasks, getThreadCount()) : getThreadCount();
+                dsGroup = new DataSetJobGroup(ds, cache, par);
+                dsGroup.setContinueAfterError(continueAfterError);
+                group.addTask(dsGroup);
             }
-            for (AlgorithmInstance ai: getAlgorithms()) {
+            for (AlgorithmInstance ai: pending) {
                 TrackedJob j = tracker.makeChild(ExperimentJob.JOB_TYPE, "evaluate " + ai + " on " + ds);
-                ExperimentJob job = new ExperimentJob(this, ai, ds, config, cache, pool, j, limit);
+                ExperimentJob job = new ExperimentJob(this, ai, ds, config, cache, pool, j, limit, admission);
                 allJobs.add(job);
-                group.addTask(job);
+                if (dsGroup != null) {
+                    dsGroup.addJob(job);
+                } else {
+                    group.addTask(job);
+                }
             }
         }
 
@@ -563,15 +1015,31 @@ public class TrainTestExperiment {
             root = FluentIterable.from(groups.values()).first().orNull();
         }
 
-        Preconditions.checkState(root != null, "no jobs defined");
+        if (completed > 0) {
+            logger.info("skipping {} jobs completed in a previous run", completed);
+        }
+        Preconditions.checkState(root != null || completed > 0, "no jobs defined");
         rootJob = root;
     }
 
+    private LenskitConfiguration makeRootConfiguration() {
+        LenskitConfiguration config = new LenskitConfiguration();
+        for (EvalTask task: tasks) {
+            for (Class<?> cls: task.getRequiredRoots()) {
+                config.addRoot(cls);
+            }
+        }
+        return config;
+    }
+
     /**
      * Run the jobs in sequence.
      */
     private void runJobList() {
         Preconditions.checkState(allJobs != null, "job graph not built");
+        if (rootJob == null) {
+            return;
+        }
 
         try {
             rootJob.compute();
@@ -586,7 +1054,10 @@ public class TrainTestExperiment {
     }
 
     private void runJobGraph(int nthreads) {
-        Preconditions.checkState(rootJob != null, "job graph not built");
+        Preconditions.checkState(allJobs != null, "job graph not built");
+        if (rootJob == null) {
+            return;
+        }
         ForkJoinPool pool = new ForkJoinPool(nthreads);
         try {
             pool.invoke(rootJob);
@@ -612,7 +1083,9 @@ public class TrainTestExperiment {
         ObjectMapper mapper = new ObjectMapper(factory);
         JsonNode node = mapper.readTree(file.toFile());
 
-        return fromJSON(node, file.toUri());
+        TrainTestExperiment exp = fromJSON(node, file.toUri());
+        exp.specFile = file;
+        return exp;
     }
 
     /**
@@ -638,6 +1111,28 @@ public class TrainTestExperiment {
         if (cacheDir != null) {
             exp.setCacheDirectory(Paths.get(base.resolve(cacheDir)));
         }
+        String checkpointDir = json.path("checkpoint_directory").asText(null);
+        if (checkpointDir != null) {
+            exp.setCheckpointDirectory(Paths.get(base.resolve(checkpointDir)));
+        }
+        String cacheFormat = json.path("cache_format").asText(null);
+        if (cacheFormat != null) {
+            exp.setCacheFormat(CacheFormat.fromString(cacheFormat));
+        }
+        JsonNode budget = json.path("cache_memory_budget");
+        if (budget.isNumber()) {
+            exp.setCacheMemoryBudget(budget.asLong());
+        } else if (budget.isTextual()) {
+            exp.setCacheMemoryBudget(parseMemorySize(budget.asText()));
+        }
+        JsonNode jobBudget = json.path("job_memory_budget");
+        if (jobBudget.isNumber()) {
+            exp.setJobMemoryBudget(jobBudget.asLong());
+        } else if (jobBudget.isTextual()) {
+            exp.setJobMemoryBudget(parseMemorySize(jobBudget.asText()));
+        }
+        exp.setWorkerCount(json.path("worker_count").asInt(0));
+        exp.setWorkerHeap(json.path("worker_heap").asText(null));
         if (json.has("thread_count")) {
             exp.setThreadCount(json.get("thread_count").asInt(1));
         }
@@ -712,4 +1207,32 @@ public class TrainTestExperiment {
             throw new IllegalArgumentException("invalid eval task type " + type);
         }
     }
+
+    /**
+     * Parse a memory size, such as `512M` or `4G`.
+     * @param text The size, in bytes or with a `K`, `M` or `G` suffix.
+     * @return The number of bytes.
+     */
+    static long parseMemorySize(String text) {
+        String str = text.trim().toUpperCase();
+        if (str.endsWith("B")) {
+            str = str.substring(0, str.length() - 1);
+        }
+        int shift = 0;
+        if (str.endsWith("K")) {
+            shift = 10;
+        } else if (str.endsWith("M")) {
+            shift = 20;
+        } else if (str.endsWith("G")) {
+            shift = 30;
+        }
+        if (shift > 0) {
+            str = str.substring(0, str.length() - 1).trim();
+        }
+        try {
+            return Long.parseLong(str) << shift;
+        } catch (NumberFormatException e) {
+            throw new IllegalArgumentException("invalid memory size " + text, e);
+        }
+    }
 }
@@ -0,0 +1,384 @@
+/*
+ * LensKit, an open-source toolkit for recommender systems.
+ * Copyright 2014-2017 LensKit contributors (see CONTRIBUTORS.md)
+ * Copyright 2010-2014 Regents of the University of Minnesota
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining
+ * a copy of this software and associated documentation files (the
+ * "Software"), to deal in the Software without restriction, including
+ * without limitation the rights to use, copy, modify, merge, publish,
+ * distribute, sublicense, and/or sell copies of the Software, and to
+ * permit persons to whom the Software is furnished to do so, subject to
+ * the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be
+ * included in all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+ * EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF
+ * MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT.
+ * IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY
+ * CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT,
+ * TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION WITH THE
+ * SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ */
+package org.lenskit.eval.traintest;
+
+import com.google.common.util.concurrent.Uninterruptibles;
+import org.lenskit.util.table.RowBuilder;
+import org.lenskit.util.table.writer.TableWriter;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.*;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.net.SocketTimeoutException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Queue;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Runs an experiment's jobs in worker processes.  Each worker is a separate JVM running {@link ExperimentWorker} with
+ * its own heap; the coordinator sends jobs to the workers over loopback sockets and merges the rows they return into
+ * the experiment's global and per-user output.  If a worker process dies, the job it was running is recorded as
+ * failed and a new worker is started for the remaining jobs.
+ */
+class WorkerCoordinator {
+    private static final Logger logger = LoggerFactory.getLogger(WorkerCoordinator.class);
+    private static final long CONNECT_TIMEOUT_MS = TimeUnit.MINUTES.toMillis(5);
+    private static final long SHUTDOWN_TIMEOUT_MS = TimeUnit.SECONDS.toMillis(30);
+
+    private final TrainTestExperiment experiment;
+    private final Queue<ExperimentWorker.Job> jobs = new ConcurrentLinkedQueue<>();
+    private final List<String> failures = new CopyOnWriteArrayList<>();
+    private volatile boolean aborted = false;
+
+    WorkerCoordinator(TrainTestExperiment exp) {
+        experiment = exp;
+    }
+
+    /**
+     * Run all the experiment's jobs.  The experiment's outputs must be open.
+     */
+    void run() throws IOException {
+        List<DataSet> dataSets = experiment.getDataSets();
+        List<AlgorithmInstance> algorithms = experiment.getAlgorithms();
+        for (int ds = 0; ds < dataSets.size(); ds++) {
+            for (int algo = 0; algo < algorithms.size(); algo++) {
+                if (!experiment.replayCompletedJob(algorithms.get(algo), dataSets.get(ds))) {
+                    jobs.add(new ExperimentWorker.Job(ds, algo));
+                }
+            }
+        }
+
+        int nworkers = Math.min(experiment.getWorkerCount(), jobs.size());
+        int threads = Math.max(1, experiment.getThreadCount() / Math.max(nworkers, 1));
+        logger.info("running {} jobs in {} workers with {} threads each", jobs.size(), nworkers, threads);
+
+        List<Slot> slots = new ArrayList<>(nworkers);
+        List<Thread> slotThreads = new ArrayList<>(nworkers);
+        for (int i = 0; i < nworkers; i++) {
+            Slot slot = new Slot(i, threads);
+            Thread thread = new Thread(slot, "lenskit-worker-" + i);
+            thread.start();
+            slots.add(slot);
+            slotThreads.add(thread);
+        }
+        boolean finished = false;
+        try {
+            for (Thread thread: slotThreads) {
+                thread.join();
+            }
+            finished = true;
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new EvaluationException("interrupted waiting for workers", e);
+        } finally {
+            if (!finished) {
+                // the slot threads block on their workers' sockets, so stop the workers out from under them
+                aborted = true;
+                for (Thread thread: slotThreads) {
+                    thread.interrupt();
+                }
+                for (Slot slot: slots) {
+                    slot.abort();
+                }
+                // the caller closes the outputs once we return, so wait until no slot can still write to them
+                for (Thread thread: slotThreads) {
+                    Uninterruptibles.joinUninterruptibly(thread);
+                }
+            }
+        }
+
+        if (!failures.isEmpty()) {
+            logger.error("{} jobs failed", failures.size());
+            if (!experiment.getContinueAfterError()) {
+                throw new EvaluationException("job failed: " + failures.get(0));
+            }
+        }
+    }
+
+    private void jobFailed(ExperimentWorker.Job job, String error) {
+        logger.error("{} failed: {}", job, error);
+        failures.add(job + ": " + error);
+        if (!experiment.getContinueAfterError()) {
+            aborted = true;
+        }
+    }
+
+    /**
+     * Record a job whose worker died before reporting back.
+     */
+    private void writeFailure(ExperimentWorker.Job job) throws IOException {
+        DataSet ds = experiment.getDataSets().get(job.getDataSetIndex());
+        AlgorithmInstance algo = experiment.getAlgorithms().get(job.getAlgorithmIndex());
+        TableWriter out = experiment.getOutputLayout().prefixTable(experiment.getGlobalOutput(), ds, algo);
+        RowBuilder row = out.getLayout().newRowBuilder();
+        row.add("Succeeded", "N");
+        synchronized (this) {
+            out.writeRow(row.buildList());
+        }
+    }
+
+    private void writeResult(ExperimentWorker.Result result) throws IOException {
+        TableWriter global = experiment.getGlobalOutput();
+        TableWriter user = experiment.getUserOutput();
+        // keep each job's rows together in the output
+        synchronized (this) {
+            for (List<Object> row: result.getUserRows()) {
+                user.writeRow(row);
+            }
+            for (List<Object> row: result.getGlobalRows()) {
+                global.writeRow(row);
+            }
+            global.flush();
+        }
+    }
+
+    /**
+     * Build the command line for a worker process.
+     */
+    private List<String> workerCommand(int port, String token, int threads) {
+        List<String> cmd = new ArrayList<>();
+        cmd.add(Paths.get(System.getProperty("java.home"), "bin", "java").toString());
+        String heap = experiment.getWorkerHeap();
+        if (heap != null) {
+            cmd.add("-Xmx" + heap);
+        }
+        // pass along LensKit configuration properties
+        for (String name: System.getProperties().stringPropertyNames()) {
+            if (name.startsWith("lenskit.")) {
+                cmd.add("-D" + name + "=" + System.getProperty(name));
+            }
+        }
+        cmd.add("-cp");
+        cmd.add(System.getProperty("java.class.path"));
+        cmd.add(ExperimentWorker.class.getName());
+        cmd.add(Integer.toString(port));
+        cmd.add(token);
+        cmd.add(experiment.getSpecFile().toAbsolutePath().toString());
+        cmd.add(Integer.toString(threads));
+        return cmd;
+    }
+
+    /**
+     * A slot that runs jobs in one worker process at a time, replacing the worker if it dies.
+     */
+    private class Slot implements Runnable {
+        private final int index;
+        private final int threads;
+        private volatile boolean stopped;
+        private volatile Process process;
+        private volatile Socket socket;
+        private ObjectOutputStream output;
+        private ObjectInputStream input;
+
+        Slot(int idx, int nthreads) {
+            index = idx;
+            threads = nthreads;
+        }
+
+        @Override
+        public void run() {
+            try {
+                ExperimentWorker.Job job;
+                while (!aborted && !stopped && (job = jobs.poll()) != null) {
+                    runJob(job);
+                }
+            } finally {
+                shutdown();
+            }
+        }
+
+        private void runJob(ExperimentWorker.Job job) {
+            ExperimentWorker.Result result;
+            try {
+                if (process == null) {
+                    spawn();
+                }
+                logger.debug("sending {} to worker {}", job, index);
+                output.writeObject(job);
+                output.reset();
+                output.flush();
+                result = (ExperimentWorker.Result) input.readObject();
+            } catch (IOException | ClassNotFoundException e) {
+                if (stopped) {
+                    logger.debug("worker {} stopped while running {}", index, job);
+                    kill();
+                    return;
+                }
+                logger.error("worker " + index + " failed running " + job, e);
+                kill();
+                jobFailed(job, "worker process failed: " + e);
+                try {
+                    writeFailure(job);
+                } catch (IOException e2) {
+                    logger.error("error writing output", e2);
+                }
+                return;
+            }
+
+            if (result.getJobMemory() > 0) {
+                experiment.recordJobMemory(experiment.getAlgorithms().get(job.getAlgorithmIndex()),
+                                           result.getJobMemory());
+            }
+            try {
+                writeResult(result);
+            } catch (IOException e) {
+                jobFailed(job, "error writing output: " + e);
+                return;
+            }
+            if (result.getError() != null) {
+                jobFailed(job, result.getError());
+            } else {
+                logger.info("worker {} finished {}", index, job);
+            }
+        }
+
+        private void spawn() throws IOException {
+            String token = UUID.randomUUID().toString();
+            try (ServerSocket server = new ServerSocket(0, 1, InetAddress.getLoopbackAddress())) {
+                List<String> cmd = workerCommand(server.getLocalPort(), token, threads);
+                logger.info("starting worker {}", index);
+                logger.debug("worker command: {}", cmd);
+                startProcess(cmd);
+
+                server.setSoTimeout(1000);
+                long deadline = System.currentTimeMillis() + CONNECT_TIMEOUT_MS;
+                while (socket == null) {
+                    try {
+                        attach(server.accept());
+                    } catch (SocketTimeoutException e) {
+                        if (!process.isAlive()) {
+                            throw new IOException("worker exited with status " + process.exitValue());
+                        } else if (System.currentTimeMillis() > deadline) {
+                            throw new IOException("timed out waiting for worker to connect");
+                        }
+                    }
+                }
+            }
+
+            InputStream rawIn = socket.getInputStream();
+            if (!token.equals(readLine(rawIn))) {
+                throw new IOException("worker connection has invalid token");
+            }
+            output = new ObjectOutputStream(new BufferedOutputStream(socket.getOutputStream()));
+            output.flush();
+            input = new ObjectInputStream(new BufferedInputStream(rawIn));
+        }
+
+        private synchronized void startProcess(List<String> cmd) throws IOException {
+            if (stopped) {
+                throw new InterruptedIOException("worker slot " + index + " stopped");
+            }
+            process = new ProcessBuilder(cmd).inheritIO().start();
+        }
+
+        private synchronized void attach(Socket sock) throws IOException {
+            if (stopped) {
+                sock.close();
+                throw new InterruptedIOException("worker slot " + index + " stopped");
+            }
+            socket = sock;
+        }
+
+        /**
+         * Forcibly stop this slot's worker from another thread.  The slot's own thread sees its connection fail and
+         * exits without starting a new worker.
+         */
+        synchronized void abort() {
+            stopped = true;
+            Socket sock = socket;
+            if (sock != null) {
+                try {
+                    sock.close();
+                } catch (IOException e) {
+                    logger.debug("error closing worker socket", e);
+                }
+            }
+            Process proc = process;
+            if (proc != null) {
+                proc.destroyForcibly();
+            }
+        }
+
+        /**
+         * Tell the worker to shut down and wait for it to exit.
+         */
+        private void shutdown() {
+            if (process == null) {
+                return;
+            }
+            try {
+                output.writeObject(null);
+                output.flush();
+                if (!process.waitFor(SHUTDOWN_TIMEOUT_MS, TimeUnit.MILLISECONDS)) {
+                    logger.warn("worker {} did not exit", index);
+                }
+            } catch (IOException e) {
+                logger.warn("error shutting down worker " + index, e);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            } finally {
+                kill();
+            }
+        }
+
+        private synchronized void kill() {
+            if (socket != null) {
+                try {
+                    socket.close();
+                } catch (IOException e) {
+                    logger.debug("error closing worker socket", e);
+                }
+            }
+            if (process != null) {
+                process.destroyForcibly();
+            }
+            process = null;
+            socket = null;
+            output = null;
+            input = null;
+        }
+    }
+
+    private static String readLine(InputStream in) throws IOException {
+        ByteArrayOutputStream buf = new ByteArrayOutputStream();
+        int b;
+        while ((b = in.read()) != '\n') {
+            if (b < 0) {
+                throw new EOFException("worker closed connection");
+            }
+            buf.write(b);
+        }
+        return new String(buf.toByteArray(), StandardCharsets.US_ASCII);
+    }
+}
@@ -92,6 +92,75 @@ class ComponentCacheTest {
         assertThat other, notNullValue()
     }
 
+    @Test
+    public void testTracksMemoryUse() {
+        def graph = config.buildGraph()
+        def node = graph.reachableNodes.find {
+            it.label.satisfaction.type == ItemMeanRatingItemScorer
+        }
+        assertThat cache.memoryUsed, equalTo(0L)
+        cache.instantiate(node)
+        assertThat cache.memoryUsed, greaterThan(0L)
+        assertThat cache.memoryUsed, lessThanOrEqualTo(cache.memoryBudget)
+    }
+
+    @Test
+    public void testEvictOverBudget() {
+        cache = new ComponentCache(folder.root.toPath(), null, 1, CacheFormat.GZIP)
+        def graph = config.buildGraph()
+        def node = graph.reachableNodes.find {
+            it.label.satisfaction.type == ItemMeanRatingItemScorer
+        }
+        def object = cache.instantiate(node)
+        assertThat cache.memoryUsed, equalTo(0L)
+        // the object did not fit in memory, so it is reloaded from disk
+        def other = cache.instantiate(node)
+        assertThat other, notNullValue()
+        assertThat other, not(sameInstance(object))
+    }
+
+    @Test
+    public void testBlockFormat() {
+        cache = new ComponentCache(folder.root.toPath(), null, 1, CacheFormat.BLOCK)
+        def graph = config.buildGraph()
+        def node = graph.reachableNodes.find {
+            it.label.satisfaction.type == ItemMeanRatingItemScorer
+        }
+        cache.instantiate(node)
+        assertThat new File(folder.root, "${cache.makeNodeKey(node)}.dat.blk"),
+                   existingFile()
+        assertThat cache.instantiate(node), notNullValue()
+    }
+
+    @Test
+    public void testReadOtherFormat() {
+        def graph = config.buildGraph()
+        def node = graph.reachableNodes.find {
+            it.label.satisfaction.type == ItemMeanRatingItemScorer
+        }
+        def object = cache.instantiate(node)
+        // a cache with a different format still reads the GZIP file
+        cache = new ComponentCache(folder.root.toPath(), null, 1, CacheFormat.RAW)
+        def other = cache.instantiate(node)
+        assertThat other, not(sameInstance(object))
+        assertThat new File(folder.root, "${cache.makeNodeKey(node)}.dat"),
+                   not(existingFile())
+    }
+
+    @Test
+    public void testRelease() {
+        def graph = config.buildGraph()
+        def node = graph.reachableNodes.find {
+            it.label.satisfaction.type == ItemMeanRatingItemScorer
+        }
+        def object = cache.instantiate(node)
+        assertThat cache.memoryUsed, greaterThan(0L)
+        cache.release(node)
+        assertThat cache.memoryUsed, equalTo(0L)
+        // the released component is reloaded from disk
+        assertThat cache.instantiate(node), not(sameInstance(object))
+    }
+
     @Test
     public void testConfigureNull() {
         def config = ConfigHelpers.load {
@@ -100,6 +100,95 @@ class TrainTestExperimentTest {
         assertThat experiment.outputFile, equalTo(Paths.get("eval-out.csv"))
     }
 
+    @Test
+    void testCacheMemoryBudget() {
+        experiment.cacheMemoryBudget = TrainTestExperiment.parseMemorySize("64M")
+        assertThat experiment.cacheMemoryBudget, equalTo(64L * 1024 * 1024)
+        assertThat TrainTestExperiment.parseMemorySize("2g"), equalTo(2L << 30)
+        assertThat TrainTestExperiment.parseMemorySize("4096"), equalTo(4096L)
+    }
+
+    @Test
+    void testJobMemoryEstimates() {
+        def declared = new AlgorithmInstance("Declared", [], [MemoryEstimate: "2M"])
+        def learned = new AlgorithmInstance("Learned", [], [:])
+        assertThat experiment.estimateJobMemory(declared), equalTo(2L << 20)
+        assertThat experiment.estimateJobMemory(learned), equalTo(0L)
+        experiment.recordJobMemory(learned, 5000)
+        experiment.recordJobMemory(learned, 3000)
+        assertThat experiment.estimateJobMemory(learned), equalTo(5000L)
+    }
+
+    @Test
+    void testResumeFromCheckpoints() {
+        List<DataSet> sets = crossfoldRatings()
+        experiment.addAlgorithm("Baseline") {
+            bind ItemScorer to ItemMeanRatingItemScorer
+        }
+        experiment.addDataSets(sets)
+        experiment.addTask(new PredictEvalTask())
+        experiment.checkpointDirectory = folder.root.toPath().resolve("checkpoints")
+        def first = experiment.execute()
+        assertThat(first, hasSize(2))
+        assertThat(experiment.checkpointDirectory.toFile().list(), arrayWithSize(2))
+
+        // a second run should re-use the saved results instead of building anything
+        def second = experiment.execute()
+        assertThat(second, hasSize(2))
+        assertThat(second.column("Succeeded"), everyItem(equalTo('Y')))
+        assertThat(second.column("BuildTime") as Set, equalTo(first.column("BuildTime") as Set))
+    }
+
+    @Test
+    void testResumeWithUserOutput() {
+        List<DataSet> sets = crossfoldRatings()
+        experiment.addAlgorithm("Baseline") {
+            bind ItemScorer to ItemMeanRatingItemScorer
+        }
+        experiment.addDataSets(sets)
+        experiment.addTask(new PredictEvalTask())
+        experiment.checkpointDirectory = folder.root.toPath().resolve("checkpoints")
+        def first = experiment.execute()
+        assertThat(first, hasSize(2))
+
+        // the saved records have no user rows, so turning on user output must re-run the jobs
+        def userOut = folder.root.toPath().resolve("users.csv")
+        experiment.userOutputFile = userOut
+        def second = experiment.execute()
+        assertThat(second, hasSize(2))
+        def users = CSVParser.parse(userOut.toFile(), Charsets.UTF_8, CSVFormat.DEFAULT.withFirstRecordAsHeader()).records
+        assertThat(users*.get("Partition") as Set, hasSize(2))
+
+        // and the re-run jobs saved their user rows, so a third run replays them
+        Files.delete(userOut)
+        experiment.execute()
+        def replayed = CSVParser.parse(userOut.toFile(), Charsets.UTF_8, CSVFormat.DEFAULT.withFirstRecordAsHeader()).records
+        assertThat(replayed, hasSize(users.size()))
+    }
+
+    @Test
+    void testRunWorkerJob() {
+        List<DataSet> sets = crossfoldRatings()
+        experiment.addAlgorithm("Baseline") {
+            bind ItemScorer to ItemMeanRatingItemScorer
+        }
+        experiment.addDataSets(sets)
+        experiment.addTask(new PredictEvalTask())
+        experiment.startWorker()
+        try {
+            def result = experiment.runWorkerJob(1, 0)
+            assertThat result.error, nullValue()
+            assertThat result.globalRows, hasSize(1)
+            def layout = experiment.outputLayout
+            def row = result.globalRows[0]
+            assertThat row[layout.getAlgorithmColumn("Algorithm")], equalTo("Baseline")
+            assertThat row[layout.getDataColumn("Partition")], equalTo(sets[1].attributes.Partition)
+            assertThat row, hasItem("Y")
+        } finally {
+            experiment.finishWorker()
+        }
+    }
+
     @Test
     void testRun() {
         List<DataSet> sets = crossfoldRatings()
@@ -107,12 +196,71 @@ class TrainTestExperimentTest {
             bind ItemScorer to ItemMeanRatingItemScorer
         }
         experiment.addDataSets(sets)
+        experiment.jobMemoryBudget = 512L * 1024 * 1024
         def predT = new PredictEvalTask()
         experiment.addTask(predT)
         def result = experiment.execute()
         assertThat(result, notNullValue())
         assertThat(result, hasSize(2))
         assertThat(result.column("Succeeded"), everyItem(equalTo('Y')))
+        assertThat(result.column("ModelMemory"), everyItem(greaterThan(0L)))
+    }
+
+    @Test
+    void testRunWithoutMeasuringMemory() {
+        List<DataSet> sets = crossfoldRatings()
+        experiment.addAlgorithm("Baseline") {
+            bind ItemScorer to ItemMeanRatingItemScorer
+        }
+        experiment.addDataSets(sets)
+        experiment.addTask(new PredictEvalTask())
+        def result = experiment.execute()
+        assertThat(result, hasSize(2))
+        assertThat(result.column("Succeeded"), everyItem(equalTo('Y')))
+        assertThat(result.column("ModelMemory"), everyItem(nullValue()))
+    }
+
+    @Test
+    void testRunSharedComponents() {
+        List<DataSet> sets = crossfoldRatings()
+        experiment.addAlgorithm("ItemMean") {
+            bind ItemScorer to ItemMeanRatingItemScorer
+        }
+        experiment.addAlgorithm("Popular") {
+            bind ItemScorer to PopularityRankItemScorer
+        }
+        experiment.addAlgorithm("ItemMeanAgain") {
+            bind ItemScorer to ItemMeanRatingItemScorer
+        }
+        experiment.addDataSets(sets)
+        experiment.threadCount = 2
+        experiment.addTask(new PredictEvalTask())
+        def result = experiment.execute()
+        assertThat(result, hasSize(6))
+        assertThat(result.column("Succeeded"), everyItem(equalTo('Y')))
+    }
+
+    @Test
+    void testSharedComponentsReportFullMemory() {
+        List<DataSet> sets = crossfoldRatings()
+        experiment.addAlgorithm("ItemMean") {
+            bind ItemScorer to ItemMeanRatingItemScorer
+        }
+        experiment.addAlgorithm("ItemMeanAgain") {
+            bind ItemScorer to ItemMeanRatingItemScorer
+        }
+        experiment.addDataSets(sets)
+        experiment.jobMemoryBudget = 512L * 1024 * 1024
+        experiment.addTask(new PredictEvalTask())
+        def result = experiment.execute()
+        assertThat(result, hasSize(4))
+        // the second job reuses the first one's components, but still reports the whole model
+        for (ds in sets) {
+            def rows = result.findAll { it.value("Partition") == ds.attributes.Partition }
+            assertThat(rows, hasSize(2))
+            assertThat(rows[0].value("ModelMemory"), greaterThan(0L))
+            assertThat(rows[1].value("ModelMemory"), equalTo(rows[0].value("ModelMemory")))
+        }
     }
 
     /**
@@ -0,0 +1,144 @@
+/*
+ * LensKit, an open-source toolkit for recommender systems.
+ * Copyright 2014-2017 LensKit contributors (see CONTRIBUTORS.md)
+ * Copyright 2010-2014 Regents of the University of Minnesota
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining
+ * a copy of this software and associated documentation files (the
+ * "Software"), to deal in the Software without restriction, including
+ * without limitation the rights to use, copy, modify, merge, publish,
+ * distribute, sublicense, and/or sell copies of the Software, and to
+ * permit persons to whom the Software is furnished to do so, subject to
+ * the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be
+ * included in all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+ * EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF
+ * MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT.
+ * IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY
+ * CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT,
+ * TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION WITH THE
+ * SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ */
+package org.lenskit.eval.traintest
+
+import org.junit.Before
+import org.junit.Rule
+import org.junit.Test
+import org.junit.rules.TemporaryFolder
+import org.lenskit.data.dao.file.StaticDataSource
+import org.lenskit.eval.crossfold.CrossfoldMethods
+import org.lenskit.eval.crossfold.Crossfolder
+import org.lenskit.eval.crossfold.HistoryPartitions
+import org.lenskit.eval.crossfold.SortOrder
+
+import java.nio.file.Path
+
+import static org.grouplens.lenskit.util.test.ExtraMatchers.existingFile
+import static org.hamcrest.Matchers.*
+import static org.junit.Assert.assertThat
+import static org.junit.Assert.fail
+
+/**
+ * Tests for running experiments in worker processes.
+ */
+class WorkerCoordinatorTest {
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder()
+    Path root
+
+    @Before
+    void prepareData() {
+        root = folder.root.toPath()
+        def file = folder.newFile("ratings.csv")
+        file.append('1,3,3,881250949\n')
+        file.append('1,5,3.5,881250949\n')
+        file.append('2,5,3,881250949\n')
+        file.append('2,4,3,881250949\n')
+        file.append('3,1,3,881250949\n')
+        file.append('3,4,3,881250949\n')
+        file.append('3,5,3,881250949\n')
+        file.append('5,2,3,881250949\n')
+        file.append('5,1,3,881250949\n')
+        file.append('5,5,3,881250949\n')
+
+        def cf = new Crossfolder()
+        cf.source = StaticDataSource.csvRatingFile(file.toPath())
+        cf.partitionCount = 2
+        cf.method = CrossfoldMethods.partitionUsers(SortOrder.RANDOM, HistoryPartitions.holdout(1))
+        cf.outputDir = root.resolve("splits")
+        cf.execute()
+
+        folder.newFile("baseline.groovy").text = '''import org.lenskit.api.ItemScorer
+import org.lenskit.baseline.ItemMeanRatingItemScorer
+
+bind ItemScorer to ItemMeanRatingItemScorer
+'''
+        folder.newFile("fail.groovy").text = '''import org.lenskit.api.ItemScorer
+import org.lenskit.basic.ConstantItemScorer
+
+import javax.inject.Provider
+
+class FailingValue implements Provider<Double> {
+    Double get() {
+        throw new UnsupportedOperationException("ni")
+    }
+}
+
+bind ItemScorer to ConstantItemScorer
+bind (ConstantItemScorer.Value, double) toProvider new FailingValue()
+'''
+    }
+
+    private TrainTestExperiment loadSpec(String algorithms, boolean continueAfterError) {
+        def spec = folder.newFile("experiment.yaml")
+        spec.text = """output_file: results.csv
+cache_directory: cache
+job_memory_budget: 512M
+worker_count: 1
+continue_after_error: $continueAfterError
+datasets:
+- splits/datasets.yaml
+algorithms:
+$algorithms
+tasks:
+- type: predict
+"""
+        return TrainTestExperiment.load(spec.toPath())
+    }
+
+    @Test
+    void testRunInWorker() {
+        def experiment = loadSpec("  Baseline: baseline.groovy", false)
+        def result = experiment.execute()
+        assertThat(result, hasSize(2))
+        assertThat(result.column("Succeeded"), everyItem(equalTo('Y')))
+        assertThat(result.column("Algorithm"), everyItem(equalTo('Baseline')))
+        assertThat(result.column("ModelMemory"), everyItem(greaterThan(0L)))
+        assertThat(root.resolve("results.csv").toFile(), existingFile())
+        // the worker's measurements are saved by the coordinator
+        assertThat(root.resolve("cache").resolve("memory-estimates.json").toFile(), existingFile())
+    }
+
+    @Test
+    void testContinueAfterWorkerJobFails() {
+        def experiment = loadSpec("  Fail: fail.groovy\n  Baseline: baseline.groovy", true)
+        def result = experiment.execute()
+        assertThat(result, hasSize(4))
+        assertThat(result.column("Succeeded"),
+                   containsInAnyOrder('Y', 'Y', 'N', 'N'))
+    }
+
+    @Test
+    void testWorkerJobFails() {
+        def experiment = loadSpec("  Fail: fail.groovy", false)
+        try {
+            experiment.execute()
+            fail("failing job should fail the experiment")
+        } catch (EvaluationException e) {
+            assertThat(e.message, containsString("job failed"))
+        }
+    }
+}
@@ -0,0 +1,154 @@
+/*
+ * LensKit, an open-source toolkit for recommender systems.
+ * Copyright 2014-2017 LensKit contributors (see CONTRIBUTORS.md)
+ * Copyright 2010-2014 Regents of the University of Minnesota
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining
+ * a copy of this software and associated documentation files (the
+ * "Software"), to deal in the Software without restriction, including
+ * without limitation the rights to use, copy, modify, merge, publish,
+ * distribute, sublicense, and/or sell copies of the Software, and to
+ * permit persons to whom the Software is furnished to do so, subject to
+ * the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be
+ * included in all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+ * EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF
+ * MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT.
+ * IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY
+ * CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT,
+ * TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION WITH THE
+ * SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ */
+package org.lenskit.eval.traintest;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.*;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Random;
+
+import static org.hamcrest.Matchers.*;
+import static org.junit.Assert.assertThat;
+import static org.junit.Assert.fail;
+
+public class CacheFormatTest {
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    /**
+     * Make an object that spans several compression blocks, with both compressible and incompressible parts.
+     */
+    private Object makeObject() {
+        Random rng = new Random(42);
+        double[] noise = new double[300000];
+        for (int i = 0; i < noise.length; i++) {
+            noise[i] = rng.nextDouble();
+        }
+        int[] counts = new int[500000];
+        for (int i = 0; i < counts.length; i++) {
+            counts[i] = i % 10;
+        }
+        return new Object[]{"model", noise, counts};
+    }
+
+    private Object roundTrip(CacheFormat format, Object obj) throws IOException, ClassNotFoundException {
+        Path file = folder.getRoot().toPath().resolve("object" + format.getExtension());
+        try (OutputStream out = format.wrapOutput(Files.newOutputStream(file));
+             ObjectOutputStream oout = new ObjectOutputStream(out)) {
+            oout.writeObject(obj);
+        }
+        try (InputStream in = format.openInput(file);
+             ObjectInputStream oin = new ObjectInputStream(in)) {
+            Object result = oin.readObject();
+            assertThat(in.read(), equalTo(-1));
+            return result;
+        }
+    }
+
+    @Test
+    public void testRoundTrip() throws IOException, ClassNotFoundException {
+        Object obj = makeObject();
+        for (CacheFormat format: CacheFormat.values()) {
+            Object result = roundTrip(format, obj);
+            assertThat(format.toString(), result, equalTo(obj));
+        }
+    }
+
+    @Test
+    public void testSmallObject() throws IOException, ClassNotFoundException {
+        for (CacheFormat format: CacheFormat.values()) {
+            assertThat(roundTrip(format, "x"), equalTo((Object) "x"));
+        }
+    }
+
+    @Test
+    public void testBlocksAreCompressed() throws IOException {
+        Path file = folder.getRoot().toPath().resolve("zeros.blk");
+        try (OutputStream out = CacheFormat.BLOCK.wrapOutput(Files.newOutputStream(file))) {
+            out.write(new byte[5 * BlockCompressedOutputStream.BLOCK_SIZE + 17]);
+        }
+        assertThat(Files.size(file), lessThan((long) BlockCompressedOutputStream.BLOCK_SIZE));
+        try (InputStream in = CacheFormat.BLOCK.openInput(file)) {
+            long n = 0;
+            byte[] buf = new byte[8192];
+            int k;
+            while ((k = in.read(buf)) >= 0) {
+                n += k;
+            }
+            assertThat(n, equalTo(5L * BlockCompressedOutputStream.BLOCK_SIZE + 17));
+        }
+    }
+
+    @Test
+    public void testFlushWritesPartialBlock() throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        byte[] data = new byte[100];
+        new Random(42).nextBytes(data);
+        BlockCompressedOutputStream out = new BlockCompressedOutputStream(bytes, Runnable::run);
+        out.write(data);
+        out.flush();
+
+        // the flushed data is readable once the stream is terminated
+        ByteArrayOutputStream copy = new ByteArrayOutputStream();
+        copy.write(bytes.toByteArray());
+        new DataOutputStream(copy).writeInt(0);
+        byte[] flushed = copy.toByteArray();
+        try (InputStream in = new BlockCompressedInputStream(new ByteArrayInputStream(flushed), Runnable::run)) {
+            byte[] read = new byte[data.length];
+            new DataInputStream(in).readFully(read);
+            assertThat(read, equalTo(data));
+            assertThat(in.read(), equalTo(-1));
+        }
+        out.close();
+    }
+
+    @Test
+    public void testRejectOversizedBlock() throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        DataOutputStream out = new DataOutputStream(bytes);
+        out.writeInt(BlockCompressedOutputStream.MAGIC);
+        out.writeInt(BlockCompressedOutputStream.BLOCK_SIZE + 1);
+        out.writeInt(16);
+        out.write(new byte[16]);
+        out.writeInt(0);
+        try (InputStream in = new BlockCompressedInputStream(new ByteArrayInputStream(bytes.toByteArray()),
+                                                             Runnable::run)) {
+            in.read();
+            fail("oversized block should be rejected");
+        } catch (IOException e) {
+            assertThat(e.getMessage(), containsString("invalid block header"));
+        }
+    }
+
+    @Test
+    public void testFromString() {
+        assertThat(CacheFormat.fromString("block"), equalTo(CacheFormat.BLOCK));
+        assertThat(CacheFormat.fromString(" Raw"), equalTo(CacheFormat.RAW));
+    }
+}
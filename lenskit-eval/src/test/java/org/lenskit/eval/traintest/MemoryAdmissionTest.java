@@ -0,0 +1,71 @@
+/*
+ * LensKit, an open-source toolkit for recommender systems.
+ * Copyright 2014-2017 LensKit contributors (see CONTRIBUTORS.md)
+ * Copyright 2010-2014 Regents of the University of Minnesota
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining
+ * a copy of this software and associated documentation files (the
+ * "Software"), to deal in the Software without restriction, including
+ * without limitation the rights to use, copy, modify, merge, publish,
+ * distribute, sublicense, and/or sell copies of the Software, and to
+ * permit persons to whom the Software is furnished to do so, subject to
+ * the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be
+ * included in all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+ * EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF
+ * MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT.
+ * IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY
+ * CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT,
+ * TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION WITH THE
+ * SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ */
+package org.lenskit.eval.traintest;
+
+import org.junit.Test;
+
+import static org.hamcrest.Matchers.equalTo;
+import static org.junit.Assert.assertThat;
+
+public class MemoryAdmissionTest {
+    @Test
+    public void testAdmitWithinBudget() {
+        MemoryAdmission admit = new MemoryAdmission(100);
+        assertThat(admit.tryAcquire(60), equalTo(true));
+        assertThat(admit.tryAcquire(40), equalTo(true));
+        assertThat(admit.tryAcquire(1), equalTo(false));
+        admit.release(40);
+        assertThat(admit.tryAcquire(30), equalTo(true));
+    }
+
+    @Test
+    public void testAlwaysAdmitOneJob() {
+        MemoryAdmission admit = new MemoryAdmission(100);
+        assertThat(admit.tryAcquire(500), equalTo(true));
+        assertThat(admit.tryAcquire(0), equalTo(true));
+        assertThat(admit.tryAcquire(10), equalTo(false));
+        admit.release(500);
+        assertThat(admit.tryAcquire(10), equalTo(true));
+    }
+
+    @Test
+    public void testAcquireWaitsForRelease() throws InterruptedException {
+        MemoryAdmission admit = new MemoryAdmission(100);
+        admit.acquire(80);
+        Thread waiter = new Thread(() -> {
+            try {
+                admit.acquire(50);
+            } catch (InterruptedException e) {
+                throw new RuntimeException(e);
+            }
+        });
+        waiter.start();
+        Thread.sleep(50);
+        assertThat(waiter.isAlive(), equalTo(true));
+        admit.release(80);
+        waiter.join(5000);
+        assertThat(waiter.isAlive(), equalTo(false));
+    }
+}
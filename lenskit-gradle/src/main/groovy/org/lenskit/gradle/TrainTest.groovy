@@ -57,6 +57,36 @@ class TrainTest extends LenskitTask implements GradleUtils {
      */
     final Property<Object> cacheDirectory = project.objects.property(Object)
 
+    /**
+     * The directory for job completion records.  If set, re-running the evaluation skips jobs that already completed.
+     */
+    final Property<Object> checkpointDirectory = project.objects.property(Object)
+
+    /**
+     * The memory budget for shared model components, in bytes or with a `K`, `M` or `G` suffix.
+     */
+    final Property<Object> cacheMemoryBudget = project.objects.property(Object)
+
+    /**
+     * The on-disk format for cached model components (`gzip`, `raw`, or `block`).
+     */
+    final Property<String> cacheFormat = project.objects.property(String)
+
+    /**
+     * The memory budget for concurrently running evaluation jobs, in bytes or with a `K`, `M` or `G` suffix.
+     */
+    final Property<Object> jobMemoryBudget = project.objects.property(Object)
+
+    /**
+     * The number of worker processes to run evaluation jobs in (0 to run them in the evaluator process).
+     */
+    final Property<Integer> workerCount = project.objects.property(Integer)
+
+    /**
+     * The maximum heap size for each worker process, as passed to `-Xmx` (e.g. `4g`).
+     */
+    final Property<String> workerHeap = project.objects.property(String)
+
     /**
      * The thread count for the evaluator.
      */
@@ -234,6 +264,24 @@ class TrainTest extends LenskitTask implements GradleUtils {
                     parallel_tasks        : parallelTasks.get(),
                     share_model_components: shareModelComponents.get(),
                     continue_after_error  : continueAfterError.get()]
+        if (checkpointDirectory.isPresent()) {
+            json.checkpoint_directory = makeUrl(checkpointDirectory.get(), specFile.get())
+        }
+        if (cacheMemoryBudget.isPresent()) {
+            json.cache_memory_budget = cacheMemoryBudget.get()
+        }
+        if (cacheFormat.isPresent()) {
+            json.cache_format = cacheFormat.get()
+        }
+        if (jobMemoryBudget.isPresent()) {
+            json.job_memory_budget = jobMemoryBudget.get()
+        }
+        if (workerCount.isPresent()) {
+            json.worker_count = workerCount.get()
+        }
+        if (workerHeap.isPresent()) {
+            json.worker_heap = workerHeap.get()
+        }
         json.datasets = dataSets.collect {it.call()}
         json.algorithms = algorithms.collectEntries {k, v ->
             [k, makeUrl(v, specFile.get())]
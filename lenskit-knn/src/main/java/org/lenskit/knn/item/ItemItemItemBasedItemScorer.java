@@ -111,7 +111,7 @@ public class ItemItemItemBasedItemScorer extends AbstractItemBasedItemScorer {
         Long2DoubleAccumulator acc;
         if (neighborhoodSize > 0) {
             // FIXME Abstract accumulator selection logic
-            acc = new TopNLong2DoubleAccumulator(neighborhoodSize);
+            acc = TopNLong2DoubleAccumulator.forThread(neighborhoodSize);
         } else {
             acc = new UnlimitedLong2DoubleAccumulator();
         }
@@ -28,8 +28,11 @@ import it.unimi.dsi.fastutil.longs.Long2DoubleMap;
 import it.unimi.dsi.fastutil.longs.Long2DoubleOpenHashMap;
 import it.unimi.dsi.fastutil.longs.LongIterator;
 import it.unimi.dsi.fastutil.longs.LongIterators;
+import it.unimi.dsi.fastutil.longs.LongList;
+import it.unimi.dsi.fastutil.longs.LongSet;
 import org.lenskit.api.ResultMap;
 import org.lenskit.basic.AbstractItemScorer;
+import org.lenskit.basic.CatalogItemScorer;
 import org.lenskit.data.ratings.RatingVectorPDAO;
 import org.lenskit.knn.MinNeighbors;
 import org.lenskit.knn.NeighborhoodSize;
@@ -40,12 +43,14 @@ import org.lenskit.util.InvertibleFunction;
 import org.lenskit.util.collections.Long2DoubleAccumulator;
 import org.lenskit.util.collections.TopNLong2DoubleAccumulator;
 import org.lenskit.util.keys.Long2DoubleSortedArrayMap;
+import org.lenskit.util.keys.SortedKeyIndex;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import javax.annotation.Nonnull;
 import javax.inject.Inject;
 import java.util.ArrayList;
+import java.util.BitSet;
 import java.util.Collection;
 import java.util.List;
 import java.util.Map;
@@ -54,8 +59,12 @@ import java.util.Map;
  * Score items using an item-item CF model. User ratings are <b>not</b> supplied
  * as default preferences.
  */
-public class ItemItemScorer extends AbstractItemScorer {
+public class ItemItemScorer extends AbstractItemScorer implements CatalogItemScorer {
     private static final Logger logger = LoggerFactory.getLogger(ItemItemScorer.class);
+    /**
+     * The number of items in each tile of the blocked batch computation.
+     */
+    static final int ITEM_TILE_SIZE = 1024;
     protected final ItemItemModel model;
 
     private final RatingVectorPDAO rvDAO;
@@ -122,6 +131,97 @@ public class ItemItemScorer extends AbstractItemScorer {
         return Results.newResultMap(results);
     }
 
+    /**
+     * Score the items in the model's universe in index order, skipping the excluded items.  Scores are collected
+     * and un-normalized in tiles of {@link #ITEM_TILE_SIZE} items, so the buffer stays small however many items the
+     * model has.
+     */
+    @Override
+    public void scoreCatalog(long user, @Nonnull LongSet exclude, @Nonnull Long2DoubleAccumulator output) {
+        SortedKeyIndex universe = SortedKeyIndex.fromCollection(model.getItemUniverse());
+        BitSet excluded = universe.getIndexMask(exclude);
+        logger.debug("scoring {} catalog items for user {}",
+                     universe.size() - excluded.cardinality(), user);
+
+        Long2DoubleMap ratings = Long2DoubleSortedArrayMap.create(rvDAO.userRatingVector(user));
+        InvertibleFunction<Long2DoubleMap, Long2DoubleMap> transform = normalizer.makeTransformation(user, ratings);
+        Long2DoubleMap itemScores = transform.apply(ratings);
+
+        Long2DoubleMap results = new Long2DoubleOpenHashMap(ITEM_TILE_SIZE);
+        ItemItemScoreAccumulator accum = ItemItemScoreAccumulator.basic(results);
+        int ub = universe.getUpperBound();
+        for (int start = universe.getLowerBound(); start < ub; start += ITEM_TILE_SIZE) {
+            int end = Math.min(ub, start + ITEM_TILE_SIZE);
+            for (int i = excluded.nextClearBit(start); i < end; i = excluded.nextClearBit(i + 1)) {
+                scoreItem(itemScores, universe.getKey(i), accum);
+            }
+            if (!results.isEmpty()) {
+                accum.applyReversedTransform(transform);
+                output.putAll(results);
+                results.clear();
+            }
+        }
+    }
+
+    /**
+     * {@inheritDoc}
+     * This walks the neighborhood matrix once for the whole block of users: each item's neighbor row is fetched
+     * once and intersected with every user's ratings.  Scores are collected in tiles of {@link #ITEM_TILE_SIZE}
+     * items and un-normalized tile by tile, so the per-user buffers stay small.
+     */
+    @Override
+    public void scoreCatalogs(@Nonnull LongList users,
+                              @Nonnull List<? extends LongSet> excludes,
+                              @Nonnull List<? extends Long2DoubleAccumulator> outputs) {
+        SortedKeyIndex universe = SortedKeyIndex.fromCollection(model.getItemUniverse());
+        int nusers = users.size();
+        logger.debug("scoring {} catalog items for {} users", universe.size(), nusers);
+
+        List<Long2DoubleMap> userScores = new ArrayList<>(nusers);
+        List<InvertibleFunction<Long2DoubleMap, Long2DoubleMap>> transforms = new ArrayList<>(nusers);
+        List<Long2DoubleMap> results = new ArrayList<>(nusers);
+        List<ItemItemScoreAccumulator> accums = new ArrayList<>(nusers);
+        BitSet[] masks = new BitSet[nusers];
+        for (int u = 0; u < nusers; u++) {
+            long user = users.getLong(u);
+            Long2DoubleMap ratings = Long2DoubleSortedArrayMap.create(rvDAO.userRatingVector(user));
+            InvertibleFunction<Long2DoubleMap, Long2DoubleMap> transform = normalizer.makeTransformation(user, ratings);
+            transforms.add(transform);
+            userScores.add(transform.apply(ratings));
+            Long2DoubleMap res = new Long2DoubleOpenHashMap();
+            results.add(res);
+            accums.add(ItemItemScoreAccumulator.basic(res));
+            masks[u] = universe.getIndexMask(excludes.get(u));
+        }
+
+        int ub = universe.getUpperBound();
+        for (int start = universe.getLowerBound(); start < ub; start += ITEM_TILE_SIZE) {
+            int end = Math.min(ub, start + ITEM_TILE_SIZE);
+            for (int i = start; i < end; i++) {
+                long item = universe.getKey(i);
+                Long2DoubleSortedArrayMap neighbors = null;
+                for (int u = 0; u < nusers; u++) {
+                    if (masks[u].get(i)) {
+                        continue;
+                    }
+                    if (neighbors == null) {
+                        neighbors = Long2DoubleSortedArrayMap.create(model.getNeighbors(item));
+                    }
+                    scoreItem(userScores.get(u), item, neighbors, accums.get(u));
+                }
+            }
+            // the reverse transform works item by item, so it can be applied to each tile
+            for (int u = 0; u < nusers; u++) {
+                Long2DoubleMap res = results.get(u);
+                if (!res.isEmpty()) {
+                    accums.get(u).applyReversedTransform(transforms.get(u));
+                    outputs.get(u).putAll(res);
+                    res.clear();
+                }
+            }
+        }
+    }
+
     /**
      * Score all items into an accumulator.
      * @param user The user.
@@ -145,15 +245,19 @@ public class ItemItemScorer extends AbstractItemScorer {
     }
 
     protected void scoreItem(Long2DoubleMap userData, long item, ItemItemScoreAccumulator accum) {
+        scoreItem(userData, item, Long2DoubleSortedArrayMap.create(model.getNeighbors(item)), accum);
+    }
+
+    private void scoreItem(Long2DoubleMap userData, long item, Long2DoubleSortedArrayMap allNeighbors,
+                           ItemItemScoreAccumulator accum) {
         // find the usable neighbors
-        Long2DoubleSortedArrayMap allNeighbors = Long2DoubleSortedArrayMap.create(model.getNeighbors(item));
         Long2DoubleMap neighborhood = allNeighbors.subMap(userData.keySet());
 
         if (neighborhoodSize > 0) {
             if (logger.isTraceEnabled()) {
                 logger.trace("truncating {} neighbors to {}", neighborhood.size(), neighborhoodSize);
             }
-            Long2DoubleAccumulator acc = new TopNLong2DoubleAccumulator(neighborhoodSize);
+            Long2DoubleAccumulator acc = TopNLong2DoubleAccumulator.forThread(neighborhoodSize);
             for (Long2DoubleMap.Entry e: neighborhood.long2DoubleEntrySet()) {
                 acc.put(e.getLongKey(), e.getDoubleValue());
             }
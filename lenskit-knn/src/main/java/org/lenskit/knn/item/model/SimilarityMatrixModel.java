@@ -30,12 +30,18 @@ import it.unimi.dsi.fastutil.longs.Long2DoubleMaps;
 import it.unimi.dsi.fastutil.longs.LongSortedSet;
 import org.grouplens.grapht.annotation.DefaultProvider;
 import org.lenskit.api.ResultList;
+import org.lenskit.engine.ComponentCodec;
 import org.lenskit.inject.Shareable;
 import org.lenskit.results.Results;
 import org.lenskit.util.collections.LongUtils;
+import org.lenskit.util.io.BinaryData;
+import org.lenskit.util.keys.Long2DoubleSortedArrayMap;
 import org.lenskit.util.keys.SortedKeyIndex;
 
 import javax.annotation.Nonnull;
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
 import java.io.Serializable;
 import java.util.List;
 import java.util.Map;
@@ -118,4 +124,47 @@ public class SimilarityMatrixModel implements Serializable, ItemItemModel {
         }
         return val;
     }
+
+    /**
+     * Binary codec for storing similarity matrix models in engine archives.
+     */
+    public static class Codec implements ComponentCodec<SimilarityMatrixModel> {
+        @Override
+        public Class<SimilarityMatrixModel> getComponentType() {
+            return SimilarityMatrixModel.class;
+        }
+
+        @Override
+        public void write(SimilarityMatrixModel model, DataOutput output) throws IOException {
+            BinaryData.writeKeyIndex(output, model.itemDomain);
+            for (Long2DoubleMap nbrs: model.neighborhoods) {
+                Long2DoubleSortedArrayMap packed = Long2DoubleSortedArrayMap.create(nbrs);
+                int n = packed.size();
+                long[] keys = new long[n];
+                double[] sims = new double[n];
+                for (int i = 0; i < n; i++) {
+                    keys[i] = packed.getKeyByIndex(i);
+                    sims[i] = packed.getValueByIndex(i);
+                }
+                output.writeInt(n);
+                BinaryData.writeLongs(output, keys);
+                BinaryData.writeDoubles(output, sims);
+            }
+        }
+
+        @SuppressWarnings("deprecation")
+        @Override
+        public SimilarityMatrixModel read(DataInput input) throws IOException {
+            SortedKeyIndex items = BinaryData.readSortedKeyIndex(input);
+            int size = items.size();
+            ImmutableList.Builder<Long2DoubleMap> nbrs = ImmutableList.builder();
+            for (int i = 0; i < size; i++) {
+                int n = input.readInt();
+                long[] keys = BinaryData.readLongs(input, n);
+                double[] sims = BinaryData.readDoubles(input, n);
+                nbrs.add(Long2DoubleSortedArrayMap.wrap(SortedKeyIndex.wrap(keys, n), sims));
+            }
+            return new SimilarityMatrixModel(items, nbrs.build());
+        }
+    }
 }
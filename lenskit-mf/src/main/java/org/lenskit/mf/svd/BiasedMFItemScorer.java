@@ -27,19 +27,26 @@ package org.lenskit.mf.svd;
 import it.unimi.dsi.fastutil.longs.Long2DoubleMap;
 import it.unimi.dsi.fastutil.longs.LongIterator;
 import it.unimi.dsi.fastutil.longs.LongIterators;
+import it.unimi.dsi.fastutil.longs.LongList;
+import it.unimi.dsi.fastutil.longs.LongSet;
+import org.apache.commons.math3.linear.RealMatrix;
 import org.apache.commons.math3.linear.RealVector;
 import org.lenskit.api.Result;
 import org.lenskit.api.ResultMap;
 import org.lenskit.basic.AbstractItemScorer;
+import org.lenskit.basic.CatalogItemScorer;
 import org.lenskit.bias.BiasModel;
 import org.lenskit.results.Results;
+import org.lenskit.util.collections.Long2DoubleAccumulator;
 import org.lenskit.util.collections.LongUtils;
+import org.lenskit.util.keys.KeyIndex;
 import org.lenskit.util.math.Vectors;
 
 import javax.annotation.Nonnull;
 import javax.annotation.Nullable;
 import javax.inject.Inject;
 import java.util.ArrayList;
+import java.util.BitSet;
 import java.util.Collection;
 import java.util.List;
 
@@ -49,7 +56,12 @@ import java.util.List;
  * @since 2.1
  * @author <a href="http://www.grouplens.org">GroupLens Research</a>
  */
-public class BiasedMFItemScorer extends AbstractItemScorer {
+public class BiasedMFItemScorer extends AbstractItemScorer implements CatalogItemScorer {
+    /**
+     * The number of items in each tile of the blocked batch computation.
+     */
+    static final int ITEM_TILE_SIZE = 256;
+
     private final MFModel model;
     private final BiasedMFKernel kernel;
     private final BiasModel biasModel;
@@ -109,4 +121,90 @@ public class BiasedMFItemScorer extends AbstractItemScorer {
 
         return Results.newResultMap(results);
     }
+
+    @Override
+    public void scoreCatalog(long user, @Nonnull LongSet exclude, @Nonnull Long2DoubleAccumulator output) {
+        RealVector uvec = getUserPreferenceVector(user);
+        if (uvec == null) {
+            return;
+        }
+        double base = biasModel.getIntercept() + biasModel.getUserBias(user);
+
+        KeyIndex items = model.getItemIndex();
+        RealMatrix imat = model.getItemMatrix();
+        BitSet excluded = items.getIndexMask(exclude);
+        int ub = items.getUpperBound();
+        for (int i = excluded.nextClearBit(items.getLowerBound()); i < ub; i = excluded.nextClearBit(i + 1)) {
+            long item = items.getKey(i);
+            RealVector ivec = Vectors.matrixRow(imat, i);
+            output.put(item, kernel.apply(base + biasModel.getItemBias(item), uvec, ivec));
+        }
+    }
+
+    /**
+     * {@inheritDoc}
+     * With the default dot-product kernel, this computes the scores as a blocked product of the users' vectors
+     * with the item matrix: the item matrix is walked in tiles of {@link #ITEM_TILE_SIZE} rows, and each tile,
+     * with its item biases, is scored against every user in the block while it is in cache.
+     */
+    @Override
+    public void scoreCatalogs(@Nonnull LongList users,
+                              @Nonnull List<? extends LongSet> excludes,
+                              @Nonnull List<? extends Long2DoubleAccumulator> outputs) {
+        if (!kernel.getClass().equals(DotProductKernel.class) || model.getFeatureCount() == 0) {
+            CatalogItemScorer.super.scoreCatalogs(users, excludes, outputs);
+            return;
+        }
+
+        int nusers = users.size();
+        double[][] uvecs = new double[nusers][];
+        double[] ubases = new double[nusers];
+        BitSet[] masks = new BitSet[nusers];
+        KeyIndex items = model.getItemIndex();
+        for (int u = 0; u < nusers; u++) {
+            long user = users.getLong(u);
+            RealVector uvec = getUserPreferenceVector(user);
+            if (uvec != null) {
+                uvecs[u] = uvec.toArray();
+                ubases[u] = biasModel.getIntercept() + biasModel.getUserBias(user);
+                masks[u] = items.getIndexMask(excludes.get(u));
+            }
+        }
+
+        RealMatrix imat = model.getItemMatrix();
+        int nfeatures = model.getFeatureCount();
+        int lb = items.getLowerBound();
+        int ub = items.getUpperBound();
+        long[] tileItems = new long[ITEM_TILE_SIZE];
+        double[] tileBiases = new double[ITEM_TILE_SIZE];
+        for (int start = lb; start < ub; start += ITEM_TILE_SIZE) {
+            int end = Math.min(ub, start + ITEM_TILE_SIZE);
+            int tsize = end - start;
+            double[][] tile = imat.getSubMatrix(start, end - 1, 0, nfeatures - 1).getData();
+            for (int j = 0; j < tsize; j++) {
+                tileItems[j] = items.getKey(start + j);
+                tileBiases[j] = biasModel.getItemBias(tileItems[j]);
+            }
+
+            for (int u = 0; u < nusers; u++) {
+                double[] uvec = uvecs[u];
+                if (uvec == null) {
+                    continue;
+                }
+                BitSet mask = masks[u];
+                Long2DoubleAccumulator output = outputs.get(u);
+                for (int j = 0; j < tsize; j++) {
+                    if (mask.get(start + j)) {
+                        continue;
+                    }
+                    double[] ivec = tile[j];
+                    double dot = 0;
+                    for (int f = 0; f < nfeatures; f++) {
+                        dot += uvec[f] * ivec[f];
+                    }
+                    output.put(tileItems[j], tileBiases[j] + ubases[u] + dot);
+                }
+            }
+        }
+    }
 }
@@ -25,10 +25,15 @@
 package org.lenskit.mf.svd;
 
 import com.google.common.base.Preconditions;
+import org.apache.commons.math3.linear.Array2DRowRealMatrix;
 import org.apache.commons.math3.linear.MatrixUtils;
 import org.apache.commons.math3.linear.RealMatrix;
 import org.apache.commons.math3.linear.RealVector;
+import org.lenskit.engine.ComponentCodec;
+import org.lenskit.util.io.BinaryData;
+import org.lenskit.util.keys.FrozenHashKeyIndex;
 import org.lenskit.util.keys.KeyIndex;
+import org.lenskit.util.keys.SortedKeyIndex;
 import org.lenskit.util.math.Vectors;
 
 import javax.annotation.Nullable;
@@ -81,6 +86,19 @@ public class MFModel implements Serializable {
         itemIndex = iidx;
     }
 
+    /**
+     * Share immutable key indexes with other models loaded over the same domain.
+     */
+    private static KeyIndex internIndex(KeyIndex idx) {
+        if (idx instanceof SortedKeyIndex) {
+            return SortedKeyIndex.intern((SortedKeyIndex) idx);
+        } else if (idx instanceof FrozenHashKeyIndex) {
+            return FrozenHashKeyIndex.intern((FrozenHashKeyIndex) idx);
+        } else {
+            return idx;
+        }
+    }
+
     private void writeObject(ObjectOutputStream out) throws IOException {
         out.writeInt(featureCount);
         out.writeInt(userCount);
@@ -123,8 +141,8 @@ public class MFModel implements Serializable {
         }
         itemMatrix = imat;
 
-        userIndex = (KeyIndex) input.readObject();
-        itemIndex = (KeyIndex) input.readObject();
+        userIndex = internIndex((KeyIndex) input.readObject());
+        itemIndex = internIndex((KeyIndex) input.readObject());
 
         if (userIndex.size() != userMatrix.getRowDimension()) {
             throw new InvalidObjectException("user matrix and index have different row counts");
@@ -250,4 +268,49 @@ public class MFModel implements Serializable {
           .append(")");
         return sb.toString();
     }
+
+    /**
+     * Binary codec for storing matrix factorization models in engine archives.  It only handles
+     * {@link MFModel} itself; subclasses are stored with Java serialization.
+     */
+    public static class Codec implements ComponentCodec<MFModel> {
+        @Override
+        public Class<MFModel> getComponentType() {
+            return MFModel.class;
+        }
+
+        @Override
+        public void write(MFModel model, DataOutput output) throws IOException {
+            output.writeInt(model.featureCount);
+            BinaryData.writeKeyIndex(output, model.userIndex);
+            BinaryData.writeKeyIndex(output, model.itemIndex);
+            writeMatrix(model.userMatrix, output);
+            writeMatrix(model.itemMatrix, output);
+        }
+
+        @Override
+        public MFModel read(DataInput input) throws IOException {
+            int features = input.readInt();
+            KeyIndex users = BinaryData.readKeyIndex(input);
+            KeyIndex items = BinaryData.readKeyIndex(input);
+            RealMatrix umat = readMatrix(input, users.size(), features);
+            RealMatrix imat = readMatrix(input, items.size(), features);
+            return new MFModel(umat, imat, users, items);
+        }
+
+        private static void writeMatrix(RealMatrix mat, DataOutput output) throws IOException {
+            int rows = mat.getRowDimension();
+            for (int i = 0; i < rows; i++) {
+                BinaryData.writeDoubles(output, mat.getRow(i));
+            }
+        }
+
+        private static RealMatrix readMatrix(DataInput input, int rows, int cols) throws IOException {
+            double[][] data = new double[rows][];
+            for (int i = 0; i < rows; i++) {
+                data[i] = BinaryData.readDoubles(input, cols);
+            }
+            return new Array2DRowRealMatrix(data, false);
+        }
+    }
 }
@@ -29,6 +29,7 @@ import org.apache.commons.lang3.tuple.Pair;
 import org.lenskit.util.keys.KeyedObjectMap;
 import org.lenskit.util.keys.KeyedObjectMapBuilder;
 import org.lenskit.util.keys.SortedKeyIndex;
+import org.lenskit.util.math.CommonValueCursor;
 
 import java.util.Map;
 
@@ -71,15 +72,12 @@ public class SlopeOneModelDataAccumulator {
 
         // to profit from matrix symmetry, always store by the lesser id
         if (id1 < id2) {
+            CommonValueCursor common = CommonValueCursor.create(itemVec1, itemVec2);
             int coratings = 0;
             double deviation = 0.0;
-            LongIterator iter = itemVec1.keySet().iterator();
-            while (iter.hasNext()) {
-                long u = iter.nextLong();
-                if (itemVec2.containsKey(u)) {
-                    coratings++;
-                    deviation += itemVec1.get(u) - itemVec2.get(u);
-                }
+            while (common.next()) {
+                deviation += common.getLeftValue() - common.getRightValue();
+                coratings += 1;
             }
             deviation = (coratings == 0) ? Double.NaN : deviation;
 